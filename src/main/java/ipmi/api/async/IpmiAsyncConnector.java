@@ -11,25 +11,52 @@
  */
 package ipmi.api.async;
 
+import ipmi.api.async.bootstrap.BootstrapListener;
+import ipmi.api.async.bootstrap.BootstrapOptions;
+import ipmi.api.async.bootstrap.BootstrapResult;
+import ipmi.api.async.bootstrap.BootstrapResult.Status;
+import ipmi.api.async.bootstrap.BootstrapResult.Step;
+import ipmi.api.async.bootstrap.BootstrapTarget;
 import ipmi.api.async.messages.IpmiError;
 import ipmi.api.async.messages.IpmiResponse;
 import ipmi.api.async.messages.IpmiResponseData;
+import ipmi.api.retry.BackoffRetryPolicy;
+import ipmi.api.retry.RetryPolicy;
 import ipmi.coding.commands.IpmiCommandCoder;
 import ipmi.coding.commands.PrivilegeLevel;
 import ipmi.coding.commands.ResponseData;
 import ipmi.coding.commands.session.GetChannelAuthenticationCapabilitiesResponseData;
 import ipmi.coding.security.CipherSuite;
+import ipmi.common.HashedWheelTimer;
+import ipmi.common.HashedWheelTimer.ScheduledTask;
 import ipmi.common.PropertiesManager;
 import ipmi.connection.Connection;
 import ipmi.connection.ConnectionException;
 import ipmi.connection.ConnectionListener;
 import ipmi.connection.ConnectionManager;
+import ipmi.connection.ResponseCallback;
+import ipmi.connection.ResponseFuture;
+import ipmi.connection.circuit.CircuitBreaker;
+import ipmi.connection.circuit.CircuitListener;
+import ipmi.connection.circuit.CircuitOpenException;
+import ipmi.connection.circuit.CircuitState;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -56,7 +83,14 @@ import org.apache.log4j.Logger;
  * <p>
  * To send message register for receiving answers via
  * {@link #registerListener(IpmiListener)} and send message via
- * {@link #sendMessage(ConnectionHandle, IpmiCommandCoder)}
+ * {@link #sendMessage(ConnectionHandle, IpmiCommandCoder)} or send message
+ * via {@link #submit(ConnectionHandle, IpmiCommandCoder)} and get the answer
+ * from the returned {@link ResponseFuture}
+ * </p>
+ * <br>
+ * <p>
+ * To establish sessions with many hosts at once use
+ * {@link #bootstrapSessions(List, BootstrapOptions, BootstrapListener)}
  * </p>
  * <br>
  * <p>
@@ -66,9 +100,17 @@ import org.apache.log4j.Logger;
  */
 public class IpmiAsyncConnector implements ConnectionListener {
 	private ConnectionManager connectionManager;
-	private int retries;
+	private volatile RetryPolicy retryPolicy;
+	private volatile boolean coalescing;
+	private final RequestCoalescer coalescer = new RequestCoalescer();
 	private List<IpmiListener> listeners;
 
+	/**
+	 * Initial delay of the retries in ms used when "idleTime" property is not
+	 * set.
+	 */
+	private static final int DEFAULT_RETRY_DELAY = 100;
+
 	private static Logger logger = Logger.getLogger(IpmiAsyncConnector.class);
 
 	/**
@@ -109,9 +151,60 @@ public class IpmiAsyncConnector implements ConnectionListener {
 	}
 
     private void loadProperties() throws IOException {
-        retries = Integer.parseInt(PropertiesManager.getInstance().getProperty("retries"));
+        PropertiesManager manager = PropertiesManager.getInstance();
+        int retries = Integer.parseInt(manager.getProperty("retries"));
+        String idleTime = manager.getProperty("idleTime");
+        retryPolicy = new BackoffRetryPolicy(retries, idleTime == null ? DEFAULT_RETRY_DELAY
+                : Integer.parseInt(idleTime));
     }
 
+	/**
+	 * Sets the {@link RetryPolicy} used for all requests of this connector,
+	 * including the steps of establishing the session. By default it is
+	 * {@link BackoffRetryPolicy} with the number of retries and the initial
+	 * delay taken from the properties ("retries" and "idleTime").
+	 * 
+	 * @param retryPolicy
+	 *            - {@link RetryPolicy} to use
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		if (retryPolicy == null) {
+			throw new IllegalArgumentException("Retry policy cannot be null");
+		}
+		this.retryPolicy = retryPolicy;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Turns coalescing of the requests submitted via
+	 * {@link #submit(ConnectionHandle, IpmiCommandCoder)} on or off. When it
+	 * is on, idempotent requests ({@link IpmiCommandCoder#isIdempotent()})
+	 * identical to the one already waiting for the response on the same
+	 * connection are not sent - all callers get the same response. Off by
+	 * default.
+	 *
+	 * @param coalescing
+	 *            - true to turn coalescing on
+	 */
+	public void setCoalescing(boolean coalescing) {
+		this.coalescing = coalescing;
+	}
+
+	public boolean isCoalescing() {
+		return coalescing;
+	}
+
+	/**
+	 * @return Number of the requests that were not sent because the identical
+	 *         one was in flight.
+	 */
+	public long getCoalescedCount() {
+		return coalescer.getCoalescedCount();
+	}
+
 	/**
 	 * Creates connection to the remote host.
 	 * 
@@ -145,17 +238,16 @@ public class IpmiAsyncConnector implements ConnectionListener {
 	public List<CipherSuite> getAvailableCipherSuites(
 			ConnectionHandle connectionHandle) throws Exception {
 		int tries = 0;
+		long start = System.nanoTime();
 		List<CipherSuite> result = null;
-		while (tries <= retries && result == null) {
+		while (result == null) {
 			try {
 				++tries;
 				result = connectionManager
 						.getAvailableCipherSuites(connectionHandle.getHandle());
 			} catch (Exception e) {
 				logger.warn("Failed to receive answer, cause:", e);
-				if (tries > retries) {
-					throw e;
-				}
+				checkRetry(e, tries, start);
 			}
 		}
 		return result;
@@ -182,8 +274,9 @@ public class IpmiAsyncConnector implements ConnectionListener {
 			ConnectionHandle connectionHandle, CipherSuite cipherSuite,
 			PrivilegeLevel requestedPrivilegeLevel) throws Exception {
 		int tries = 0;
+		long start = System.nanoTime();
 		GetChannelAuthenticationCapabilitiesResponseData result = null;
-		while (tries <= retries && result == null) {
+		while (result == null) {
 			try {
 				++tries;
 				result = connectionManager
@@ -194,9 +287,7 @@ public class IpmiAsyncConnector implements ConnectionListener {
 				connectionHandle.setPrivilegeLevel(requestedPrivilegeLevel);
 			} catch (Exception e) {
 				logger.warn("Failed to receive answer, cause:", e);
-				if (tries > retries) {
-					throw e;
-				}
+				checkRetry(e, tries, start);
 			}
 		}
 		return result;
@@ -224,8 +315,9 @@ public class IpmiAsyncConnector implements ConnectionListener {
 	public void openSession(ConnectionHandle connectionHandle, String username,
 			String password, byte[] bmcKey) throws Exception {
 		int tries = 0;
+		long start = System.nanoTime();
 		boolean succeded = false;
-		while (tries <= retries && !succeded) {
+		while (!succeded) {
 			try {
 				++tries;
 				connectionManager.startSession(connectionHandle.getHandle(),
@@ -235,9 +327,7 @@ public class IpmiAsyncConnector implements ConnectionListener {
 				succeded = true;
 			} catch (Exception e) {
 				logger.warn("Failed to receive answer, cause:", e);
-				if (tries > retries) {
-					throw e;
-				}
+				checkRetry(e, tries, start);
 			}
 		}
 		return;
@@ -262,8 +352,9 @@ public class IpmiAsyncConnector implements ConnectionListener {
 			return;
 		}
 		int tries = 0;
+		long start = System.nanoTime();
 		boolean succeded = false;
-		while (tries <= retries && !succeded) {
+		while (!succeded) {
 			try {
 				++tries;
 				connectionManager.getConnection(connectionHandle.getHandle())
@@ -271,12 +362,401 @@ public class IpmiAsyncConnector implements ConnectionListener {
 				succeded = true;
 			} catch (Exception e) {
 				logger.warn("Failed to receive answer, cause:", e);
-				if (tries > retries) {
+				checkRetry(e, tries, start);
+			}
+		}
+		return;
+	}
+
+	/**
+	 * Establishes sessions with many remote hosts. For every host a
+	 * {@link Connection} is created and the whole handshake (see
+	 * {@link #getAvailableCipherSuites(ConnectionHandle)},
+	 * {@link #getChannelAuthenticationCapabilities(ConnectionHandle, CipherSuite, PrivilegeLevel)}
+	 * and {@link #openSession(ConnectionHandle, String, String, byte[])}) is
+	 * performed. Handshakes with up to
+	 * {@link BootstrapOptions#getMaxInFlight()} hosts are in progress at the
+	 * same time, each one is abandoned after
+	 * {@link BootstrapOptions#getHostTimeout()} and new ones are started no
+	 * faster than {@link BootstrapOptions#getRampUpRate()}. Handshakes are run
+	 * on the {@link BootstrapOptions#getExecutor()} or on a pool of
+	 * {@link BootstrapOptions#getMaxInFlight()} threads created for the call.
+	 * Connections of the hosts the session could not be established with are
+	 * closed.
+	 * 
+	 * @param targets
+	 *            - {@link BootstrapTarget}s to establish sessions with
+	 * @param options
+	 *            - {@link BootstrapOptions} limiting the process
+	 * @param listener
+	 *            - {@link BootstrapListener} notified when handshake with each
+	 *            of the hosts finishes, may be null
+	 * @return {@link BootstrapResult}s in the order of the targets
+	 * @throws InterruptedException
+	 *             when the invoking thread was interrupted - handshakes in
+	 *             progress are finished, but no new ones are started
+	 */
+	public List<BootstrapResult> bootstrapSessions(
+			final List<BootstrapTarget> targets,
+			final BootstrapOptions options, final BootstrapListener listener)
+			throws InterruptedException {
+		final int total = targets.size();
+		final BootstrapResult[] results = new BootstrapResult[total];
+		if (total == 0) {
+			return Arrays.asList(results);
+		}
+		final AtomicInteger completed = new AtomicInteger();
+		final long interval = options.getRampUpRate() > 0 ? 1000000000L
+				/ options.getRampUpRate() : 0;
+		final int maxInFlight = options.getMaxInFlight();
+		final Semaphore inFlight = new Semaphore(maxInFlight);
+
+		Executor executor = options.getExecutor();
+		ExecutorService ownExecutor = null;
+		if (executor == null) {
+			int threads = Math.min(maxInFlight, total);
+			ownExecutor = new ThreadPoolExecutor(threads, threads, 0,
+					TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+					new BootstrapThreadFactory());
+			executor = ownExecutor;
+		}
+
+		long startTime = System.nanoTime();
+		try {
+			for (int i = 0; i < total; ++i) {
+				// hosts are started at the ramp-up pace
+				long wait;
+				while ((wait = startTime + i * interval - System.nanoTime()) > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				inFlight.acquire();
+				final int index = i;
+				try {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								results[index] = bootstrapHost(
+										targets.get(index),
+										options.getHostTimeout());
+								int count = completed.incrementAndGet();
+								if (listener != null) {
+									try {
+										listener.notify(results[index], count,
+												total);
+									} catch (Exception e) {
+										logger.error(e.getMessage(), e);
+									}
+								}
+							} finally {
+								inFlight.release();
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					inFlight.release();
 					throw e;
 				}
 			}
+		} finally {
+			// handshakes in progress are finished also when interrupted
+			inFlight.acquireUninterruptibly(maxInFlight);
+			if (ownExecutor != null) {
+				ownExecutor.shutdown();
+			}
 		}
-		return;
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Creates daemon threads for the bootstrap executor.
+	 */
+	private static class BootstrapThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "IpmiBootstrap-"
+					+ count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	private BootstrapResult bootstrapHost(BootstrapTarget target,
+			int hostTimeout) {
+		long start = System.nanoTime();
+		long deadline = start + hostTimeout * 1000000L;
+		ConnectionHandle handle = null;
+		Step step = Step.CreateConnection;
+		try {
+			handle = createConnection(target.getAddress());
+			Connection connection = connectionManager.getConnection(handle
+					.getHandle());
+			int defaultTimeout = connection.getTimeout();
+
+			step = Step.GetCipherSuites;
+			List<CipherSuite> suites = null;
+			int tries = 0;
+			while (suites == null) {
+				++tries;
+				try {
+					limitTimeout(connection, defaultTimeout, deadline);
+					suites = connectionManager.getAvailableCipherSuites(handle
+							.getHandle());
+				} catch (Exception e) {
+					checkRetry(e, tries, start, deadline);
+				}
+			}
+			CipherSuite cipherSuite = null;
+			for (CipherSuite suite : suites) {
+				if (suite.getId() == target.getCipherSuiteId()) {
+					cipherSuite = suite;
+				}
+			}
+			if (cipherSuite == null) {
+				throw new ConnectionException("Cipher suite "
+						+ target.getCipherSuiteId()
+						+ " not available at the remote host");
+			}
+
+			step = Step.GetAuthenticationCapabilities;
+			boolean succeeded = false;
+			tries = 0;
+			while (!succeeded) {
+				++tries;
+				try {
+					limitTimeout(connection, defaultTimeout, deadline);
+					connectionManager.getChannelAuthenticationCapabilities(
+							handle.getHandle(), cipherSuite,
+							target.getPrivilegeLevel());
+					succeeded = true;
+				} catch (Exception e) {
+					checkRetry(e, tries, start, deadline);
+				}
+			}
+			handle.setCipherSuite(cipherSuite);
+			handle.setPrivilegeLevel(target.getPrivilegeLevel());
+
+			step = Step.OpenSession;
+			succeeded = false;
+			tries = 0;
+			while (!succeeded) {
+				++tries;
+				try {
+					limitTimeout(connection, defaultTimeout, deadline);
+					connectionManager.startSession(handle.getHandle(),
+							cipherSuite, target.getPrivilegeLevel(),
+							target.getUsername(), target.getPassword(),
+							target.getBmcKey());
+					succeeded = true;
+				} catch (Exception e) {
+					checkRetry(e, tries, start, deadline);
+				}
+			}
+			step = Step.Done;
+			// the failed connections are closed, so only this one keeps it
+			connection.setTimeout(defaultTimeout);
+			return new BootstrapResult(target, handle, Status.Succeeded, step,
+					null, elapsed(start));
+		} catch (Exception e) {
+			logger.warn("Failed to establish session with "
+					+ target.getAddress() + " at " + step + ", cause:", e);
+			Status status = System.nanoTime() - deadline >= 0 ? Status.TimedOut
+					: Status.Failed;
+			if (handle != null) {
+				try {
+					closeConnection(handle);
+				} catch (Exception closeException) {
+					logger.warn("Failed to close connection with "
+							+ target.getAddress(), closeException);
+				}
+			}
+			return new BootstrapResult(target, handle, status, step, e,
+					elapsed(start));
+		}
+	}
+
+	/**
+	 * Shortens the timeout of the connection so the next step does not
+	 * exceed the host deadline.
+	 */
+	private void limitTimeout(Connection connection, int defaultTimeout,
+			long deadline) {
+		long remaining = (deadline - System.nanoTime()) / 1000000L;
+		connection.setTimeout((int) Math.max(1,
+				Math.min(defaultTimeout, remaining)));
+	}
+
+	/**
+	 * Request sent again according to the {@link RetryPolicy} until it
+	 * succeeds or the policy gives up. Completes the {@link ResponseFuture}
+	 * returned to the caller with the result of the last attempt.
+	 */
+	private class RetryingRequest implements ResponseCallback, Runnable {
+
+		private final ConnectionHandle connectionHandle;
+
+		private final IpmiCommandCoder request;
+
+		private final RetryPolicy policy;
+
+		private final ResponseFuture result;
+
+		private final long start;
+
+		private volatile int attempts;
+
+		private volatile ResponseFuture current;
+
+		private RetryingRequest(ConnectionHandle connectionHandle,
+				IpmiCommandCoder request, RetryPolicy policy,
+				ResponseFuture result) {
+			this.connectionHandle = connectionHandle;
+			this.request = request;
+			this.policy = policy;
+			this.result = result;
+			start = System.nanoTime();
+			result.addCallback(new ResponseCallback() {
+				@Override
+				public void onSuccess(ResponseData responseData) {
+				}
+
+				@Override
+				public void onFailure(Exception exception) {
+					ResponseFuture attempt = current;
+					if (RetryingRequest.this.result.isCancelled()
+							&& attempt != null) {
+						attempt.cancel(false);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Waits for the result of the attempt that was sent.
+		 */
+		private void watch(ResponseFuture attempt) {
+			++attempts;
+			current = attempt;
+			result.setTag(attempt.getTag());
+			attempt.addCallback(this);
+		}
+
+		@Override
+		public void onSuccess(ResponseData responseData) {
+			result.setTag(current.getTag());
+			result.complete(responseData);
+		}
+
+		@Override
+		public void onFailure(Exception exception) {
+			if (result.isDone()) {
+				return;
+			}
+			long delay = policy.getRetryDelay(attempts, exception,
+					elapsed(start));
+			if (delay < 0) {
+				result.fail(exception);
+				return;
+			}
+			logger.debug("Request failed, retrying in " + delay + " ms",
+					exception);
+			HashedWheelTimer.getShared().schedule(this, Math.max(1, delay));
+		}
+
+		/**
+		 * {@link HashedWheelTimer} runner - sends the next attempt. If the
+		 * queue of pending requests is full, the attempt fails instead of
+		 * waiting for the free slot.
+		 */
+		@Override
+		public void run() {
+			if (result.isDone()) {
+				return;
+			}
+			try {
+				ResponseFuture attempt = connectionManager.getConnection(
+						connectionHandle.getHandle()).enqueueIpmiCommand(
+						request);
+				if (attempt == null) {
+					throw new ConnectionException(
+							"Queue of pending requests is full");
+				}
+				watch(attempt);
+			} catch (Exception e) {
+				++attempts;
+				onFailure(e);
+			}
+		}
+	}
+
+	/**
+	 * Rethrows the failure of the blocking step unless the
+	 * {@link #retryPolicy} allows another attempt, otherwise waits for the
+	 * delay given by the policy before the next attempt.
+	 */
+	private void checkRetry(Exception e, int tries, long start)
+			throws Exception {
+		long delay = retryPolicy.getRetryDelay(tries, e, elapsed(start));
+		if (delay < 0) {
+			throw e;
+		}
+		awaitRetry(delay);
+	}
+
+	/**
+	 * Like {@link #checkRetry(Exception, int, long)}, but does not wait past
+	 * the deadline of the host - the failure is rethrown when it passes.
+	 */
+	private void checkRetry(Exception e, int tries, long start, long deadline)
+			throws Exception {
+		long remaining = deadline - System.nanoTime();
+		if (remaining <= 0) {
+			throw e;
+		}
+		long delay = retryPolicy.getRetryDelay(tries, e, elapsed(start));
+		if (delay < 0) {
+			throw e;
+		}
+		logger.debug("Handshake step failed, retrying in " + delay + " ms", e);
+		awaitRetry(Math.min(delay, TimeUnit.NANOSECONDS.toMillis(remaining
+				+ 999999)));
+		if (System.nanoTime() - deadline >= 0) {
+			throw e;
+		}
+	}
+
+	/**
+	 * Blocks the invoking thread until the retry scheduled on the shared
+	 * {@link HashedWheelTimer} is due. The blocking steps return their result
+	 * to the caller, so the caller has to wait, but like the retries of
+	 * {@link RetryingRequest}s the delays are kept by the timer.
+	 * 
+	 * @param delay
+	 *            - delay of the retry in ms
+	 * @throws InterruptedException
+	 *             when the invoking thread was interrupted
+	 */
+	private static void awaitRetry(long delay) throws InterruptedException {
+		final CountDownLatch due = new CountDownLatch(1);
+		ScheduledTask retry = HashedWheelTimer.getShared().schedule(
+				new Runnable() {
+					@Override
+					public void run() {
+						due.countDown();
+					}
+				}, Math.max(1, delay));
+		try {
+			due.await();
+		} finally {
+			retry.cancel();
+		}
+	}
+
+	private static long elapsed(long start) {
+		return (System.nanoTime() - start) / 1000000L;
 	}
 
 	/**
@@ -300,33 +780,185 @@ public class IpmiAsyncConnector implements ConnectionListener {
 	public int sendMessage(ConnectionHandle connectionHandle,
 			IpmiCommandCoder request) throws Exception {
 		int tries = 0;
+		long start = System.nanoTime();
 		int tag = -1;
-		while (tries <= retries && tag < 0) {
+		while (tag < 0) {
 			try {
 				++tries;
+				Connection connection = connectionManager
+						.getConnection(connectionHandle.getHandle());
 				while (tag < 0) {
-					tag = connectionManager.getConnection(
-							connectionHandle.getHandle()).sendIpmiCommand(
-							request);
+					long version = connection.getCapacityVersion();
+					tag = connection.sendIpmiCommand(request);
 					if (tag < 0) {
-						Thread.sleep(10); // tag < 0 means that MessageQueue is
-											// full so we need to wait and retry
+						// MessageQueue is full so we need to wait until a
+						// response arrives or a message times out
+						connection.waitForCapacity(version,
+								connection.getTimeout());
 					}
 				}
 				logger.debug("Sending message with tag " + tag + ", try "
 						+ tries);
-			} catch (IllegalArgumentException e) {
+			} catch (InterruptedException e) {
 				throw e;
 			} catch (Exception e) {
 				logger.warn("Failed to send message, cause:", e);
-				if (tries > retries) {
-					throw e;
-				}
+				checkRetry(e, tries, start);
 			}
 		}
 		return tag;
 	}
 
+	/**
+	 * Sends the IPMI message to the remote host. The response is delivered
+	 * only via the returned {@link ResponseFuture} - registered
+	 * {@link IpmiListener}s are not notified. If the message cannot be sent at
+	 * once, it waits in the queue of the pending requests of the connection
+	 * and is sent as soon as the responses for the previous messages arrive.
+	 * The invoking thread is blocked only if the queue of the pending
+	 * requests is full. Failed requests are retried according to the
+	 * {@link RetryPolicy} of the connector.
+	 * 
+	 * @param connectionHandle
+	 *            - {@link ConnectionHandle} associated with the remote host.
+	 * @param request
+	 *            - {@link IpmiCommandCoder} containing the request to be sent
+	 * @return {@link ResponseFuture} that will be completed with the response
+	 *         or failed if the request times out.
+	 * 
+	 * @throws ConnectionException
+	 *             when connection is in the state that does not allow to
+	 *             perform this operation.
+	 * @throws Exception
+	 *             when sending message to the managed system or initializing
+	 *             one of the cipherSuite's algorithms fails
+	 * @see #setRetryPolicy(RetryPolicy)
+	 */
+	public ResponseFuture submit(ConnectionHandle connectionHandle,
+			IpmiCommandCoder request) throws Exception {
+		return submit(connectionHandle, request, retryPolicy);
+	}
+
+	/**
+	 * Sends the IPMI message to the remote host like
+	 * {@link #submit(ConnectionHandle, IpmiCommandCoder)}, retrying it
+	 * according to the given {@link RetryPolicy}. Retries are scheduled on
+	 * the shared {@link HashedWheelTimer} - no thread waits for them. If the
+	 * first attempt cannot be sent, the exception is thrown at once.
+	 * <p>
+	 * If request coalescing is on and the identical idempotent request is
+	 * already in flight on the connection, the request is not sent - the
+	 * returned future is completed with the result of the one in flight.
+	 *
+	 * @param connectionHandle
+	 *            - {@link ConnectionHandle} associated with the remote host.
+	 * @param request
+	 *            - {@link IpmiCommandCoder} containing the request to be sent
+	 * @param policy
+	 *            - {@link RetryPolicy} deciding if and when the failed
+	 *            request is sent again
+	 * @return {@link ResponseFuture} that will be completed with the response
+	 *         or failed when the request cannot be retried any more. Its tag
+	 *         is the tag of the last attempt.
+	 * 
+	 * @throws ConnectionException
+	 *             when connection is in the state that does not allow to
+	 *             perform this operation.
+	 * @throws Exception
+	 *             when sending message to the managed system or initializing
+	 *             one of the cipherSuite's algorithms fails
+	 */
+	public ResponseFuture submit(ConnectionHandle connectionHandle,
+			IpmiCommandCoder request, RetryPolicy policy) throws Exception {
+		if (!coalescing || !request.isIdempotent()) {
+			ResponseFuture result = new ResponseFuture();
+			send(connectionHandle, request, policy, result);
+			return result;
+		}
+		RequestCoalescer.Key key = new RequestCoalescer.Key(
+				connectionHandle.getHandle(), request);
+		ResponseFuture shared = new ResponseFuture();
+		ResponseFuture existing = coalescer.join(key, shared);
+		if (existing != null) {
+			logger.debug("Identical request in flight, waiting for its response");
+			return RequestCoalescer.follow(existing);
+		}
+		try {
+			send(connectionHandle, request, policy, shared);
+		} catch (Exception e) {
+			coalescer.abandon(key, shared);
+			// callers that joined in the meantime fail too
+			shared.fail(e);
+			throw e;
+		}
+		return RequestCoalescer.follow(shared);
+	}
+
+	/**
+	 * Sends the first attempt of the request, blocking while the queue of
+	 * pending requests is full, and retries it in the background. Completes
+	 * the result with the response.
+	 */
+	private void send(ConnectionHandle connectionHandle,
+			IpmiCommandCoder request, RetryPolicy policy, ResponseFuture result)
+			throws Exception {
+		Connection connection = connectionManager
+				.getConnection(connectionHandle.getHandle());
+		ResponseFuture future = null;
+		while (future == null) {
+			long version = connection.getCapacityVersion();
+			future = connection.enqueueIpmiCommand(request);
+			if (future == null) {
+				// queue of pending requests is full too, so we need to
+				// wait until some of them are sent
+				connection.waitForCapacity(version, connection.getTimeout());
+			}
+		}
+		logger.debug("Sending message with tag " + future.getTag());
+		new RetryingRequest(connectionHandle, request, policy, result)
+				.watch(future);
+	}
+
+	/**
+	 * Sends the IPMI message to the remote host without blocking. If the
+	 * message cannot be sent at once, it waits in the queue of the pending
+	 * requests of the connection and is sent as soon as the responses for the
+	 * previous messages arrive. The response is delivered only via the
+	 * returned {@link ResponseFuture} - registered {@link IpmiListener}s are
+	 * not notified.
+	 * 
+	 * @param connectionHandle
+	 *            - {@link ConnectionHandle} associated with the remote host.
+	 * @param request
+	 *            - {@link IpmiCommandCoder} containing the request to be sent
+	 * @return {@link ResponseFuture} that will be completed with the response
+	 *         or failed if the request times out, null if the queue of the
+	 *         pending requests is full.
+	 * 
+	 * @throws ConnectionException
+	 *             when connection is in the state that does not allow to
+	 *             perform this operation.
+	 * @see #getAvailableCapacity(ConnectionHandle)
+	 */
+	public ResponseFuture trySubmit(ConnectionHandle connectionHandle,
+			IpmiCommandCoder request) throws ConnectionException {
+		return connectionManager.getConnection(connectionHandle.getHandle())
+				.enqueueIpmiCommand(request);
+	}
+
+	/**
+	 * Returns the number of the messages that can be passed to
+	 * {@link #trySubmit(ConnectionHandle, IpmiCommandCoder)} for the remote
+	 * host before it rejects them.
+	 * 
+	 * @param connectionHandle
+	 *            - {@link ConnectionHandle} associated with the remote host.
+	 */
+	public int getAvailableCapacity(ConnectionHandle connectionHandle) {
+		return connectionManager.getConnection(connectionHandle.getHandle())
+				.getAvailableCapacity();
+	}
+
 	/**
 	 * Registers the listener so it will be notified of incoming messages.
 	 * 
@@ -402,4 +1034,94 @@ public class IpmiAsyncConnector implements ConnectionListener {
     public void setTimeout(ConnectionHandle handle, int timeout) {
         connectionManager.getConnection(handle.getHandle()).setTimeout(timeout);
     }
+
+	/**
+	 * Limits the rate of the messages sent to the remote host. Messages above
+	 * the limit wait in the queue of the pending requests of the connection.
+	 * Can be changed at any time, e.g. to tune different BMC models.
+	 * 
+	 * @param handle
+	 *            - {@link ConnectionHandle} associated with the remote host.
+	 * @param rate
+	 *            - number of messages per second, 0 disables the limit
+	 * @param burst
+	 *            - number of messages that can be sent at once after the
+	 *            idle period, at least 1
+	 */
+	public void setRateLimit(ConnectionHandle handle, double rate, int burst) {
+		connectionManager.getConnection(handle.getHandle()).getRateLimiter()
+				.setRate(rate, burst);
+	}
+
+	/**
+	 * Limits the rate of the messages sent to all remote hosts by this
+	 * connector. Applies together with the limits set for the single hosts.
+	 * 
+	 * @param rate
+	 *            - number of messages per second, 0 disables the limit
+	 * @param burst
+	 *            - number of messages that can be sent at once after the
+	 *            idle period, at least 1
+	 */
+	public void setGlobalRateLimit(double rate, int burst) {
+		connectionManager.getRateLimiter().setRate(rate, burst);
+	}
+
+	/**
+	 * Enables the {@link CircuitBreaker} of the connection. After the given
+	 * number of consecutive timeouts, messages to the remote host fail at
+	 * once with {@link CircuitOpenException} until the host answers RMCP
+	 * ping.
+	 * 
+	 * @param handle
+	 *            - {@link ConnectionHandle} associated with the remote host.
+	 * @param failureThreshold
+	 *            - number of the consecutive timeouts that open the circuit, 0
+	 *            disables the breaker
+	 * @param probeInterval
+	 *            - interval between the RMCP pings sent while the circuit is
+	 *            open in ms
+	 */
+	public void setCircuitBreaker(ConnectionHandle handle,
+			int failureThreshold, int probeInterval) {
+		connectionManager.getConnection(handle.getHandle())
+				.getCircuitBreaker().configure(failureThreshold, probeInterval);
+	}
+
+	/**
+	 * @param handle
+	 *            - {@link ConnectionHandle} associated with the remote host.
+	 * @return Current state of the {@link CircuitBreaker} of the connection.
+	 */
+	public CircuitState getCircuitState(ConnectionHandle handle) {
+		return connectionManager.getConnection(handle.getHandle())
+				.getCircuitBreaker().getState();
+	}
+
+	/**
+	 * Registers the listener so it will be notified when the state of the
+	 * {@link CircuitBreaker} of the connection changes.
+	 * 
+	 * @param handle
+	 *            - {@link ConnectionHandle} associated with the remote host.
+	 * @param listener
+	 *            - {@link CircuitListener} to notify
+	 */
+	public void registerCircuitListener(ConnectionHandle handle,
+			CircuitListener listener) {
+		connectionManager.getConnection(handle.getHandle())
+				.getCircuitBreaker().registerListener(listener);
+	}
+
+	/**
+	 * @param handle
+	 *            - {@link ConnectionHandle} associated with the remote host.
+	 * @return true if the rate of the messages sent to the remote host is
+	 *         limited
+	 */
+	public boolean isRateLimited(ConnectionHandle handle) {
+		return connectionManager.getConnection(handle.getHandle())
+				.getRateLimiter().isLimited()
+				|| connectionManager.getRateLimiter().isLimited();
+	}
 }
@@ -0,0 +1,160 @@
+/*
+ * RequestCoalescer.java
+ * Created on 2011-10-05
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.api.async;
+
+import ipmi.coding.commands.IpmiCommandCoder;
+import ipmi.coding.commands.ResponseData;
+import ipmi.connection.ResponseCallback;
+import ipmi.connection.ResponseFuture;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the idempotent requests in flight so the identical request submitted
+ * on the same connection while the first one waits for the response is not
+ * sent again. Callers of the identical requests get their own
+ * {@link ResponseFuture}s completed with the result of the shared one, so
+ * cancelling one of them does not affect the others.
+ */
+class RequestCoalescer {
+
+	private final ConcurrentMap<Key, ResponseFuture> inFlight;
+
+	private final AtomicLong coalesced;
+
+	RequestCoalescer() {
+		inFlight = new ConcurrentHashMap<Key, ResponseFuture>();
+		coalesced = new AtomicLong();
+	}
+
+	/**
+	 * Registers the request about to be sent unless the identical one is
+	 * already in flight.
+	 *
+	 * @param key
+	 *            - identifies the request
+	 * @param shared
+	 *            - {@link ResponseFuture} that will be completed with the
+	 *            result of the request
+	 * @return {@link ResponseFuture} of the identical request in flight or
+	 *         null if the caller must send the request and complete the shared
+	 *         future
+	 */
+	ResponseFuture join(final Key key, final ResponseFuture shared) {
+		while (true) {
+			ResponseFuture existing = inFlight.putIfAbsent(key, shared);
+			if (existing == null) {
+				shared.addCallback(new ResponseCallback() {
+					@Override
+					public void onSuccess(ResponseData responseData) {
+						inFlight.remove(key, shared);
+					}
+
+					@Override
+					public void onFailure(Exception exception) {
+						inFlight.remove(key, shared);
+					}
+				});
+				return null;
+			}
+			if (!existing.isDone()) {
+				coalesced.incrementAndGet();
+				return existing;
+			}
+			inFlight.remove(key, existing);
+		}
+	}
+
+	/**
+	 * Called when the registered request could not be sent.
+	 */
+	void abandon(Key key, ResponseFuture shared) {
+		inFlight.remove(key, shared);
+	}
+
+	/**
+	 * @return Number of the requests that were not sent because the identical
+	 *         one was in flight.
+	 */
+	long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return Number of the idempotent requests waiting for the response.
+	 */
+	int getInFlightCount() {
+		return inFlight.size();
+	}
+
+	/**
+	 * Creates {@link ResponseFuture} for the single caller that is completed
+	 * with the result of the shared one.
+	 */
+	static ResponseFuture follow(final ResponseFuture shared) {
+		final ResponseFuture follower = new ResponseFuture();
+		follower.setTag(shared.getTag());
+		shared.addCallback(new ResponseCallback() {
+			@Override
+			public void onSuccess(ResponseData responseData) {
+				follower.setTag(shared.getTag());
+				follower.complete(responseData);
+			}
+
+			@Override
+			public void onFailure(Exception exception) {
+				follower.setTag(shared.getTag());
+				follower.fail(exception);
+			}
+		});
+		return follower;
+	}
+
+	/**
+	 * Identifies the request by the connection and the encoded request
+	 * payload, which contains the network function, command and its data.
+	 */
+	static class Key {
+
+		private final int handle;
+
+		private final byte[] body;
+
+		private final int hash;
+
+		Key(int handle, IpmiCommandCoder request) throws Exception {
+			this.handle = handle;
+			body = request.getRequestBody();
+			hash = 31 * handle + Arrays.hashCode(body);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return handle == other.handle && Arrays.equals(body, other.body);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * BootstrapListener.java
+ * Created on 2011-09-23
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.api.async.bootstrap;
+
+/**
+ * Interface for the bulk session establishing progress listeners.
+ */
+public interface BootstrapListener {
+	/**
+	 * Notifies listener that the session establishing with the host
+	 * finished. Called from the bootstrap worker threads, possibly
+	 * concurrently.
+	 * 
+	 * @param result
+	 *            - {@link BootstrapResult} for the host
+	 * @param completed
+	 *            - number of hosts finished so far
+	 * @param total
+	 *            - number of all hosts
+	 */
+	void notify(BootstrapResult result, int completed, int total);
+}
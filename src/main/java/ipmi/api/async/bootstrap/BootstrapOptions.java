@@ -0,0 +1,113 @@
+/*
+ * BootstrapOptions.java
+ * Created on 2011-09-23
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.api.async.bootstrap;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Limits of the bulk session establishing.
+ */
+public class BootstrapOptions {
+
+	private int maxInFlight = 64;
+
+	private int hostTimeout = 10000;
+
+	private int rampUpRate = 0;
+
+	private Executor executor;
+
+	/**
+	 * @return Maximal number of hosts the session is being established with
+	 *         at the same time.
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * @param maxInFlight
+	 *            - maximal number of hosts the session is being established
+	 *            with at the same time
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException(
+					"At least one host must be allowed in flight");
+		}
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * @return Time in ms after which establishing session with a single host
+	 *         is abandoned.
+	 */
+	public int getHostTimeout() {
+		return hostTimeout;
+	}
+
+	/**
+	 * @param hostTimeout
+	 *            - time in ms after which establishing session with a single
+	 *            host is abandoned
+	 */
+	public void setHostTimeout(int hostTimeout) {
+		if (hostTimeout <= 0) {
+			throw new IllegalArgumentException("Timeout must be positive");
+		}
+		this.hostTimeout = hostTimeout;
+	}
+
+	/**
+	 * @return Maximal number of hosts per second the session establishing is
+	 *         started with, 0 if not limited.
+	 */
+	public int getRampUpRate() {
+		return rampUpRate;
+	}
+
+	/**
+	 * Limits the pace at which the hosts are contacted, so the first packets
+	 * of all handshakes are not sent at once.
+	 * 
+	 * @param rampUpRate
+	 *            - maximal number of hosts per second the session
+	 *            establishing is started with, 0 if not limited
+	 */
+	public void setRampUpRate(int rampUpRate) {
+		if (rampUpRate < 0) {
+			throw new IllegalArgumentException("Rate cannot be negative");
+		}
+		this.rampUpRate = rampUpRate;
+	}
+
+	/**
+	 * @return {@link Executor} running the handshakes or null if a pool of
+	 *         threads is created for each bootstrap.
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the {@link Executor} running the handshakes, so the threads can
+	 * be shared with other tasks. No more than {@link #getMaxInFlight()}
+	 * handshakes are handed to it at the same time.
+	 * 
+	 * @param executor
+	 *            - {@link Executor} running the handshakes, null to create a
+	 *            pool of threads for each bootstrap
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+}
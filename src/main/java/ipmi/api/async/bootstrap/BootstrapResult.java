@@ -0,0 +1,90 @@
+/*
+ * BootstrapResult.java
+ * Created on 2011-09-23
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.api.async.bootstrap;
+
+import ipmi.api.async.ConnectionHandle;
+
+/**
+ * Result of establishing the session with a single host.
+ */
+public class BootstrapResult {
+
+	/**
+	 * Outcome of establishing the session.
+	 */
+	public enum Status {
+		Succeeded, Failed, TimedOut
+	}
+
+	/**
+	 * Step of establishing the session.
+	 */
+	public enum Step {
+		CreateConnection, GetCipherSuites, GetAuthenticationCapabilities, OpenSession, Done
+	}
+
+	private BootstrapTarget target;
+	private ConnectionHandle handle;
+	private Status status;
+	private Step step;
+	private Exception exception;
+	private long duration;
+
+	public BootstrapResult(BootstrapTarget target, ConnectionHandle handle,
+			Status status, Step step, Exception exception, long duration) {
+		this.target = target;
+		this.handle = handle;
+		this.status = status;
+		this.step = step;
+		this.exception = exception;
+		this.duration = duration;
+	}
+
+	public BootstrapTarget getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return {@link ConnectionHandle} to the connection with the host or
+	 *         null if the connection could not be created. The connection is
+	 *         already closed when the session was not established.
+	 */
+	public ConnectionHandle getHandle() {
+		return handle;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return {@link Step#Done} if the session was established or the step
+	 *         that failed or timed out.
+	 */
+	public Step getStep() {
+		return step;
+	}
+
+	/**
+	 * @return Cause of the failure or null if the session was established.
+	 */
+	public Exception getException() {
+		return exception;
+	}
+
+	/**
+	 * @return Time in ms spent on establishing the session.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+}
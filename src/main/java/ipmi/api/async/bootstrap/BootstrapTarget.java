@@ -0,0 +1,105 @@
+/*
+ * BootstrapTarget.java
+ * Created on 2011-09-23
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.api.async.bootstrap;
+
+import ipmi.coding.commands.PrivilegeLevel;
+import ipmi.coding.security.CipherSuite;
+
+import java.net.InetAddress;
+
+/**
+ * Remote host the session should be established with along with the
+ * credentials and session parameters.
+ */
+public class BootstrapTarget {
+
+	/**
+	 * ID of the {@link CipherSuite} used when none is specified. Cipher Suite
+	 * 3 must be supported by every IPMI 2.0 BMC.
+	 */
+	public static final byte DEFAULT_CIPHER_SUITE = 3;
+
+	private InetAddress address;
+	private String username;
+	private String password;
+	private byte[] bmcKey;
+	private byte cipherSuiteId;
+	private PrivilegeLevel privilegeLevel;
+
+	/**
+	 * Creates target using {@link #DEFAULT_CIPHER_SUITE} and
+	 * {@link PrivilegeLevel#User}.
+	 * 
+	 * @param address
+	 *            - {@link InetAddress} of the remote host
+	 * @param username
+	 *            - the username
+	 * @param password
+	 *            - password matching the username
+	 */
+	public BootstrapTarget(InetAddress address, String username,
+			String password) {
+		this(address, username, password, null, DEFAULT_CIPHER_SUITE,
+				PrivilegeLevel.User);
+	}
+
+	/**
+	 * @param address
+	 *            - {@link InetAddress} of the remote host
+	 * @param username
+	 *            - the username
+	 * @param password
+	 *            - password matching the username
+	 * @param bmcKey
+	 *            - the key that should be provided if the two-key
+	 *            authentication is enabled, null otherwise.
+	 * @param cipherSuiteId
+	 *            - ID of the {@link CipherSuite} to use, must be one of the
+	 *            suites available at the remote host
+	 * @param privilegeLevel
+	 *            - {@link PrivilegeLevel} requested for the session
+	 */
+	public BootstrapTarget(InetAddress address, String username,
+			String password, byte[] bmcKey, byte cipherSuiteId,
+			PrivilegeLevel privilegeLevel) {
+		this.address = address;
+		this.username = username;
+		this.password = password;
+		this.bmcKey = bmcKey;
+		this.cipherSuiteId = cipherSuiteId;
+		this.privilegeLevel = privilegeLevel;
+	}
+
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public byte[] getBmcKey() {
+		return bmcKey;
+	}
+
+	public byte getCipherSuiteId() {
+		return cipherSuiteId;
+	}
+
+	public PrivilegeLevel getPrivilegeLevel() {
+		return privilegeLevel;
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Bulk establishing of the sessions with many remote hosts.
+ */
+package ipmi.api.async.bootstrap;
\ No newline at end of file
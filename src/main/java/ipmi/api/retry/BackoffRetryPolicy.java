@@ -0,0 +1,203 @@
+/*
+ * BackoffRetryPolicy.java
+ * Created on 2011-10-04
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.api.retry;
+
+import ipmi.coding.payload.CompletionCode;
+import ipmi.coding.payload.lan.IPMIException;
+import ipmi.common.Randomizer;
+import ipmi.connection.IllegalConnectionStateException;
+import ipmi.connection.circuit.CircuitOpenException;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link RetryPolicy} with exponential backoff. The delay before the n-th
+ * retry is picked at random from the upper half of initialDelay * 2^(n-1),
+ * capped by the maximal delay, so requests failed at the same time are not
+ * retried in lockstep.
+ * <p>
+ * IPMI errors are retried only if their {@link CompletionCode} is marked as
+ * retryable - by default the ones meaning the managed system is temporarily
+ * unable to handle the request. Timeouts and other connection failures are
+ * retried, except for {@link CircuitOpenException} and
+ * {@link IllegalConnectionStateException}. Requests are not retried
+ * after the maximal number of retries or when the next attempt would start
+ * after the deadline.
+ */
+public class BackoffRetryPolicy implements RetryPolicy {
+
+	private final int maxRetries;
+
+	private final long initialDelay;
+
+	private final long maxDelay;
+
+	private final long deadline;
+
+	private final Set<CompletionCode> retryableCodes;
+
+	private final AtomicLong retries = new AtomicLong();
+
+	private final AtomicLong nonRetryable = new AtomicLong();
+
+	private final AtomicLong exhausted = new AtomicLong();
+
+	private final AtomicLong deadlineExceeded = new AtomicLong();
+
+	/**
+	 * Initiates the policy without the deadline. Maximal delay is 8 times the
+	 * initial delay.
+	 *
+	 * @param maxRetries
+	 *            - maximal number of retries of the single request
+	 * @param initialDelay
+	 *            - upper bound of the delay before the first retry in ms
+	 */
+	public BackoffRetryPolicy(int maxRetries, long initialDelay) {
+		this(maxRetries, initialDelay, initialDelay * 8, 0);
+	}
+
+	/**
+	 * Initiates the policy.
+	 *
+	 * @param maxRetries
+	 *            - maximal number of retries of the single request
+	 * @param initialDelay
+	 *            - upper bound of the delay before the first retry in ms
+	 * @param maxDelay
+	 *            - upper bound of the delay before any retry in ms
+	 * @param deadline
+	 *            - time in ms since the first attempt after which the request
+	 *            is not retried, 0 for no deadline
+	 */
+	public BackoffRetryPolicy(int maxRetries, long initialDelay,
+			long maxDelay, long deadline) {
+		if (maxRetries < 0 || initialDelay < 0 || maxDelay < initialDelay
+				|| deadline < 0) {
+			throw new IllegalArgumentException("Invalid retry policy");
+		}
+		this.maxRetries = maxRetries;
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.deadline = deadline;
+		retryableCodes = EnumSet.of(CompletionCode.InitializationInProgress,
+				CompletionCode.InsufficientResources, CompletionCode.NodeBusy,
+				CompletionCode.Timeout);
+	}
+
+	/**
+	 * Marks IPMI errors with the given {@link CompletionCode} as retryable or
+	 * not.
+	 */
+	public void setRetryable(CompletionCode completionCode, boolean retryable) {
+		synchronized (retryableCodes) {
+			if (retryable) {
+				retryableCodes.add(completionCode);
+			} else {
+				retryableCodes.remove(completionCode);
+			}
+		}
+	}
+
+	/**
+	 * Checks if the failure is worth retrying regardless of the number of
+	 * attempts.
+	 */
+	public boolean isRetryable(Exception failure) {
+		if (failure instanceof IPMIException) {
+			synchronized (retryableCodes) {
+				return retryableCodes.contains(((IPMIException) failure)
+						.getCompletionCode());
+			}
+		}
+		return !(failure instanceof CircuitOpenException
+				|| failure instanceof IllegalConnectionStateException
+				|| failure instanceof IllegalArgumentException
+				|| failure instanceof CancellationException);
+	}
+
+	@Override
+	public long getRetryDelay(int attempt, Exception failure, long elapsed) {
+		if (!isRetryable(failure)) {
+			nonRetryable.incrementAndGet();
+			return -1;
+		}
+		if (attempt > maxRetries) {
+			exhausted.incrementAndGet();
+			return -1;
+		}
+		long delay = initialDelay;
+		for (int i = 1; i < attempt && delay < maxDelay; ++i) {
+			delay *= 2;
+		}
+		delay = Math.min(delay, maxDelay);
+		if (delay > 1) {
+			delay = delay / 2 + Randomizer.getInt((int) (delay / 2) + 1);
+		}
+		if (deadline > 0 && elapsed + delay >= deadline) {
+			deadlineExceeded.incrementAndGet();
+			return -1;
+		}
+		retries.incrementAndGet();
+		return delay;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public long getInitialDelay() {
+		return initialDelay;
+	}
+
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * @return Number of the retries allowed.
+	 */
+	public long getRetryCount() {
+		return retries.get();
+	}
+
+	/**
+	 * @return Number of the requests that failed with the error not worth
+	 *         retrying.
+	 */
+	public long getNonRetryableCount() {
+		return nonRetryable.get();
+	}
+
+	/**
+	 * @return Number of the requests that failed after the maximal number of
+	 *         retries.
+	 */
+	public long getExhaustedCount() {
+		return exhausted.get();
+	}
+
+	/**
+	 * @return Number of the requests that were not retried because of the
+	 *         deadline.
+	 */
+	public long getDeadlineExceededCount() {
+		return deadlineExceeded.get();
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * RetryPolicy.java
+ * Created on 2011-10-04
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.api.retry;
+
+/**
+ * Decides if the failed request should be sent again and when. Used by
+ * both the synchronous and the asynchronous connectors. Implementations must
+ * be thread-safe - one policy serves all requests of the connector.
+ */
+public interface RetryPolicy {
+
+	/**
+	 * Called after every failed attempt.
+	 * 
+	 * @param attempt
+	 *            - number of the attempts made so far, starting from 1
+	 * @param failure
+	 *            - cause of the failure of the last attempt
+	 * @param elapsed
+	 *            - time in ms since the first attempt
+	 * @return Time in ms to wait before the next attempt, -1 if the request
+	 *         should fail with the given cause.
+	 */
+	long getRetryDelay(int attempt, Exception failure, long elapsed);
+}
@@ -0,0 +1,4 @@
+/**
+ * Policies deciding if and when the failed requests are retried.
+ */
+package ipmi.api.retry;
\ No newline at end of file
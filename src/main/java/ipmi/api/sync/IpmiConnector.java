@@ -13,23 +13,23 @@ package ipmi.api.sync;
 
 import ipmi.api.async.ConnectionHandle;
 import ipmi.api.async.IpmiAsyncConnector;
+import ipmi.api.retry.RetryPolicy;
 import ipmi.coding.commands.IpmiCommandCoder;
 import ipmi.coding.commands.PrivilegeLevel;
 import ipmi.coding.commands.ResponseData;
 import ipmi.coding.commands.session.GetChannelAuthenticationCapabilitiesResponseData;
-import ipmi.coding.payload.CompletionCode;
-import ipmi.coding.payload.lan.IPMIException;
 import ipmi.coding.security.CipherSuite;
-import ipmi.common.PropertiesManager;
 import ipmi.connection.Connection;
 import ipmi.connection.ConnectionException;
 import ipmi.connection.ConnectionManager;
+import ipmi.connection.ResponseFuture;
+import ipmi.connection.circuit.CircuitOpenException;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.log4j.Logger;
 
@@ -52,12 +52,6 @@ public class IpmiConnector {
 
     private IpmiAsyncConnector asyncConnector;
 
-    private int retries;
-
-    private int idleTime;
-
-    private Random random = new Random(System.currentTimeMillis());
-
     /**
      * Starts {@link IpmiConnector} and initiates the {@link ConnectionManager} at the given port. Wildcard IP address
      * will be used.
@@ -70,7 +64,6 @@ public class IpmiConnector {
      */
     public IpmiConnector(int port) throws FileNotFoundException, IOException {
         asyncConnector = new IpmiAsyncConnector(port);
-        loadProperties();
     }
 
     /**
@@ -86,13 +79,6 @@ public class IpmiConnector {
      */
     public IpmiConnector(int port, InetAddress address) throws FileNotFoundException, IOException {
         asyncConnector = new IpmiAsyncConnector(port, address);
-        loadProperties();
-    }
-
-    private void loadProperties() throws IOException {
-        PropertiesManager manager = PropertiesManager.getInstance();
-        retries = Integer.parseInt(manager.getProperty("retries"));
-        idleTime = Integer.parseInt(manager.getProperty("idleTime"));
     }
 
     /**
@@ -189,49 +175,32 @@ public class IpmiConnector {
      * when sending message to the managed system or initializing one of the cipherSuite's algorithms fails
      */
     public ResponseData sendMessage(ConnectionHandle connectionHandle, IpmiCommandCoder request) throws Exception {
-        int tries = 0;
-        MessageListener listener = new MessageListener(connectionHandle);
-        asyncConnector.registerListener(listener);
-        ResponseData data = null;
-        int previousTag = -1;
-        while (data == null) {
-            try {
-                ++tries;
-                int tag = asyncConnector.sendMessage(connectionHandle, request);
-                logger.debug("Sending message with tag " + tag + ", try " + tries + ", previous tag " + previousTag);
-                previousTag = tag;
-                data = listener.waitForAnswer(tag);
-            } catch (IllegalArgumentException e) {
-                throw e;
-            } catch (IPMIException e) {
-                if (e.getCompletionCode() == CompletionCode.InitializationInProgress
-                        || e.getCompletionCode() == CompletionCode.InsufficientResources
-                        || e.getCompletionCode() == CompletionCode.NodeBusy
-                        || e.getCompletionCode() == CompletionCode.Timeout) {
-                    if (tries > retries) {
-                        throw e;
-                    } else {
-                        long sleepTime = (random.nextLong() % (idleTime / 2)) + (idleTime / 2);
-
-                        Thread.sleep(sleepTime);
-                        logger.warn("Receiving message failed, retrying", e);
-                    }
-                } else {
-                    throw e;
-                }
-            } catch (Exception e) {
-                if (tries > retries) {
-                    throw e;
-                } else {
-                    long sleepTime = (random.nextLong() % (idleTime / 2)) + (idleTime / 2);
+        ResponseFuture future = asyncConnector.submit(connectionHandle, request);
+        logger.debug("Sending message with tag " + future.getTag());
+        return waitForAnswer(future);
+    }
 
-                    Thread.sleep(sleepTime);
-                    logger.warn("Receiving message failed, retrying", e);
-                }
+    /**
+     * Blocks the invoking thread until the response for the request arrives. The thread is woken up only once, by
+     * the {@link ResponseFuture} of its own request.
+     * @param future
+     * - {@link ResponseFuture} returned by {@link IpmiAsyncConnector#submit(ConnectionHandle, IpmiCommandCoder)}
+     * @return {@link ResponseData} for the request
+     * @throws Exception
+     * cause of the failure of the request
+     */
+    private ResponseData waitForAnswer(ResponseFuture future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
             }
+            throw e;
         }
-        asyncConnector.unregisterListener(listener);
-        return data;
     }
 
     /**
@@ -258,4 +227,52 @@ public class IpmiConnector {
     public void setTimeout(ConnectionHandle handle, int timeout) {
         asyncConnector.setTimeout(handle, timeout);
     }
+
+    /**
+     * Limits the rate of the messages sent to the remote host.
+     * @param handle
+     * - {@link ConnectionHandle} associated with the remote host.
+     * @param rate
+     * - number of messages per second, 0 disables the limit
+     * @param burst
+     * - number of messages that can be sent at once after the idle period, at least 1
+     */
+    public void setRateLimit(ConnectionHandle handle, double rate, int burst) {
+        asyncConnector.setRateLimit(handle, rate, burst);
+    }
+
+    /**
+     * Enables failing fast when the remote host stops responding. After the given number of consecutive timeouts,
+     * messages fail at once with {@link CircuitOpenException} and are not retried until the host answers RMCP ping.
+     * @param handle
+     * - {@link ConnectionHandle} associated with the remote host.
+     * @param failureThreshold
+     * - number of the consecutive timeouts that open the circuit, 0 disables the breaker
+     * @param probeInterval
+     * - interval between the RMCP pings sent while the circuit is open in ms
+     */
+    public void setCircuitBreaker(ConnectionHandle handle, int failureThreshold, int probeInterval) {
+        asyncConnector.setCircuitBreaker(handle, failureThreshold, probeInterval);
+    }
+
+    /**
+     * Sets the {@link RetryPolicy} deciding if and when failed messages are sent again. Retries are scheduled on the
+     * shared timer, so the invoking thread only waits for the final response.
+     * @param retryPolicy
+     * - {@link RetryPolicy} to use
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        asyncConnector.setRetryPolicy(retryPolicy);
+    }
+
+    /**
+     * Limits the rate of the messages sent to all remote hosts by this connector.
+     * @param rate
+     * - number of messages per second, 0 disables the limit
+     * @param burst
+     * - number of messages that can be sent at once after the idle period, at least 1
+     */
+    public void setGlobalRateLimit(double rate, int burst) {
+        asyncConnector.setGlobalRateLimit(rate, burst);
+    }
 }
@@ -28,7 +28,14 @@ import java.util.List;
  * arrive. Must be registered via
  * {@link IpmiAsyncConnector#registerListener(IpmiListener)} to receive
  * messages.
+ * 
+ * @deprecated {@link IpmiConnector} waits for the
+ *             {@link ipmi.connection.ResponseFuture} returned by
+ *             {@link IpmiAsyncConnector#submit(ConnectionHandle, ipmi.coding.commands.IpmiCommandCoder)}
+ *             instead - the listener is notified of every response of the
+ *             connector and polls for the expected one.
  */
+@Deprecated
 public class MessageListener implements IpmiListener {
 
 	private ConnectionHandle handle;
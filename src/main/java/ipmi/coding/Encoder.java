@@ -12,12 +12,20 @@
 package ipmi.coding;
 
 import ipmi.coding.commands.IpmiCommandCoder;
+import ipmi.coding.commands.RequestTemplate;
+import ipmi.coding.protocol.IpmiMessage;
+import ipmi.coding.protocol.Ipmiv20Message;
 import ipmi.coding.protocol.decoder.Protocolv15Decoder;
 import ipmi.coding.protocol.decoder.Protocolv20Decoder;
 import ipmi.coding.protocol.encoder.IpmiEncoder;
+import ipmi.coding.protocol.encoder.Protocolv20Encoder;
+import ipmi.coding.rmcp.RmcpClassOfMessage;
 import ipmi.coding.rmcp.RmcpEncoder;
 import ipmi.coding.rmcp.RmcpIpmiMessage;
+import ipmi.coding.rmcp.RmcpVersion;
+import ipmi.coding.security.IntegrityAlgorithm;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
@@ -27,6 +35,8 @@ import java.security.NoSuchAlgorithmException;
  */
 public final class Encoder {
 
+	private static final int RMCP_HEADER_LENGTH = 4;
+
 	/**
 	 * Encodes IPMI command specified by commandCoder into byte array raw data.
 	 * 
@@ -57,11 +67,127 @@ public final class Encoder {
 	public static byte[] encode(IpmiEncoder protcolEncoder,
 			IpmiCommandCoder commandCoder, int sequenceNumber, int sessionId)
 			throws NoSuchAlgorithmException, InvalidKeyException {
+		if (protcolEncoder instanceof Protocolv20Encoder) {
+			return encodeV20((Protocolv20Encoder) protcolEncoder,
+					commandCoder, sequenceNumber, sessionId);
+		}
 		return RmcpEncoder
 				.encode(new RmcpIpmiMessage(protcolEncoder.encode(commandCoder
 						.encodeCommand(sequenceNumber, sessionId))));
 	}
 
+	/**
+	 * Encodes IPMI v2.0 message in a single pass into the array of the exact
+	 * length, so the AuthCode is calculated over the bytes as they are
+	 * written instead of encoding the message twice.
+	 */
+	private static byte[] encodeV20(Protocolv20Encoder protocolEncoder,
+			IpmiCommandCoder commandCoder, int sequenceNumber, int sessionId)
+			throws NoSuchAlgorithmException, InvalidKeyException {
+		RequestTemplate template = getRequestTemplate(commandCoder, sessionId);
+		if (template != null) {
+			byte[] data = new byte[template.getLength()];
+			template.encode(ByteBuffer.wrap(data), sequenceNumber, sessionId);
+			return data;
+		}
+		Ipmiv20Message message = prepareMessage(commandCoder, sequenceNumber,
+				sessionId);
+		IntegrityAlgorithm integrityAlgorithm = commandCoder.getCipherSuite()
+				.getIntegrityAlgorithm();
+		byte[] data = new byte[RMCP_HEADER_LENGTH
+				+ protocolEncoder.getEncodedLength(message, integrityAlgorithm)];
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		encode(buffer, protocolEncoder, message, integrityAlgorithm);
+		return data;
+	}
+
+	/**
+	 * Encodes IPMI command specified by commandCoder into the buffer at its
+	 * position. IPMI v2.0 messages are written in a single pass - RMCP
+	 * header, session header, payload, Confidentiality Trailer and session
+	 * trailer go straight into the buffer and the payload is encrypted and
+	 * authenticated in place. Commands supporting {@link RequestTemplate}s
+	 * sent in a session are copied from the template instead of being built
+	 * and encoded. Messages of other versions are encoded via
+	 * {@link #encode(IpmiEncoder, IpmiCommandCoder, int, int)} and copied.
+	 * 
+	 * @param buffer
+	 *            - buffer the RMCP packet is encoded into. Its position will
+	 *            point after the packet.
+	 * @param protcolEncoder
+	 *            - instance of {@link IpmiEncoder} class for encoding of the
+	 *            IPMI session header.
+	 * @param commandCoder
+	 *            - instance of {@link IpmiCommandCoder} class used for building
+	 *            IPMI message payload.
+	 * @param sequenceNumber
+	 *            - A generated sequence number used for matching request and
+	 *            response. If IPMI message is sent in a session, it is used as
+	 *            a Session Sequence Number. For all IPMI messages,
+	 *            sequenceNumber % 256 is used as a IPMI LAN Message sequence
+	 *            number and as an IPMI payload message tag.
+	 * @param sessionId
+	 *            - ID of the managed system's session message is being sent in.
+	 *            For sessionless commands should be set to 0.
+	 * @throws NoSuchAlgorithmException
+	 *             - when authentication, confidentiality or integrity algorithm
+	 *             fails.
+	 * @throws InvalidKeyException
+	 *             - when creating of the algorithm key fails
+	 * @throws java.nio.BufferOverflowException
+	 *             when the buffer is too short to hold the packet
+	 */
+	public static void encode(ByteBuffer buffer, IpmiEncoder protcolEncoder,
+			IpmiCommandCoder commandCoder, int sequenceNumber, int sessionId)
+			throws NoSuchAlgorithmException, InvalidKeyException {
+		if (!(protcolEncoder instanceof Protocolv20Encoder)) {
+			buffer.put(encode(protcolEncoder, commandCoder, sequenceNumber,
+					sessionId));
+			return;
+		}
+		RequestTemplate template = getRequestTemplate(commandCoder, sessionId);
+		if (template != null) {
+			template.encode(buffer, sequenceNumber, sessionId);
+			return;
+		}
+		encode(buffer, (Protocolv20Encoder) protcolEncoder, prepareMessage(
+				commandCoder, sequenceNumber, sessionId), commandCoder
+				.getCipherSuite().getIntegrityAlgorithm());
+	}
+
+	/**
+	 * Returns the template of the request if it is sent in a session and the
+	 * command supports templates, null otherwise.
+	 */
+	private static RequestTemplate getRequestTemplate(
+			IpmiCommandCoder commandCoder, int sessionId)
+			throws NoSuchAlgorithmException, InvalidKeyException {
+		if (sessionId == 0) {
+			return null;
+		}
+		return commandCoder.getRequestTemplate();
+	}
+
+	private static Ipmiv20Message prepareMessage(IpmiCommandCoder commandCoder,
+			int sequenceNumber, int sessionId) throws NoSuchAlgorithmException,
+			InvalidKeyException {
+		IpmiMessage message = commandCoder.prepareMessage(sequenceNumber,
+				sessionId);
+		if (!(message instanceof Ipmiv20Message)) {
+			throw new IllegalArgumentException(
+					"IPMIMessage must be in 2.0 version.");
+		}
+		return (Ipmiv20Message) message;
+	}
+
+	private static void encode(ByteBuffer buffer,
+			Protocolv20Encoder protocolEncoder, Ipmiv20Message message,
+			IntegrityAlgorithm integrityAlgorithm) throws InvalidKeyException {
+		RmcpEncoder.encodeHeader(RmcpVersion.RMCP1_0, (byte) 0xff,
+				RmcpClassOfMessage.Ipmi, buffer);
+		protocolEncoder.encode(message, integrityAlgorithm, buffer);
+	}
+
 	private Encoder() {
 	}
 }
@@ -11,6 +11,7 @@
  */
 package ipmi.coding.commands;
 
+import ipmi.coding.Encoder;
 import ipmi.coding.payload.IpmiPayload;
 import ipmi.coding.payload.PlainMessage;
 import ipmi.coding.payload.lan.IPMIException;
@@ -21,6 +22,7 @@ import ipmi.coding.protocol.IpmiMessage;
 import ipmi.coding.protocol.Ipmiv15Message;
 import ipmi.coding.protocol.Ipmiv20Message;
 import ipmi.coding.protocol.PayloadType;
+import ipmi.coding.protocol.encoder.IpmiEncoder;
 import ipmi.coding.protocol.encoder.Protocolv20Encoder;
 import ipmi.coding.security.CipherSuite;
 import ipmi.coding.security.SecurityConstants;
@@ -48,8 +50,16 @@ public abstract class IpmiCommandCoder {
 
 	private CipherSuite cipherSuite;
 
+	/**
+	 * Template of the request, built on the first send.
+	 * 
+	 * @see #getRequestTemplate()
+	 */
+	private volatile RequestTemplate requestTemplate;
+
 	public void setIpmiVersion(IpmiVersion ipmiVersion) {
 		this.ipmiVersion = ipmiVersion;
+		requestTemplate = null;
 	}
 
 	public IpmiVersion getIpmiVersion() {
@@ -58,6 +68,7 @@ public abstract class IpmiCommandCoder {
 
 	public void setAuthenticationType(AuthenticationType authenticationType) {
 		this.authenticationType = authenticationType;
+		requestTemplate = null;
 	}
 
 	public AuthenticationType getAuthenticationType() {
@@ -66,6 +77,7 @@ public abstract class IpmiCommandCoder {
 
 	public void setCipherSuite(CipherSuite cipherSuite) {
 		this.cipherSuite = cipherSuite;
+		requestTemplate = null;
 	}
 
 	public CipherSuite getCipherSuite() {
@@ -108,7 +120,12 @@ public abstract class IpmiCommandCoder {
 	}
 
 	/**
-	 * Prepares an IPMI request message containing class-specific command
+	 * Prepares an IPMI request message containing class-specific command,
+	 * including the AuthCode field, for encoding via
+	 * {@link IpmiEncoder#encode(IpmiMessage)}. Calculating the AuthCode
+	 * encodes the message, so it is encoded twice this way -
+	 * {@link Encoder} uses {@link #prepareMessage(int, int)} and calculates
+	 * the AuthCode while encoding instead.
 	 * 
 	 * @param sequenceNumber
 	 *            - A generated sequence number used for matching request and
@@ -128,6 +145,46 @@ public abstract class IpmiCommandCoder {
 	 */
 	public IpmiMessage encodeCommand(int sequenceNumber, int sessionId)
 			throws NoSuchAlgorithmException, InvalidKeyException {
+		IpmiMessage message = prepareMessage(sequenceNumber, sessionId);
+
+		if (message instanceof Ipmiv20Message
+				&& ((Ipmiv20Message) message).isPayloadAuthenticated()
+				&& sessionId != 0) {
+			message.setAuthCode(getCipherSuite()
+					.getIntegrityAlgorithm()
+					.generateAuthCode(
+							((Ipmiv20Message) message)
+									.getIntegrityAlgorithmBase(new Protocolv20Encoder())));
+		}
+
+		return message;
+	}
+
+	/**
+	 * Prepares an IPMI request message containing class-specific command
+	 * without the AuthCode field, which is generated when the message is
+	 * encoded. Commands that need specific message fields should override
+	 * this method.
+	 * 
+	 * @param sequenceNumber
+	 *            - A generated sequence number used for matching request and
+	 *            response. If IPMI message is sent in a session, it is used as
+	 *            a Session Sequence Number. For all IPMI messages,
+	 *            sequenceNumber % 256 is used as a IPMI LAN Message sequence
+	 *            number and as an IPMI payload message tag.
+	 * @param sessionId
+	 *            - ID of the managed system's session message is being sent in.
+	 *            For sessionless commands should b set to 0.
+	 * @return IPMI message
+	 * @throws NoSuchAlgorithmException
+	 *             - when authentication, confidentiality or integrity algorithm
+	 *             fails.
+	 * @throws InvalidKeyException
+	 *             - when creating of the algorithm key fails
+	 * @see #encodeCommand(int, int)
+	 */
+	public IpmiMessage prepareMessage(int sequenceNumber, int sessionId)
+			throws NoSuchAlgorithmException, InvalidKeyException {
 		if (getIpmiVersion() == IpmiVersion.V15) {
 			Ipmiv15Message message = new Ipmiv15Message();
 
@@ -160,11 +217,6 @@ public abstract class IpmiCommandCoder {
 
 			message.setPayload(preparePayload(sequenceNumber));
 
-			message.setAuthCode(getCipherSuite()
-					.getIntegrityAlgorithm()
-					.generateAuthCode(
-							message.getIntegrityAlgorithmBase(new Protocolv20Encoder())));
-
 			return message;
 		}
 	}
@@ -205,6 +257,71 @@ public abstract class IpmiCommandCoder {
 	 */
 	public abstract NetworkFunction getNetworkFunction();
 
+	/**
+	 * Checks if the command only reads the state of the managed system, so
+	 * sending it once or many times at the same time gives the same result.
+	 * 
+	 * @return true if the command is an idempotent read, false by default
+	 */
+	public boolean isIdempotent() {
+		return false;
+	}
+
+	/**
+	 * Checks if the request payload depends only on the parameters the
+	 * command was created with and on the sequence number, so the request can
+	 * be serialized once and sent via {@link RequestTemplate}. Commands that
+	 * are sent repeatedly and cannot change after creation should override
+	 * this method.
+	 * 
+	 * @return true if the request can be sent via template, false by default
+	 */
+	protected boolean supportsRequestTemplate() {
+		return false;
+	}
+
+	/**
+	 * Returns the template of the IPMI v2.0 request, built on the first call
+	 * and rebuilt when the session parameters change.
+	 * 
+	 * @return {@link RequestTemplate} or null if the command does not support
+	 *         templates
+	 * @throws NoSuchAlgorithmException
+	 *             - when authentication, confidentiality or integrity algorithm
+	 *             fails.
+	 * @throws InvalidKeyException
+	 *             - when creating of the algorithm key fails
+	 * @see #supportsRequestTemplate()
+	 */
+	public RequestTemplate getRequestTemplate()
+			throws NoSuchAlgorithmException, InvalidKeyException {
+		if (!supportsRequestTemplate()) {
+			return null;
+		}
+		RequestTemplate template = requestTemplate;
+		if (template == null || !template.isValidFor(getCipherSuite())) {
+			template = RequestTemplate.create(this);
+			requestTemplate = template;
+		}
+		return template;
+	}
+
+	/**
+	 * Encodes the request payload with the sequence number 0. Requests of the
+	 * same command with equal encoded payloads are the same request.
+	 * 
+	 * @return encoded request payload
+	 * @throws NoSuchAlgorithmException
+	 *             - when authentication, confidentiality or integrity algorithm
+	 *             fails.
+	 * @throws InvalidKeyException
+	 *             - when creating of the algorithm key fails
+	 */
+	public byte[] getRequestBody() throws NoSuchAlgorithmException,
+			InvalidKeyException {
+		return preparePayload(0).getPayloadData();
+	}
+
 	/**
 	 * Prepares {@link IpmiPayload} to be encoded. Called from
 	 * {@link #encodeCommand(int, int)}
@@ -0,0 +1,286 @@
+/*
+ * RequestTemplate.java
+ * Created on 2011-10-07
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.coding.commands;
+
+import ipmi.coding.protocol.IpmiMessage;
+import ipmi.coding.protocol.Ipmiv20Message;
+import ipmi.coding.protocol.encoder.Protocolv20Encoder;
+import ipmi.coding.rmcp.RmcpClassOfMessage;
+import ipmi.coding.rmcp.RmcpEncoder;
+import ipmi.coding.rmcp.RmcpVersion;
+import ipmi.coding.security.CipherSuite;
+import ipmi.coding.security.ConfidentialityAlgorithm;
+import ipmi.coding.security.IntegrityAlgorithm;
+import ipmi.common.TypeConverter;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * RMCP packet of the IPMI v2.0 request serialized once, so the same request
+ * can be sent repeatedly without building and encoding the message each time.
+ * Per send only the Session ID, Session Sequence Number, IPMI LAN sequence
+ * number and its checksum are patched, then the payload is encrypted and the
+ * AuthCode is calculated. <br>
+ * The template is immutable, so it can be used by many threads at the same
+ * time.
+ *
+ * @see IpmiCommandCoder#getRequestTemplate()
+ */
+public final class RequestTemplate {
+
+	private static final int RMCP_HEADER_LENGTH = 4;
+
+	/**
+	 * Offsets of the fields in the session header of the RMCP packet with
+	 * IPMI payload.
+	 */
+	private static final int SESSION_ID_OFFSET = RMCP_HEADER_LENGTH + 2;
+
+	private static final int SEQUENCE_NUMBER_OFFSET = RMCP_HEADER_LENGTH + 6;
+
+	private static final int HEADER_LENGTH = RMCP_HEADER_LENGTH + 12;
+
+	/**
+	 * Offset of the field holding the sequence number in the IPMI LAN
+	 * request.
+	 */
+	private static final int LAN_SEQUENCE_NUMBER_OFFSET = 4;
+
+	/**
+	 * Offset of the first byte covered by the second checksum of the IPMI LAN
+	 * request.
+	 */
+	private static final int LAN_CHECKSUM_OFFSET = 3;
+
+	/**
+	 * Any non-zero Session ID, so the template is built with the session
+	 * trailer.
+	 */
+	private static final int TEMPLATE_SESSION_ID = 1;
+
+	private static final Protocolv20Encoder ENCODER = new Protocolv20Encoder();
+
+	private final ConfidentialityAlgorithm confidentialityAlgorithm;
+
+	private final IntegrityAlgorithm integrityAlgorithm;
+
+	/**
+	 * RMCP header and session header with the payload length.
+	 */
+	private final byte[] header;
+
+	/**
+	 * Unencrypted IPMI LAN request with sequence number 0.
+	 */
+	private final byte[] payload;
+
+	/**
+	 * Sum of the bytes covered by the second checksum except the sequence
+	 * number.
+	 */
+	private final int checksumBase;
+
+	/**
+	 * Integrity Pad, Pad Length and Next Header fields or null if the message
+	 * is not authenticated.
+	 */
+	private final byte[] trailer;
+
+	private final int length;
+
+	private RequestTemplate(CipherSuite cipherSuite, byte[] payload,
+			byte[] packet, int trailerOffset, int authCodeLength) {
+		confidentialityAlgorithm = cipherSuite.getConfidentialityAlgorithm();
+		integrityAlgorithm = cipherSuite.getIntegrityAlgorithm();
+		this.payload = payload;
+		header = new byte[HEADER_LENGTH];
+		System.arraycopy(packet, 0, header, 0, HEADER_LENGTH);
+		if (authCodeLength > 0) {
+			trailer = new byte[packet.length - authCodeLength - trailerOffset];
+			System.arraycopy(packet, trailerOffset, trailer, 0, trailer.length);
+		} else {
+			trailer = null;
+		}
+		length = packet.length;
+
+		int sum = 0;
+		for (int i = LAN_CHECKSUM_OFFSET; i < payload.length - 1; ++i) {
+			if (i != LAN_SEQUENCE_NUMBER_OFFSET) {
+				sum += TypeConverter.byteToInt(payload[i]);
+			}
+		}
+		checksumBase = sum;
+	}
+
+	/**
+	 * Builds the template of the request.
+	 *
+	 * @param commandCoder
+	 *            - request to build the template of
+	 * @return template or null if the request cannot be sent via template -
+	 *         it is not an IPMI v2.0 request or its payload differs for
+	 *         various sequence numbers in other fields than IPMI LAN sequence
+	 *         number.
+	 * @throws NoSuchAlgorithmException
+	 *             - when authentication, confidentiality or integrity algorithm
+	 *             fails.
+	 * @throws InvalidKeyException
+	 *             - when creating of the algorithm key fails
+	 */
+	static RequestTemplate create(IpmiCommandCoder commandCoder)
+			throws NoSuchAlgorithmException, InvalidKeyException {
+		if (commandCoder.getIpmiVersion() != IpmiVersion.V20) {
+			return null;
+		}
+		IpmiMessage message = commandCoder.prepareMessage(0,
+				TEMPLATE_SESSION_ID);
+		if (!(message instanceof Ipmiv20Message)) {
+			return null;
+		}
+		Ipmiv20Message message20 = (Ipmiv20Message) message;
+
+		byte[] payload = message20.getPayload().getPayloadData();
+		byte[] next = commandCoder.prepareMessage(1, TEMPLATE_SESSION_ID)
+				.getPayload().getPayloadData();
+		if (!differInSequenceNumber(payload, next)) {
+			return null;
+		}
+
+		CipherSuite cipherSuite = commandCoder.getCipherSuite();
+		IntegrityAlgorithm integrityAlgorithm = cipherSuite
+				.getIntegrityAlgorithm();
+		int authCodeLength = 0;
+		if (message20.isPayloadAuthenticated()) {
+			authCodeLength = integrityAlgorithm.getAuthCodeLength();
+			if (authCodeLength == 0) {
+				return null; // AuthCode length is not known in advance
+			}
+		}
+
+		byte[] packet = new byte[RMCP_HEADER_LENGTH
+				+ ENCODER.getEncodedLength(message20, integrityAlgorithm)];
+		ByteBuffer buffer = ByteBuffer.wrap(packet);
+		RmcpEncoder.encodeHeader(RmcpVersion.RMCP1_0, (byte) 0xff,
+				RmcpClassOfMessage.Ipmi, buffer);
+		ENCODER.encode(message20, integrityAlgorithm, buffer);
+		if (buffer.hasRemaining()) {
+			return null;
+		}
+
+		int payloadLength = TypeConverter.byteToInt(packet[HEADER_LENGTH - 2])
+				| TypeConverter.byteToInt(packet[HEADER_LENGTH - 1]) << 8;
+
+		return new RequestTemplate(cipherSuite, payload, packet, HEADER_LENGTH
+				+ payloadLength, authCodeLength);
+	}
+
+	/**
+	 * Checks if the IPMI LAN requests with sequence numbers 0 and 1 differ
+	 * only in the sequence number and the second checksum.
+	 */
+	private static boolean differInSequenceNumber(byte[] first, byte[] second) {
+		if (first.length != second.length
+				|| first.length <= LAN_SEQUENCE_NUMBER_OFFSET + 1) {
+			return false;
+		}
+		for (int i = 0; i < first.length - 1; ++i) {
+			if (i != LAN_SEQUENCE_NUMBER_OFFSET && first[i] != second[i]) {
+				return false;
+			}
+		}
+		return (first[LAN_SEQUENCE_NUMBER_OFFSET] & 0xfc) == 0
+				&& second[LAN_SEQUENCE_NUMBER_OFFSET] == (first[LAN_SEQUENCE_NUMBER_OFFSET] | 0x04);
+	}
+
+	/**
+	 * Checks if the template was built with the algorithms of the
+	 * {@link CipherSuite}.
+	 */
+	boolean isValidFor(CipherSuite cipherSuite) {
+		return cipherSuite.getConfidentialityAlgorithm() == confidentialityAlgorithm
+				&& cipherSuite.getIntegrityAlgorithm() == integrityAlgorithm;
+	}
+
+	/**
+	 * Returns the length of the RMCP packet encoded via
+	 * {@link #encode(ByteBuffer, int, int)}.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Encodes the request into the buffer at its position.
+	 *
+	 * @param buffer
+	 *            - buffer the RMCP packet is encoded into. Its position will
+	 *            point after the packet.
+	 * @param sequenceNumber
+	 *            - A generated sequence number used for matching request and
+	 *            response. It is used as a Session Sequence Number and
+	 *            sequenceNumber % 64 is used as a IPMI LAN Message sequence
+	 *            number.
+	 * @param sessionId
+	 *            - ID of the managed system's session message is being sent
+	 *            in. Must not be 0.
+	 * @throws InvalidKeyException
+	 *             - when confidentiality algorithm fails
+	 * @throws java.nio.BufferOverflowException
+	 *             when the buffer is too short to hold the packet
+	 */
+	public void encode(ByteBuffer buffer, int sequenceNumber, int sessionId)
+			throws InvalidKeyException {
+		if (sessionId == 0) {
+			throw new IllegalArgumentException(
+					"Request templates are meant for messages sent in a session");
+		}
+		int start = buffer.position();
+
+		buffer.put(header);
+		putInt(buffer, start + SESSION_ID_OFFSET, sessionId);
+		putInt(buffer, start + SEQUENCE_NUMBER_OFFSET, sequenceNumber);
+
+		int payloadOffset = buffer.position();
+		int lanOffset = payloadOffset
+				+ confidentialityAlgorithm.getConfidentialityHeaderSize();
+		buffer.position(lanOffset);
+		buffer.put(payload);
+
+		int lanSequenceNumber = TypeConverter
+				.byteToInt(payload[LAN_SEQUENCE_NUMBER_OFFSET])
+				| (sequenceNumber % 64 & 0x3f) << 2;
+		buffer.put(lanOffset + LAN_SEQUENCE_NUMBER_OFFSET,
+				(byte) lanSequenceNumber);
+		buffer.put(lanOffset + payload.length - 1,
+				(byte) -(checksumBase + lanSequenceNumber));
+
+		confidentialityAlgorithm.encrypt(buffer, payloadOffset, payload.length);
+
+		if (trailer != null) {
+			buffer.put(trailer);
+			integrityAlgorithm.generateAuthCode(buffer, start
+					+ RMCP_HEADER_LENGTH);
+		}
+	}
+
+	/**
+	 * Writes int in a little endian convention at the index of the buffer.
+	 */
+	private static void putInt(ByteBuffer buffer, int index, int value) {
+		buffer.put(index, (byte) value);
+		buffer.put(index + 1, (byte) (value >>> 8));
+		buffer.put(index + 2, (byte) (value >>> 16));
+		buffer.put(index + 3, (byte) (value >>> 24));
+	}
+}
@@ -72,6 +72,16 @@ public class GetChassisStatus extends IpmiCommandCoder {
 		return NetworkFunction.ChassisRequest;
 	}
 
+	@Override
+	public boolean isIdempotent() {
+		return true;
+	}
+
+	@Override
+	protected boolean supportsRequestTemplate() {
+		return true;
+	}
+
 	@Override
 	public ResponseData getResponseData(IpmiMessage message)
 			throws IllegalArgumentException, IPMIException,
@@ -71,6 +71,11 @@ public class GetFruInventoryAreaInfo extends IpmiCommandCoder {
 		return NetworkFunction.StorageRequest;
 	}
 
+	@Override
+	public boolean isIdempotent() {
+		return true;
+	}
+
 	@Override
 	protected IpmiPayload preparePayload(int sequenceNumber)
 			throws NoSuchAlgorithmException, InvalidKeyException {
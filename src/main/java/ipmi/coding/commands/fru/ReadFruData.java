@@ -33,6 +33,7 @@ import ipmi.coding.protocol.IpmiMessage;
 import ipmi.coding.security.CipherSuite;
 import ipmi.common.TypeConverter;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -144,6 +145,11 @@ public class ReadFruData extends IpmiCommandCoder {
 		return NetworkFunction.StorageRequest;
 	}
 
+	@Override
+	public boolean isIdempotent() {
+		return true;
+	}
+
 	@Override
 	protected IpmiPayload preparePayload(int sequenceNumber)
 			throws NoSuchAlgorithmException, InvalidKeyException {
@@ -176,20 +182,21 @@ public class ReadFruData extends IpmiCommandCoder {
 							.getCompletionCode());
 		}
 
-		byte[] raw = message.getPayload().getIpmiCommandData();
+		ByteBuffer raw = message.getPayload().getIpmiCommandDataView();
 
-		if (raw == null || raw.length < 2) {
+		if (raw == null || raw.remaining() < 2) {
 			throw new IllegalArgumentException(
 					"Invalid response payload length");
 		}
 
 		ReadFruDataResponseData responseData = new ReadFruDataResponseData();
 
-		int size = TypeConverter.byteToInt(raw[0]);
+		int size = TypeConverter.byteToInt(raw.get(0));
 
 		byte[] fruData = new byte[size];
 
-		System.arraycopy(raw, 1, fruData, 0, size);
+		raw.position(1);
+		raw.get(fruData);
 
 		responseData.setFruData(fruData);
 
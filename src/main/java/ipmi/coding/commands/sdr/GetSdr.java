@@ -26,6 +26,7 @@ import ipmi.coding.protocol.IpmiMessage;
 import ipmi.coding.security.CipherSuite;
 import ipmi.common.TypeConverter;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
@@ -106,6 +107,11 @@ public class GetSdr extends IpmiCommandCoder {
 		return NetworkFunction.StorageRequest;
 	}
 
+	@Override
+	public boolean isIdempotent() {
+		return true;
+	}
+
 	@Override
 	protected IpmiPayload preparePayload(int sequenceNumber)
 			throws NoSuchAlgorithmException, InvalidKeyException {
@@ -145,28 +151,22 @@ public class GetSdr extends IpmiCommandCoder {
 							.getCompletionCode());
 		}
 
-		byte[] raw = message.getPayload().getIpmiCommandData();
+		ByteBuffer raw = message.getPayload().getIpmiCommandDataView();
 
-		if (raw == null || raw.length < 3) {
+		if (raw == null || raw.remaining() < 3) {
 			throw new IllegalArgumentException(
 					"Invalid response payload length");
 		}
 
 		GetSdrResponseData responseData = new GetSdrResponseData();
 
-		byte[] buffer = new byte[4];
-
-		buffer[0] = raw[0];
-		buffer[1] = raw[1];
-		buffer[2] = 0;
-		buffer[3] = 0;
-
-		responseData.setNextRecordId(TypeConverter
-				.littleEndianByteArrayToInt(buffer));
+		responseData.setNextRecordId(TypeConverter.byteToInt(raw.get(0))
+				| TypeConverter.byteToInt(raw.get(1)) << 8);
 
-		byte[] recordData = new byte[raw.length - 2];
+		byte[] recordData = new byte[raw.remaining() - 2];
 
-		System.arraycopy(raw, 2, recordData, 0, recordData.length);
+		raw.position(2);
+		raw.get(recordData);
 
 		responseData.setSensorRecordData(recordData);
 
@@ -62,6 +62,16 @@ public class GetSdrRepositoryInfo extends IpmiCommandCoder {
 		return NetworkFunction.StorageRequest;
 	}
 
+	@Override
+	public boolean isIdempotent() {
+		return true;
+	}
+
+	@Override
+	protected boolean supportsRequestTemplate() {
+		return true;
+	}
+
 	@Override
 	protected IpmiPayload preparePayload(int sequenceNumber)
 			throws NoSuchAlgorithmException, InvalidKeyException {
@@ -25,6 +25,7 @@ import ipmi.coding.protocol.IpmiMessage;
 import ipmi.coding.security.CipherSuite;
 import ipmi.common.TypeConverter;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
@@ -64,6 +65,16 @@ public class GetSensorReading extends IpmiCommandCoder {
 		return NetworkFunction.SensorRequest;
 	}
 
+	@Override
+	public boolean isIdempotent() {
+		return true;
+	}
+
+	@Override
+	protected boolean supportsRequestTemplate() {
+		return true;
+	}
+
 	@Override
 	protected IpmiPayload preparePayload(int sequenceNumber)
 			throws NoSuchAlgorithmException, InvalidKeyException {
@@ -90,37 +101,37 @@ public class GetSensorReading extends IpmiCommandCoder {
 							.getCompletionCode());
 		}
 
-		byte[] raw = message.getPayload().getIpmiCommandData();
+		ByteBuffer raw = message.getPayload().getIpmiCommandDataView();
 
-		if (raw.length < 3) {
+		if (raw == null || raw.remaining() < 3) {
 			throw new IllegalArgumentException("Invalid response length");
 		}
 
 		GetSensorReadingResponseData responseData = new GetSensorReadingResponseData();
 
-		responseData.setSensorReading(raw[0]);
+		responseData.setSensorReading(raw.get(0));
 
 		responseData
-				.setSensorStateValid((TypeConverter.byteToInt(raw[1]) & 0x20) == 0);
+				.setSensorStateValid((TypeConverter.byteToInt(raw.get(1)) & 0x20) == 0);
 
 		responseData.setSensorState(SensorState.parseInt((TypeConverter
-				.byteToInt(raw[2])) & 0x3f));
+				.byteToInt(raw.get(2))) & 0x3f));
 
 		boolean[] states = null;
 
-		if (raw.length > 3) {
+		if (raw.remaining() > 3) {
 			states = new boolean[16];
 		} else {
 			states = new boolean[8];
 		}
 
 		for (int i = 0; i < 8; ++i) {
-			states[i] = (TypeConverter.byteToInt(raw[2]) & (0x1 << i)) != 0;
+			states[i] = (TypeConverter.byteToInt(raw.get(2)) & (0x1 << i)) != 0;
 		}
 
-		if (raw.length > 3) {
+		if (raw.remaining() > 3) {
 			for (int i = 0; i < 7; ++i) {
-				states[i + 8] = (TypeConverter.byteToInt(raw[3]) & (0x1 << i)) != 0;
+				states[i + 8] = (TypeConverter.byteToInt(raw.get(3)) & (0x1 << i)) != 0;
 			}
 			states[15] = false;
 		}
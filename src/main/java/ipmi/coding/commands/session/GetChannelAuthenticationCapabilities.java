@@ -155,7 +155,7 @@ public class GetChannelAuthenticationCapabilities extends IpmiCommandCoder {
 	}
 
 	@Override
-	public IpmiMessage encodeCommand(int sequenceNumber, int sessionId)
+	public IpmiMessage prepareMessage(int sequenceNumber, int sessionId)
 			throws InvalidKeyException, NoSuchAlgorithmException {
 		if (getIpmiVersion() == IpmiVersion.V15) {
 			if (sessionId != 0) {
@@ -176,7 +176,7 @@ public class GetChannelAuthenticationCapabilities extends IpmiCommandCoder {
 		} else {
 			setAuthenticationType(AuthenticationType.RMCPPlus);
 
-			return super.encodeCommand(sequenceNumber, sessionId);
+			return super.prepareMessage(sequenceNumber, sessionId);
 		}
 	}
 
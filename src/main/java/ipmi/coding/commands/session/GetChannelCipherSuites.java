@@ -100,7 +100,7 @@ public class GetChannelCipherSuites extends IpmiCommandCoder {
 	}
 
 	@Override
-	public IpmiMessage encodeCommand(int sequenceNumber, int sessionId)
+	public IpmiMessage prepareMessage(int sequenceNumber, int sessionId)
 			throws NoSuchAlgorithmException, InvalidKeyException {
 		Ipmiv20Message message = new Ipmiv20Message(new ConfidentialityNone());
 
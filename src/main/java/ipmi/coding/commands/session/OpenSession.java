@@ -128,7 +128,7 @@ public class OpenSession extends IpmiCommandCoder {
 	}
 
 	@Override
-	public IpmiMessage encodeCommand(int sequenceNumber, int sessionId) {
+	public IpmiMessage prepareMessage(int sequenceNumber, int sessionId) {
 		if (sessionId != 0) {
 			throw new IllegalArgumentException("Session ID must be 0");
 		}
@@ -23,7 +23,6 @@ import ipmi.coding.protocol.AuthenticationType;
 import ipmi.coding.protocol.IpmiMessage;
 import ipmi.coding.protocol.Ipmiv20Message;
 import ipmi.coding.protocol.PayloadType;
-import ipmi.coding.protocol.encoder.Protocolv20Encoder;
 import ipmi.coding.security.CipherSuite;
 import ipmi.coding.security.ConfidentialityNone;
 import ipmi.coding.security.SecurityConstants;
@@ -129,7 +128,7 @@ public class Rakp3 extends IpmiCommandCoder {
 	}
 
 	@Override
-	public IpmiMessage encodeCommand(int sequenceNumber, int sessionId)
+	public IpmiMessage prepareMessage(int sequenceNumber, int sessionId)
 			throws NoSuchAlgorithmException, InvalidKeyException {
 
 		if (sessionId != 0) {
@@ -148,11 +147,6 @@ public class Rakp3 extends IpmiCommandCoder {
 
 		message.setPayload(preparePayload(sequenceNumber));
 
-		message.setAuthCode(getCipherSuite()
-				.getIntegrityAlgorithm()
-				.generateAuthCode(
-						message.getIntegrityAlgorithmBase(new Protocolv20Encoder())));
-
 		return message;
 	}
 
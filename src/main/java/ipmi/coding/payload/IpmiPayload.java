@@ -13,6 +13,7 @@ package ipmi.coding.payload;
 
 import ipmi.coding.security.ConfidentialityAlgorithm;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 
 /**
@@ -51,6 +52,18 @@ public abstract class IpmiPayload {
 	 */
 	public abstract byte[] getPayloadData();
 
+	/**
+	 * Writes unencrypted payload into the buffer at its position (owner is
+	 * responsible for encryption). Payloads that can be written without
+	 * creating the intermediate array should override this method.
+	 * 
+	 * @param buffer
+	 *            - buffer the message is encoded into
+	 */
+	public void writePayloadData(ByteBuffer buffer) {
+		buffer.put(getPayloadData());
+	}
+
 	/**
 	 * Returns encoded but UNENCRYPTED payload length.
 	 */
@@ -61,6 +74,21 @@ public abstract class IpmiPayload {
 	 */
 	public abstract byte[] getIpmiCommandData();
 
+	/**
+	 * Returns IPMI command encapsulated in IPMI Payload as a view starting at
+	 * index 0. Payloads decoded from a part of the received message should
+	 * override this method so the command data is not copied.
+	 * 
+	 * @return view over the command data or null if there is no data
+	 */
+	public ByteBuffer getIpmiCommandDataView() {
+		byte[] data = getIpmiCommandData();
+		if (data == null) {
+			return null;
+		}
+		return ByteBuffer.wrap(data);
+	}
+
 	/**
 	 * Encrypts {@link #getPayloadData()}.
 	 * 
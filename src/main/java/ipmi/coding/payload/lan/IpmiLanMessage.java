@@ -14,6 +14,8 @@ package ipmi.coding.payload.lan;
 import ipmi.coding.payload.IpmiPayload;
 import ipmi.common.TypeConverter;
 
+import java.nio.ByteBuffer;
+
 /**
  * A wrapper class for IPMI LAN message
  */
@@ -115,6 +117,43 @@ public abstract class IpmiLanMessage extends IpmiPayload {
         }
         return (byte)-TypeConverter.intToByte(checksum);
     }
+
+    /**
+     * Calculates checksum of the part of the array holding the message.
+     * 
+     * @param message
+     *            - array holding the message
+     * @param offset
+     *            - index of the first byte covered by the checksum
+     * @param end
+     *            - index after the last byte covered by the checksum
+     */
+    protected byte getChecksum(byte[] message, int offset, int end) {
+        int checksum = 0;
+        for(int i = offset; i < end; ++i) {
+            checksum = (checksum + TypeConverter.byteToInt(message[i])) % 256;
+        }
+        return (byte) -TypeConverter.intToByte(checksum);
+    }
+
+    /**
+     * Calculates checksum of the bytes of the message already written into
+     * the buffer.
+     * 
+     * @param buffer
+     *            - buffer the message is encoded into
+     * @param offset
+     *            - index of the first byte covered by the checksum
+     * @param end
+     *            - index after the last byte covered by the checksum
+     */
+    protected byte getChecksum(ByteBuffer buffer, int offset, int end) {
+        int checksum = 0;
+        for(int i = offset; i < end; ++i) {
+            checksum = (checksum + TypeConverter.byteToInt(buffer.get(i))) % 256;
+        }
+        return (byte) -TypeConverter.intToByte(checksum);
+    }
     
     @Override
     public byte[] getIpmiCommandData() {
@@ -14,6 +14,8 @@ package ipmi.coding.payload.lan;
 import ipmi.coding.commands.CommandCodes;
 import ipmi.common.TypeConverter;
 
+import java.nio.ByteBuffer;
+
 /**
  * A wrapper class for IPMB LAN message
  */
@@ -98,4 +100,24 @@ public class IpmiLanRequest extends IpmiLanMessage {
 		return message;
 	}
 
+	@Override
+	public void writePayloadData(ByteBuffer buffer) {
+		int start = buffer.position();
+
+		buffer.put(getResponderAddress());
+		buffer.put(TypeConverter.intToByte((networkFunction << 2)
+				| getResponderLogicalUnitNumber()));
+		buffer.put(getChecksum(buffer, start, start + 2));
+		buffer.put(getRequesterAddress());
+		buffer.put(TypeConverter.intToByte(((getSequenceNumber() & 0x3f) << 2)
+				| getResponderLogicalUnitNumber()));
+		buffer.put(getCommand());
+
+		if (getData() != null) {
+			buffer.put(getData());
+		}
+
+		buffer.put(getChecksum(buffer, start + 3, buffer.position()));
+	}
+
 }
@@ -14,6 +14,8 @@ package ipmi.coding.payload.lan;
 import ipmi.coding.payload.CompletionCode;
 import ipmi.common.TypeConverter;
 
+import java.nio.ByteBuffer;
+
 /**
  * A wrapper class for IPMB response message.
  */
@@ -30,6 +32,16 @@ public class IpmiLanResponse extends IpmiLanMessage {
 		return completionCode;
 	}
 
+	/**
+	 * Part of the received message holding the response data when the
+	 * response was built from a part of an array.
+	 */
+	private byte[] raw;
+
+	private int dataOffset;
+
+	private int dataLength;
+
 	/**
 	 * Builds IPMI LAN response message from byte array.
 	 * 
@@ -38,39 +50,92 @@ public class IpmiLanResponse extends IpmiLanMessage {
 	 *             when checksum is corrupted
 	 */
 	public IpmiLanResponse(byte[] rawData) throws IllegalArgumentException {
-		setRequesterAddress(rawData[0]);
+		this(rawData, 0, rawData.length);
+		getData();
+	}
+
+	/**
+	 * Builds IPMI LAN response message from the part of the array. The
+	 * response data is not copied until {@link #getData()} is called, so the
+	 * array must not be modified.
+	 * 
+	 * @param rawData
+	 *            - array holding the message
+	 * @param offset
+	 *            - index of the first byte of the message in the array
+	 * @param length
+	 *            - length of the message
+	 * @throws IllegalArgumentException
+	 *             when checksum is corrupted
+	 */
+	public IpmiLanResponse(byte[] rawData, int offset, int length)
+			throws IllegalArgumentException {
+		if (length < 8) {
+			throw new IllegalArgumentException("Message is corrupted");
+		}
+		setRequesterAddress(rawData[offset]);
 		networkFunction = TypeConverter.intToByte((TypeConverter
-				.byteToInt(rawData[1]) & 0xfC) >> 2);
+				.byteToInt(rawData[offset + 1]) & 0xfC) >> 2);
 		setRequesterLogicalUnitNumber(TypeConverter.intToByte(TypeConverter
-				.byteToInt(rawData[1]) & 0x03));
-		if (rawData[2] != getChecksum1(rawData)) {
+				.byteToInt(rawData[offset + 1]) & 0x03));
+		if (rawData[offset + 2] != getChecksum(rawData, offset, offset + 2)) {
 			throw new IllegalArgumentException("Checksum 1 failed");
 		}
-		setResponderAddress(rawData[3]);
+		setResponderAddress(rawData[offset + 3]);
 		setSequenceNumber(TypeConverter.intToByte((TypeConverter
-				.byteToInt(rawData[4]) & 0xfC) >> 2));
+				.byteToInt(rawData[offset + 4]) & 0xfC) >> 2));
 		setResponderLogicalUnitNumber(TypeConverter.intToByte(TypeConverter
-				.byteToInt(rawData[4]) & 0x03));
-		setCommand(rawData[5]);
-		setCompletionCode(rawData[6]);
+				.byteToInt(rawData[offset + 4]) & 0x03));
+		setCommand(rawData[offset + 5]);
+		setCompletionCode(rawData[offset + 6]);
 
-		if (rawData.length > 8) {
-			byte[] data = new byte[rawData.length - 8];
+		if (rawData[offset + length - 1] != getChecksum(rawData, offset + 3,
+				offset + length - 1)) {
+			throw new IllegalArgumentException("Checksum 2 failed");
+		}
 
-			System.arraycopy(rawData, 7, data, 0, rawData.length - 8);
+		if (length > 8) {
+			raw = rawData;
+			dataOffset = offset + 7;
+			dataLength = length - 8;
+		}
+	}
 
+	/**
+	 * Returns the response data. If the response was built from the part of
+	 * an array, the data is copied on the first call.
+	 */
+	@Override
+	public byte[] getData() {
+		if (raw != null) {
+			byte[] data = new byte[dataLength];
+			System.arraycopy(raw, dataOffset, data, 0, dataLength);
+			raw = null;
 			setData(data);
 		}
+		return super.getData();
+	}
 
-		if (rawData[rawData.length - 1] != getChecksum2(rawData)) {
-			throw new IllegalArgumentException("Checksum 2 failed");
+	@Override
+	public void setData(byte[] data) {
+		raw = null;
+		super.setData(data);
+	}
+
+	@Override
+	public ByteBuffer getIpmiCommandDataView() {
+		if (raw != null) {
+			return ByteBuffer.wrap(raw, dataOffset, dataLength).slice();
 		}
+		return super.getIpmiCommandDataView();
 	}
 
 	@Override
 	public int getPayloadLength() {
 		int length = 8;
-		if (getData() != null) {
+		if (raw != null) {
+			length += dataLength;
+		} else if (getData() != null) {
 			length += getData().length;
 		}
 		return length;
@@ -20,6 +20,7 @@ import ipmi.coding.rmcp.RmcpMessage;
 import ipmi.coding.security.ConfidentialityAlgorithm;
 import ipmi.common.TypeConverter;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 
 /**
@@ -114,7 +115,8 @@ public abstract class ProtocolDecoder implements IpmiDecoder {
 	 */
 	public static AuthenticationType decodeAuthenticationType(
 			RmcpMessage message) {
-		return decodeAuthenticationType(message.getData()[0]);
+		return decodeAuthenticationType(message.getDataBuffer()[message
+				.getDataOffset()]);
 	}
 
 	/**
@@ -127,11 +129,10 @@ public abstract class ProtocolDecoder implements IpmiDecoder {
 	 * @return Decoded integer
 	 */
 	protected static int decodeInt(byte[] rawMessage, int offset) {
-		byte[] result = new byte[4];
-
-		System.arraycopy(rawMessage, offset, result, 0, 4);
-
-		return TypeConverter.littleEndianByteArrayToInt(result);
+		return TypeConverter.byteToInt(rawMessage[offset])
+				| TypeConverter.byteToInt(rawMessage[offset + 1]) << 8
+				| TypeConverter.byteToInt(rawMessage[offset + 2]) << 16
+				| TypeConverter.byteToInt(rawMessage[offset + 3]) << 24;
 	}
 
 	/**
@@ -183,18 +184,18 @@ public abstract class ProtocolDecoder implements IpmiDecoder {
 	 * @param confidentialityAlgorithm
 	 *            - {@link ConfidentialityAlgorithm} required to decrypt
 	 *            payload.
-	 * @return Payload decoded into {@link IpmiLanResponse}.
+	 * @return Payload decoded into {@link IpmiLanResponse}. Unless decryption
+	 *         requires it, the payload is not copied and its data is a view
+	 *         over the rawData.
 	 */
 	protected IpmiPayload decodePayload(byte[] rawData, int offset, int length,
 			ConfidentialityAlgorithm confidentialityAlgorithm) {
-		byte[] payload = null;
-		if (length > 0) {
-			payload = new byte[length];
-
-			System.arraycopy(rawData, offset, payload, 0, length);
-
-			payload = confidentialityAlgorithm.decrypt(payload);
+		if (length <= 0) {
+			throw new IllegalArgumentException("Message is corrupted");
 		}
-		return new IpmiLanResponse(payload);
+		ByteBuffer payload = confidentialityAlgorithm.decrypt(rawData, offset,
+				length);
+		return new IpmiLanResponse(payload.array(), payload.arrayOffset()
+				+ payload.position(), payload.remaining());
 	}
 }
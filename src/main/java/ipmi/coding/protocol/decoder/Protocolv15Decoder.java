@@ -42,11 +42,13 @@ public class Protocolv15Decoder extends ProtocolDecoder {
 			throws IllegalArgumentException {
 		Ipmiv15Message message = new Ipmiv15Message();
 
-		byte[] raw = rmcpMessage.getData();
+		byte[] raw = rmcpMessage.getDataBuffer();
 
-		message.setAuthenticationType(decodeAuthenticationType(raw[0]));
+		int offset = rmcpMessage.getDataOffset();
 
-		int offset = 1;
+		message.setAuthenticationType(decodeAuthenticationType(raw[offset]));
+
+		++offset;
 
 		message.setSessionSequenceNumber(decodeSessionSequenceNumber(raw,
 				offset));
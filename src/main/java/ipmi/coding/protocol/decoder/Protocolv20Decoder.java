@@ -17,11 +17,11 @@ import ipmi.coding.protocol.Ipmiv20Message;
 import ipmi.coding.protocol.PayloadType;
 import ipmi.coding.rmcp.RmcpMessage;
 import ipmi.coding.security.CipherSuite;
+import ipmi.coding.security.ConfidentialityAlgorithm;
 import ipmi.coding.security.ConfidentialityNone;
 import ipmi.common.TypeConverter;
 
 import java.security.InvalidKeyException;
-import java.util.Arrays;
 
 import org.apache.log4j.Logger;
 
@@ -32,6 +32,8 @@ public class Protocolv20Decoder extends ProtocolDecoder {
 
     private static Logger logger = Logger.getLogger(Protocolv20Decoder.class);
     
+	private static final ConfidentialityAlgorithm NO_CONFIDENTIALITY = new ConfidentialityNone();
+
 	private CipherSuite cipherSuite;
 
 	/**
@@ -65,20 +67,22 @@ public class Protocolv20Decoder extends ProtocolDecoder {
 		Ipmiv20Message message = new Ipmiv20Message(
 				cipherSuite.getConfidentialityAlgorithm());
 
-		byte[] raw = rmcpMessage.getData();
+		byte[] raw = rmcpMessage.getDataBuffer();
+		int start = rmcpMessage.getDataOffset();
+		int end = start + rmcpMessage.getDataLength();
 
-		message.setAuthenticationType(decodeAuthenticationType(raw[0]));
+		message.setAuthenticationType(decodeAuthenticationType(raw[start]));
 
-		message.setPayloadEncrypted(decodeEncryption(raw[1]));
+		message.setPayloadEncrypted(decodeEncryption(raw[start + 1]));
 
-		message.setPayloadAuthenticated(decodeAuthentication(raw[1]));
+		message.setPayloadAuthenticated(decodeAuthentication(raw[start + 1]));
 
-		message.setPayloadType(decodePayloadType(raw[1]));
+		message.setPayloadType(decodePayloadType(raw[start + 1]));
 
-		int offset = 2;
+		int offset = start + 2;
 
 		if (message.getPayloadType() == PayloadType.Oem) {
-			message.setOemIANA(decodeOEMIANA(raw));
+			message.setOemIANA(decodeOEMIANA(raw, start));
 			offset += 4;
 
 			message.setOemPayloadID(decodeOEMPayloadId(raw, offset));
@@ -95,12 +99,16 @@ public class Protocolv20Decoder extends ProtocolDecoder {
 		int payloadLength = decodePayloadLength(raw, offset);
 		offset += 2;
 
+		if (offset + payloadLength > end) {
+			throw new IllegalArgumentException("Message is corrupted");
+		}
+
 		if (message.isPayloadEncrypted()) {
 			message.setPayload(decodePayload(raw, offset, payloadLength,
 					message.getConfidentialityAlgorithm()));
 		} else {
 			message.setPayload(decodePayload(raw, offset, payloadLength,
-					new ConfidentialityNone()));
+					NO_CONFIDENTIALITY));
 		}
 
 		offset += payloadLength;
@@ -109,9 +117,10 @@ public class Protocolv20Decoder extends ProtocolDecoder {
 				&& !(message.getAuthenticationType() == AuthenticationType.RMCPPlus && !message
 						.isPayloadAuthenticated())
 				&& message.getSessionID() != 0) {
-			offset = skipIntegrityPAD(raw, offset);
-			message.setAuthCode(decodeAuthCode(raw, offset));
-			if (!validateAuthCode(raw, offset)) {
+			offset = skipIntegrityPAD(raw, offset, end);
+			message.setAuthCode(decodeAuthCode(raw, offset, end));
+			if (!cipherSuite.getIntegrityAlgorithm().validateAuthCode(raw,
+					start, offset, end)) {
 				logger.warn("Integrity check failed");
 			}
 		}
@@ -145,20 +154,34 @@ public class Protocolv20Decoder extends ProtocolDecoder {
 				& TypeConverter.intToByte(0x3f)));
 	}
 
+	/**
+	 * Decodes payload type without decoding the whole message.
+	 * 
+	 * @param message
+	 *            - message to get payload type from
+	 * @return Payload type.
+	 * @throws IllegalArgumentException
+	 *             when payload type is unknown
+	 */
+	public static PayloadType decodePayloadType(RmcpMessage message)
+			throws IllegalArgumentException {
+		return decodePayloadType(message.getDataBuffer()[message
+				.getDataOffset() + 1]);
+	}
+
 	/**
 	 * Decodes OEM IANA.
 	 * 
 	 * @param rawMessage
 	 *            - Byte array holding whole message data.
+	 * @param offset
+	 *            - Offset to the session header.
 	 * @return OEM IANA number.
 	 */
-	private int decodeOEMIANA(byte[] rawMessage) {
-		byte[] oemIANA = new byte[4];
-
-		System.arraycopy(rawMessage, 3, oemIANA, 0, 3);
-		oemIANA[3] = 0;
-
-		return TypeConverter.littleEndianByteArrayToInt(oemIANA);
+	private int decodeOEMIANA(byte[] rawMessage, int offset) {
+		return TypeConverter.byteToInt(rawMessage[offset + 3])
+				| TypeConverter.byteToInt(rawMessage[offset + 4]) << 8
+				| TypeConverter.byteToInt(rawMessage[offset + 5]) << 16;
 	}
 
 	/**
@@ -181,12 +204,8 @@ public class Protocolv20Decoder extends ProtocolDecoder {
 
 	@Override
 	protected int decodePayloadLength(byte[] rawData, int offset) {
-		byte[] payloadLength = new byte[4];
-		System.arraycopy(rawData, offset, payloadLength, 0, 2);
-		payloadLength[2] = 0;
-		payloadLength[3] = 0;
-
-		return TypeConverter.littleEndianByteArrayToInt(payloadLength);
+		return TypeConverter.byteToInt(rawData[offset])
+				| TypeConverter.byteToInt(rawData[offset + 1]) << 8;
 	}
 
 	/**
@@ -196,23 +215,29 @@ public class Protocolv20Decoder extends ProtocolDecoder {
 	 *            - Byte array holding whole message data.
 	 * @param offset
 	 *            - Offset to integrity pad.
+	 * @param end
+	 *            - Offset after the end of the message.
 	 * @return Offset to Auth Code
 	 * @throws IndexOutOfBoundsException
 	 *             when message is corrupted and pad length does not appear
 	 *             after integrity pad or length is incorrect.
 	 */
-	private int skipIntegrityPAD(byte[] rawMessage, int offset)
+	private int skipIntegrityPAD(byte[] rawMessage, int offset, int end)
 			throws IndexOutOfBoundsException {
 		int skip = 0;
-		while (TypeConverter.byteToInt(rawMessage[offset + skip]) == 0xff) {
+		while (offset + skip < end
+				&& TypeConverter.byteToInt(rawMessage[offset + skip]) == 0xff) {
 			++skip;
 		}
+		if (offset + skip >= end) {
+			throw new IndexOutOfBoundsException("Message is corrupted.");
+		}
 		int length = TypeConverter.byteToInt(rawMessage[offset + skip]);
 		if (length != skip) {
 			throw new IndexOutOfBoundsException("Message is corrupted.");
 		}
 		offset += skip + 2; // skip pad length and next header fields
-		if (offset >= rawMessage.length) {
+		if (offset >= end) {
 			throw new IndexOutOfBoundsException("Message is corrupted.");
 		}
 		return offset;
@@ -225,57 +250,56 @@ public class Protocolv20Decoder extends ProtocolDecoder {
 	 *            - Byte array holding whole message data.
 	 * @param offset
 	 *            - Offset to auth code.
+	 * @param end
+	 *            - Offset after the end of the message.
 	 * @return Auth Code
-	 * @throws IndexOutOfBoundsException
-	 *             when message is corrupted and pad length does not appear
-	 *             after integrity pad or length is incorrect.
 	 */
-	private byte[] decodeAuthCode(byte[] rawMessage, int offset) {
-		byte[] authCode = new byte[rawMessage.length - offset];
+	private byte[] decodeAuthCode(byte[] rawMessage, int offset, int end) {
+		byte[] authCode = new byte[end - offset];
 		System.arraycopy(rawMessage, offset, authCode, 0, authCode.length);
 		return authCode;
 	}
 
 	/**
-	 * Checks if Auth Code of the received message is valid
+	 * Decodes session ID.
 	 * 
-	 * @param rawMessage
-	 *            - received message
-	 * @param offset
-	 *            - offset to the AuthCode field in the message
-	 * @return True if AuthCode is correct, false otherwise.
-	 * @throws InvalidKeyException
-	 *             - when initiation of the integrity algorithm fails
+	 * @param message
+	 *            - message to get session ID from
+	 * @return Session ID.
 	 */
-	private boolean validateAuthCode(byte[] rawMessage, int offset)
-			throws InvalidKeyException {
-		byte[] base = new byte[offset];
-
-		System.arraycopy(rawMessage, 0, base, 0, offset);
-
-		byte[] authCode = null;
-
-		if (rawMessage.length > offset) {
-			authCode = new byte[rawMessage.length - offset];
-			System.arraycopy(rawMessage, offset, authCode, 0, authCode.length);
+	public static int decodeSessionID(RmcpMessage message) {
+		int offset = message.getDataOffset() + 2;
+		if (decodePayloadType(message) == PayloadType.Oem) {
+			offset += 6;
 		}
-
-		return Arrays.equals(authCode, cipherSuite.getIntegrityAlgorithm()
-				.generateAuthCode(base));
+		return decodeSessionID(message.getDataBuffer(), offset);
 	}
 
 	/**
-	 * Decodes session ID.
+	 * Decodes session sequence number without decoding the whole message.
 	 * 
 	 * @param message
-	 *            - message to get session ID from
-	 * @return Session ID.
+	 *            - message to get session sequence number from
+	 * @return Session sequence number.
 	 */
-	public static int decodeSessionID(RmcpMessage message) {
-		int offset = 2;
-		if (decodePayloadType(message.getData()[1]) == PayloadType.Oem) {
+	public static int decodeSessionSequenceNumber(RmcpMessage message) {
+		int offset = message.getDataOffset() + 6;
+		if (decodePayloadType(message) == PayloadType.Oem) {
 			offset += 6;
 		}
-		return decodeSessionID(message.getData(), offset);
+		return decodeInt(message.getDataBuffer(), offset);
+	}
+
+	/**
+	 * Checks if the payload of the message is authenticated without decoding
+	 * the whole message.
+	 * 
+	 * @param message
+	 *            - message to check
+	 * @return True if payload is authenticated, false otherwise.
+	 */
+	public static boolean isPayloadAuthenticated(RmcpMessage message) {
+		return (message.getDataBuffer()[message.getDataOffset() + 1] & TypeConverter
+				.intToByte(0x40)) != 0;
 	}
 }
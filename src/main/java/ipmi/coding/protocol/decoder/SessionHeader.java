@@ -0,0 +1,154 @@
+/*
+ * SessionHeader.java
+ * Created on 2011-10-07
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.coding.protocol.decoder;
+
+import ipmi.coding.protocol.AuthenticationType;
+import ipmi.coding.protocol.PayloadType;
+import ipmi.coding.rmcp.RmcpMessage;
+import ipmi.common.TypeConverter;
+
+/**
+ * Reusable view of the IPMI v2.0 session header fields needed to decide
+ * whether the received message should be decoded at all. The fields are
+ * parsed once by {@link #peek(RmcpMessage)} without creating any objects, so
+ * the messages that do not belong to the session can be dropped cheaply.
+ * Unknown payload types are reported as their codes instead of causing an
+ * exception. <br>
+ * The instance is not thread safe - it should be reused by a single thread.
+ */
+public final class SessionHeader {
+
+	private static final int RMCP_PLUS = AuthenticationType.RMCPPlus.getCode();
+
+	private static final int OEM = PayloadType.Oem.getCode();
+
+	/**
+	 * Length of the OEM IANA and OEM Payload ID fields present for OEM
+	 * payloads.
+	 */
+	private static final int OEM_FIELDS_LENGTH = 6;
+
+	private int authenticationType;
+
+	private int payloadType;
+
+	private boolean payloadEncrypted;
+
+	private boolean payloadAuthenticated;
+
+	private int sessionId;
+
+	private int sessionSequenceNumber;
+
+	/**
+	 * Parses the session header of the message.
+	 *
+	 * @param message
+	 *            - RMCP message to peek at
+	 * @return True if the message has the complete IPMI v2.0 session header,
+	 *         false otherwise. When false is returned only
+	 *         {@link #getAuthenticationType()} might be valid.
+	 */
+	public boolean peek(RmcpMessage message) {
+		return peek(message.getDataBuffer(), message.getDataOffset(),
+				message.getDataLength());
+	}
+
+	/**
+	 * Parses the session header held in the part of the array.
+	 *
+	 * @param data
+	 *            - array holding the IPMI message
+	 * @param offset
+	 *            - index of the AuthType/Format field in the array
+	 * @param length
+	 *            - length of the IPMI message
+	 * @return True if the message has the complete IPMI v2.0 session header,
+	 *         false otherwise. When false is returned only
+	 *         {@link #getAuthenticationType()} might be valid.
+	 * @see #peek(RmcpMessage)
+	 */
+	public boolean peek(byte[] data, int offset, int length) {
+		authenticationType = -1;
+		payloadType = -1;
+		payloadEncrypted = false;
+		payloadAuthenticated = false;
+		sessionId = 0;
+		sessionSequenceNumber = 0;
+
+		if (data == null || length < 2) {
+			return false;
+		}
+
+		authenticationType = data[offset] & 0x0f;
+		if (authenticationType != RMCP_PLUS) {
+			return false;
+		}
+
+		int type = TypeConverter.byteToInt(data[offset + 1]);
+		payloadEncrypted = (type & 0x80) != 0;
+		payloadAuthenticated = (type & 0x40) != 0;
+		payloadType = type & 0x3f;
+
+		int index = 2;
+		if (payloadType == OEM) {
+			index += OEM_FIELDS_LENGTH;
+		}
+		if (length < index + 8) {
+			return false;
+		}
+
+		sessionId = decodeInt(data, offset + index);
+		sessionSequenceNumber = decodeInt(data, offset + index + 4);
+
+		return true;
+	}
+
+	private static int decodeInt(byte[] data, int offset) {
+		return TypeConverter.byteToInt(data[offset])
+				| TypeConverter.byteToInt(data[offset + 1]) << 8
+				| TypeConverter.byteToInt(data[offset + 2]) << 16
+				| TypeConverter.byteToInt(data[offset + 3]) << 24;
+	}
+
+	/**
+	 * @return Code of the {@link AuthenticationType}, -1 if the message was
+	 *         empty.
+	 */
+	public int getAuthenticationType() {
+		return authenticationType;
+	}
+
+	/**
+	 * @return Code of the {@link PayloadType}. Might be a code not known to
+	 *         {@link PayloadType#parseInt(int)}.
+	 */
+	public int getPayloadType() {
+		return payloadType;
+	}
+
+	public boolean isPayloadEncrypted() {
+		return payloadEncrypted;
+	}
+
+	public boolean isPayloadAuthenticated() {
+		return payloadAuthenticated;
+	}
+
+	public int getSessionId() {
+		return sessionId;
+	}
+
+	public int getSessionSequenceNumber() {
+		return sessionSequenceNumber;
+	}
+}
@@ -15,8 +15,11 @@ import ipmi.coding.protocol.AuthenticationType;
 import ipmi.coding.protocol.IpmiMessage;
 import ipmi.coding.protocol.Ipmiv20Message;
 import ipmi.coding.protocol.PayloadType;
+import ipmi.coding.security.ConfidentialityAlgorithm;
+import ipmi.coding.security.IntegrityAlgorithm;
 import ipmi.common.TypeConverter;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 
 /**
@@ -96,6 +99,134 @@ public class Protocolv20Encoder extends ProtocolEncoder {
 		return raw;
 	}
 
+	/**
+	 * Encodes IPMI v2.0 message into the buffer at its position in a single
+	 * pass. The payload is written and encrypted in place and the
+	 * Authorization Code is calculated over the bytes already written, so no
+	 * intermediate arrays are created. The AuthCode field of the message is
+	 * ignored.
+	 * 
+	 * @param message
+	 *            - IPMI message to be encoded
+	 * @param integrityAlgorithm
+	 *            - {@link IntegrityAlgorithm} generating the AuthCode of the
+	 *            authenticated message
+	 * @param buffer
+	 *            - buffer the message is encoded into
+	 * @throws IllegalArgumentException
+	 *             when authentication type is incorrect.
+	 * @throws InvalidKeyException
+	 *             - when initiation of the confidentiality algorithm fails
+	 * @throws java.nio.BufferOverflowException
+	 *             when the buffer is too short to hold the message
+	 */
+	public void encode(Ipmiv20Message message,
+			IntegrityAlgorithm integrityAlgorithm, ByteBuffer buffer)
+			throws IllegalArgumentException, InvalidKeyException {
+		if (message.getAuthenticationType() != AuthenticationType.RMCPPlus) {
+			throw new IllegalArgumentException(
+					"Authentication type must be RMCP+ for IPMI v2.0");
+		}
+
+		int start = buffer.position();
+
+		buffer.put(encodeAuthenticationType(message.getAuthenticationType()));
+
+		buffer.put(encodePayloadType(message.isPayloadEncrypted(),
+				message.isPayloadAuthenticated(), message.getPayloadType()));
+
+		if (message.getPayloadType() == PayloadType.Oem) {
+			putInt(message.getOemIANA(), buffer);
+
+			byte[] oemId = new byte[2];
+			encodeOEMPayloadId(message.getOemPayloadID(), oemId, 0);
+			buffer.put(oemId);
+		}
+
+		putInt(message.getSessionID(), buffer);
+
+		putInt(message.getSessionSequenceNumber(), buffer);
+
+		int lengthOffset = buffer.position();
+		buffer.position(lengthOffset + 2);
+
+		ConfidentialityAlgorithm confidentialityAlgorithm = message
+				.getConfidentialityAlgorithm();
+		int payloadOffset = buffer.position();
+		buffer.position(payloadOffset
+				+ confidentialityAlgorithm.getConfidentialityHeaderSize());
+		message.getPayload().writePayloadData(buffer);
+		confidentialityAlgorithm.encrypt(buffer, payloadOffset,
+				message.getPayloadLength());
+
+		int payloadLength = buffer.position() - payloadOffset;
+		buffer.put(lengthOffset, (byte) payloadLength);
+		buffer.put(lengthOffset + 1, (byte) (payloadLength >>> 8));
+
+		if (message.isPayloadAuthenticated() && message.getSessionID() != 0) {
+			int authCodeLength = integrityAlgorithm.getAuthCodeLength();
+			int pad = (buffer.position() - start + authCodeLength + 2) % 4;
+			if (pad > 0) {
+				pad = 4 - pad;
+			}
+
+			for (int i = 0; i < pad; ++i) {
+				buffer.put(TypeConverter.intToByte(0xff));
+			}
+
+			buffer.put(TypeConverter.intToByte(pad));
+
+			// Next header - reserved
+			buffer.put(TypeConverter.intToByte(0x07));
+
+			integrityAlgorithm.generateAuthCode(buffer, start);
+		}
+	}
+
+	/**
+	 * Calculates length of the IPMI v2.0 message encoded via
+	 * {@link #encode(Ipmiv20Message, IntegrityAlgorithm, ByteBuffer)}.
+	 * 
+	 * @param message
+	 *            - IPMI message to be encoded
+	 * @param integrityAlgorithm
+	 *            - {@link IntegrityAlgorithm} generating the AuthCode of the
+	 *            authenticated message
+	 */
+	public int getEncodedLength(Ipmiv20Message message,
+			IntegrityAlgorithm integrityAlgorithm) {
+		ConfidentialityAlgorithm confidentialityAlgorithm = message
+				.getConfidentialityAlgorithm();
+		int length = 12
+				+ message.getPayloadLength()
+				+ confidentialityAlgorithm
+						.getConfidentialityOverheadSize(message
+								.getPayloadLength());
+
+		if (message.getPayloadType() == PayloadType.Oem) {
+			length += 6;
+		}
+
+		if (message.isPayloadAuthenticated() && message.getSessionID() != 0) {
+			length += integrityAlgorithm.getAuthCodeLength() + 2;
+			if (length % 4 != 0) {
+				length += 4 - length % 4;
+			}
+		}
+
+		return length;
+	}
+
+	/**
+	 * Writes integer value into the buffer using little endian convention.
+	 */
+	private void putInt(int value, ByteBuffer buffer) {
+		buffer.put((byte) value);
+		buffer.put((byte) (value >>> 8));
+		buffer.put((byte) (value >>> 16));
+		buffer.put((byte) (value >>> 24));
+	}
+
 	/**
 	 * Calculates length of the IPMI message.
 	 * 
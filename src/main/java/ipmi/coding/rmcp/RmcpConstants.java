@@ -37,6 +37,11 @@ public final class RmcpConstants {
 	 * ASF Message type = Presence Ping
 	 */
 	public static final byte PRESENCE_PING = (byte) (0x80 - 256);
+
+	/**
+	 * ASF Message type = Presence Pong
+	 */
+	public static final byte PRESENCE_PONG = 0x40;
 	
 	private RmcpConstants() {
 	}
@@ -30,21 +30,40 @@ public final class RmcpDecoder {
      * - occurs when message is too short or contains invalid data
      */
     public static RmcpMessage decode(byte[] rawMessage) throws IllegalArgumentException {
+        return decode(rawMessage, 0, rawMessage.length);
+    }
+
+    /**
+     * Decodes the RMCP packet held in the part of the array. The data of the
+     * returned message is a view over the array - it is not copied.
+     * @param rawMessage
+     * - array holding the packet
+     * @param offset
+     * - index of the first byte of the packet in the array
+     * @param length
+     * - length of the packet
+     * @return RMCPMessage
+     * @throws IllegalArgumentException
+     * - occurs when message is too short or contains invalid data
+     * @see RmcpMessage#getDataBuffer()
+     */
+    public static RmcpMessage decode(byte[] rawMessage, int offset, int length)
+            throws IllegalArgumentException {
         RmcpMessage message = new RmcpMessage();
 
-        if (rawMessage.length < 4) {
+        if (length < 4) {
             throw new IllegalArgumentException("Message is corrupted");
         }
 
-        message.setVersion(decodeVersion(rawMessage[0]));
+        message.setVersion(decodeVersion(rawMessage[offset]));
 
         // byte 1 is reserved
 
-        message.setSequenceNumber(decodeSequenceNumber(rawMessage[2]));
+        message.setSequenceNumber(decodeSequenceNumber(rawMessage[offset + 2]));
 
-        message.setClassOfMessage(decodeClassOfMessage(rawMessage[3]));
+        message.setClassOfMessage(decodeClassOfMessage(rawMessage[offset + 3]));
 
-        message.setData(decodeData(rawMessage));
+        message.setData(rawMessage, offset + 4, length - 4);
 
         return message;
     }
@@ -66,10 +85,4 @@ public final class RmcpDecoder {
         // bits 5 and 6 are reserved so we need to get rid of them
     }
 
-    private static byte[] decodeData(byte[] rawMessage) {
-        byte[] data = new byte[rawMessage.length - 4];
-        System.arraycopy(rawMessage, 4, data, 0, data.length);
-        return data;
-    }
-
 }
@@ -13,6 +13,8 @@ package ipmi.coding.rmcp;
 
 import ipmi.common.TypeConverter;
 
+import java.nio.ByteBuffer;
+
 /**
  * Encodes RMCPMessage into RMCP packet.
  */
@@ -44,6 +46,27 @@ public final class RmcpEncoder {
 		return data;
 	}
 
+	/**
+	 * Writes the RMCP header into the buffer at its position. The data of the
+	 * message must be written after it.
+	 * 
+	 * @param version
+	 *            - RMCP version of the message
+	 * @param sequenceNumber
+	 *            - RMCP sequence number of the message
+	 * @param classOfMessage
+	 *            - class of the message
+	 * @param buffer
+	 *            - buffer the packet is encoded into
+	 */
+	public static void encodeHeader(RmcpVersion version, byte sequenceNumber,
+			RmcpClassOfMessage classOfMessage, ByteBuffer buffer) {
+		buffer.put(encodeVersion(version));
+		buffer.put((byte) 0); // reserved
+		buffer.put(encodeSequenceNumber(sequenceNumber));
+		buffer.put(encodeRMCPClassOfMessage(classOfMessage));
+	}
+
 	private static byte encodeVersion(RmcpVersion version) {
 		switch (version) {
 		case RMCP1_0:
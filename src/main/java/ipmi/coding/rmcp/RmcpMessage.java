@@ -21,6 +21,8 @@ public class RmcpMessage {
 	private byte sequenceNumber;
 	private RmcpClassOfMessage classOfMessage;
 	private byte[] data;
+	private int dataOffset;
+	private int dataLength;
 	
 	public RmcpMessage() {
 	    setSequenceNumber(0xff);
@@ -60,9 +62,59 @@ public class RmcpMessage {
 
 	public void setData(byte[] data) {
 		this.data = data;
+		dataOffset = 0;
+		dataLength = data == null ? 0 : data.length;
 	}
 
+	/**
+	 * Sets the message data to the part of the array. The array is not
+	 * copied, so it must not be modified while the message is being decoded.
+	 * 
+	 * @param buffer
+	 *            - array holding the data
+	 * @param offset
+	 *            - index of the first byte of the data in the array
+	 * @param length
+	 *            - length of the data
+	 */
+	public void setData(byte[] buffer, int offset, int length) {
+		data = buffer;
+		dataOffset = offset;
+		dataLength = length;
+	}
+
+	/**
+	 * Returns the message data. If the data was set as a part of an array, it
+	 * is copied on the first call.
+	 * 
+	 * @see #setData(byte[], int, int)
+	 */
 	public byte[] getData() {
+		if (data != null && (dataOffset != 0 || dataLength != data.length)) {
+			byte[] copy = new byte[dataLength];
+			System.arraycopy(data, dataOffset, copy, 0, dataLength);
+			setData(copy);
+		}
 		return data;
 	}
+
+	/**
+	 * Returns the array holding the message data without copying it. The
+	 * data starts at {@link #getDataOffset()}.
+	 */
+	public byte[] getDataBuffer() {
+		return data;
+	}
+
+	/**
+	 * Returns the index of the first byte of the data in
+	 * {@link #getDataBuffer()}.
+	 */
+	public int getDataOffset() {
+		return dataOffset;
+	}
+
+	public int getDataLength() {
+		return dataLength;
+	}
 }
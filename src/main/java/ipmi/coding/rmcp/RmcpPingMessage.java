@@ -36,6 +36,33 @@ public class RmcpPingMessage extends RmcpMessage {
 		setData(preparePingMessage(sequenceNumber));
 	}
 
+	/**
+	 * Checks if the message is the ASF pong - response to the
+	 * {@link RmcpPingMessage}.
+	 * 
+	 * @param message
+	 *            - decoded RMCP message
+	 * @return Message tag of the pong (the sequence number of the ping it
+	 *         answers), -1 if the message is not a pong.
+	 */
+	public static int decodePongTag(RmcpMessage message) {
+		byte[] data = message.getData();
+		if (message.getClassOfMessage() != RmcpClassOfMessage.Asf
+				|| data == null || data.length < 8
+				|| data[4] != RmcpConstants.PRESENCE_PONG) {
+			return -1;
+		}
+		// IANA Enterprise Number is big-endian
+		int iana = 0;
+		for (int i = 0; i < 4; ++i) {
+			iana = iana << 8 | TypeConverter.byteToInt(data[i]);
+		}
+		if (iana != RmcpConstants.ASFIANA) {
+			return -1;
+		}
+		return TypeConverter.byteToInt(data[5]);
+	}
+
 	private byte[] preparePingMessage(int sequenceNumber) {
 		byte[] message = new byte[8];
 
@@ -13,6 +13,7 @@ package ipmi.coding.security;
 
 import ipmi.common.TypeConverter;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
@@ -23,10 +24,14 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
- * AES-CBC-128 confidentiality algorithm
+ * AES-CBC-128 confidentiality algorithm. The instance is used by the threads
+ * sending the messages and by the thread receiving them at the same time, so
+ * the {@link Cipher} is only used with its lock held.
  */
 public class ConfidentialityAesCbc128 extends ConfidentialityAlgorithm {
 
+	private static final int BLOCK_SIZE = 16;
+
 	private static final byte[] CONST2 = new byte[] { 2, 2, 2, 2, 2, 2, 2, 2,
 			2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2 };
 
@@ -71,8 +76,6 @@ public class ConfidentialityAesCbc128 extends ConfidentialityAlgorithm {
 
 		byte[] result = new byte[length - 16];
 
-		cipher.init(Cipher.ENCRYPT_MODE, cipherKey);
-
 		System.arraycopy(data, 0, result, 0, data.length);
 
 		for (int i = 0; i < pad; ++i) {
@@ -81,20 +84,76 @@ public class ConfidentialityAesCbc128 extends ConfidentialityAlgorithm {
 
 		result[length - 17] = TypeConverter.intToByte(pad);
 
-		try {
-			byte[] encrypted = cipher.doFinal(result);
+		synchronized (cipher) {
+			cipher.init(Cipher.ENCRYPT_MODE, cipherKey);
 
-			result = new byte[encrypted.length + 16];
+			try {
+				byte[] encrypted = cipher.doFinal(result);
 
-			System.arraycopy(encrypted, 0, result, 16, encrypted.length); // encrypted
-																			// payload
-			System.arraycopy(cipher.getIV(), 0, result, 0, 16); // Initialization
-																// vector
+				result = new byte[encrypted.length + 16];
 
-			return result;
-		} catch (Exception e) {
-			throw new IllegalArgumentException(e.getMessage(), e);
+				System.arraycopy(encrypted, 0, result, 16, encrypted.length); // encrypted
+																				// payload
+				System.arraycopy(cipher.getIV(), 0, result, 0, 16); // Initialization
+																	// vector
+
+				return result;
+			} catch (Exception e) {
+				throw new IllegalArgumentException(e.getMessage(), e);
+			}
+		}
+	}
+
+	@Override
+	public int getConfidentialityHeaderSize() {
+		return BLOCK_SIZE;
+	}
+
+	@Override
+	public void encrypt(ByteBuffer buffer, int offset, int length)
+			throws InvalidKeyException {
+		int pad = 0;
+		if ((length + 1) % BLOCK_SIZE != 0) {
+			pad = BLOCK_SIZE - (length + 1) % BLOCK_SIZE;
+		}
+
+		for (int i = 0; i < pad; ++i) {
+			buffer.put(TypeConverter.intToByte(i + 1));
+		}
+		buffer.put(TypeConverter.intToByte(pad));
+
+		int start = offset + BLOCK_SIZE;
+		int end = buffer.position();
+
+		synchronized (cipher) {
+			cipher.init(Cipher.ENCRYPT_MODE, cipherKey);
+
+			byte[] iv = cipher.getIV();
+			for (int i = 0; i < BLOCK_SIZE; ++i) {
+				buffer.put(offset + i, iv[i]);
+			}
+
+			try {
+				if (buffer.hasArray()) {
+					// in place - Cipher allows the same array for input and
+					// output
+					cipher.doFinal(buffer.array(), buffer.arrayOffset()
+							+ start, end - start, buffer.array(), buffer
+							.arrayOffset()
+							+ start);
+				} else {
+					ByteBuffer input = buffer.duplicate();
+					input.limit(end);
+					input.position(start);
+					ByteBuffer output = buffer.duplicate();
+					output.position(start);
+					cipher.doFinal(input, output);
+				}
+			} catch (Exception e) {
+				throw new IllegalArgumentException(e.getMessage(), e);
+			}
 		}
+		buffer.position(end);
 	}
 
 	@Override
@@ -110,8 +169,11 @@ public class ConfidentialityAesCbc128 extends ConfidentialityAlgorithm {
 
 			System.arraycopy(data, 16, encrypted, 0, encrypted.length);
 
-			cipher.init(Cipher.DECRYPT_MODE, cipherKey, new IvParameterSpec(iv));
-			decrypted = cipher.doFinal(encrypted);
+			synchronized (cipher) {
+				cipher.init(Cipher.DECRYPT_MODE, cipherKey,
+						new IvParameterSpec(iv));
+				decrypted = cipher.doFinal(encrypted);
+			}
 		} catch (Exception e) {
 			throw new IllegalArgumentException("Decryption failed", e);
 		}
@@ -125,6 +187,30 @@ public class ConfidentialityAesCbc128 extends ConfidentialityAlgorithm {
 		return result;
 	}
 
+	@Override
+	public ByteBuffer decrypt(byte[] data, int offset, int length)
+			throws IllegalArgumentException {
+		byte[] decrypted = null;
+		try {
+			synchronized (cipher) {
+				cipher.init(Cipher.DECRYPT_MODE, cipherKey,
+						new IvParameterSpec(data, offset, BLOCK_SIZE));
+				decrypted = cipher.doFinal(data, offset + BLOCK_SIZE, length
+						- BLOCK_SIZE);
+			}
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Decryption failed", e);
+		}
+
+		int pad = TypeConverter.byteToInt(decrypted[decrypted.length - 1]);
+
+		if (pad >= decrypted.length) {
+			throw new IllegalArgumentException("Decryption failed");
+		}
+
+		return ByteBuffer.wrap(decrypted, 0, decrypted.length - pad - 1);
+	}
+
 	@Override
 	public int getConfidentialityOverheadSize(int payloadSize) {
 		int size = 17;
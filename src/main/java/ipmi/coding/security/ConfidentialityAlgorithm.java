@@ -11,6 +11,7 @@
  */
 package ipmi.coding.security;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
@@ -58,6 +59,40 @@ public abstract class ConfidentialityAlgorithm {
 	 */
 	public abstract byte[] encrypt(byte[] data) throws InvalidKeyException;
 
+	/**
+	 * Returns the size of the Confidentiality Header specific for the
+	 * algorithm. Space for it must be left in front of the payload encrypted
+	 * via {@link #encrypt(ByteBuffer, int, int)}.
+	 */
+	public int getConfidentialityHeaderSize() {
+		return 0;
+	}
+
+	/**
+	 * Encrypts the payload in place. Algorithms that can encrypt the data in
+	 * the buffer without copying it should override this method.
+	 * 
+	 * @param buffer
+	 *            - buffer the message is encoded into. Its position must
+	 *            point after the payload and will point after the
+	 *            Confidentiality Trailer.
+	 * @param offset
+	 *            - index of the Confidentiality Header, followed by the
+	 *            payload
+	 * @param length
+	 *            - length of the payload
+	 * @throws InvalidKeyException
+	 *             - when initiation of the algorithm fails
+	 */
+	public void encrypt(ByteBuffer buffer, int offset, int length)
+			throws InvalidKeyException {
+		byte[] data = new byte[length];
+		buffer.position(offset + getConfidentialityHeaderSize());
+		buffer.get(data);
+		buffer.position(offset);
+		buffer.put(encrypt(data));
+	}
+
 	/**
 	 * Decrypts the data.
 	 * 
@@ -70,6 +105,30 @@ public abstract class ConfidentialityAlgorithm {
 	 */
 	public abstract byte[] decrypt(byte[] data) throws IllegalArgumentException;
 
+	/**
+	 * Decrypts the data held in the part of the array. Algorithms that can
+	 * decrypt the data without copying it first or that leave it in place
+	 * should override this method.
+	 * 
+	 * @param data
+	 *            - array holding the encrypted data encapsulated in
+	 *            Confidentiality Header and Trailer
+	 * @param offset
+	 *            - index of the Confidentiality Header in the array
+	 * @param length
+	 *            - length of the data including Confidentiality Header and
+	 *            Trailer
+	 * @return view over the decrypted data, backed by an array
+	 * @throws IllegalArgumentException
+	 *             - when initiation of the algorithm fails
+	 */
+	public ByteBuffer decrypt(byte[] data, int offset, int length)
+			throws IllegalArgumentException {
+		byte[] encrypted = new byte[length];
+		System.arraycopy(data, offset, encrypted, 0, length);
+		return ByteBuffer.wrap(decrypt(encrypted));
+	}
+
 	/**
 	 * Calculates size of the confidentiality header and trailer specific for
 	 * the algorithm.
@@ -11,6 +11,8 @@
  */
 package ipmi.coding.security;
 
+import java.nio.ByteBuffer;
+
 /**
  * Class representing no confidentiality algorithm.
  */
@@ -30,10 +32,20 @@ public class ConfidentialityNone extends ConfidentialityAlgorithm {
 		return data;
 	}
 
+	@Override
+	public void encrypt(ByteBuffer buffer, int offset, int length) {
+		// payload stays in place
+	}
+
 	@Override
 	public byte[] decrypt(byte[] data) {
 		return data;
 	}
+
+	@Override
+	public ByteBuffer decrypt(byte[] data, int offset, int length) {
+		return ByteBuffer.wrap(data, offset, length);
+	}
 	
 	@Override
 	public int getConfidentialityOverheadSize(int payloadSize) {
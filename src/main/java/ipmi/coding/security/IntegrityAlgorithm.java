@@ -14,6 +14,7 @@ package ipmi.coding.security;
 import ipmi.coding.commands.session.Rakp1;
 import ipmi.common.TypeConverter;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 
 /**
@@ -60,6 +61,79 @@ public abstract class IntegrityAlgorithm {
 	 */
 	public abstract byte[] generateAuthCode(byte[] base);
 
+	/**
+	 * Returns the length of the AuthCode field generated by the algorithm.
+	 */
+	public int getAuthCodeLength() {
+		return 0;
+	}
+
+	/**
+	 * Creates AuthCode field for the message being encoded into the buffer
+	 * and writes it at the buffer's position. Integrity Pad must be already
+	 * written, so the base does not need to be modified. Algorithms that can
+	 * work on the buffer without copying the base should override this
+	 * method.
+	 * 
+	 * @param buffer
+	 *            - buffer the message is encoded into
+	 * @param offset
+	 *            - index of the AuthType/Format field in the buffer. The
+	 *            base ends at the buffer's position.
+	 */
+	public void generateAuthCode(ByteBuffer buffer, int offset) {
+		byte[] base = new byte[buffer.position() - offset];
+		for (int i = 0; i < base.length; ++i) {
+			base[i] = buffer.get(offset + i);
+		}
+		byte[] authCode = generateAuthCode(base);
+		if (authCode != null) {
+			buffer.put(authCode);
+		}
+	}
+
+	/**
+	 * Checks the AuthCode field of the received message held in the array.
+	 * Algorithms that can calculate the AuthCode without copying the base
+	 * should override this method.
+	 * 
+	 * @param message
+	 *            - array holding the message
+	 * @param offset
+	 *            - index of the AuthType/Format field in the array
+	 * @param authCodeOffset
+	 *            - index of the AuthCode field in the array
+	 * @param end
+	 *            - index after the last byte of the AuthCode field
+	 * @return True if AuthCode is correct, false otherwise.
+	 */
+	public boolean validateAuthCode(byte[] message, int offset,
+			int authCodeOffset, int end) {
+		byte[] base = new byte[authCodeOffset - offset];
+		System.arraycopy(message, offset, base, 0, base.length);
+		byte[] authCode = generateAuthCode(base);
+		if (authCode == null) {
+			return authCodeOffset == end;
+		}
+		return equals(authCode, message, authCodeOffset, end);
+	}
+
+	/**
+	 * Compares the AuthCode with the part of the array.
+	 */
+	protected static boolean equals(byte[] authCode, byte[] message,
+			int offset, int end) {
+		if (authCode.length != end - offset) {
+			return false;
+		}
+		for (int i = 0; i < authCode.length; ++i) {
+			if (authCode[i] != message[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Modifies the algorithm base since with null Auth Code during encoding
 	 * Integrity Pad isn't calculated.
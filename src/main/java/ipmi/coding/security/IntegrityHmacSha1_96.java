@@ -11,19 +11,32 @@
  */
 package ipmi.coding.security;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
- * HMAC-SHA1-96 integrity algorithm.
+ * HMAC-SHA1-96 integrity algorithm. The instance is used by the threads
+ * sending the messages and by the thread receiving them at the same time, so
+ * the {@link Mac} and the {@link #digest} are only used with the lock of the
+ * {@link Mac} held.
  */
 public class IntegrityHmacSha1_96 extends IntegrityAlgorithm {
 
+	private static final int AUTH_CODE_LENGTH = 12;
+
 	private Mac mac;
 
+	/**
+	 * Untruncated HMAC of the last message encoded into a buffer or
+	 * validated. Guarded by the lock of the {@link #mac}.
+	 */
+	private byte[] digest;
+
 	private static final byte[] CONST1 = new byte[] { 1, 1, 1, 1,
 			1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1 };
 
@@ -35,6 +48,7 @@ public class IntegrityHmacSha1_96 extends IntegrityAlgorithm {
 	 */
 	public IntegrityHmacSha1_96() throws NoSuchAlgorithmException {
 		mac = Mac.getInstance("HmacSHA1");
+		digest = new byte[mac.getMacLength()];
 	}
 	
 	@Override
@@ -43,11 +57,13 @@ public class IntegrityHmacSha1_96 extends IntegrityAlgorithm {
 		
 		SecretKeySpec k1 = new SecretKeySpec(sik, "HmacSHA1");
 
-		mac.init(k1);
-		
-		k1 = new SecretKeySpec(mac.doFinal(CONST1), "HmacSHA1");
-		
-		mac.init(k1);
+		synchronized (mac) {
+			mac.init(k1);
+
+			k1 = new SecretKeySpec(mac.doFinal(CONST1), "HmacSHA1");
+
+			mac.init(k1);
+		}
 	}
 
 	@Override
@@ -61,15 +77,76 @@ public class IntegrityHmacSha1_96 extends IntegrityAlgorithm {
 			throw new NullPointerException("Algorithm not initialized.");
 		}
 
-		byte[] result = new byte[12];
+		byte[] result = new byte[AUTH_CODE_LENGTH];
 		
 		if(base[base.length - 2] == 0 /*there are no integrity pad bytes*/) {
-			base = injectIntegrityPad(base,12);
+			base = injectIntegrityPad(base,AUTH_CODE_LENGTH);
 		}
 
-		System.arraycopy(mac.doFinal(base), 0, result, 0, 12);
+		synchronized (mac) {
+			System.arraycopy(mac.doFinal(base), 0, result, 0,
+					AUTH_CODE_LENGTH);
+		}
 
 		return result;
 	}
 
+	@Override
+	public int getAuthCodeLength() {
+		return AUTH_CODE_LENGTH;
+	}
+
+	@Override
+	public void generateAuthCode(ByteBuffer buffer, int offset) {
+		if (sik == null) {
+			throw new NullPointerException("Algorithm not initialized.");
+		}
+
+		int position = buffer.position();
+		int limit = buffer.limit();
+
+		buffer.limit(position);
+		buffer.position(offset);
+		synchronized (mac) {
+			mac.update(buffer);
+			buffer.limit(limit);
+
+			try {
+				mac.doFinal(digest, 0);
+			} catch (ShortBufferException e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+
+			buffer.put(digest, 0, AUTH_CODE_LENGTH);
+		}
+	}
+
+	@Override
+	public boolean validateAuthCode(byte[] message, int offset,
+			int authCodeOffset, int end) {
+		if (sik == null) {
+			throw new NullPointerException("Algorithm not initialized.");
+		}
+		if (end - authCodeOffset != AUTH_CODE_LENGTH) {
+			return false;
+		}
+
+		synchronized (mac) {
+			mac.update(message, offset, authCodeOffset - offset);
+
+			try {
+				mac.doFinal(digest, 0);
+			} catch (ShortBufferException e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+
+			for (int i = 0; i < AUTH_CODE_LENGTH; ++i) {
+				if (digest[i] != message[authCodeOffset + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
 }
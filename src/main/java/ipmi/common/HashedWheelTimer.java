@@ -0,0 +1,407 @@
+/*
+ * HashedWheelTimer.java
+ * Created on 2011-09-16
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.common;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Timer scheduling large number of tasks on a single thread. Tasks are
+ * placed in the buckets of a wheel according to their deadlines and the wheel
+ * advances one bucket per tick, so scheduling and cancelling a task takes
+ * constant time and the number of threads does not depend on the number of
+ * tasks. Deadlines are accurate up to the tick duration.
+ * <p>
+ * The timer thread only keeps track of the deadlines - expired tasks are
+ * handed to the {@link Executor}, so tasks may block without delaying other
+ * tasks' deadlines. Single execution of a periodic task is skipped if the
+ * previous one is still running. Single process-wide instance is available
+ * via {@link #getShared()}.
+ */
+public class HashedWheelTimer {
+
+	private static final long DEFAULT_TICK_DURATION = 10;
+
+	private static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private static HashedWheelTimer shared;
+
+	private static Logger logger = Logger.getLogger(HashedWheelTimer.class);
+
+	private final long tickDuration;
+
+	private final Bucket[] wheel;
+
+	private final int mask;
+
+	/**
+	 * Tasks scheduled since the last tick, waiting to be put into the wheel.
+	 */
+	private final ConcurrentLinkedQueue<ScheduledTask> pending;
+
+	private final long startTime;
+
+	private long tick;
+
+	private volatile boolean stopped;
+
+	private Thread worker;
+
+	private final Executor executor;
+
+	/**
+	 * Executor created by the timer, shut down when the timer stops.
+	 */
+	private final ExecutorService ownExecutor;
+
+	/**
+	 * Returns the process-wide timer. The timer is started on the first call
+	 * and runs as a daemon thread.
+	 */
+	public static synchronized HashedWheelTimer getShared() {
+		if (shared == null) {
+			shared = new HashedWheelTimer(DEFAULT_TICK_DURATION,
+					DEFAULT_WHEEL_SIZE);
+		}
+		return shared;
+	}
+
+	/**
+	 * Initiates and starts the timer running the tasks on its own pool of
+	 * daemon threads, one per available processor but at least 2.
+	 *
+	 * @param tickDuration
+	 *            - duration of the single tick in ms
+	 * @param wheelSize
+	 *            - number of buckets in the wheel, rounded up to the power of
+	 *            2
+	 */
+	public HashedWheelTimer(long tickDuration, int wheelSize) {
+		this(tickDuration, wheelSize, null);
+	}
+
+	/**
+	 * Initiates and starts the timer.
+	 *
+	 * @param tickDuration
+	 *            - duration of the single tick in ms
+	 * @param wheelSize
+	 *            - number of buckets in the wheel, rounded up to the power of
+	 *            2
+	 * @param executor
+	 *            - {@link Executor} running the expired tasks, null to use
+	 *            the timer's own pool of threads
+	 */
+	public HashedWheelTimer(long tickDuration, int wheelSize,
+			Executor executor) {
+		if (tickDuration <= 0 || wheelSize <= 0) {
+			throw new IllegalArgumentException(
+					"Tick duration and wheel size must be positive");
+		}
+		this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+		int size = 1;
+		while (size < wheelSize) {
+			size <<= 1;
+		}
+		wheel = new Bucket[size];
+		for (int i = 0; i < size; ++i) {
+			wheel[i] = new Bucket();
+		}
+		mask = size - 1;
+		pending = new ConcurrentLinkedQueue<ScheduledTask>();
+		startTime = System.nanoTime();
+		tick = 0;
+		stopped = false;
+		if (executor == null) {
+			int threads = Math.max(2, Runtime.getRuntime()
+					.availableProcessors());
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+					0, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new WorkerFactory());
+			pool.prestartAllCoreThreads();
+			ownExecutor = pool;
+			this.executor = pool;
+		} else {
+			ownExecutor = null;
+			this.executor = executor;
+		}
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		}, "HashedWheelTimer");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Schedules one-time execution of the task.
+	 *
+	 * @param task
+	 *            - task to run
+	 * @param delay
+	 *            - delay in ms
+	 * @return {@link ScheduledTask} that can be used to cancel the execution
+	 */
+	public ScheduledTask schedule(Runnable task, long delay) {
+		return schedule(task, delay, 0);
+	}
+
+	/**
+	 * Schedules periodic execution of the task.
+	 *
+	 * @param task
+	 *            - task to run
+	 * @param delay
+	 *            - delay of the first execution in ms
+	 * @param period
+	 *            - period between executions in ms, 0 for one-time execution
+	 * @return {@link ScheduledTask} that can be used to cancel the execution
+	 */
+	public ScheduledTask schedule(Runnable task, long delay, long period) {
+		if (task == null) {
+			throw new IllegalArgumentException("Task cannot be null");
+		}
+		if (delay < 0 || period < 0) {
+			throw new IllegalArgumentException(
+					"Delay and period cannot be negative");
+		}
+		if (stopped) {
+			throw new IllegalStateException("Timer already stopped");
+		}
+		ScheduledTask scheduled = new ScheduledTask(task,
+				System.nanoTime() - startTime
+						+ TimeUnit.MILLISECONDS.toNanos(delay),
+				TimeUnit.MILLISECONDS.toNanos(period));
+		pending.add(scheduled);
+		return scheduled;
+	}
+
+	/**
+	 * Stops the timer. Tasks not yet run are discarded.
+	 */
+	public void stop() {
+		stopped = true;
+		worker.interrupt();
+		if (ownExecutor != null) {
+			ownExecutor.shutdown();
+		}
+	}
+
+	private void work() {
+		while (!stopped) {
+			long deadline = tickDuration * (tick + 1);
+			long sleep = deadline - (System.nanoTime() - startTime);
+			if (sleep > 0) {
+				try {
+					Thread.sleep(TimeUnit.NANOSECONDS.toMillis(sleep + 999999));
+				} catch (InterruptedException e) {
+					if (stopped) {
+						return;
+					}
+				}
+				continue;
+			}
+			transferPending();
+			expire(wheel[(int) (tick & mask)], deadline);
+			++tick;
+		}
+	}
+
+	private void transferPending() {
+		ScheduledTask task;
+		while ((task = pending.poll()) != null) {
+			if (!task.isCancelled()) {
+				place(task, tick);
+			}
+		}
+	}
+
+	/**
+	 * Puts the task into the bucket of its deadline. Tasks which deadline
+	 * has already passed are put into the bucket of the earliest tick.
+	 */
+	private void place(ScheduledTask task, long earliestTick) {
+		long ticks = task.deadline / tickDuration;
+		if (ticks < earliestTick) {
+			ticks = earliestTick;
+		}
+		task.rounds = (ticks - earliestTick) / wheel.length;
+		wheel[(int) (ticks & mask)].add(task);
+	}
+
+	private void expire(Bucket bucket, long deadline) {
+		ScheduledTask expired = null;
+		ScheduledTask task = bucket.head;
+		while (task != null) {
+			ScheduledTask next = task.next;
+			if (task.isCancelled()) {
+				bucket.remove(task);
+			} else if (task.rounds <= 0 && task.deadline <= deadline) {
+				bucket.remove(task);
+				task.next = expired;
+				expired = task;
+			} else {
+				--task.rounds;
+			}
+			task = next;
+		}
+
+		// tasks are run after the bucket was processed so periodic tasks can
+		// be put back into it
+		while (expired != null) {
+			task = expired;
+			expired = task.next;
+			task.next = null;
+			if (task.running.compareAndSet(false, true)) {
+				try {
+					executor.execute(task.runner);
+				} catch (RejectedExecutionException e) {
+					task.running.set(false);
+					logger.error("Task rejected by the executor", e);
+				}
+			} else if (logger.isDebugEnabled()) {
+				logger.debug("Previous execution of the task still running");
+			}
+			if (task.period > 0 && !task.isCancelled()) {
+				task.deadline += task.period;
+				place(task, tick + 1);
+			}
+		}
+	}
+
+	/**
+	 * Task scheduled in the {@link HashedWheelTimer}.
+	 */
+	public static class ScheduledTask {
+
+		private final Runnable task;
+
+		/**
+		 * Set while the task is handed to the executor or running.
+		 */
+		private final AtomicBoolean running = new AtomicBoolean(false);
+
+		/**
+		 * Runs the task on the executor thread unless it was cancelled in
+		 * the meantime.
+		 */
+		private final Runnable runner = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (!cancelled) {
+						task.run();
+					}
+				} catch (Throwable e) {
+					logger.error(e.getMessage(), e);
+				} finally {
+					running.set(false);
+				}
+			}
+		};
+
+		private long deadline;
+
+		private final long period;
+
+		private long rounds;
+
+		private volatile boolean cancelled;
+
+		private ScheduledTask next;
+
+		private ScheduledTask previous;
+
+		private ScheduledTask(Runnable task, long deadline, long period) {
+			this.task = task;
+			this.deadline = deadline;
+			this.period = period;
+		}
+
+		/**
+		 * Cancels the task. If the task is running, it completes but will
+		 * not be run again.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+	}
+
+	/**
+	 * Creates daemon threads for the timer's own executor.
+	 */
+	private static class WorkerFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "HashedWheelTimer-worker-"
+					+ count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * Doubly linked list of the tasks. Accessed by the timer thread only.
+	 */
+	private static class Bucket {
+
+		private ScheduledTask head;
+
+		private ScheduledTask tail;
+
+		private void add(ScheduledTask task) {
+			task.next = null;
+			task.previous = tail;
+			if (tail == null) {
+				head = task;
+			} else {
+				tail.next = task;
+			}
+			tail = task;
+		}
+
+		private void remove(ScheduledTask task) {
+			if (task.previous == null) {
+				head = task.next;
+			} else {
+				task.previous.next = task.next;
+			}
+			if (task.next == null) {
+				tail = task.previous;
+			} else {
+				task.next.previous = task.previous;
+			}
+			task.next = null;
+			task.previous = null;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * IntHashMap.java
+ * Created on 2011-09-13
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.common;
+
+/**
+ * Hash map with primitive int keys. Uses open addressing with linear probing
+ * so lookups do not box the key nor allocate entry objects. Not thread safe.
+ *
+ * @param <V>
+ *            - type of the mapped values
+ */
+public class IntHashMap<V> {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int[] keys;
+
+	private Object[] values;
+
+	private int size;
+
+	private int threshold;
+
+	/**
+	 * Initiates empty map.
+	 */
+	public IntHashMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Initiates empty map able to hold the specified number of entries
+	 * without resizing.
+	 *
+	 * @param expectedSize
+	 *            - expected number of entries
+	 */
+	public IntHashMap(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity * 3 / 4 < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		threshold = capacity * 3 / 4;
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private int indexOf(int key) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return Value mapped to the key or null if there is no such mapping.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int i = indexOf(key);
+		return i < 0 ? null : (V) values[i];
+	}
+
+	/**
+	 * @return True if the map contains mapping for the key.
+	 */
+	public boolean containsKey(int key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * Maps value to the key.
+	 *
+	 * @param value
+	 *            - value to map, must not be null
+	 * @return Value previously mapped to the key or null.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Value cannot be null");
+		}
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				V previous = (V) values[i];
+				values[i] = value;
+				return previous;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size > threshold) {
+			rehash(keys.length << 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes mapping for the key.
+	 *
+	 * @return Removed value or null if there was no mapping for the key.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int i = indexOf(key);
+		if (i < 0) {
+			return null;
+		}
+		V previous = (V) values[i];
+		values[i] = null;
+		--size;
+
+		// shift back following entries of the probe sequence
+		int mask = keys.length - 1;
+		int gap = i;
+		int j = (i + 1) & mask;
+		while (values[j] != null) {
+			int home = hash(keys[j]) & mask;
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				values[j] = null;
+				gap = j;
+			}
+			j = (j + 1) & mask;
+		}
+		return previous;
+	}
+
+	/**
+	 * @return Number of mappings in the map.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all mappings.
+	 */
+	public void clear() {
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = null;
+		}
+		size = 0;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldValues[i] != null) {
+				int j = hash(oldKeys[i]) & mask;
+				while (values[j] != null) {
+					j = (j + 1) & mask;
+				}
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+}
@@ -30,4 +30,13 @@ public final class Randomizer {
 	public static int getInt() {
 		return rand.nextInt();
 	}
+
+	/**
+	 * @param bound
+	 *            - upper bound (exclusive), must be positive
+	 * @return Generated random {@link Integer} from range [0, bound)
+	 */
+	public static int getInt(int bound) {
+		return rand.nextInt(bound);
+	}
 }
@@ -21,18 +21,31 @@ import ipmi.coding.commands.session.GetChannelCipherSuitesResponseData;
 import ipmi.coding.commands.session.OpenSessionResponseData;
 import ipmi.coding.commands.session.Rakp1ResponseData;
 import ipmi.coding.commands.session.Rakp3ResponseData;
+import ipmi.coding.payload.CompletionCode;
 import ipmi.coding.payload.lan.IpmiLanResponse;
 import ipmi.coding.protocol.Ipmiv20Message;
+import ipmi.coding.rmcp.RmcpEncoder;
+import ipmi.coding.rmcp.RmcpPingMessage;
 import ipmi.coding.security.CipherSuite;
 import ipmi.common.Constants;
+import ipmi.common.HashedWheelTimer;
+import ipmi.common.HashedWheelTimer.ScheduledTask;
 import ipmi.common.PropertiesManager;
+import ipmi.common.Randomizer;
 import ipmi.common.TypeConverter;
+import ipmi.connection.circuit.CircuitBreaker;
+import ipmi.connection.circuit.CircuitOpenException;
+import ipmi.connection.circuit.CircuitState;
 import ipmi.connection.queue.MessageQueue;
+import ipmi.connection.queue.QueuedRequest;
+import ipmi.connection.queue.TokenBucket;
 import ipmi.sm.MachineObserver;
+import ipmi.sm.MessageDispatcher;
 import ipmi.sm.StateMachine;
 import ipmi.sm.actions.ErrorAction;
 import ipmi.sm.actions.GetSikAction;
 import ipmi.sm.actions.MessageAction;
+import ipmi.sm.actions.PongAction;
 import ipmi.sm.actions.ResponseAction;
 import ipmi.sm.actions.StateMachineAction;
 import ipmi.sm.events.AuthenticationCapabilitiesReceived;
@@ -49,23 +62,28 @@ import ipmi.sm.events.Timeout;
 import ipmi.sm.states.Authcap;
 import ipmi.sm.states.Ciphers;
 import ipmi.sm.states.SessionValid;
+import ipmi.sm.states.State;
 import ipmi.sm.states.Uninitialized;
 import ipmi.transport.Messenger;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
 /**
  * A connection with the specific remote host.
  */
-public class Connection extends TimerTask implements MachineObserver {
+public class Connection implements MachineObserver, Runnable {
 	private List<ConnectionListener> listeners;
 	private StateMachine stateMachine;
 	/**
@@ -73,12 +91,21 @@ public class Connection extends TimerTask implements MachineObserver {
 	 */
 	private int timeout = -1;
 
-	private StateMachineAction lastAction;
+	private volatile StateMachineAction lastAction;
+	/**
+	 * Guards {@link #lastAction}. Not a monitor, so the thread waiting for
+	 * the {@link StateMachine} response parks instead of pinning its carrier
+	 * thread.
+	 */
+	private final Lock actionLock = new ReentrantLock();
+	/**
+	 * Signalled when {@link #lastAction} is set.
+	 */
+	private final Condition actionArrived = actionLock.newCondition();
 	private int sessionId;
 	private int managedSystemSessionId;
 	private byte[] sik;
 	private int handle;
-	private int lastReceivedSequenceNumber = 0;
 
 	private Logger logger = Logger.getLogger(getClass());
 
@@ -88,7 +115,106 @@ public class Connection extends TimerTask implements MachineObserver {
 
 	private MessageQueue messageQueue;
 
-	private Timer timer;
+	private volatile ScheduledTask keepAlive;
+
+	/**
+	 * Default limit of the requests waiting for a free slot in the
+	 * {@link MessageQueue}.
+	 */
+	public static final int DEFAULT_MAX_PENDING = 256;
+
+	/**
+	 * Holders of the answered requests taken from the {@link MessageQueue},
+	 * reused by each receiving thread so matching the response to its
+	 * request creates no objects.
+	 */
+	private static final ThreadLocal<QueuedRequest> TAKEN = new ThreadLocal<QueuedRequest>() {
+		@Override
+		protected QueuedRequest initialValue() {
+			return new QueuedRequest();
+		}
+	};
+
+	/**
+	 * Requests waiting for a free slot in the {@link MessageQueue}, sent in
+	 * FIFO order as soon as slots are freed.
+	 */
+	private final ArrayDeque<PendingRequest> pending = new ArrayDeque<PendingRequest>();
+
+	/**
+	 * Guards {@link #pending}.
+	 */
+	private final Lock pendingLock = new ReentrantLock();
+	/**
+	 * Signalled when the capacity may have been freed.
+	 */
+	private final Condition capacityChanged = pendingLock.newCondition();
+
+	private int maxPending = DEFAULT_MAX_PENDING;
+
+	/**
+	 * Incremented every time the capacity may have been freed, so the thread
+	 * that failed to get a slot can wait without missing the signal.
+	 */
+	private long capacityVersion;
+
+	/**
+	 * Limits the rate of the requests sent to the managed system. Does not
+	 * limit the rate until configured.
+	 */
+	private final TokenBucket rateLimiter = new TokenBucket();
+
+	/**
+	 * Limit shared with other connections, e.g. all using the same
+	 * {@link Messenger}. Null if there is none.
+	 */
+	private volatile TokenBucket sharedRateLimiter;
+
+	/**
+	 * Set when the {@link #drainTask} is scheduled to send the pending
+	 * requests once the rate limit allows.
+	 */
+	private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+	private final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			drainScheduled.set(false);
+			try {
+				drainPending();
+			} catch (Exception e) {
+				logger.error(e.getMessage(), e);
+			}
+		}
+	};
+
+	/**
+	 * Fails the requests at once when the managed system stops responding.
+	 * Disabled until configured.
+	 */
+	private final CircuitBreaker circuitBreaker = new CircuitBreaker(this);
+
+	private volatile long requestsSent;
+
+	private volatile long requestsThrottled;
+
+	/**
+	 * Maximal time in ms the session can stay without traffic before the
+	 * keep-alive message is sent.
+	 */
+	private int pingPeriod;
+
+	/**
+	 * Time of the last message received from the managed system as returned
+	 * by {@link System#nanoTime()}.
+	 */
+	private volatile long lastTraffic;
+
+	private volatile boolean connected;
+
+	private volatile long keepAlivesSent;
+
+	private volatile long keepAlivesSkipped;
 
 	public int getTimeout() {
 		return timeout;
@@ -113,12 +239,33 @@ public class Connection extends TimerTask implements MachineObserver {
 	 *             - when properties file was not found
 	 */
     public Connection(Messenger messenger, int handle) throws FileNotFoundException, IOException {
-        stateMachine = new StateMachine(messenger);
-        this.handle = handle;
-        listeners = new ArrayList<ConnectionListener>();
-        timeout = Integer.parseInt(PropertiesManager.getInstance().getProperty("timeout"));
+        this(messenger, null, handle);
     }
 
+	/**
+	 * Creates the connection receiving messages via {@link MessageDispatcher}.
+	 * 
+	 * @param messenger
+	 *            - {@link Messenger} associated with the proper
+	 *            {@link Constants#IPMI_PORT}
+	 * @param dispatcher
+	 *            - {@link MessageDispatcher} registered in the messenger
+	 * @param handle
+	 *            - id of the connection
+	 * @throws IOException
+	 *             - when properties file was not found
+	 * @throws FileNotFoundException
+	 *             - when properties file was not found
+	 */
+	public Connection(Messenger messenger, MessageDispatcher dispatcher,
+			int handle) throws FileNotFoundException, IOException {
+		stateMachine = new StateMachine(messenger, dispatcher);
+		this.handle = handle;
+		listeners = new ArrayList<ConnectionListener>();
+		timeout = Integer.parseInt(PropertiesManager.getInstance()
+				.getProperty("timeout"));
+	}
+
 	/**
 	 * Registers the listener so it will receive notifications from this
 	 * connection
@@ -157,8 +304,14 @@ public class Connection extends TimerTask implements MachineObserver {
 	public void connect(InetAddress address, int pingPeriod)
 			throws FileNotFoundException, IOException {
 		messageQueue = new MessageQueue(this, timeout);
-		timer = new Timer();
-		timer.schedule(this, pingPeriod, pingPeriod);
+		this.pingPeriod = Math.max(1, pingPeriod);
+		lastTraffic = System.nanoTime()
+				- TimeUnit.MILLISECONDS.toNanos(this.pingPeriod);
+		connected = true;
+		// first keep-alives of the connections created at once are spread
+		// over the whole period
+		keepAlive = HashedWheelTimer.getShared().schedule(this,
+				1 + Randomizer.getInt(this.pingPeriod));
 		stateMachine.register(this);
 		stateMachine.start(address);
 	}
@@ -169,9 +322,12 @@ public class Connection extends TimerTask implements MachineObserver {
 	 * @see #connect(InetAddress, int)
 	 */
 	public void disconnect() {
-		timer.cancel();
+		connected = false;
+		keepAlive.cancel();
+		circuitBreaker.stop();
 		stateMachine.stop();
 		messageQueue.tearDown();
+		failAll(new ConnectionException("Connection closed"));
 	}
 
 	/**
@@ -203,8 +359,10 @@ public class Connection extends TimerTask implements MachineObserver {
 	public List<CipherSuite> getAvailableCipherSuites(int tag) throws Exception {
 
 		if (!(stateMachine.getCurrent().getClass() == Uninitialized.class)) {
-			throw new ConnectionException("Illegal connection state: "
-					+ stateMachine.getCurrent().getClass().getSimpleName());
+			throw new IllegalConnectionStateException(
+					"Illegal connection state: "
+							+ stateMachine.getCurrent().getClass()
+									.getSimpleName());
 		}
 
 		boolean process = true;
@@ -257,16 +415,27 @@ public class Connection extends TimerTask implements MachineObserver {
 		return CipherSuite.getCipherSuites(csRaw);
 	}
 
+	/**
+	 * Waits until the {@link StateMachine} notifies about the result of the
+	 * last transition or {@link #timeout} passes. Waiting thread is woken up
+	 * as soon as the action arrives.
+	 */
 	private void waitForResponse() throws Exception {
-		int time = 0;
+		long deadline = System.nanoTime() + timeout * 1000000L;
 
-		while (time < timeout && lastAction == null) {
-			try {
-				Thread.sleep(1);
-			} catch (InterruptedException e) {
-				logger.error(e.getMessage(), e);
+		actionLock.lock();
+		try {
+			long remaining = deadline - System.nanoTime();
+			while (lastAction == null && remaining > 0) {
+				try {
+					remaining = actionArrived.awaitNanos(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
 			}
-			++time;
+		} finally {
+			actionLock.unlock();
 		}
 
 		if (lastAction == null) {
@@ -304,8 +473,10 @@ public class Connection extends TimerTask implements MachineObserver {
 			PrivilegeLevel requestedPrivilegeLevel) throws Exception {
 
 		if (!(stateMachine.getCurrent().getClass() == Ciphers.class)) {
-			throw new ConnectionException("Illegal connection state: "
-					+ stateMachine.getCurrent().getClass().getSimpleName());
+			throw new IllegalConnectionStateException(
+					"Illegal connection state: "
+							+ stateMachine.getCurrent().getClass()
+									.getSimpleName());
 		}
 
 		lastAction = null;
@@ -364,8 +535,10 @@ public class Connection extends TimerTask implements MachineObserver {
 			PrivilegeLevel privilegeLevel, String username, String password,
 			byte[] bmcKey) throws Exception {
 		if (!(stateMachine.getCurrent().getClass() == Authcap.class)) {
-			throw new ConnectionException("Illegal connection state: "
-					+ stateMachine.getCurrent().getClass().getSimpleName());
+			throw new IllegalConnectionStateException(
+					"Illegal connection state: "
+							+ stateMachine.getCurrent().getClass()
+									.getSimpleName());
 		}
 
 		lastAction = null;
@@ -450,8 +623,10 @@ public class Connection extends TimerTask implements MachineObserver {
 	 */
 	public void closeSession() throws ConnectionException {
 		if (!(stateMachine.getCurrent().getClass() == SessionValid.class)) {
-			throw new ConnectionException("Illegal connection state: "
-					+ stateMachine.getCurrent().getClass().getSimpleName());
+			throw new IllegalConnectionStateException(
+					"Illegal connection state: "
+							+ stateMachine.getCurrent().getClass()
+									.getSimpleName());
 		}
 
 		stateMachine.doTransition(new CloseSession(managedSystemSessionId,
@@ -476,11 +651,21 @@ public class Connection extends TimerTask implements MachineObserver {
 	public int sendIpmiCommand(IpmiCommandCoder commandCoder)
 			throws ConnectionException, ArithmeticException {
 		if (!(stateMachine.getCurrent().getClass() == SessionValid.class)) {
-			throw new ConnectionException("Illegal connection state: "
-					+ stateMachine.getCurrent().getClass().getSimpleName());
+			throw new IllegalConnectionStateException(
+					"Illegal connection state: "
+							+ stateMachine.getCurrent().getClass()
+									.getSimpleName());
+		}
+		checkCircuit();
+
+		int seq;
+		pendingLock.lock();
+		try {
+			// queued requests go first
+			seq = pending.isEmpty() ? addToQueue(commandCoder, null, true) : -1;
+		} finally {
+			pendingLock.unlock();
 		}
-
-		int seq = messageQueue.add(commandCoder);
 		if (seq > 0) {
 			stateMachine.doTransition(new Sendv20Message(commandCoder,
 					managedSystemSessionId, seq));
@@ -489,6 +674,391 @@ public class Connection extends TimerTask implements MachineObserver {
 		return seq % 64;
 	}
 
+	/**
+	 * Attempts to send IPMI request to the managed system. The response will
+	 * complete the returned {@link ResponseFuture} instead of being passed to
+	 * the {@link ConnectionListener}s.
+	 * 
+	 * @param commandCoder
+	 *            - {@link IpmiCommandCoder} representing the request
+	 * @return {@link ResponseFuture} that will be completed with the response
+	 *         or failed when the request times out, null if the queue was full
+	 *         and the message was not sent.
+	 * @throws ConnectionException
+	 *             when connection isn't in state where sending commands is
+	 *             allowed
+	 * @throws ArithmeticException
+	 *             when {@link Connection} runs out of available ID's for the
+	 *             messages. If this happens session needs to be restarted.
+	 */
+	public ResponseFuture submitIpmiCommand(IpmiCommandCoder commandCoder)
+			throws ConnectionException, ArithmeticException {
+		return submit(commandCoder, false);
+	}
+
+	/**
+	 * Sends IPMI request to the managed system or, if the {@link MessageQueue}
+	 * is full, puts it at the end of the queue of pending requests. Pending
+	 * requests are sent in order as soon as the responses for the previous
+	 * ones arrive or time out and the rate limit allows. The response will complete the returned
+	 * {@link ResponseFuture} instead of being passed to the
+	 * {@link ConnectionListener}s.
+	 * 
+	 * @param commandCoder
+	 *            - {@link IpmiCommandCoder} representing the request
+	 * @return {@link ResponseFuture} that will be completed with the response
+	 *         or failed when the request times out or the connection is
+	 *         closed, null if the queue of pending requests was full too.
+	 * @throws ConnectionException
+	 *             when connection isn't in state where sending commands is
+	 *             allowed
+	 * @throws ArithmeticException
+	 *             when {@link Connection} runs out of available ID's for the
+	 *             messages. If this happens session needs to be restarted.
+	 * @see #waitForCapacity(long, long)
+	 */
+	public ResponseFuture enqueueIpmiCommand(IpmiCommandCoder commandCoder)
+			throws ConnectionException, ArithmeticException {
+		return submit(commandCoder, true);
+	}
+
+	private ResponseFuture submit(IpmiCommandCoder commandCoder,
+			boolean enqueue) throws ConnectionException, ArithmeticException {
+		if (!(stateMachine.getCurrent().getClass() == SessionValid.class)) {
+			throw new IllegalConnectionStateException(
+					"Illegal connection state: "
+							+ stateMachine.getCurrent().getClass()
+									.getSimpleName());
+		}
+		checkCircuit();
+
+		ResponseFuture future = new ResponseFuture();
+		int seq;
+		pendingLock.lock();
+		try {
+			// queued requests go first
+			seq = pending.isEmpty() ? addToQueue(commandCoder, future, true)
+					: -1;
+			if (seq < 0) {
+				if (!enqueue || pending.size() >= maxPending) {
+					return null;
+				}
+				pending.addLast(new PendingRequest(commandCoder, future));
+				return future;
+			}
+		} finally {
+			pendingLock.unlock();
+		}
+		future.setTag(seq % 64);
+		stateMachine.doTransition(new Sendv20Message(commandCoder,
+				managedSystemSessionId, seq));
+
+		return future;
+	}
+
+	/**
+	 * Sends pending requests for which there are free slots in the
+	 * {@link MessageQueue} and wakes up threads waiting for the capacity.
+	 * Called whenever the slot is freed.
+	 */
+	public void drainPending() {
+		PendingRequest[] toSend = null;
+		int[] sequenceNumbers = null;
+		int count = 0;
+		boolean sessionValid = stateMachine.getCurrent() instanceof SessionValid;
+		boolean circuitOpen = circuitBreaker.getState() == CircuitState.Open;
+		pendingLock.lock();
+		try {
+			while (sessionValid && !circuitOpen && !pending.isEmpty()) {
+				PendingRequest request = pending.peekFirst();
+				if (request.future.isDone()) {
+					pending.pollFirst(); // cancelled while waiting
+					continue;
+				}
+				int seq = addToQueue(request.coder, request.future, false);
+				if (seq < 0) {
+					break;
+				}
+				pending.pollFirst();
+				request.future.setTag(seq % 64);
+				if (toSend == null) {
+					toSend = new PendingRequest[64];
+					sequenceNumbers = new int[64];
+				}
+				toSend[count] = request;
+				sequenceNumbers[count++] = seq;
+			}
+			++capacityVersion;
+			capacityChanged.signalAll();
+		} finally {
+			pendingLock.unlock();
+		}
+		if (!sessionValid) {
+			failAll(new IllegalConnectionStateException(
+					"Illegal connection state: "
+							+ stateMachine.getCurrent().getClass()
+									.getSimpleName()));
+		} else if (circuitOpen) {
+			failAll(createCircuitOpenException());
+		}
+		for (int i = 0; i < count; ++i) {
+			stateMachine.doTransition(new Sendv20Message(toSend[i].coder,
+					managedSystemSessionId, sequenceNumbers[i]));
+		}
+	}
+
+	/**
+	 * Adds the request to the {@link MessageQueue} if the rate limits allow
+	 * it. If they do not, schedules {@link #drainPending()} for the moment
+	 * they will. Must be called with {@link #pendingLock} held.
+	 * 
+	 * @param newRequest
+	 *            - true if the request was just submitted, false if it was
+	 *            taken from the queue of pending requests
+	 * @return sequence number of the request, -1 if it was not added
+	 */
+	private int addToQueue(IpmiCommandCoder coder, ResponseFuture future,
+			boolean newRequest) {
+		long delay = rateLimiter.tryAcquire();
+		TokenBucket shared = sharedRateLimiter;
+		if (delay == 0 && shared != null) {
+			delay = shared.tryAcquire();
+			if (delay > 0) {
+				rateLimiter.release();
+			}
+		}
+		if (delay > 0) {
+			if (newRequest) {
+				++requestsThrottled;
+			}
+			if (drainScheduled.compareAndSet(false, true)) {
+				HashedWheelTimer.getShared().schedule(drainTask,
+						Math.max(1, TimeUnit.NANOSECONDS.toMillis(delay)));
+			}
+			return -1;
+		}
+		int seq = messageQueue.add(coder, future);
+		if (seq < 0) {
+			rateLimiter.release();
+			if (shared != null) {
+				shared.release();
+			}
+		} else {
+			++requestsSent;
+		}
+		return seq;
+	}
+
+	private void checkCircuit() throws CircuitOpenException {
+		if (!circuitBreaker.allowRequest()) {
+			throw createCircuitOpenException();
+		}
+	}
+
+	private CircuitOpenException createCircuitOpenException() {
+		return new CircuitOpenException("Managed system "
+				+ getRemoteMachineAddress() + " does not respond");
+	}
+
+	/**
+	 * Called by the {@link MessageQueue} when the requests time out. If the
+	 * {@link CircuitBreaker} opens, the pending requests and the requests
+	 * waiting for the response fail at once.
+	 * 
+	 * @param count
+	 *            - number of the requests that timed out
+	 */
+	public void recordTimeouts(int count) {
+		if (circuitBreaker.onTimeouts(count)) {
+			failAll(createCircuitOpenException());
+		}
+	}
+
+	/**
+	 * @return {@link CircuitBreaker} failing the requests at once when the
+	 *         managed system stops responding. It is disabled until
+	 *         {@link CircuitBreaker#configure(int, int)} is called.
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Sends RMCP ping to the managed system. The pong is passed to the
+	 * {@link CircuitBreaker}.
+	 * 
+	 * @param tag
+	 *            - message tag of the ping, 0-254
+	 * @throws IOException
+	 *             when sending of the message fails
+	 */
+	public void sendPing(int tag) throws IOException {
+		stateMachine.sendMessage(RmcpEncoder.encode(new RmcpPingMessage(tag)));
+	}
+
+	/**
+	 * Fails the pending requests and the requests waiting for the response
+	 * in the {@link MessageQueue}.
+	 */
+	private void failAll(Exception exception) {
+		failPending(exception);
+		messageQueue.failAll(exception);
+	}
+
+	private void failPending(Exception exception) {
+		PendingRequest[] failed;
+		pendingLock.lock();
+		try {
+			failed = pending.toArray(new PendingRequest[pending.size()]);
+			pending.clear();
+			++capacityVersion;
+			capacityChanged.signalAll();
+		} finally {
+			pendingLock.unlock();
+		}
+		for (PendingRequest request : failed) {
+			request.future.fail(exception);
+		}
+	}
+
+	/**
+	 * @return Version of the capacity to be passed to
+	 *         {@link #waitForCapacity(long, long)}. Must be read before the
+	 *         attempt to send the request.
+	 */
+	public long getCapacityVersion() {
+		pendingLock.lock();
+		try {
+			return capacityVersion;
+		} finally {
+			pendingLock.unlock();
+		}
+	}
+
+	/**
+	 * Blocks the invoking thread until the capacity may have been freed since
+	 * the given version was read - a slot in the {@link MessageQueue} or in
+	 * the queue of pending requests - or the timeout passes.
+	 * 
+	 * @param version
+	 *            - value of {@link #getCapacityVersion()} read before the
+	 *            failed attempt to send the request
+	 * @param timeout
+	 *            - maximal time to wait in ms
+	 * @throws InterruptedException
+	 *             when the invoking thread was interrupted
+	 */
+	public void waitForCapacity(long version, long timeout)
+			throws InterruptedException {
+		long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(timeout);
+		pendingLock.lock();
+		try {
+			long remaining = deadline - System.nanoTime();
+			while (capacityVersion == version && remaining > 0) {
+				remaining = capacityChanged.awaitNanos(remaining);
+			}
+		} finally {
+			pendingLock.unlock();
+		}
+	}
+
+	/**
+	 * @return Number of the requests that can be accepted by
+	 *         {@link #enqueueIpmiCommand(IpmiCommandCoder)} without waiting:
+	 *         free slots in the {@link MessageQueue} and in the queue of
+	 *         pending requests.
+	 */
+	public int getAvailableCapacity() {
+		pendingLock.lock();
+		try {
+			int free = maxPending - pending.size();
+			if (pending.isEmpty()) {
+				free += messageQueue.getFreeSlots();
+			}
+			return free;
+		} finally {
+			pendingLock.unlock();
+		}
+	}
+
+	/**
+	 * @return Number of the requests waiting for a free slot in the
+	 *         {@link MessageQueue}.
+	 */
+	public int getPendingCount() {
+		pendingLock.lock();
+		try {
+			return pending.size();
+		} finally {
+			pendingLock.unlock();
+		}
+	}
+
+	public int getMaxPending() {
+		pendingLock.lock();
+		try {
+			return maxPending;
+		} finally {
+			pendingLock.unlock();
+		}
+	}
+
+	/**
+	 * @param maxPending
+	 *            - maximal number of the requests waiting for a free slot in
+	 *            the {@link MessageQueue}
+	 */
+	public void setMaxPending(int maxPending) {
+		if (maxPending < 0) {
+			throw new IllegalArgumentException(
+					"Pending requests limit cannot be negative");
+		}
+		pendingLock.lock();
+		try {
+			this.maxPending = maxPending;
+		} finally {
+			pendingLock.unlock();
+		}
+	}
+
+	/**
+	 * @return {@link TokenBucket} limiting the rate of the requests sent to
+	 *         the managed system. Its rate can be changed at any time.
+	 */
+	public TokenBucket getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * @param sharedRateLimiter
+	 *            - {@link TokenBucket} limiting the rate of the requests sent
+	 *            by this and other connections, null to remove the shared
+	 *            limit
+	 */
+	public void setSharedRateLimiter(TokenBucket sharedRateLimiter) {
+		this.sharedRateLimiter = sharedRateLimiter;
+	}
+
+	public TokenBucket getSharedRateLimiter() {
+		return sharedRateLimiter;
+	}
+
+	/**
+	 * @return Number of the IPMI requests passed to the {@link MessageQueue}.
+	 */
+	public long getRequestsSent() {
+		return requestsSent;
+	}
+
+	/**
+	 * @return Number of the attempts to send IPMI request that were delayed
+	 *         or rejected because of the rate limit.
+	 */
+	public long getRequestsThrottled() {
+		return requestsThrottled;
+	}
+
 	/**
 	 * Attempts to retry sending a message (message will be sent only if current
 	 * number of retries does not exceed and is not equal to maxAllowedRetries. <br>
@@ -531,52 +1101,77 @@ public class Connection extends TimerTask implements MachineObserver {
 
 	private void handleIncomingMessage(Ipmiv20Message message)
 			throws NullPointerException {
-		int seq = message.getSessionSequenceNumber();
-
-		if (seq != 0
-				&& (seq > lastReceivedSequenceNumber + 15 || seq < lastReceivedSequenceNumber - 16)) {
-			logger.debug("Dropping message " + seq);
-			return; // if the message's sequence number gets out of the sliding
-			// window range we need to drop it
-		}
-
-		if (seq != 0) {
-			lastReceivedSequenceNumber = seq > lastReceivedSequenceNumber ? seq
-					: lastReceivedSequenceNumber;
-		}
+		lastTraffic = System.nanoTime();
+		circuitBreaker.onResponse();
 
 		if (message.getPayload() instanceof IpmiLanResponse) {
 
-			IpmiCommandCoder coder = messageQueue
-					.getMessageFromQueue(((IpmiLanResponse) message
-							.getPayload()).getSequenceNumber());
-			int tag = ((IpmiLanResponse) message.getPayload())
-					.getSequenceNumber();
+			IpmiLanResponse response = (IpmiLanResponse) message.getPayload();
+			int tag = response.getSequenceNumber();
 
 			logger.debug("Received message with tag " + tag);
 
-			if (coder == null) {
+			QueuedRequest taken = TAKEN.get();
+
+			if (!messageQueue.take(tag, isBusy(response.getCompletionCode()),
+					taken)) {
 				logger.debug("No message tagged with " + tag
 						+ " in queue. Dropping orphan message.");
 				return;
 			}
 
-			if (coder.getClass() == GetChannelAuthenticationCapabilities.class) {
-				messageQueue.remove(tag);
-			} else {
+			IpmiCommandCoder coder = taken.getRequest();
+			ResponseFuture future = taken.getFuture();
+			taken.clear();
 
+			drainPending();
+
+			if (coder.getClass() != GetChannelAuthenticationCapabilities.class) {
+
+				ResponseData responseData = null;
+				Exception exception = null;
 				try {
-					ResponseData responseData = coder.getResponseData(message);
-					notifyListeners(handle, tag, responseData, null);
+					responseData = coder.getResponseData(message);
 				} catch (Exception e) {
-					notifyListeners(handle, tag, null, e);
+					exception = e;
+				}
+				if (future == null) {
+					notifyListeners(handle, tag, responseData, exception);
+				} else if (exception == null) {
+					future.complete(responseData);
+				} else {
+					future.fail(exception);
 				}
-				messageQueue.remove(((IpmiLanResponse) message.getPayload())
-						.getSequenceNumber());
 			}
 		}
 	}
 
+	/**
+	 * Checks if the completion code means the managed system could not handle
+	 * the request due to the load.
+	 */
+	private boolean isBusy(CompletionCode completionCode) {
+		return completionCode == CompletionCode.NodeBusy
+				|| completionCode == CompletionCode.InsufficientResources
+				|| completionCode == CompletionCode.Timeout;
+	}
+
+	/**
+	 * @return Current number of messages that can be sent to the managed
+	 *         system without waiting for the responses.
+	 */
+	public int getWindowSize() {
+		return messageQueue.getCongestionWindow().getSize();
+	}
+
+	/**
+	 * @return Moving average of the fraction of messages that timed out or
+	 *         were rejected because the managed system was busy.
+	 */
+	public double getLossRate() {
+		return messageQueue.getCongestionWindow().getLossRate();
+	}
+
 	public void notifyListeners(int handle, int tag, ResponseData responseData,
 			Exception exception) {
 		for (ConnectionListener listener : listeners) {
@@ -590,8 +1185,16 @@ public class Connection extends TimerTask implements MachineObserver {
 	public void notify(StateMachineAction action) {
 		if (action instanceof GetSikAction) {
 			sik = ((GetSikAction) action).getSik();
+		} else if (action instanceof PongAction) {
+			circuitBreaker.onPong(((PongAction) action).getTag());
 		} else if (!(action instanceof MessageAction)) {
-			lastAction = action;
+			actionLock.lock();
+			try {
+				lastAction = action;
+				actionArrived.signalAll();
+			} finally {
+				actionLock.unlock();
+			}
             if (action instanceof ErrorAction) {
                 ErrorAction errorAction = (ErrorAction) action;
                 logger.error(errorAction.getException().getMessage(), errorAction.getException());
@@ -602,26 +1205,104 @@ public class Connection extends TimerTask implements MachineObserver {
 	}
 
 	/**
-	 * {@link TimerTask} runner - periodically sends no-op messages to keep the
-	 * session up
+	 * {@link HashedWheelTimer} runner - sends no-op message to keep the
+	 * session up when no message was received from the managed system for
+	 * most of the {@link #pingPeriod}, then schedules itself for the moment
+	 * the session would be idle that long. The moment is picked at random
+	 * from the last eighth of the period, so connections that received
+	 * traffic at the same time do not ping in lockstep. If the message queue
+	 * is not empty, the session is in use anyway and the no-op message is
+	 * skipped.
 	 */
 	@Override
 	public void run() {
-		int result = -1;
-		do {
-			try {
-				if (!(stateMachine.getCurrent() instanceof SessionValid)) {
-					break;
+		long threshold = pingPeriod - pingPeriod / 8;
+		long idle = 0;
+		try {
+			idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+					- lastTraffic);
+			if (idle < threshold) {
+				++keepAlivesSkipped;
+			} else {
+				idle = 0;
+				if (stateMachine.getCurrent() instanceof SessionValid) {
+					sendKeepAlive();
 				}
-				result = sendIpmiCommand(new ipmi.coding.commands.session.GetChannelAuthenticationCapabilities(
-						IpmiVersion.V20, IpmiVersion.V20,
-						((SessionValid) stateMachine.getCurrent())
-								.getCipherSuite(), PrivilegeLevel.Callback,
-						TypeConverter.intToByte(0xe)));
-			} catch (Exception e) {
-				logger.error(e.getMessage(), e);
 			}
-		} while (result <= 0);
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+		} finally {
+			if (connected) {
+				long delay = threshold - idle
+						+ Randomizer.getInt(pingPeriod / 8 + 1);
+				keepAlive = HashedWheelTimer.getShared().schedule(this,
+						Math.max(1, delay));
+				if (!connected) {
+					keepAlive.cancel();
+				}
+			}
+		}
+	}
+
+	private void sendKeepAlive() throws ConnectionException {
+		SessionValid state = (SessionValid) stateMachine.getCurrent();
+		IpmiCommandCoder coder = new ipmi.coding.commands.session.GetChannelAuthenticationCapabilities(
+				IpmiVersion.V20, IpmiVersion.V20, state.getCipherSuite(),
+				PrivilegeLevel.Callback, TypeConverter.intToByte(0xe));
+		int seq = messageQueue.addKeepAlive(coder);
+		if (seq > 0) {
+			++keepAlivesSent;
+			stateMachine.doTransition(new Sendv20Message(coder,
+					managedSystemSessionId, seq));
+		} else {
+			++keepAlivesSkipped;
+		}
+	}
+
+	/**
+	 * @return Number of the messages of the current session dropped because
+	 *         they were duplicates of the already received ones, 0 if there
+	 *         is no session.
+	 */
+	public long getDuplicateCount() {
+		State state = stateMachine.getCurrent();
+		if (!(state instanceof SessionValid)) {
+			return 0;
+		}
+		SessionValid session = (SessionValid) state;
+		return session.getAuthenticatedWindow().getDuplicateCount()
+				+ session.getUnauthenticatedWindow().getDuplicateCount();
+	}
+
+	/**
+	 * @return Number of the messages of the current session dropped because
+	 *         their sequence numbers were outside the sliding window, 0 if
+	 *         there is no session.
+	 */
+	public long getOutOfWindowCount() {
+		State state = stateMachine.getCurrent();
+		if (!(state instanceof SessionValid)) {
+			return 0;
+		}
+		SessionValid session = (SessionValid) state;
+		return session.getAuthenticatedWindow().getOutOfWindowCount()
+				+ session.getUnauthenticatedWindow().getOutOfWindowCount();
+	}
+
+	/**
+	 * @return Number of the keep-alive messages sent.
+	 */
+	public long getKeepAlivesSent() {
+		return keepAlivesSent;
+	}
+
+	/**
+	 * @return Number of the keep-alive checks that did not send the message,
+	 *         because the session received traffic recently or the queue was
+	 *         not empty.
+	 */
+	public long getKeepAlivesSkipped() {
+		return keepAlivesSkipped;
 	}
 
 	public InetAddress getRemoteMachineAddress() {
@@ -634,4 +1315,19 @@ public class Connection extends TimerTask implements MachineObserver {
 	public boolean isSessionValid() {
 		return stateMachine.getCurrent() instanceof SessionValid;
 	}
+
+	/**
+	 * Request waiting for a free slot in the {@link MessageQueue}.
+	 */
+	private static class PendingRequest {
+
+		private final IpmiCommandCoder coder;
+
+		private final ResponseFuture future;
+
+		private PendingRequest(IpmiCommandCoder coder, ResponseFuture future) {
+			this.coder = coder;
+			this.future = future;
+		}
+	}
 }
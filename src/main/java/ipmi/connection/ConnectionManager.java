@@ -15,6 +15,8 @@ import ipmi.coding.commands.PrivilegeLevel;
 import ipmi.coding.commands.session.GetChannelAuthenticationCapabilitiesResponseData;
 import ipmi.coding.security.CipherSuite;
 import ipmi.common.PropertiesManager;
+import ipmi.connection.queue.TokenBucket;
+import ipmi.sm.MessageDispatcher;
 import ipmi.transport.Messenger;
 import ipmi.transport.UdpListener;
 import ipmi.transport.UdpMessenger;
@@ -22,18 +24,63 @@ import ipmi.transport.UdpMessenger;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages multiple {@link Connection}s
  */
 public class ConnectionManager {
 	private Messenger messenger;
-	private List<Connection> connections;
-	private static Integer sessionId = 100;
-	private static Integer sessionlessTag = 0;
-	private static List<Integer> reservedTags = new ArrayList<Integer>();
+	private MessageDispatcher dispatcher;
+	/**
+	 * Connections indexed by their handles. Replaced by a larger copy when
+	 * full, so {@link #getConnection(int)} reads it without locking. Modified
+	 * only with {@link #connectionsLock} held.
+	 */
+	private volatile Connection[] connections;
+	/**
+	 * Number of the connections in {@link #connections}. Written after the
+	 * connection is stored, so the connection is visible to the thread that
+	 * reads the count first.
+	 */
+	private volatile int connectionCount;
+	private final Object connectionsLock = new Object();
+	/**
+	 * Connections not closed via {@link #closeConnection(int)} yet. Guarded
+	 * by {@link #connectionsLock}.
+	 */
+	private Set<Connection> openConnections;
+	/**
+	 * Number of the open connections to each remote host, so the host's
+	 * {@link TagPool} is removed with its last connection. Guarded by
+	 * {@link #connectionsLock}.
+	 */
+	private Map<InetAddress, Integer> openConnectionCounts;
+	private static final int FIRST_SESSION_ID = 100;
+	private static final int SESSION_ID_LIMIT = Integer.MAX_VALUE / 4;
+	private static AtomicInteger sessionId = new AtomicInteger(
+			FIRST_SESSION_ID);
+	private static TagPool sharedTags = new TagPool();
+
+	/**
+	 * Sessionless tags are unique per remote host, so handshakes with
+	 * different hosts do not compete for tags.
+	 */
+	private ConcurrentMap<InetAddress, TagPool> tagPools;
+
+	/**
+	 * Limits the rate of the requests sent by all connections using the
+	 * {@link #messenger}.
+	 */
+	private TokenBucket rateLimiter;
 
 	/**
 	 * Frequency of the no-op commands that will be sent to keep up the session
@@ -81,8 +128,13 @@ public class ConnectionManager {
 	}
 
     private void initialize() throws IOException {
-        connections = new ArrayList<Connection>();
-        reservedTags = new ArrayList<Integer>();
+        connections = new Connection[16];
+        openConnections = new HashSet<Connection>();
+        openConnectionCounts = new HashMap<InetAddress, Integer>();
+        tagPools = new ConcurrentHashMap<InetAddress, TagPool>();
+        rateLimiter = new TokenBucket();
+        dispatcher = new MessageDispatcher();
+        messenger.register(dispatcher);
         if (pingPeriod == -1) {
             pingPeriod = Integer.parseInt(PropertiesManager.getInstance().getProperty("pingPeriod"));
         }
@@ -92,67 +144,113 @@ public class ConnectionManager {
 	 * Closes all open connections and disconnects {@link UdpListener}.
 	 */
 	public void close() {
-		synchronized (connections) {
-			for (Connection connection : connections) {
+		synchronized (connectionsLock) {
+			for (int i = 0; i < connectionCount; ++i) {
+				Connection connection = connections[i];
 				if (connection != null && connection.isActive()) {
 					connection.disconnect();
 				}
 			}
+			openConnections.clear();
+			openConnectionCounts.clear();
+			tagPools.clear();
 		}
+		messenger.unregister(dispatcher);
 		messenger.closeConnection();
 	}
 
+	/**
+	 * @return {@link TokenBucket} limiting the rate of the requests sent by
+	 *         all the {@link Connection}s of this manager. Does not limit the
+	 *         rate until configured.
+	 */
+	public TokenBucket getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * @return {@link MessageDispatcher} routing incoming messages to the
+	 *         {@link Connection}s.
+	 */
+	public MessageDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
 	/**
 	 * The session ID generated by the {@link ConnectionManager}.
-	 * Auto-incremented.
+	 * Auto-incremented, wraps around to 1 so 0 (reserved for the messages
+	 * outside the session) is never returned.
 	 */
-	public static synchronized int generateSessionId() {
-		synchronized (sessionId) {
-			sessionId %= (Integer.MAX_VALUE / 4);
-			return sessionId++;
+	public static int generateSessionId() {
+		while (true) {
+			int current = sessionId.get();
+			int next = current + 1 >= SESSION_ID_LIMIT ? 1 : current + 1;
+			if (sessionId.compareAndSet(current, next)) {
+				return current;
+			}
 		}
 	}
 
 	/**
 	 * The tag for messages sent outside the session generated by the
-	 * {@link ConnectionManager}. Auto-incremented.
+	 * {@link ConnectionManager}. Waits if all tags are in use.
+	 *
+	 * @deprecated Tags from this pool are shared by the whole process. Use
+	 *             {@link #generateSessionlessTag(InetAddress)} which limits
+	 *             the tag uniqueness to the remote host.
 	 */
-	public static synchronized int generateSessionlessTag() {
-		synchronized (sessionlessTag) {
-			boolean wait = true;
-			while (wait) {
-				++sessionlessTag;
-				sessionlessTag %= 60;
-				synchronized (reservedTags) {
-					if (!reservedTags.contains(sessionlessTag)) {
-						wait = false;
-					}
-				}
-				if (wait) {
-					try {
-						Thread.sleep(1);
-					} catch (InterruptedException e) {
-						// TODO log
-					}
-				}
-			}
-			synchronized (reservedTags) {
-				reservedTags.add(sessionlessTag);
-			}
-			return sessionlessTag;
-		}
+	@Deprecated
+	public static int generateSessionlessTag() {
+		return sharedTags.acquire();
 	}
 
 	/**
-	 * Frees the sessionless tag for further use
-	 * 
+	 * Frees the sessionless tag generated by
+	 * {@link #generateSessionlessTag()} for further use
+	 *
 	 * @param tag
 	 *            - tag to free
+	 * @deprecated Use {@link #freeTag(InetAddress, int)}
 	 */
+	@Deprecated
 	public static void freeTag(int tag) {
-		synchronized (reservedTags) {
-			reservedTags.remove((Integer) tag);
+		sharedTags.release(tag);
+	}
+
+	/**
+	 * The tag for messages sent outside the session to the remote host. Waits
+	 * if all tags for the host are in use.
+	 *
+	 * @param address
+	 *            - {@link InetAddress} of the remote host
+	 */
+	public int generateSessionlessTag(InetAddress address) {
+		return getTagPool(address).acquire();
+	}
+
+	/**
+	 * Frees the sessionless tag for further use
+	 *
+	 * @param address
+	 *            - {@link InetAddress} of the remote host the tag was
+	 *            generated for
+	 * @param tag
+	 *            - tag to free
+	 */
+	public void freeTag(InetAddress address, int tag) {
+		getTagPool(address).release(tag);
+	}
+
+	private TagPool getTagPool(InetAddress address) {
+		TagPool pool = tagPools.get(address);
+		if (pool == null) {
+			pool = new TagPool();
+			TagPool previous = tagPools.putIfAbsent(address, pool);
+			if (previous != null) {
+				pool = previous;
+			}
 		}
+		return pool;
 	}
 
 	/**
@@ -160,16 +258,62 @@ public class ConnectionManager {
 	 * 
 	 * @param index
 	 *            - index of the connection to return
+	 * @throws IndexOutOfBoundsException
+	 *             when there is no connection with the given index
 	 */
 	public Connection getConnection(int index) {
-		return connections.get(index);
+		int count = connectionCount;
+		Connection[] table = connections;
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ count);
+		}
+		return table[index];
 	}
 
 	/**
-	 * Closes the connection with the given index.
+	 * Closes the connection with the given index. The {@link TagPool} of the
+	 * remote host is removed when its last connection is closed.
 	 */
 	public void closeConnection(int index) {
-		connections.get(index).disconnect();
+		Connection connection = getConnection(index);
+		connection.disconnect();
+		synchronized (connectionsLock) {
+			if (!openConnections.remove(connection)) {
+				return;
+			}
+			InetAddress address = connection.getRemoteMachineAddress();
+			int count = openConnectionCounts.get(address) - 1;
+			if (count == 0) {
+				openConnectionCounts.remove(address);
+				tagPools.remove(address);
+			} else {
+				openConnectionCounts.put(address, count);
+			}
+		}
+	}
+
+	/**
+	 * Adds the connected connection. Must be called with
+	 * {@link #connectionsLock} held.
+	 * 
+	 * @return index of the connection
+	 */
+	private int add(Connection connection) {
+		Connection[] table = connections;
+		int index = connectionCount;
+		if (index == table.length) {
+			table = Arrays.copyOf(table, index * 2);
+			connections = table;
+		}
+		table[index] = connection;
+		connectionCount = index + 1;
+
+		openConnections.add(connection);
+		InetAddress address = connection.getRemoteMachineAddress();
+		Integer count = openConnectionCounts.get(address);
+		openConnectionCounts.put(address, count == null ? 1 : count + 1);
+		return index;
 	}
 
 	/**
@@ -181,12 +325,13 @@ public class ConnectionManager {
 	 * @return First {@link Connection} to the address or null if none found
 	 */
 	public Connection getConnection(InetAddress address) {
-		synchronized (connections) {
-			for (Connection connection : connections) {
-				if (connection != null && connection.isActive()
-						&& connection.getRemoteMachineAddress() == address) {
-					return connection;
-				}
+		int count = connectionCount;
+		Connection[] table = connections;
+		for (int i = 0; i < count; ++i) {
+			Connection connection = table[i];
+			if (connection != null && connection.isActive()
+					&& connection.getRemoteMachineAddress() == address) {
+				return connection;
 			}
 		}
 		return null;
@@ -208,12 +353,12 @@ public class ConnectionManager {
 	 */
 	public int createConnection(InetAddress address, int pingPeriod)
 			throws FileNotFoundException, IOException {
-		Connection connection = new Connection(messenger, 0);
+		Connection connection = new Connection(messenger, dispatcher, 0);
+		connection.setSharedRateLimiter(rateLimiter);
 		connection.connect(address, pingPeriod);
 
-		synchronized (connections) {
-			connections.add(connection);
-			return connections.size() - 1;
+		synchronized (connectionsLock) {
+			return add(connection);
 		}
 	}
 
@@ -232,12 +377,12 @@ public class ConnectionManager {
 	public int createConnection(InetAddress address)
 			throws FileNotFoundException, IOException {
 
-		synchronized (connections) {
-			Connection connection = new Connection(messenger,
-					connections.size());
+		synchronized (connectionsLock) {
+			Connection connection = new Connection(messenger, dispatcher,
+					connectionCount);
+			connection.setSharedRateLimiter(rateLimiter);
 			connection.connect(address, pingPeriod);
-			connections.add(connection);
-			return connections.size() - 1;
+			return add(connection);
 		}
 	}
 
@@ -257,16 +402,14 @@ public class ConnectionManager {
 	 */
 	public List<CipherSuite> getAvailableCipherSuites(int connection)
 			throws Exception {
-		int tag = generateSessionlessTag();
-		List<CipherSuite> suites;
+		Connection con = getConnection(connection);
+		InetAddress address = con.getRemoteMachineAddress();
+		int tag = generateSessionlessTag(address);
 		try {
-			suites = connections.get(connection).getAvailableCipherSuites(tag);
-		} catch (Exception e) {
-			freeTag(tag);
-			throw e;
+			return con.getAvailableCipherSuites(tag);
+		} finally {
+			freeTag(address, tag);
 		}
-		freeTag(tag);
-		return suites;
 	}
 
 	/**
@@ -290,18 +433,15 @@ public class ConnectionManager {
 	public GetChannelAuthenticationCapabilitiesResponseData getChannelAuthenticationCapabilities(
 			int connection, CipherSuite cipherSuite,
 			PrivilegeLevel requestedPrivilegeLevel) throws Exception {
-		int tag = generateSessionlessTag();
-		GetChannelAuthenticationCapabilitiesResponseData responseData;
+		Connection con = getConnection(connection);
+		InetAddress address = con.getRemoteMachineAddress();
+		int tag = generateSessionlessTag(address);
 		try {
-			responseData = connections.get(connection)
-					.getChannelAuthenticationCapabilities(tag, cipherSuite,
-							requestedPrivilegeLevel);
-		} catch (Exception e) {
-			freeTag(tag);
-			throw e;
+			return con.getChannelAuthenticationCapabilities(tag, cipherSuite,
+					requestedPrivilegeLevel);
+		} finally {
+			freeTag(address, tag);
 		}
-		freeTag(tag);
-		return responseData;
 	}
 
 	/**
@@ -332,15 +472,15 @@ public class ConnectionManager {
 	public void startSession(int connection, CipherSuite cipherSuite,
 			PrivilegeLevel privilegeLevel, String username, String password,
 			byte[] bmcKey) throws Exception {
-		int tag = generateSessionlessTag();
+		Connection con = getConnection(connection);
+		InetAddress address = con.getRemoteMachineAddress();
+		int tag = generateSessionlessTag(address);
 		try {
-			connections.get(connection).startSession(tag, cipherSuite,
-					privilegeLevel, username, password, bmcKey);
-		} catch (Exception e) {
-			freeTag(tag);
-			throw e;
+			con.startSession(tag, cipherSuite, privilegeLevel, username,
+					password, bmcKey);
+		} finally {
+			freeTag(address, tag);
 		}
-		freeTag(tag);
 	}
 
 	/**
@@ -352,6 +492,6 @@ public class ConnectionManager {
 	 *            - {@link ConnectionListener} to notify
 	 */
 	public void registerListener(int connection, ConnectionListener listener) {
-		connections.get(connection).registerListener(listener);
+		getConnection(connection).registerListener(listener);
 	}
 }
@@ -0,0 +1,27 @@
+/*
+ * IllegalConnectionStateException.java
+ * Created on 2011-10-08
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection;
+
+/**
+ * Exception indicating that the operation is not allowed in the current state
+ * of the {@link Connection}, e.g. the request was sent before the session was
+ * established or after it was closed. Retrying the operation without changing
+ * the state is pointless.
+ */
+public class IllegalConnectionStateException extends ConnectionException {
+
+	private static final long serialVersionUID = 5231094730317466921L;
+
+	public IllegalConnectionStateException(String message) {
+		super(message);
+	}
+}
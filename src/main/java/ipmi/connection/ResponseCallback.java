@@ -0,0 +1,35 @@
+/*
+ * ResponseCallback.java
+ * Created on 2011-09-21
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection;
+
+import ipmi.coding.commands.ResponseData;
+
+/**
+ * Interface for the {@link ResponseFuture} completion callbacks.
+ */
+public interface ResponseCallback {
+	/**
+	 * Called when the response for the request was received.
+	 *
+	 * @param responseData
+	 *            - {@link ResponseData} of the response
+	 */
+	void onSuccess(ResponseData responseData);
+
+	/**
+	 * Called when the request failed, timed out or was cancelled.
+	 *
+	 * @param exception
+	 *            - cause of the failure
+	 */
+	void onFailure(Exception exception);
+}
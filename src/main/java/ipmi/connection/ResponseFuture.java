@@ -0,0 +1,241 @@
+/*
+ * ResponseFuture.java
+ * Created on 2011-09-21
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection;
+
+import ipmi.coding.commands.ResponseData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pending response for the IPMI request. Completed by the {@link Connection}
+ * when the response arrives or when the request times out.
+ * <p>
+ * Result can be either awaited via {@link #get()} or handled asynchronously
+ * by the {@link ResponseCallback}s registered via
+ * {@link #addCallback(ResponseCallback)}. Callbacks are invoked on the thread
+ * completing the future, so they must not block.
+ */
+public class ResponseFuture implements Future<ResponseData> {
+
+	private static final int PENDING = 0;
+	private static final int SUCCEEDED = 1;
+	private static final int FAILED = 2;
+	private static final int CANCELLED = 3;
+
+	private int state;
+
+	private ResponseData responseData;
+
+	private Exception exception;
+
+	private int tag = -1;
+
+	/**
+	 * First registered callback, kept apart so a single callback does not
+	 * need the list.
+	 */
+	private ResponseCallback callback;
+
+	private List<ResponseCallback> callbacks;
+
+	/**
+	 * Released when the future is done. Waiting threads park on it instead
+	 * of waiting on the monitor, so they do not hold the monitor nor pin the
+	 * carrier thread while they wait.
+	 */
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private static Logger logger = Logger.getLogger(ResponseFuture.class);
+
+	/**
+	 * @return Tag of the request or -1 if request was not sent yet.
+	 */
+	public synchronized int getTag() {
+		return tag;
+	}
+
+	/**
+	 * Sets the tag of the request. Called when the request is sent - also
+	 * when the request is sent again by the connector retrying it.
+	 */
+	public synchronized void setTag(int tag) {
+		this.tag = tag;
+	}
+
+	/**
+	 * Completes the future with the response.
+	 *
+	 * @param responseData
+	 *            - {@link ResponseData} of the response
+	 * @return true if the future was completed by this call, false if it was
+	 *         already done
+	 */
+	public boolean complete(ResponseData responseData) {
+		synchronized (this) {
+			if (state != PENDING) {
+				return false;
+			}
+			this.responseData = responseData;
+			state = SUCCEEDED;
+		}
+		done.countDown();
+		runCallbacks();
+		return true;
+	}
+
+	/**
+	 * Completes the future with the failure.
+	 *
+	 * @param exception
+	 *            - cause of the failure
+	 * @return true if the future was completed by this call, false if it was
+	 *         already done
+	 */
+	public boolean fail(Exception exception) {
+		synchronized (this) {
+			if (state != PENDING) {
+				return false;
+			}
+			this.exception = exception;
+			state = FAILED;
+		}
+		done.countDown();
+		runCallbacks();
+		return true;
+	}
+
+	/**
+	 * Cancels the future. The request is not withdrawn from the managed
+	 * system, but its response will be ignored.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (state != PENDING) {
+				return false;
+			}
+			exception = new CancellationException("Request cancelled");
+			state = CANCELLED;
+		}
+		done.countDown();
+		runCallbacks();
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return state == CANCELLED;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return state != PENDING;
+	}
+
+	/**
+	 * Registers callback that will be notified when the future completes. If
+	 * the future is already done, callback is notified immediately on the
+	 * calling thread.
+	 *
+	 * @param responseCallback
+	 *            - {@link ResponseCallback} to notify
+	 */
+	public void addCallback(ResponseCallback responseCallback) {
+		synchronized (this) {
+			if (state == PENDING) {
+				if (callback == null) {
+					callback = responseCallback;
+				} else {
+					if (callbacks == null) {
+						callbacks = new ArrayList<ResponseCallback>();
+					}
+					callbacks.add(responseCallback);
+				}
+				return;
+			}
+		}
+		invoke(responseCallback);
+	}
+
+	private void runCallbacks() {
+		ResponseCallback first;
+		List<ResponseCallback> others;
+		synchronized (this) {
+			first = callback;
+			others = callbacks;
+			callback = null;
+			callbacks = null;
+		}
+		if (first != null) {
+			invoke(first);
+		}
+		if (others != null) {
+			for (ResponseCallback responseCallback : others) {
+				invoke(responseCallback);
+			}
+		}
+	}
+
+	private void invoke(ResponseCallback responseCallback) {
+		try {
+			if (state == SUCCEEDED) {
+				responseCallback.onSuccess(responseData);
+			} else {
+				responseCallback.onFailure(exception);
+			}
+		} catch (Exception e) {
+			logger.error(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public ResponseData get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	@Override
+	public ResponseData get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return getResult();
+	}
+
+	/**
+	 * @return Cause of the failure or null if the future is not done or
+	 *         succeeded.
+	 */
+	public synchronized Exception getException() {
+		return exception;
+	}
+
+	private synchronized ResponseData getResult() throws ExecutionException {
+		if (state == SUCCEEDED) {
+			return responseData;
+		}
+		if (state == CANCELLED) {
+			throw (CancellationException) exception;
+		}
+		throw new ExecutionException(exception);
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * TagPool.java
+ * Created on 2011-09-22
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of the tags for messages sent outside the session. Reserved tags are
+ * kept in a bitmap modified with compare-and-set, so allocating and freeing a
+ * tag does not lock. The free tags are also counted by a {@link Semaphore},
+ * so the thread waiting for a tag is woken up as soon as one is released.
+ * <p>
+ * Tags must only be unique among the messages exchanged with the same remote
+ * host, so {@link ConnectionManager} keeps one pool per remote address.
+ */
+public class TagPool {
+
+	/**
+	 * Number of the available tags.
+	 */
+	public static final int SIZE = 60;
+
+	private static final long FULL = (1L << SIZE) - 1;
+
+	private final AtomicLong reserved = new AtomicLong();
+
+	/**
+	 * Permit is held for every tag reserved or being reserved, so the bitmap
+	 * has a free tag for every thread that got the permit.
+	 */
+	private final Semaphore free = new Semaphore(SIZE);
+
+	/**
+	 * Tag from which the search for the free one starts, so the tags are used
+	 * in turns rather than the lowest free one being reused at once.
+	 */
+	private final AtomicLong next = new AtomicLong();
+
+	/**
+	 * Reserves free tag.
+	 *
+	 * @return reserved tag or -1 if all tags are in use
+	 */
+	public int tryAcquire() {
+		if (!free.tryAcquire()) {
+			return -1;
+		}
+		return reserve();
+	}
+
+	/**
+	 * Reserves free tag in the bitmap. Must be called with the permit held.
+	 */
+	private int reserve() {
+		while (true) {
+			long current = reserved.get();
+			int start = (int) (next.getAndIncrement() % SIZE);
+			// rotate the free bits so the search starts at the start tag
+			long freeBits = ~current & FULL;
+			long rotated = ((freeBits >>> start) | (freeBits << (SIZE - start)))
+					& FULL;
+			int tag = (Long.numberOfTrailingZeros(rotated) + start) % SIZE;
+			if (reserved.compareAndSet(current, current | (1L << tag))) {
+				return tag;
+			}
+		}
+	}
+
+	/**
+	 * Reserves free tag, waiting until one is freed if all tags are in use.
+	 *
+	 * @return reserved tag
+	 */
+	public int acquire() {
+		free.acquireUninterruptibly();
+		return reserve();
+	}
+
+	/**
+	 * Frees the tag for further use.
+	 *
+	 * @param tag
+	 *            - tag to free
+	 */
+	public void release(int tag) {
+		if (tag < 0 || tag >= SIZE) {
+			throw new IllegalArgumentException("Invalid tag " + tag);
+		}
+		long bit = 1L << tag;
+		while (true) {
+			long current = reserved.get();
+			if ((current & bit) == 0) {
+				return;
+			}
+			if (reserved.compareAndSet(current, current & ~bit)) {
+				free.release();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return Number of the tags currently in use.
+	 */
+	public int getReservedCount() {
+		return Long.bitCount(reserved.get());
+	}
+}
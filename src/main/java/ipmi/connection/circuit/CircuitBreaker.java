@@ -0,0 +1,302 @@
+/*
+ * CircuitBreaker.java
+ * Created on 2011-10-03
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection.circuit;
+
+import ipmi.common.HashedWheelTimer;
+import ipmi.common.HashedWheelTimer.ScheduledTask;
+import ipmi.connection.Connection;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Stops sending requests to the managed system that does not respond. The
+ * circuit opens after the given number of consecutive timeouts - requests
+ * fail at once with {@link CircuitOpenException} instead of waiting for the
+ * timeout. While the circuit is open, the managed system is probed with RMCP
+ * ping. When it answers, the circuit is half-open - requests are sent again
+ * and the first response closes the circuit.
+ * <p>
+ * Breaker with the failure threshold 0 never opens.
+ */
+public class CircuitBreaker implements Runnable {
+
+	/**
+	 * Default interval between the RMCP pings sent while the circuit is open
+	 * in ms.
+	 */
+	public static final int DEFAULT_PROBE_INTERVAL = 5000;
+
+	/**
+	 * RMCP ping tags are 0-254.
+	 */
+	private static final int PING_TAG_COUNT = 255;
+
+	private final Connection connection;
+
+	private final List<CircuitListener> listeners;
+
+	private CircuitState state;
+
+	private int failureThreshold;
+
+	private int probeInterval;
+
+	private int consecutiveTimeouts;
+
+	/**
+	 * Tag of the last ping sent, -1 if none is expected.
+	 */
+	private int probeTag;
+
+	private int nextProbeTag;
+
+	private ScheduledTask probe;
+
+	private long openCount;
+
+	private long rejectedCount;
+
+	private long probesSent;
+
+	private static Logger logger = Logger.getLogger(CircuitBreaker.class);
+
+	/**
+	 * Initiates the breaker that never opens.
+	 *
+	 * @param connection
+	 *            - {@link Connection} guarded by the breaker
+	 */
+	public CircuitBreaker(Connection connection) {
+		this.connection = connection;
+		listeners = new CopyOnWriteArrayList<CircuitListener>();
+		state = CircuitState.Closed;
+		failureThreshold = 0;
+		probeInterval = DEFAULT_PROBE_INTERVAL;
+		probeTag = -1;
+	}
+
+	/**
+	 * Changes the settings of the breaker. Disabling the breaker closes the
+	 * circuit.
+	 *
+	 * @param failureThreshold
+	 *            - number of the consecutive timeouts that open the circuit, 0
+	 *            disables the breaker
+	 * @param probeInterval
+	 *            - interval between the RMCP pings sent while the circuit is
+	 *            open in ms
+	 */
+	public void configure(int failureThreshold, int probeInterval) {
+		if (failureThreshold < 0) {
+			throw new IllegalArgumentException(
+					"Failure threshold cannot be negative");
+		}
+		if (probeInterval <= 0) {
+			throw new IllegalArgumentException(
+					"Probe interval must be positive");
+		}
+		CircuitState previous;
+		CircuitState current;
+		synchronized (this) {
+			this.failureThreshold = failureThreshold;
+			this.probeInterval = probeInterval;
+			previous = state;
+			if (failureThreshold == 0) {
+				setState(CircuitState.Closed);
+			}
+			current = state;
+		}
+		notifyListeners(previous, current);
+	}
+
+	public synchronized int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	public synchronized int getProbeInterval() {
+		return probeInterval;
+	}
+
+	public synchronized CircuitState getState() {
+		return state;
+	}
+
+	/**
+	 * Checks if the request can be sent. Rejections are counted.
+	 *
+	 * @return false if the circuit is open
+	 */
+	public synchronized boolean allowRequest() {
+		if (state == CircuitState.Open) {
+			++rejectedCount;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Called when the requests timed out.
+	 *
+	 * @param count
+	 *            - number of the requests that timed out
+	 * @return true if the circuit was opened
+	 */
+	public boolean onTimeouts(int count) {
+		CircuitState previous;
+		synchronized (this) {
+			if (failureThreshold == 0 || state == CircuitState.Open) {
+				return false;
+			}
+			consecutiveTimeouts += count;
+			if (state == CircuitState.Closed
+					&& consecutiveTimeouts < failureThreshold) {
+				return false;
+			}
+			previous = state;
+			setState(CircuitState.Open);
+		}
+		notifyListeners(previous, CircuitState.Open);
+		return true;
+	}
+
+	/**
+	 * Called when the response from the managed system arrived.
+	 */
+	public void onResponse() {
+		CircuitState previous;
+		synchronized (this) {
+			consecutiveTimeouts = 0;
+			if (state == CircuitState.Closed) {
+				return;
+			}
+			previous = state;
+			setState(CircuitState.Closed);
+		}
+		notifyListeners(previous, CircuitState.Closed);
+	}
+
+	/**
+	 * Called when the RMCP pong arrived.
+	 *
+	 * @param tag
+	 *            - ASF message tag of the pong
+	 */
+	public void onPong(int tag) {
+		synchronized (this) {
+			if (state != CircuitState.Open || tag != probeTag) {
+				return;
+			}
+			setState(CircuitState.HalfOpen);
+		}
+		notifyListeners(CircuitState.Open, CircuitState.HalfOpen);
+	}
+
+	/**
+	 * Must be called with the lock held. Listeners must be notified after
+	 * the lock is released.
+	 */
+	private void setState(CircuitState state) {
+		if (this.state == state) {
+			return;
+		}
+		this.state = state;
+		consecutiveTimeouts = 0;
+		probeTag = -1;
+		if (probe != null) {
+			probe.cancel();
+			probe = null;
+		}
+		if (state == CircuitState.Open) {
+			++openCount;
+			probe = HashedWheelTimer.getShared().schedule(this,
+					probeInterval, probeInterval);
+		}
+	}
+
+	private void notifyListeners(CircuitState previous, CircuitState current) {
+		if (previous == current) {
+			return;
+		}
+		logger.info("Circuit of the connection to "
+				+ connection.getRemoteMachineAddress() + " changed from "
+				+ previous + " to " + current);
+		for (CircuitListener listener : listeners) {
+			listener.stateChanged(connection.getHandle(), previous, current);
+		}
+	}
+
+	/**
+	 * {@link HashedWheelTimer} runner - sends RMCP ping to the managed system
+	 * while the circuit is open.
+	 */
+	@Override
+	public void run() {
+		int tag;
+		synchronized (this) {
+			if (state != CircuitState.Open) {
+				return;
+			}
+			tag = nextProbeTag;
+			nextProbeTag = (nextProbeTag + 1) % PING_TAG_COUNT;
+			probeTag = tag;
+			++probesSent;
+		}
+		try {
+			connection.sendPing(tag);
+		} catch (Exception e) {
+			logger.warn("Failed to send RMCP ping", e);
+		}
+	}
+
+	/**
+	 * Stops probing the managed system. Called when the connection is
+	 * closed.
+	 */
+	public synchronized void stop() {
+		if (probe != null) {
+			probe.cancel();
+			probe = null;
+		}
+	}
+
+	public void registerListener(CircuitListener listener) {
+		listeners.add(listener);
+	}
+
+	public void unregisterListener(CircuitListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return Number of times the circuit was opened.
+	 */
+	public synchronized long getOpenCount() {
+		return openCount;
+	}
+
+	/**
+	 * @return Number of the requests rejected because the circuit was open.
+	 */
+	public synchronized long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	/**
+	 * @return Number of the RMCP pings sent while the circuit was open.
+	 */
+	public synchronized long getProbesSent() {
+		return probesSent;
+	}
+}
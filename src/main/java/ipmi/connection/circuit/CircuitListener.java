@@ -0,0 +1,30 @@
+/*
+ * CircuitListener.java
+ * Created on 2011-10-03
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection.circuit;
+
+/**
+ * Interface for the listener of the {@link CircuitBreaker} state changes.
+ */
+public interface CircuitListener {
+
+	/**
+	 * Notifies that the state of the {@link CircuitBreaker} changed.
+	 * 
+	 * @param handle
+	 *            - the id of the connection guarded by the breaker
+	 * @param previous
+	 *            - state before the change
+	 * @param current
+	 *            - state after the change
+	 */
+	void stateChanged(int handle, CircuitState previous, CircuitState current);
+}
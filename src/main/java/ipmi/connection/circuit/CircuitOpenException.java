@@ -0,0 +1,28 @@
+/*
+ * CircuitOpenException.java
+ * Created on 2011-10-03
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection.circuit;
+
+import ipmi.connection.ConnectionException;
+
+/**
+ * Exception indicating that the request was not sent because the managed
+ * system stopped responding and the {@link CircuitBreaker} is open. Retrying
+ * the request before the system is back is pointless.
+ */
+public class CircuitOpenException extends ConnectionException {
+
+	private static final long serialVersionUID = -6084392753101934815L;
+
+	public CircuitOpenException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,32 @@
+/*
+ * CircuitState.java
+ * Created on 2011-10-03
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection.circuit;
+
+/**
+ * States of the {@link CircuitBreaker}.
+ */
+public enum CircuitState {
+	/**
+	 * Requests are sent normally.
+	 */
+	Closed,
+	/**
+	 * Managed system stopped responding - requests fail at once and the
+	 * system is probed with RMCP ping.
+	 */
+	Open,
+	/**
+	 * Managed system answered the ping - requests are sent again and the
+	 * first response closes the circuit, the first timeout opens it again.
+	 */
+	HalfOpen
+}
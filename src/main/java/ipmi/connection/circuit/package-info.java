@@ -0,0 +1,4 @@
+/**
+ * Failing fast on the connections to the unreachable managed systems.
+ */
+package ipmi.connection.circuit;
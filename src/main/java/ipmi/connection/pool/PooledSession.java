@@ -0,0 +1,88 @@
+/*
+ * PooledSession.java
+ * Created on 2011-09-26
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection.pool;
+
+import ipmi.coding.security.CipherSuite;
+import ipmi.connection.Connection;
+import ipmi.connection.ConnectionManager;
+
+/**
+ * Session leased from the {@link SessionPool}. Must be given back via
+ * {@link SessionPool#release(PooledSession)} when the caller is done with
+ * it.
+ */
+public class PooledSession {
+
+	private final SessionKey key;
+
+	private final int index;
+
+	private final Connection connection;
+
+	private final CipherSuite cipherSuite;
+
+	/**
+	 * Time of the last return to the pool as returned by
+	 * {@link System#nanoTime()}.
+	 */
+	private volatile long lastUsed;
+
+	PooledSession(SessionKey key, int index, Connection connection,
+			CipherSuite cipherSuite) {
+		this.key = key;
+		this.index = index;
+		this.connection = connection;
+		this.cipherSuite = cipherSuite;
+		lastUsed = System.nanoTime();
+	}
+
+	public SessionKey getKey() {
+		return key;
+	}
+
+	/**
+	 * @return Index of the {@link Connection} in the {@link ConnectionManager}.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return {@link Connection} with the established session.
+	 */
+	public Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * @return {@link CipherSuite} used by the session, needed to create the
+	 *         requests.
+	 */
+	public CipherSuite getCipherSuite() {
+		return cipherSuite;
+	}
+
+	/**
+	 * @return true if the session is still established.
+	 */
+	public boolean isValid() {
+		return connection.isActive() && connection.isSessionValid();
+	}
+
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	void setLastUsed(long lastUsed) {
+		this.lastUsed = lastUsed;
+	}
+}
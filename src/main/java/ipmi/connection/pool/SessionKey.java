@@ -0,0 +1,87 @@
+/*
+ * SessionKey.java
+ * Created on 2011-09-26
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection.pool;
+
+import ipmi.coding.commands.PrivilegeLevel;
+
+import java.net.InetAddress;
+
+/**
+ * Identifies sessions that can be used interchangeably - established with
+ * the same remote host, by the same user, with the same privilege level and
+ * Cipher Suite.
+ */
+public class SessionKey {
+
+	private final InetAddress address;
+	private final String username;
+	private final PrivilegeLevel privilegeLevel;
+	private final byte cipherSuiteId;
+
+	public SessionKey(InetAddress address, String username,
+			PrivilegeLevel privilegeLevel, byte cipherSuiteId) {
+		if (address == null || username == null || privilegeLevel == null) {
+			throw new IllegalArgumentException(
+					"Address, username and privilege level cannot be null");
+		}
+		this.address = address;
+		this.username = username;
+		this.privilegeLevel = privilegeLevel;
+		this.cipherSuiteId = cipherSuiteId;
+	}
+
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public PrivilegeLevel getPrivilegeLevel() {
+		return privilegeLevel;
+	}
+
+	public byte getCipherSuiteId() {
+		return cipherSuiteId;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof SessionKey)) {
+			return false;
+		}
+		SessionKey other = (SessionKey) obj;
+		return cipherSuiteId == other.cipherSuiteId
+				&& privilegeLevel == other.privilegeLevel
+				&& address.equals(other.address)
+				&& username.equals(other.username);
+	}
+
+	@Override
+	public int hashCode() {
+		int result = address.hashCode();
+		result = 31 * result + username.hashCode();
+		result = 31 * result + privilegeLevel.hashCode();
+		result = 31 * result + cipherSuiteId;
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return username + "@" + address.getHostAddress() + " ("
+				+ privilegeLevel + ", cipher suite " + cipherSuiteId + ")";
+	}
+}
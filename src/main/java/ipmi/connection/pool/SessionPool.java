@@ -0,0 +1,317 @@
+/*
+ * SessionPool.java
+ * Created on 2011-09-26
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection.pool;
+
+import ipmi.coding.commands.PrivilegeLevel;
+import ipmi.coding.security.CipherSuite;
+import ipmi.common.HashedWheelTimer;
+import ipmi.common.HashedWheelTimer.ScheduledTask;
+import ipmi.connection.Connection;
+import ipmi.connection.ConnectionException;
+import ipmi.connection.ConnectionManager;
+import ipmi.sm.states.SessionValid;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps established sessions open between uses, so the handshake is
+ * performed only when no idle session with the remote host is available.
+ * <p>
+ * Sessions are leased via
+ * {@link #lease(InetAddress, String, String, byte[], PrivilegeLevel, byte)}
+ * and given back via {@link #release(PooledSession)}. Sessions with the same
+ * {@link SessionKey} are interchangeable. Idle sessions are kept up by the
+ * keep-alive of their {@link Connection}s and closed after they were not
+ * used for the idle time. Sessions that left the {@link SessionValid} state
+ * (e.g. after the keep-alive timed out) are discarded and replaced with new
+ * ones on the next lease.
+ */
+public class SessionPool implements Runnable {
+
+	private static Logger logger = Logger.getLogger(SessionPool.class);
+
+	private final ConnectionManager connectionManager;
+
+	private final long maxIdleTime;
+
+	private final int maxIdlePerKey;
+
+	/**
+	 * Idle sessions per key. Most recently used sessions are at the head, so
+	 * the ones that are not needed age out at the tail.
+	 */
+	private final ConcurrentMap<SessionKey, LinkedBlockingDeque<PooledSession>> idle;
+
+	private final ScheduledTask evictor;
+
+	private volatile boolean closed;
+
+	private final AtomicLong created = new AtomicLong();
+
+	private final AtomicLong reused = new AtomicLong();
+
+	private final AtomicLong evicted = new AtomicLong();
+
+	/**
+	 * Initiates the pool.
+	 *
+	 * @param connectionManager
+	 *            - {@link ConnectionManager} that will create the connections
+	 * @param maxIdleTime
+	 *            - time in ms after which the unused session is closed
+	 * @param maxIdlePerKey
+	 *            - maximal number of the idle sessions kept per
+	 *            {@link SessionKey}, sessions returned above this limit are
+	 *            closed
+	 */
+	public SessionPool(ConnectionManager connectionManager, int maxIdleTime,
+			int maxIdlePerKey) {
+		if (maxIdleTime <= 0 || maxIdlePerKey <= 0) {
+			throw new IllegalArgumentException(
+					"Idle time and idle sessions limit must be positive");
+		}
+		this.connectionManager = connectionManager;
+		this.maxIdleTime = TimeUnit.MILLISECONDS.toNanos(maxIdleTime);
+		this.maxIdlePerKey = maxIdlePerKey;
+		idle = new ConcurrentHashMap<SessionKey, LinkedBlockingDeque<PooledSession>>();
+		long period = Math.max(10, maxIdleTime / 4);
+		evictor = HashedWheelTimer.getShared().schedule(this, period, period);
+	}
+
+	/**
+	 * Leases session with the remote host. Idle session is reused if
+	 * available, otherwise new connection is created and the session is
+	 * established.
+	 *
+	 * @param address
+	 *            - {@link InetAddress} of the remote host
+	 * @param username
+	 *            - the username
+	 * @param password
+	 *            - password matching the username
+	 * @param bmcKey
+	 *            - the key that should be provided if the two-key
+	 *            authentication is enabled, null otherwise.
+	 * @param privilegeLevel
+	 *            - requested {@link PrivilegeLevel}
+	 * @param cipherSuiteId
+	 *            - ID of the {@link CipherSuite} to use
+	 * @return {@link PooledSession} with the established session
+	 * @throws ConnectionException
+	 *             when the pool is closed or the Cipher Suite is not
+	 *             available at the remote host
+	 * @throws Exception
+	 *             when establishing the session fails
+	 */
+	public PooledSession lease(InetAddress address, String username,
+			String password, byte[] bmcKey, PrivilegeLevel privilegeLevel,
+			byte cipherSuiteId) throws Exception {
+		if (closed) {
+			throw new ConnectionException("Session pool closed");
+		}
+		SessionKey key = new SessionKey(address, username, privilegeLevel,
+				cipherSuiteId);
+		LinkedBlockingDeque<PooledSession> sessions = idle.get(key);
+		if (sessions != null) {
+			PooledSession session;
+			while ((session = sessions.pollFirst()) != null) {
+				if (session.isValid()) {
+					reused.incrementAndGet();
+					return session;
+				}
+				logger.debug("Discarding session " + key + " - "
+						+ "session is no longer valid");
+				close(session);
+			}
+		}
+		return open(key, password, bmcKey);
+	}
+
+	/**
+	 * Gives the session back to the pool. Session that is no longer valid is
+	 * discarded.
+	 *
+	 * @param session
+	 *            - {@link PooledSession} obtained via
+	 *            {@link #lease(InetAddress, String, String, byte[], PrivilegeLevel, byte)}
+	 */
+	public void release(PooledSession session) {
+		if (closed || !session.isValid()) {
+			close(session);
+			return;
+		}
+		LinkedBlockingDeque<PooledSession> sessions = getIdle(session.getKey());
+		session.setLastUsed(System.nanoTime());
+		sessions.offerFirst(session);
+		if (sessions.size() > maxIdlePerKey) {
+			PooledSession excess = sessions.pollLast();
+			if (excess != null) {
+				close(excess);
+			}
+		}
+	}
+
+	/**
+	 * Closes the session instead of giving it back to the pool. Should be
+	 * used when the caller found the session unusable.
+	 *
+	 * @param session
+	 *            - {@link PooledSession} obtained via
+	 *            {@link #lease(InetAddress, String, String, byte[], PrivilegeLevel, byte)}
+	 */
+	public void invalidate(PooledSession session) {
+		close(session);
+	}
+
+	/**
+	 * Closes all idle sessions and stops the pool. Leased sessions are closed
+	 * when they are released.
+	 */
+	public void close() {
+		closed = true;
+		evictor.cancel();
+		for (LinkedBlockingDeque<PooledSession> sessions : idle.values()) {
+			PooledSession session;
+			while ((session = sessions.pollFirst()) != null) {
+				close(session);
+			}
+		}
+	}
+
+	/**
+	 * @return Number of sessions established by the pool.
+	 */
+	public long getCreatedCount() {
+		return created.get();
+	}
+
+	/**
+	 * @return Number of leases served by the idle sessions.
+	 */
+	public long getReusedCount() {
+		return reused.get();
+	}
+
+	/**
+	 * @return Number of sessions closed because they were idle for too long.
+	 */
+	public long getEvictedCount() {
+		return evicted.get();
+	}
+
+	/**
+	 * @return Number of the idle sessions.
+	 */
+	public int getIdleCount() {
+		int count = 0;
+		for (LinkedBlockingDeque<PooledSession> sessions : idle.values()) {
+			count += sessions.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Evicts sessions that were idle for too long or are no longer valid.
+	 * Run periodically on the {@link HashedWheelTimer}.
+	 */
+	@Override
+	public void run() {
+		long now = System.nanoTime();
+		for (Map.Entry<SessionKey, LinkedBlockingDeque<PooledSession>> entry : idle
+				.entrySet()) {
+			Iterator<PooledSession> iterator = entry.getValue()
+					.descendingIterator();
+			while (iterator.hasNext()) {
+				PooledSession session = iterator.next();
+				boolean expired = now - session.getLastUsed() >= maxIdleTime;
+				if ((expired || !session.isValid())
+						&& entry.getValue().removeLastOccurrence(session)) {
+					if (expired) {
+						evicted.incrementAndGet();
+					}
+					close(session);
+				}
+			}
+		}
+	}
+
+	private PooledSession open(SessionKey key, String password, byte[] bmcKey)
+			throws Exception {
+		int index = connectionManager.createConnection(key.getAddress());
+		Connection connection = connectionManager.getConnection(index);
+		try {
+			List<CipherSuite> suites = connectionManager
+					.getAvailableCipherSuites(index);
+			CipherSuite cipherSuite = null;
+			for (CipherSuite suite : suites) {
+				if (suite.getId() == key.getCipherSuiteId()) {
+					cipherSuite = suite;
+				}
+			}
+			if (cipherSuite == null) {
+				throw new ConnectionException("Cipher suite "
+						+ key.getCipherSuiteId()
+						+ " not available at the remote host");
+			}
+			connectionManager.getChannelAuthenticationCapabilities(index,
+					cipherSuite, key.getPrivilegeLevel());
+			connectionManager.startSession(index, cipherSuite,
+					key.getPrivilegeLevel(), key.getUsername(), password,
+					bmcKey);
+			created.incrementAndGet();
+			return new PooledSession(key, index, connection, cipherSuite);
+		} catch (Exception e) {
+			connectionManager.closeConnection(index);
+			throw e;
+		}
+	}
+
+	private LinkedBlockingDeque<PooledSession> getIdle(SessionKey key) {
+		LinkedBlockingDeque<PooledSession> sessions = idle.get(key);
+		if (sessions == null) {
+			sessions = new LinkedBlockingDeque<PooledSession>();
+			LinkedBlockingDeque<PooledSession> previous = idle.putIfAbsent(
+					key, sessions);
+			if (previous != null) {
+				sessions = previous;
+			}
+		}
+		return sessions;
+	}
+
+	/**
+	 * Requests closing of the session at the remote host and disconnects it.
+	 * Does not wait for the response, so it can be called from the timer
+	 * thread.
+	 */
+	private void close(PooledSession session) {
+		try {
+			if (session.isValid()) {
+				session.getConnection().closeSession();
+			}
+		} catch (Exception e) {
+			logger.warn("Failed to close session " + session.getKey(), e);
+		} finally {
+			connectionManager.closeConnection(session.getIndex());
+		}
+	}
+}
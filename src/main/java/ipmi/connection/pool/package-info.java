@@ -0,0 +1,4 @@
+/**
+ * Pooling of the established sessions.
+ */
+package ipmi.connection.pool;
\ No newline at end of file
@@ -0,0 +1,159 @@
+/*
+ * CongestionWindow.java
+ * Created on 2011-09-19
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection.queue;
+
+/**
+ * Limits the number of messages sent to the managed system and not yet
+ * answered. The limit is adapted to the managed system using additive
+ * increase/multiplicative decrease: it grows by 1 after a whole window of
+ * messages was answered correctly and is halved when the message times out
+ * or the managed system reports it is busy.
+ */
+public class CongestionWindow {
+
+	/**
+	 * Weight of the single message in the loss rate average.
+	 */
+	private static final double LOSS_RATE_WEIGHT = 1.0 / 32;
+
+	private int size;
+
+	/**
+	 * Number of messages answered since the size last changed.
+	 */
+	private int answeredInWindow;
+
+	private int minSize;
+
+	private int maxSize;
+
+	/**
+	 * Time of the last decrease of the window as returned by
+	 * {@link System#nanoTime()}.
+	 */
+	private long lastDecrease;
+
+	private double lossRate;
+
+	private long answered;
+
+	private long lost;
+
+	/**
+	 * Initiates the window.
+	 *
+	 * @param initialSize
+	 *            - initial size of the window
+	 * @param minSize
+	 *            - minimal size of the window, at least 1
+	 * @param maxSize
+	 *            - maximal size of the window
+	 */
+	public CongestionWindow(int initialSize, int minSize, int maxSize) {
+		if (minSize < 1 || maxSize < minSize || initialSize < minSize
+				|| initialSize > maxSize) {
+			throw new IllegalArgumentException("Invalid window size");
+		}
+		this.size = initialSize;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		lastDecrease = System.nanoTime();
+	}
+
+	/**
+	 * @return Number of messages that can be waiting for the response.
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	public synchronized int getMinSize() {
+		return minSize;
+	}
+
+	public synchronized int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Sets bounds of the window size.
+	 *
+	 * @param minSize
+	 *            - minimal size of the window, at least 1
+	 * @param maxSize
+	 *            - maximal size of the window
+	 */
+	public synchronized void setBounds(int minSize, int maxSize) {
+		if (minSize < 1 || maxSize < minSize) {
+			throw new IllegalArgumentException("Invalid window size");
+		}
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		size = Math.max(minSize, Math.min(maxSize, size));
+		answeredInWindow = 0;
+	}
+
+	/**
+	 * Called when the response for the message came and the managed system
+	 * was not busy.
+	 */
+	public synchronized void onSuccess() {
+		++answered;
+		lossRate -= lossRate * LOSS_RATE_WEIGHT;
+		if (++answeredInWindow >= size) {
+			size = Math.min(maxSize, size + 1);
+			answeredInWindow = 0;
+		}
+	}
+
+	/**
+	 * Called when the message timed out or the managed system reported it is
+	 * busy. The window is decreased at most once per message sent after the
+	 * last decrease, so a burst of losses of messages sent at the same time
+	 * halves the window only once.
+	 *
+	 * @param sendTime
+	 *            - time when the lost message was sent as returned by
+	 *            {@link System#nanoTime()}
+	 */
+	public synchronized void onLoss(long sendTime) {
+		++lost;
+		lossRate += (1 - lossRate) * LOSS_RATE_WEIGHT;
+		if (sendTime - lastDecrease >= 0) {
+			size = Math.max(minSize, size / 2);
+			answeredInWindow = 0;
+			lastDecrease = System.nanoTime();
+		}
+	}
+
+	/**
+	 * @return Moving average of the fraction of messages that timed out or
+	 *         were rejected because the managed system was busy.
+	 */
+	public synchronized double getLossRate() {
+		return lossRate;
+	}
+
+	/**
+	 * @return Number of messages answered since the creation of the window.
+	 */
+	public synchronized long getAnsweredCount() {
+		return answered;
+	}
+
+	/**
+	 * @return Number of messages lost since the creation of the window.
+	 */
+	public synchronized long getLostCount() {
+		return lost;
+	}
+}
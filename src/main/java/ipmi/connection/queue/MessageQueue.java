@@ -12,31 +12,71 @@
 package ipmi.connection.queue;
 
 import ipmi.coding.commands.IpmiCommandCoder;
+import ipmi.common.HashedWheelTimer;
+import ipmi.common.HashedWheelTimer.ScheduledTask;
 import ipmi.common.PropertiesManager;
 import ipmi.connection.Connection;
 import ipmi.connection.ConnectionException;
+import ipmi.connection.ResponseFuture;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import org.apache.log4j.Logger;
 
 /**
  * Queues messages to send and checks for timeouts.
+ * <p>
+ * Messages are kept in the preallocated array indexed by their tags (session
+ * sequence number % 64) and reserved tags are tracked in the bitmap, so
+ * finding, adding and removing a message does not require scanning nor
+ * allocation. The order in which messages were added is kept in the ring of
+ * tags - the message leaves the queue when it and all messages added before
+ * it are either answered or timed out.
  */
-public class MessageQueue extends TimerTask {
+public class MessageQueue implements Runnable {
+
+	private static final int TAG_COUNT = 64;
+
+	private static final int TAG_MASK = TAG_COUNT - 1;
+
+	/**
+	 * Messages indexed by tag.
+	 */
+	private QueueElement[] elements;
+
+	/**
+	 * Tags in the order the messages were added.
+	 */
+	private int[] order;
+
+	/**
+	 * Position of the oldest message in {@link #order}.
+	 */
+	private int first;
+
+	/**
+	 * Number of messages in the queue.
+	 */
+	private int size;
+
+	/**
+	 * Bitmap of the tags used by the messages in the queue.
+	 */
+	private long reservedTags;
+
+	/**
+	 * Tag of the keep-alive message in the queue or -1 if there is none.
+	 * Keep-alive message is not limited by the {@link CongestionWindow} and
+	 * does not affect it.
+	 */
+	private int keepAliveTag = -1;
 
-	private List<QueueElement> queue;
 	private int timeout;
-	private Timer timer;
+	private ScheduledTask sweeper;
 	private Connection connection;
 	private int lastSequenceNumber;
-	private Object lastSequenceNumberLock = new Object();
+	private Object lock = new Object();
 
 	private static Logger logger = Logger.getLogger(MessageQueue.class);
 
@@ -46,12 +86,20 @@ public class MessageQueue extends TimerTask {
 	private static int cleaningFrequency = 500;
 
 	/**
-	 * Size of the queue determined by IPMI sliding window algorithm
-	 * specification. <br>
+	 * Initial size of the queue determined by IPMI sliding window algorithm
+	 * specification. The size is then adapted by the {@link CongestionWindow}.
+	 * <br>
 	 * When queue size is 16, BMC drops some of the messages under heavy load.
 	 */
 	private static final int QUEUE_SIZE = 8;
 
+	/**
+	 * Maximal size of the queue - at least one tag must remain free.
+	 */
+	private static final int MAX_QUEUE_SIZE = TAG_COUNT - 1;
+
+	private CongestionWindow window;
+
 	public int getTimeout() {
 		return timeout;
 	}
@@ -64,51 +112,107 @@ public class MessageQueue extends TimerTask {
         if (cleaningFrequency == -1) {
             cleaningFrequency = Integer.parseInt(PropertiesManager.getInstance().getProperty("cleaningFrequency"));
         }
-        reservedTags = new ArrayList<Integer>();
+        elements = new QueueElement[TAG_COUNT];
+        for (int i = 0; i < TAG_COUNT; ++i) {
+            elements[i] = new QueueElement();
+        }
+        order = new int[TAG_COUNT];
+        window = new CongestionWindow(QUEUE_SIZE, 1, MAX_QUEUE_SIZE);
         lastSequenceNumber = 0;
         this.connection = connection;
-        queue = new ArrayList<QueueElement>();
         setTimeout(timeout);
-        timer = new Timer();
-        timer.schedule(this, cleaningFrequency, cleaningFrequency);
+        sweeper = HashedWheelTimer.getShared().schedule(this, cleaningFrequency, cleaningFrequency);
 	}
 
 	/**
 	 * Stops the MessageQueue
 	 */
 	public void tearDown() {
-		timer.cancel();
+		sweeper.cancel();
 	}
 
-	private List<Integer> reservedTags;
+	/**
+	 * Removes all messages from the queue. {@link ResponseFuture}s of the
+	 * removed messages are failed with the given exception and the
+	 * {@link Connection} listeners are notified about the messages sent
+	 * without them. Called when the responses can no longer arrive, so the
+	 * callers do not wait for them forever.
+	 * 
+	 * @param exception
+	 *            - reason of the failure
+	 */
+	public void failAll(Exception exception) {
+		int[] failed = null;
+		ResponseFuture[] failedFutures = null;
+		int failedCount = 0;
+
+		synchronized (lock) {
+			while (size > 0) {
+				QueueElement element = elements[order[first]];
+				boolean done = element.getRequest() == null;
+				boolean keepAlive = order[first] == keepAliveTag;
+				ResponseFuture future = element.getFuture();
+				int tag = removeFirst();
+				if (!done && !keepAlive) {
+					if (failed == null) {
+						failed = new int[TAG_COUNT];
+						failedFutures = new ResponseFuture[TAG_COUNT];
+					}
+					failedFutures[failedCount] = future;
+					failed[failedCount++] = tag;
+				}
+			}
+			keepAliveTag = -1;
+		}
+
+		for (int i = 0; i < failedCount; ++i) {
+			if (failedFutures[i] != null) {
+				failedFutures[i].fail(exception);
+			} else {
+				connection.notifyListeners(connection.getHandle(), failed[i],
+						null, exception);
+			}
+		}
+	}
 
 	/**
 	 * Check if the tag is reserved.
 	 */
-	private synchronized boolean isReserved(int tag) {
-		if (reservedTags.contains(tag)) {
-			return true;
-		}
-		return false;
+	private boolean isReserved(int tag) {
+		return (reservedTags & (1L << tag)) != 0;
+	}
+
+	private void reserveTag(int tag) {
+		reservedTags |= 1L << tag;
+	}
+
+	private void releaseTag(int tag) {
+		reservedTags &= ~(1L << tag);
 	}
 
 	/**
-	 * Reserves given tag for the use of the invoker.
+	 * Removes the oldest message from the queue.
 	 * 
-	 * @param tag
-	 *            - tag to reserve
-	 * @return true if tag was reserved successfully, false otherwise
+	 * @return Tag of the removed message.
 	 */
-	private synchronized boolean reserveTag(int tag) {
-		if (isReserved(tag)) {
-			reservedTags.add(tag);
-			return true;
-		}
-		return false;
+	private int removeFirst() {
+		int tag = order[first];
+		elements[tag].setRequest(null);
+		elements[tag].setFuture(null);
+		releaseTag(tag);
+		first = (first + 1) & TAG_MASK;
+		--size;
+		return tag;
 	}
 
-	private synchronized void releaseTag(int tag) {
-		reservedTags.remove((Integer) tag);
+	private int nextSequenceNumber(int sequenceNumber) {
+		int next = (sequenceNumber + 1) % (Integer.MAX_VALUE / 4);
+
+		if (next == 0) {
+			throw new ArithmeticException(
+					"Session sequence number overload. Reset session");
+		}
+		return next;
 	}
 
 	/**
@@ -119,81 +223,175 @@ public class MessageQueue extends TimerTask {
 	 *         that value % 64.
 	 */
 	public int add(IpmiCommandCoder request) {
-		run();
-		boolean first = true;
-		synchronized (queue) {
-			synchronized (lastSequenceNumberLock) {
-				if (queue.size() < QUEUE_SIZE) {
-					int sequenceNumber = (lastSequenceNumber + 1)
-							% (Integer.MAX_VALUE / 4);
-
-					if (sequenceNumber == 0) {
-						throw new ArithmeticException(
-								"Session sequence number overload. Reset session");
-					}
+		return add(request, null);
+	}
 
-					while (isReserved(sequenceNumber % 64)) {
-						sequenceNumber = (sequenceNumber + 1)
-								% (Integer.MAX_VALUE / 4);
-
-						if (!first) {
-							try {
-								Thread.sleep(1);
-							} catch (InterruptedException e) {
-								// TODO log
-							}
-						}
-
-						if (sequenceNumber == 0) {
-							throw new ArithmeticException(
-									"Session sequence number overload. Reset session");
-						}
-						first = false;
-					}
+	/**
+	 * Adds request to the queue and generates the tag.
+	 * 
+	 * @param request
+	 *            - the request to send
+	 * @param future
+	 *            - {@link ResponseFuture} that will be completed with the
+	 *            response or failed on timeout, null if the
+	 *            {@link Connection} listeners are to be notified instead
+	 * @return Session sequence number of the message if it was added to the
+	 *         queue, -1 otherwise. The tag used to identify message is equal to
+	 *         that value % 64.
+	 */
+	public int add(IpmiCommandCoder request, ResponseFuture future) {
+		synchronized (lock) {
+			int inWindow = keepAliveTag < 0 ? size : size - 1;
+			if (inWindow >= window.getSize() || size >= TAG_COUNT) {
+				return -1;
+			}
+			return addElement(request, future);
+		}
+	}
 
-					reserveTag(sequenceNumber % 64);
+	/**
+	 * Adds keep-alive request to the queue. The request is added only if the
+	 * queue is empty - otherwise responses to the queued messages keep the
+	 * session up. Keep-alive request does not take a slot of the
+	 * {@link CongestionWindow} and its response or timeout does not change
+	 * the window.
+	 * 
+	 * @return Session sequence number of the message if it was added to the
+	 *         queue, -1 otherwise. The tag used to identify message is equal to
+	 *         that value % 64.
+	 */
+	public int addKeepAlive(IpmiCommandCoder request) {
+		synchronized (lock) {
+			if (size > 0) {
+				return -1;
+			}
+			int sequenceNumber = addElement(request, null);
+			keepAliveTag = sequenceNumber % TAG_COUNT;
+			return sequenceNumber;
+		}
+	}
 
-					lastSequenceNumber = sequenceNumber;
+	/**
+	 * Adds the element to the queue. Must be called with {@link #lock} held
+	 * and at least one tag free.
+	 */
+	private int addElement(IpmiCommandCoder request, ResponseFuture future) {
+		int sequenceNumber = nextSequenceNumber(lastSequenceNumber);
 
-					QueueElement element = new QueueElement(sequenceNumber,
-							request);
+		while (isReserved(sequenceNumber % TAG_COUNT)) {
+			sequenceNumber = nextSequenceNumber(sequenceNumber);
+		}
 
-					queue.add(element);
-					return sequenceNumber;
-				}
-			}
+		int tag = sequenceNumber % TAG_COUNT;
+
+		reserveTag(tag);
+
+		lastSequenceNumber = sequenceNumber;
+
+		long now = System.nanoTime();
+		elements[tag].reset(sequenceNumber, request, future, now, now
+				+ timeout * 1000000L);
+		order[(first + size) & TAG_MASK] = tag;
+		++size;
+
+		return sequenceNumber;
+	}
+
+	/**
+	 * @return Number of the messages that can be added to the queue before
+	 *         it is full.
+	 */
+	public int getFreeSlots() {
+		synchronized (lock) {
+			int inWindow = keepAliveTag < 0 ? size : size - 1;
+			return Math.max(0,
+					Math.min(window.getSize() - inWindow, TAG_COUNT - size));
 		}
-		return -1;
+	}
 
+	/**
+	 * @return {@link CongestionWindow} limiting the size of the queue.
+	 */
+	public CongestionWindow getCongestionWindow() {
+		return window;
 	}
 
 	/**
-	 * Removes message with the given tag from the queue.
+	 * Removes message with the given tag from the queue after the response
+	 * was received.
 	 */
 	public void remove(int tag) {
-		run();
-		synchronized (queue) {
-			int i = 0;
-			int index = -1;
-			for (QueueElement element : queue) {
-				if (element.getId() % 64 == tag) {
-					index = i;
-					break;
-				}
-				++i;
+		remove(tag, false);
+	}
+
+	/**
+	 * Removes message with the given tag from the queue after the managed
+	 * system responded it is busy.
+	 */
+	public void removeBusy(int tag) {
+		remove(tag, true);
+	}
+
+	/**
+	 * Removes message with the given tag from the queue after the response
+	 * was received and passes it with its {@link ResponseFuture} to the
+	 * caller. Both are taken under the same lock as the removal, so the
+	 * response cannot be matched to the message that timed out in the
+	 * meantime nor to the next message using the tag. Nothing is allocated -
+	 * the caller provides the holder and may reuse it.
+	 *
+	 * @param tag
+	 *            - tag of the message
+	 * @param busy
+	 *            - true if the managed system responded it is busy
+	 * @param taken
+	 *            - filled with the removed message and its future
+	 * @return true if the message was removed, false if no message with the
+	 *         given tag is currently in the queue
+	 */
+	public boolean take(int tag, boolean busy, QueuedRequest taken) {
+		synchronized (lock) {
+			QueueElement element = getElement(tag);
+			if (element == null) {
+				return false;
 			}
-			if (index == 0) {
-				queue.remove(0);
-				releaseTag(tag);
-				while (queue.size() > 0 && queue.get(0).getRequest() == null) {
-					int additionalTag = queue.get(0).getId() % 64;
-					queue.remove(0);
-					releaseTag(additionalTag);
-				}
-			} else if (index > 0) {
-				queue.get(index).setRequest(null);
+			taken.set(element.getRequest(), element.getFuture());
+			removeElement(tag, busy);
+			return true;
+		}
+	}
+
+	private void remove(int tag, boolean busy) {
+		synchronized (lock) {
+			if (tag < 0 || tag >= TAG_COUNT || !isReserved(tag)) {
+				return;
 			}
+			removeElement(tag, busy);
+		}
+	}
 
+	/**
+	 * Removes reserved tag from the queue. Must be called with {@link #lock}
+	 * held.
+	 */
+	private void removeElement(int tag, boolean busy) {
+		QueueElement element = elements[tag];
+		if (tag == keepAliveTag) {
+			keepAliveTag = -1;
+		} else if (element.getRequest() != null) {
+			if (busy) {
+				window.onLoss(element.getTimestamp());
+			} else {
+				window.onSuccess();
+			}
+		}
+		if (order[first] == tag) {
+			removeFirst();
+			while (size > 0 && elements[order[first]].getRequest() == null) {
+				removeFirst();
+			}
+		} else {
+			elements[tag].setRequest(null);
 		}
 	}
 
@@ -203,46 +401,48 @@ public class MessageQueue extends TimerTask {
 	 * @param index
 	 */
 	public void removeAt(int index) {
-		if (index >= queue.size()) {
-			throw new IndexOutOfBoundsException("Index out of bounds : "
-					+ index);
+		int tag;
+		synchronized (lock) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index out of bounds : "
+						+ index);
+			}
+			tag = order[(first + index) & TAG_MASK];
 		}
 
-		remove(queue.get(index).getId() % 64);
+		remove(tag);
 	}
 
 	/**
 	 * Checks if queue contains message with the given sequence number.
 	 */
 	public boolean containsId(int sequenceNumber) {
-		synchronized (queue) {
-
-			for (QueueElement element : queue) {
-				if (element.getId() == sequenceNumber
-						&& element.getRequest() != null) {
-					return true;
-				}
-			}
-
+		synchronized (lock) {
+			QueueElement element = getElement(sequenceNumber % TAG_COUNT);
+			return element != null && element.getId() == sequenceNumber;
 		}
-		return false;
 	}
 
 	/**
 	 * Returns valid session sequence number that cannot be used as a tag though
 	 */
 	public int getSequenceNumber() {
-		synchronized (lastSequenceNumberLock) {
-			int sequenceNumber = (lastSequenceNumber + 1)
-					% (Integer.MAX_VALUE / 4);
+		synchronized (lock) {
+			lastSequenceNumber = nextSequenceNumber(lastSequenceNumber);
+			return lastSequenceNumber;
+		}
+	}
 
-			if (sequenceNumber == 0) {
-				throw new ArithmeticException(
-						"Session sequence number overload. Reset session");
-			}
-			lastSequenceNumber = sequenceNumber;
-			return sequenceNumber;
+	/**
+	 * Returns element waiting for the response with the given tag or null if
+	 * there is no such element. Must be called with {@link #lock} held.
+	 */
+	private QueueElement getElement(int tag) {
+		if (tag < 0 || tag >= TAG_COUNT || !isReserved(tag)
+				|| elements[tag].getRequest() == null) {
+			return null;
 		}
+		return elements[tag];
 	}
 
 	/**
@@ -250,14 +450,22 @@ public class MessageQueue extends TimerTask {
 	 * no message with the given tag is currently in the queue.
 	 */
 	public IpmiCommandCoder getMessageFromQueue(int tag) {
-		synchronized (queue) {
-			for (QueueElement element : queue) {
-				if (element.getId() % 64 == tag && element.getRequest() != null) {
-					return element.getRequest();
-				}
-			}
+		synchronized (lock) {
+			QueueElement element = getElement(tag);
+			return element == null ? null : element.getRequest();
+		}
+	}
+
+	/**
+	 * Returns {@link ResponseFuture} waiting for the message with the given
+	 * tag or null if there is no such message in the queue or the listeners
+	 * are to be notified about the response.
+	 */
+	public ResponseFuture getFuture(int tag) {
+		synchronized (lock) {
+			QueueElement element = getElement(tag);
+			return element == null ? null : element.getFuture();
 		}
-		return null;
 	}
 
 	/**
@@ -265,13 +473,14 @@ public class MessageQueue extends TimerTask {
 	 * queue or -1 if no message with the given tag is currently in the queue.
 	 */
 	public int getMessageIndexFromQueue(int tag) {
-		synchronized (queue) {
-			int i = 0;
-			for (QueueElement element : queue) {
-				if (element.getId() % 64 == tag && element.getRequest() != null) {
+		synchronized (lock) {
+			if (getElement(tag) == null) {
+				return -1;
+			}
+			for (int i = 0; i < size; ++i) {
+				if (order[(first + i) & TAG_MASK] == tag) {
 					return i;
 				}
-				++i;
 			}
 		}
 		return -1;
@@ -283,14 +492,10 @@ public class MessageQueue extends TimerTask {
 	 */
 	@Deprecated
 	public int getMessageRetries(int tag) {
-		synchronized (queue) {
-			for (QueueElement element : queue) {
-				if (element.getId() % 64 == tag && element.getRequest() != null) {
-					return element.getRetries();
-				}
-			}
+		synchronized (lock) {
+			QueueElement element = getElement(tag);
+			return element == null ? -1 : element.getRetries();
 		}
-		return -1;
 	}
 
 	/**
@@ -301,45 +506,74 @@ public class MessageQueue extends TimerTask {
 	 *            Tag of the message to find
 	 */
 	public int getMessageSequenceNumber(int tag) {
-		synchronized (queue) {
-			for (QueueElement element : queue) {
-				if (element.getId() % 64 == tag && element.getRequest() != null) {
-					return element.getId();
-				}
-			}
+		synchronized (lock) {
+			QueueElement element = getElement(tag);
+			return element == null ? -1 : element.getId();
 		}
-		return -1;
 	}
 
 	/**
-	 * {@link TimerTask} runner - periodically checks queue for timed out
-	 * messages.
+	 * {@link HashedWheelTimer} runner - periodically checks queue for timed
+	 * out messages.
 	 */
 	@Override
 	public void run() {
-		if (queue != null) {
-			synchronized (queue) {
-				boolean process = true;
-				while (process && queue.size() > 0) {
-					Date now = new Date();
-					if (now.getTime() - queue.get(0).getTimestamp().getTime() > (long) timeout
-							|| queue.get(0).getRequest() == null) {
-						int tag = queue.get(0).getId() % 64;
-						boolean done = queue.get(0).getRequest() == null;
-						queue.remove(0);
-						logger.info("Removing message after timeout, tag: "
-								+ tag);
-						releaseTag(tag);
-						if (!done) {
-							connection.notifyListeners(connection.getHandle(),
-									tag, null, new ConnectionException(
-											"Message timed out"));
-						}
-					} else {
-						process = false;
+		int[] timedOut = null;
+		ResponseFuture[] timedOutFutures = null;
+		int timedOutCount = 0;
+		int lostCount = 0;
+		boolean freed = false;
+
+		synchronized (lock) {
+			long now = System.nanoTime();
+			while (size > 0) {
+				QueueElement element = elements[order[first]];
+				boolean done = element.getRequest() == null;
+				if (!done && now - element.getDeadline() <= 0) {
+					break;
+				}
+				ResponseFuture future = element.getFuture();
+				boolean keepAlive = order[first] == keepAliveTag;
+				if (keepAlive) {
+					keepAliveTag = -1;
+				} else if (!done) {
+					window.onLoss(element.getTimestamp());
+				}
+				if (!done) {
+					++lostCount;
+				}
+				int tag = removeFirst();
+				freed = true;
+				if (keepAlive) {
+					logger.debug("Keep-alive message timed out, tag: " + tag);
+				} else if (!done) {
+					logger.info("Removing message after timeout, tag: " + tag);
+					if (timedOut == null) {
+						timedOut = new int[TAG_COUNT];
+						timedOutFutures = new ResponseFuture[TAG_COUNT];
 					}
+					timedOutFutures[timedOutCount] = future;
+					timedOut[timedOutCount++] = tag;
 				}
 			}
 		}
+
+		if (lostCount > 0) {
+			connection.recordTimeouts(lostCount);
+		}
+		if (freed) {
+			connection.drainPending();
+		}
+
+		for (int i = 0; i < timedOutCount; ++i) {
+			if (timedOutFutures[i] != null) {
+				timedOutFutures[i].fail(new ConnectionException(
+						"Message timed out"));
+			} else {
+				connection.notifyListeners(connection.getHandle(),
+						timedOut[i], null, new ConnectionException(
+								"Message timed out"));
+			}
+		}
 	}
 }
@@ -13,9 +13,12 @@ package ipmi.connection.queue;
 
 import ipmi.coding.commands.IpmiCommandCoder;
 import ipmi.coding.commands.ResponseData;
+import ipmi.connection.ResponseFuture;
 
-import java.util.Date;
-
+/**
+ * Message waiting in the {@link MessageQueue} for the response. Elements are
+ * preallocated by the {@link MessageQueue} and reused.
+ */
 public class QueueElement {
 	private int id;
 	@Deprecated
@@ -23,12 +26,40 @@ public class QueueElement {
 	
 	private IpmiCommandCoder request;
 	private ResponseData response;
-	private Date timestamp;
+	private ResponseFuture future;
+	/**
+	 * Time of adding the message to the queue as returned by
+	 * {@link System#nanoTime()}.
+	 */
+	private long timestamp;
+	/**
+	 * Time after which the message times out as returned by
+	 * {@link System#nanoTime()}.
+	 */
+	private long deadline;
+
+	QueueElement() {
+	}
 
 	public QueueElement(int id, IpmiCommandCoder request) {
 		this.id = id;
 		this.request = request;
-		timestamp = new Date();
+		timestamp = System.nanoTime();
+		deadline = Long.MAX_VALUE;
+		retries = 0;
+	}
+
+	/**
+	 * Prepares the element for the reuse.
+	 */
+	void reset(int id, IpmiCommandCoder request, ResponseFuture future,
+			long timestamp, long deadline) {
+		this.id = id;
+		this.request = request;
+		this.future = future;
+		this.response = null;
+		this.timestamp = timestamp;
+		this.deadline = deadline;
 		retries = 0;
 	}
 
@@ -58,6 +89,18 @@ public class QueueElement {
 		this.request = request;
 	}
 
+	/**
+	 * @return {@link ResponseFuture} to complete with the response or null if
+	 *         the response is delivered to the connection listeners.
+	 */
+	public ResponseFuture getFuture() {
+		return future;
+	}
+
+	public void setFuture(ResponseFuture future) {
+		this.future = future;
+	}
+
 	public ResponseData getResponse() {
 		return response;
 	}
@@ -66,7 +109,19 @@ public class QueueElement {
 		this.response = response;
 	}
 	
-	public Date getTimestamp() {
+	/**
+	 * @return Time of adding the message to the queue as returned by
+	 *         {@link System#nanoTime()}.
+	 */
+	public long getTimestamp() {
 		return timestamp;
 	}
+
+	/**
+	 * @return Time after which the message times out as returned by
+	 *         {@link System#nanoTime()}.
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
 }
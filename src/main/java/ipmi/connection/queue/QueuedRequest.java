@@ -0,0 +1,55 @@
+/*
+ * QueuedRequest.java
+ * Created on 2011-10-08
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection.queue;
+
+import ipmi.coding.commands.IpmiCommandCoder;
+import ipmi.connection.ResponseFuture;
+
+/**
+ * Request removed from the {@link MessageQueue} together with the
+ * {@link ResponseFuture} waiting for its response. Unlike the
+ * {@link QueueElement}s, it is not reused by the queue when the tag is
+ * assigned to the next message - it is owned by the caller of
+ * {@link MessageQueue#take(int, boolean, QueuedRequest)}, which can reuse it
+ * for the next response.
+ */
+public final class QueuedRequest {
+
+	private IpmiCommandCoder request;
+
+	private ResponseFuture future;
+
+	void set(IpmiCommandCoder request, ResponseFuture future) {
+		this.request = request;
+		this.future = future;
+	}
+
+	/**
+	 * Drops the references to the request and its future, so they can be
+	 * collected while this instance waits for the next use.
+	 */
+	public void clear() {
+		set(null, null);
+	}
+
+	public IpmiCommandCoder getRequest() {
+		return request;
+	}
+
+	/**
+	 * @return {@link ResponseFuture} to complete with the response or null if
+	 *         the response is delivered to the connection listeners.
+	 */
+	public ResponseFuture getFuture() {
+		return future;
+	}
+}
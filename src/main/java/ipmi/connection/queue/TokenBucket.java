@@ -0,0 +1,164 @@
+/*
+ * TokenBucket.java
+ * Created on 2011-09-30
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.connection.queue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of requests sent to the managed systems. The bucket is
+ * refilled with tokens at the constant rate up to its capacity (the burst).
+ * Every request takes a token - if there is none, the request must wait.
+ * Never blocks - the caller is told how long to wait instead. Rate and burst
+ * can be changed at any time.
+ */
+public class TokenBucket {
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Tokens per second, 0 means unlimited.
+	 */
+	private double rate;
+
+	private int burst;
+
+	private double tokens;
+
+	/**
+	 * Time of the last refill as returned by {@link System#nanoTime()}.
+	 */
+	private long lastRefill;
+
+	private long granted;
+
+	private long denied;
+
+	/**
+	 * Initiates the bucket that does not limit the rate.
+	 */
+	public TokenBucket() {
+		this(0, 1);
+	}
+
+	/**
+	 * Initiates the bucket. The bucket is full at the beginning.
+	 *
+	 * @param rate
+	 *            - number of requests per second, 0 disables the limit
+	 * @param burst
+	 *            - number of requests that can be sent at once after the
+	 *            idle period, at least 1
+	 */
+	public TokenBucket(double rate, int burst) {
+		lastRefill = System.nanoTime();
+		setRate(rate, burst);
+	}
+
+	/**
+	 * Changes the limit. Tokens collected so far are kept up to the new
+	 * burst - if the rate was not limited before, the bucket is full.
+	 *
+	 * @param rate
+	 *            - number of requests per second, 0 disables the limit
+	 * @param burst
+	 *            - number of requests that can be sent at once after the
+	 *            idle period, at least 1
+	 */
+	public synchronized void setRate(double rate, int burst) {
+		if (rate < 0 || Double.isNaN(rate) || Double.isInfinite(rate)) {
+			throw new IllegalArgumentException("Invalid rate: " + rate);
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("Burst must be at least 1");
+		}
+		refill(System.nanoTime());
+		// bucket that did not limit the rate was full
+		tokens = this.rate == 0 ? burst : Math.min(tokens, burst);
+		this.rate = rate;
+		this.burst = burst;
+	}
+
+	/**
+	 * @return Number of requests per second, 0 if the rate is not limited.
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	public synchronized int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * @return true if the rate is limited
+	 */
+	public synchronized boolean isLimited() {
+		return rate > 0;
+	}
+
+	/**
+	 * Takes a token if one is available.
+	 *
+	 * @return 0 if the token was taken, otherwise time in nanoseconds after
+	 *         which the token will be available
+	 */
+	public synchronized long tryAcquire() {
+		if (rate == 0) {
+			++granted;
+			return 0;
+		}
+		long now = System.nanoTime();
+		refill(now);
+		if (tokens >= 1) {
+			tokens -= 1;
+			++granted;
+			return 0;
+		}
+		++denied;
+		return Math.max(1, (long) Math.ceil((1 - tokens) * NANOS_PER_SECOND
+				/ rate));
+	}
+
+	/**
+	 * Returns the token taken by {@link #tryAcquire()} when the request was
+	 * not sent after all.
+	 */
+	public synchronized void release() {
+		--granted;
+		if (rate > 0) {
+			tokens = Math.min(burst, tokens + 1);
+		}
+	}
+
+	private void refill(long now) {
+		if (rate > 0) {
+			tokens = Math.min(burst, tokens + (now - lastRefill) * rate
+					/ NANOS_PER_SECOND);
+		}
+		lastRefill = now;
+	}
+
+	/**
+	 * @return Number of tokens granted since the creation of the bucket.
+	 */
+	public synchronized long getGrantedCount() {
+		return granted;
+	}
+
+	/**
+	 * @return Number of times the token was requested and the caller had to
+	 *         wait.
+	 */
+	public synchronized long getDeniedCount() {
+		return denied;
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * MessageDispatcher.java
+ * Created on 2011-09-13
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.sm;
+
+import ipmi.common.IntHashMap;
+import ipmi.common.TypeConverter;
+import ipmi.transport.UdpListener;
+import ipmi.transport.UdpMessage;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Routes incoming datagrams to the {@link StateMachine}s. Registered once in
+ * the {@link ipmi.transport.Messenger} instead of every {@link StateMachine}.
+ * <p>
+ * Packets belonging to the established IPMI v2.0 session are delivered to
+ * the single {@link StateMachine} owning the console session ID. Sessionless
+ * packets are delivered to the {@link StateMachine}s connected to the sender
+ * address. Packets no {@link StateMachine} is waiting for are dropped.
+ */
+public class MessageDispatcher implements UdpListener {
+
+	private static final int RMCP_HEADER_LENGTH = 4;
+
+	private static final int IPMI_CLASS = 0x07;
+
+	private static final int RMCP_PLUS = 0x06;
+
+	private static final int OEM_PAYLOAD = 0x02;
+
+	/**
+	 * State machines keyed by the console session ID.
+	 */
+	private IntHashMap<StateMachine> sessions;
+
+	/**
+	 * State machines keyed by the hash of the remote address.
+	 */
+	private IntHashMap<StateMachine[]> addresses;
+
+	private ReadWriteLock lock;
+
+	private AtomicLong droppedPackets;
+
+	private static Logger logger = Logger.getLogger(MessageDispatcher.class);
+
+	public MessageDispatcher() {
+		sessions = new IntHashMap<StateMachine>();
+		addresses = new IntHashMap<StateMachine[]>();
+		lock = new ReentrantReadWriteLock();
+		droppedPackets = new AtomicLong(0);
+	}
+
+	/**
+	 * Registers {@link StateMachine} so it will receive sessionless messages
+	 * from its remote machine.
+	 *
+	 * @param stateMachine
+	 *            - started {@link StateMachine}
+	 */
+	public void register(StateMachine stateMachine) {
+		int key = stateMachine.getRemoteMachineAddress().hashCode();
+		lock.writeLock().lock();
+		try {
+			StateMachine[] machines = addresses.get(key);
+			if (machines == null) {
+				addresses.put(key, new StateMachine[] { stateMachine });
+			} else {
+				StateMachine[] extended = new StateMachine[machines.length + 1];
+				System.arraycopy(machines, 0, extended, 0, machines.length);
+				extended[machines.length] = stateMachine;
+				addresses.put(key, extended);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Unregisters {@link StateMachine} and the session bound to it.
+	 *
+	 * @param stateMachine
+	 *            - {@link StateMachine} to unregister
+	 */
+	public void unregister(StateMachine stateMachine) {
+		int key = stateMachine.getRemoteMachineAddress().hashCode();
+		lock.writeLock().lock();
+		try {
+			StateMachine[] machines = addresses.get(key);
+			if (machines != null) {
+				int index = -1;
+				for (int i = 0; i < machines.length; ++i) {
+					if (machines[i] == stateMachine) {
+						index = i;
+					}
+				}
+				if (index >= 0 && machines.length == 1) {
+					addresses.remove(key);
+				} else if (index >= 0) {
+					StateMachine[] reduced = new StateMachine[machines.length - 1];
+					System.arraycopy(machines, 0, reduced, 0, index);
+					System.arraycopy(machines, index + 1, reduced, index,
+							reduced.length - index);
+					addresses.put(key, reduced);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Binds session to the {@link StateMachine} so all messages within this
+	 * session will be delivered directly to it.
+	 *
+	 * @param sessionId
+	 *            - console session ID
+	 * @param stateMachine
+	 *            - {@link StateMachine} owning the session
+	 */
+	public void bindSession(int sessionId, StateMachine stateMachine) {
+		lock.writeLock().lock();
+		try {
+			sessions.put(sessionId, stateMachine);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes session binding.
+	 *
+	 * @param sessionId
+	 *            - console session ID
+	 * @param stateMachine
+	 *            - {@link StateMachine} owning the session
+	 */
+	public void unbindSession(int sessionId, StateMachine stateMachine) {
+		lock.writeLock().lock();
+		try {
+			if (sessions.get(sessionId) == stateMachine) {
+				sessions.remove(sessionId);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void notifyMessage(UdpMessage message) {
+		byte[] raw = message.getMessage();
+		InetAddress address = message.getAddress();
+
+		int sessionId = peekSessionId(raw);
+
+		boolean delivered = false;
+
+		if (sessionId != 0) {
+			StateMachine machine;
+			lock.readLock().lock();
+			try {
+				machine = sessions.get(sessionId);
+			} finally {
+				lock.readLock().unlock();
+			}
+			if (machine != null
+					&& address.equals(machine.getRemoteMachineAddress())) {
+				machine.notifyMessage(message);
+				delivered = true;
+			}
+		} else {
+			StateMachine[] machines;
+			lock.readLock().lock();
+			try {
+				machines = addresses.get(address.hashCode());
+			} finally {
+				lock.readLock().unlock();
+			}
+			if (machines != null) {
+				for (StateMachine machine : machines) {
+					if (address.equals(machine.getRemoteMachineAddress())) {
+						machine.notifyMessage(message);
+						delivered = true;
+					}
+				}
+			}
+		}
+
+		if (!delivered) {
+			droppedPackets.incrementAndGet();
+			if (logger.isDebugEnabled()) {
+				logger.debug("Dropped unmatched packet from " + address);
+			}
+		}
+	}
+
+	/**
+	 * Reads session ID from the IPMI v2.0 session header without decoding the
+	 * message.
+	 *
+	 * @param raw
+	 *            - received datagram
+	 * @return Session ID or 0 if this is not IPMI v2.0 session message.
+	 */
+	private static int peekSessionId(byte[] raw) {
+		if (raw.length < RMCP_HEADER_LENGTH + 6
+				|| (raw[3] & 0x9f) != IPMI_CLASS
+				|| (raw[RMCP_HEADER_LENGTH] & 0x0f) != RMCP_PLUS) {
+			return 0;
+		}
+		int offset = RMCP_HEADER_LENGTH + 2;
+		if ((raw[RMCP_HEADER_LENGTH + 1] & 0x3f) == OEM_PAYLOAD) {
+			offset += 6;
+		}
+		if (raw.length < offset + 4) {
+			return 0;
+		}
+		return TypeConverter.byteToInt(raw[offset])
+				| TypeConverter.byteToInt(raw[offset + 1]) << 8
+				| TypeConverter.byteToInt(raw[offset + 2]) << 16
+				| TypeConverter.byteToInt(raw[offset + 3]) << 24;
+	}
+
+	/**
+	 * @return Number of packets that did not match any {@link StateMachine}
+	 *         and were dropped.
+	 */
+	public long getDroppedPackets() {
+		return droppedPackets.get();
+	}
+
+	/**
+	 * @return Number of sessions bound to the {@link StateMachine}s.
+	 */
+	public int getSessionCount() {
+		lock.readLock().lock();
+		try {
+			return sessions.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * ReplayWindow.java
+ * Created on 2011-09-28
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.sm;
+
+/**
+ * Sliding window of the session sequence numbers received from the managed
+ * system. As specified by IPMI, message is accepted if its sequence number is
+ * at most 15 above the highest one received so far or at most 16 below it and
+ * was not received before. Received sequence numbers below the highest one
+ * are tracked in a 32-bit bitmap.
+ * <p>
+ * Message should be checked via {@link #check(int)} before it is decoded,
+ * so duplicates are not decrypted, and marked as received via
+ * {@link #commit(int)} after it was decoded successfully.
+ */
+public class ReplayWindow {
+
+	/**
+	 * Number of the sequence numbers above the highest received one that are
+	 * accepted.
+	 */
+	private static final int AHEAD = 15;
+
+	/**
+	 * Number of the sequence numbers below the highest received one that are
+	 * accepted.
+	 */
+	private static final int BEHIND = 16;
+
+	private int highest;
+
+	/**
+	 * Bit n is set if sequence number {@link #highest} - n was received.
+	 */
+	private int received;
+
+	private long accepted;
+
+	private long duplicates;
+
+	private long outOfWindow;
+
+	/**
+	 * Initiates the window. No sequence number was received yet, so the
+	 * window accepts numbers from 1 to 15.
+	 */
+	public ReplayWindow() {
+		highest = 0;
+		received = 1;
+	}
+
+	/**
+	 * Checks if the message with the given sequence number should be
+	 * processed. Rejected messages are counted.
+	 *
+	 * @param sequenceNumber
+	 *            - session sequence number of the message
+	 * @return true if the message is within the window and was not received
+	 *         yet
+	 */
+	public synchronized boolean check(int sequenceNumber) {
+		int distance = sequenceNumber - highest;
+		if (distance > AHEAD || distance < -BEHIND) {
+			++outOfWindow;
+			return false;
+		}
+		if (distance <= 0 && -distance < 32
+				&& (received & (1 << -distance)) != 0) {
+			++duplicates;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Marks the sequence number as received. Must be called after the message
+	 * was decoded.
+	 *
+	 * @param sequenceNumber
+	 *            - session sequence number of the message
+	 * @return false if the message must be dropped after all - it was
+	 *         received concurrently or the window moved past it since it was
+	 *         checked
+	 */
+	public synchronized boolean commit(int sequenceNumber) {
+		if (!check(sequenceNumber)) {
+			return false;
+		}
+		int distance = sequenceNumber - highest;
+		if (distance > 0) {
+			received = distance < 32 ? received << distance : 0;
+			received |= 1;
+			highest = sequenceNumber;
+		} else {
+			received |= 1 << -distance;
+		}
+		++accepted;
+		return true;
+	}
+
+	/**
+	 * @return Highest sequence number received so far.
+	 */
+	public synchronized int getHighest() {
+		return highest;
+	}
+
+	/**
+	 * @return Number of the messages accepted.
+	 */
+	public synchronized long getAcceptedCount() {
+		return accepted;
+	}
+
+	/**
+	 * @return Number of the messages dropped because their sequence number
+	 *         was already received.
+	 */
+	public synchronized long getDuplicateCount() {
+		return duplicates;
+	}
+
+	/**
+	 * @return Number of the messages dropped because their sequence number
+	 *         was outside the window.
+	 */
+	public synchronized long getOutOfWindowCount() {
+		return outOfWindow;
+	}
+}
@@ -11,8 +11,12 @@
  */
 package ipmi.sm;
 
+import ipmi.coding.rmcp.RmcpClassOfMessage;
 import ipmi.coding.rmcp.RmcpDecoder;
+import ipmi.coding.rmcp.RmcpMessage;
+import ipmi.coding.rmcp.RmcpPingMessage;
 import ipmi.common.Constants;
+import ipmi.sm.actions.PongAction;
 import ipmi.sm.actions.StateMachineAction;
 import ipmi.sm.events.StateMachineEvent;
 import ipmi.sm.states.SessionValid;
@@ -24,6 +28,7 @@ import ipmi.transport.UdpMessage;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -38,6 +43,7 @@ public class StateMachine implements UdpListener {
 	private State current;
 
 	private Messenger messenger;
+	private MessageDispatcher dispatcher;
 	private InetAddress remoteMachineAddress;
 
 	private boolean initialized;
@@ -47,7 +53,18 @@ public class StateMachine implements UdpListener {
 	}
 
 	public void setCurrent(State current) {
+		State previous = this.current;
 		this.current = current;
+		if (dispatcher != null) {
+			if (previous instanceof SessionValid && previous != current) {
+				dispatcher.unbindSession(
+						((SessionValid) previous).getSessionId(), this);
+			}
+			if (current instanceof SessionValid) {
+				dispatcher.bindSession(((SessionValid) current).getSessionId(),
+						this);
+			}
+		}
 		current.onEnter(this);
 	}
 
@@ -59,7 +76,23 @@ public class StateMachine implements UdpListener {
 	 *            {@link Constants#IPMI_PORT}
 	 */
 	public StateMachine(Messenger messenger) {
+		this(messenger, null);
+	}
+
+	/**
+	 * Initializes the State Machine that will receive messages via
+	 * {@link MessageDispatcher} instead of listening to the
+	 * {@link Messenger} directly.
+	 * 
+	 * @param messenger
+	 *            - {@link Messenger} connected to the
+	 *            {@link Constants#IPMI_PORT}
+	 * @param dispatcher
+	 *            - {@link MessageDispatcher} registered in the messenger
+	 */
+	public StateMachine(Messenger messenger, MessageDispatcher dispatcher) {
 		this.messenger = messenger;
+		this.dispatcher = dispatcher;
 		observers = new ArrayList<MachineObserver>();
 		initialized = false;
 	}
@@ -80,6 +113,25 @@ public class StateMachine implements UdpListener {
 		messenger.send(udpMessage);
 	}
 
+	/**
+	 * Sends message encoded into the buffer via {@link #messenger} to the
+	 * managed system without copying it. The buffer can be reused when this
+	 * method returns.
+	 * 
+	 * @param message
+	 *            - buffer holding the encoded message between its position
+	 *            and limit
+	 * @throws IOException
+	 *             - when sending of the message fails
+	 */
+	public void sendMessage(ByteBuffer message) throws IOException {
+		UdpMessage udpMessage = new UdpMessage();
+		udpMessage.setAddress(getRemoteMachineAddress());
+		udpMessage.setPort(Constants.IPMI_PORT);
+		udpMessage.setBuffer(message);
+		messenger.send(udpMessage);
+	}
+
 	public InetAddress getRemoteMachineAddress() {
 		return remoteMachineAddress;
 	}
@@ -106,8 +158,12 @@ public class StateMachine implements UdpListener {
 	 * @see #stop()
 	 */
 	public void start(InetAddress address) {
-		messenger.register(this);
 		remoteMachineAddress = address;
+		if (dispatcher != null) {
+			dispatcher.register(this);
+		} else {
+			messenger.register(this);
+		}
 		setCurrent(new Uninitialized());
 		initialized = true;
 	}
@@ -118,7 +174,15 @@ public class StateMachine implements UdpListener {
 	 * @see #start(InetAddress)
 	 */
 	public void stop() {
-		messenger.unregister(this);
+		if (dispatcher != null) {
+			if (current instanceof SessionValid) {
+				dispatcher.unbindSession(
+						((SessionValid) current).getSessionId(), this);
+			}
+			dispatcher.unregister(this);
+		} else {
+			messenger.unregister(this);
+		}
 		initialized = false;
 	}
 
@@ -151,7 +215,16 @@ public class StateMachine implements UdpListener {
 	@Override
 	public void notifyMessage(UdpMessage message) {
 		if (message.getAddress().equals(getRemoteMachineAddress())) {
-			current.doAction(this, RmcpDecoder.decode(message.getMessage()));
+			RmcpMessage rmcpMessage = RmcpDecoder.decode(message.getMessage());
+			if (rmcpMessage.getClassOfMessage() == RmcpClassOfMessage.Asf) {
+				// ASF messages are not part of the session
+				int tag = RmcpPingMessage.decodePongTag(rmcpMessage);
+				if (tag >= 0) {
+					doExternalAction(new PongAction(tag));
+				}
+				return;
+			}
+			current.doAction(this, rmcpMessage);
 		}
 	}
 
@@ -0,0 +1,34 @@
+/*
+ * PongAction.java
+ * Created on 2011-10-03
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.sm.actions;
+
+import ipmi.coding.rmcp.RmcpPingMessage;
+
+/**
+ * Action representing the ASF pong received in response to the
+ * {@link RmcpPingMessage}. Handled regardless of the state of the
+ * {@link ipmi.sm.StateMachine}.
+ */
+public class PongAction extends StateMachineAction {
+	private int tag;
+
+	public PongAction(int tag) {
+		this.tag = tag;
+	}
+
+	/**
+	 * @return Message tag of the {@link RmcpPingMessage} answered.
+	 */
+	public int getTag() {
+		return tag;
+	}
+}
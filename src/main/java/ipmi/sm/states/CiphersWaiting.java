@@ -88,12 +88,12 @@ public class CiphersWaiting extends State {
 		if(Protocolv20Decoder.decodeSessionID(message) != 0){
 			return;	//this isn't sessionless message so we drop it
 		}
-		if (Protocolv20Decoder.decodePayloadType(message.getData()[1]) != PayloadType.Ipmi) {
+		if (Protocolv20Decoder.decodePayloadType(message) != PayloadType.Ipmi) {
 			return;
 		}
 		Protocolv20Decoder decoder = new Protocolv20Decoder(
 				CipherSuite.getEmpty());
-		if(decoder.decodeAuthentication(message.getData()[1])) {
+		if(Protocolv20Decoder.isPayloadAuthenticated(message)) {
 			//System.out.println("[CW] Dropping authenticated message");
 			return;	//message is authenticated so it does belong to the other session
 		}
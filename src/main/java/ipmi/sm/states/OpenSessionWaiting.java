@@ -62,7 +62,7 @@ public class OpenSessionWaiting extends State {
 		}
 		PlainCommandv20Decoder decoder = new PlainCommandv20Decoder(
 				CipherSuite.getEmpty());
-		if (Protocolv20Decoder.decodePayloadType(message.getData()[1]) != PayloadType.RmcpOpenSessionResponse) {
+		if (Protocolv20Decoder.decodePayloadType(message) != PayloadType.RmcpOpenSessionResponse) {
 			return;
 		}
 		IpmiMessage ipmiMessage = null;
@@ -72,7 +72,7 @@ public class Rakp1Waiting extends State {
 		}
 		PlainCommandv20Decoder decoder = new PlainCommandv20Decoder(
 				CipherSuite.getEmpty());
-		if (Protocolv20Decoder.decodePayloadType(message.getData()[1]) != PayloadType.Rakp2) {
+		if (Protocolv20Decoder.decodePayloadType(message) != PayloadType.Rakp2) {
 			return;
 		}
 		IpmiMessage ipmiMessage = null;
@@ -12,6 +12,7 @@
 package ipmi.sm.states;
 
 import ipmi.coding.Encoder;
+import ipmi.coding.commands.IpmiCommandCoder;
 import ipmi.coding.commands.IpmiVersion;
 import ipmi.coding.commands.PrivilegeLevel;
 import ipmi.coding.commands.session.CloseSession;
@@ -19,12 +20,13 @@ import ipmi.coding.commands.session.GetChannelAuthenticationCapabilities;
 import ipmi.coding.protocol.AuthenticationType;
 import ipmi.coding.protocol.Ipmiv20Message;
 import ipmi.coding.protocol.PayloadType;
-import ipmi.coding.protocol.decoder.ProtocolDecoder;
 import ipmi.coding.protocol.decoder.Protocolv20Decoder;
+import ipmi.coding.protocol.decoder.SessionHeader;
 import ipmi.coding.protocol.encoder.Protocolv20Encoder;
 import ipmi.coding.rmcp.RmcpMessage;
 import ipmi.coding.security.CipherSuite;
 import ipmi.common.TypeConverter;
+import ipmi.sm.ReplayWindow;
 import ipmi.sm.StateMachine;
 import ipmi.sm.actions.ErrorAction;
 import ipmi.sm.actions.MessageAction;
@@ -32,6 +34,10 @@ import ipmi.sm.events.Sendv20Message;
 import ipmi.sm.events.SessionUpkeep;
 import ipmi.sm.events.StateMachineEvent;
 import ipmi.sm.events.Timeout;
+import ipmi.transport.ByteBufferPool;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 /**
  * {@link State} in which the session is valid and sending IPMI commands to the
@@ -44,14 +50,76 @@ import ipmi.sm.events.Timeout;
  */
 public class SessionValid extends State {
 
+	private static final int BUFFER_SIZE = 512;
+
+	private static final int MAX_POOLED_BUFFERS = 64;
+
+	/**
+	 * Buffers the outgoing messages are encoded into, shared by all
+	 * sessions. Heap buffers let the payload be encrypted in place.
+	 */
+	private static final ByteBufferPool BUFFERS = new ByteBufferPool(
+			BUFFER_SIZE, MAX_POOLED_BUFFERS, false);
+
+	/**
+	 * {@link Protocolv20Encoder} is stateless, so one instance encodes the
+	 * messages of all sessions.
+	 */
+	private static final Protocolv20Encoder ENCODER = new Protocolv20Encoder();
+
+	/**
+	 * Headers of the received messages, reused by each receiving thread so
+	 * the messages not meant for the session are dropped without creating
+	 * any objects.
+	 */
+	private static final ThreadLocal<SessionHeader> HEADERS = new ThreadLocal<SessionHeader>() {
+		@Override
+		protected SessionHeader initialValue() {
+			return new SessionHeader();
+		}
+	};
+
+	private static final int IPMI_PAYLOAD = PayloadType.Ipmi.getCode();
+
 	private CipherSuite cipherSuite;
 
 	private int sessionId;
 
+	private Protocolv20Decoder decoder;
+
+	/**
+	 * Windows of the sequence numbers received in the session - IPMI keeps
+	 * separate sequence numbers for authenticated and unauthenticated
+	 * messages.
+	 */
+	private ReplayWindow authenticatedWindow;
+
+	private ReplayWindow unauthenticatedWindow;
+
 	public CipherSuite getCipherSuite() {
 		return cipherSuite;
 	}
 
+	public int getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * @return {@link ReplayWindow} of the authenticated messages received in
+	 *         the session.
+	 */
+	public ReplayWindow getAuthenticatedWindow() {
+		return authenticatedWindow;
+	}
+
+	/**
+	 * @return {@link ReplayWindow} of the unauthenticated messages received
+	 *         in the session.
+	 */
+	public ReplayWindow getUnauthenticatedWindow() {
+		return unauthenticatedWindow;
+	}
+
 	/**
 	 * Initiates the state.
 	 * 
@@ -61,6 +129,9 @@ public class SessionValid extends State {
 	public SessionValid(CipherSuite cipherSuite, int sessionId) {
 		this.cipherSuite = cipherSuite;
 		this.sessionId = sessionId;
+		decoder = new Protocolv20Decoder(cipherSuite);
+		authenticatedWindow = new ReplayWindow();
+		unauthenticatedWindow = new ReplayWindow();
 	}
 
 	@Override
@@ -71,22 +142,18 @@ public class SessionValid extends State {
 			// System.out.println("[SM] >>>> " +
 			// event.getCommandCoder().getClass().getSimpleName());
 			try {
-				stateMachine.sendMessage(Encoder.encode(
-						new Protocolv20Encoder(), event.getCommandCoder(),
-						event.getSequenceNumber(), event.getSessionId()));
+				send(stateMachine, event.getCommandCoder(),
+						event.getSequenceNumber(), event.getSessionId());
 			} catch (Exception e) {
 				stateMachine.doExternalAction(new ErrorAction(e));
 			}
 		} else if (machineEvent instanceof SessionUpkeep) {
 			SessionUpkeep event = (SessionUpkeep) machineEvent;
 			try {
-				stateMachine.sendMessage(Encoder.encode(
-						new Protocolv20Encoder(),
-						new GetChannelAuthenticationCapabilities(
-								IpmiVersion.V20, IpmiVersion.V20, cipherSuite,
-								PrivilegeLevel.Callback, TypeConverter
-										.intToByte(0xe)), event
-								.getSequenceNumber(), event.getSessionId()));
+				send(stateMachine, new GetChannelAuthenticationCapabilities(
+						IpmiVersion.V20, IpmiVersion.V20, cipherSuite,
+						PrivilegeLevel.Callback, TypeConverter.intToByte(0xe)),
+						event.getSequenceNumber(), event.getSessionId());
 			} catch (Exception e) {
 				stateMachine.doExternalAction(new ErrorAction(e));
 			}
@@ -97,12 +164,10 @@ public class SessionValid extends State {
 
 			try {
 				stateMachine.setCurrent(new Authcap());
-				stateMachine.sendMessage(Encoder.encode(
-						new Protocolv20Encoder(),
-						new CloseSession(IpmiVersion.V20, cipherSuite,
-								AuthenticationType.RMCPPlus, event
-										.getSessionId()), event
-								.getSequenceNumber(), event.getSessionId()));
+				send(stateMachine, new CloseSession(IpmiVersion.V20,
+						cipherSuite, AuthenticationType.RMCPPlus, event
+								.getSessionId()), event.getSequenceNumber(),
+						event.getSessionId());
 			} catch (Exception e) {
 				stateMachine.setCurrent(this);
 				stateMachine.doExternalAction(new ErrorAction(e));
@@ -114,24 +179,57 @@ public class SessionValid extends State {
 
 	}
 
+	/**
+	 * Encodes the command into the pooled buffer and sends it. Commands too
+	 * long for the pooled buffers are encoded into an array.
+	 */
+	private void send(StateMachine stateMachine, IpmiCommandCoder commandCoder,
+			int sequenceNumber, int sessionId) throws Exception {
+		ByteBuffer buffer = BUFFERS.acquire();
+		try {
+			try {
+				Encoder.encode(buffer, ENCODER, commandCoder, sequenceNumber,
+						sessionId);
+			} catch (BufferOverflowException e) {
+				stateMachine.sendMessage(Encoder.encode(ENCODER, commandCoder,
+						sequenceNumber, sessionId));
+				return;
+			}
+			buffer.flip();
+			stateMachine.sendMessage(buffer);
+		} finally {
+			BUFFERS.release(buffer);
+		}
+	}
+
 	@Override
 	public void doAction(StateMachine stateMachine, RmcpMessage message) {
-		if (ProtocolDecoder.decodeAuthenticationType(message) != AuthenticationType.RMCPPlus) {
+		SessionHeader header = HEADERS.get();
+		if (!header.peek(message)) {
 			return; // this isn't IPMI v2.0 message so we ignore it
 		}
-		if (Protocolv20Decoder.decodeSessionID(message) == 0) {
+		if (header.getSessionId() == 0) {
 			return; // this is a sessionless message so we drop it
 		}
-		Protocolv20Decoder decoder = new Protocolv20Decoder(cipherSuite);
-		if (Protocolv20Decoder.decodePayloadType(message.getData()[1]) != PayloadType.Ipmi) {
+		if (header.getPayloadType() != IPMI_PAYLOAD) {
 			return;
-        }
-        if (Protocolv20Decoder.decodeSessionID(message) != sessionId) {
-            return; // this message belongs to other session so we ignore it
-        }
+		}
+		if (header.getSessionId() != sessionId) {
+			return; // this message belongs to other session so we ignore it
+		}
+		int sequenceNumber = header.getSessionSequenceNumber();
+		ReplayWindow window = null;
+		if (sequenceNumber != 0) {
+			window = header.isPayloadAuthenticated() ? authenticatedWindow
+					: unauthenticatedWindow;
+			if (!window.check(sequenceNumber)) {
+				return; // duplicated or outside the sliding window
+			}
+		}
 		try {
 			Ipmiv20Message message20 = (Ipmiv20Message) decoder.decode(message);
-			if (message20.getSessionID() == sessionId) {
+			if (message20.getSessionID() == sessionId
+					&& (window == null || window.commit(sequenceNumber))) {
 				stateMachine.doExternalAction(new MessageAction(message20));
 			}
 		} catch (Exception e) {
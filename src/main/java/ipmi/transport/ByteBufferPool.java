@@ -0,0 +1,118 @@
+/*
+ * ByteBufferPool.java
+ * Created on 2011-09-12
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pool of {@link ByteBuffer}s of the same capacity. Buffers are allocated
+ * lazily and kept for reuse after being released, up to the specified
+ * maximum number of pooled buffers. Idle buffers are kept on the
+ * preallocated stack, so acquiring and releasing of the pooled buffer does
+ * not allocate anything.
+ */
+public class ByteBufferPool {
+
+	/**
+	 * Idle buffers, the most recently released on top. Guarded by the lock of
+	 * the array.
+	 */
+	private ByteBuffer[] buffers;
+
+	private int pooled;
+
+	private int bufferSize;
+
+	private int maxPooled;
+
+	private boolean direct;
+
+	/**
+	 * Initiates the pool of direct buffers.
+	 *
+	 * @param bufferSize
+	 *            - capacity of the buffers in the pool.
+	 * @param maxPooled
+	 *            - maximum number of idle buffers kept in the pool.
+	 */
+	public ByteBufferPool(int bufferSize, int maxPooled) {
+		this(bufferSize, maxPooled, true);
+	}
+
+	/**
+	 * Initiates the pool.
+	 *
+	 * @param bufferSize
+	 *            - capacity of the buffers in the pool.
+	 * @param maxPooled
+	 *            - maximum number of idle buffers kept in the pool.
+	 * @param direct
+	 *            - true for direct buffers, false for heap buffers backed by
+	 *            arrays
+	 */
+	public ByteBufferPool(int bufferSize, int maxPooled, boolean direct) {
+		if (bufferSize <= 0 || maxPooled < 0) {
+			throw new IllegalArgumentException("Invalid pool size");
+		}
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+		this.direct = direct;
+		buffers = new ByteBuffer[maxPooled];
+		pooled = 0;
+	}
+
+	/**
+	 * Takes cleared buffer from the pool. New buffer is allocated if the pool
+	 * is empty.
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = null;
+		synchronized (buffers) {
+			if (pooled > 0) {
+				buffer = buffers[--pooled];
+				buffers[pooled] = null;
+			}
+		}
+		if (buffer == null) {
+			return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer
+					.allocate(bufferSize);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns buffer to the pool. Buffers of different capacity and buffers
+	 * exceeding the pool limit are dropped.
+	 *
+	 * @param buffer
+	 *            - buffer acquired via {@link #acquire()}
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || buffer.capacity() != bufferSize
+				|| buffer.isDirect() != direct) {
+			return;
+		}
+		synchronized (buffers) {
+			if (pooled < maxPooled) {
+				buffers[pooled++] = buffer;
+			}
+		}
+	}
+
+	/**
+	 * @return Capacity of the buffers in the pool.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
@@ -0,0 +1,471 @@
+/*
+ * NioUdpMessenger.java
+ * Created on 2011-09-12
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Handles the UDP connection using non-blocking {@link DatagramChannel} and
+ * {@link Selector}. Incoming datagrams are read into a direct buffer and
+ * dispatched to the listeners via pluggable {@link Executor} (by default on
+ * the selector thread). Datagrams from the same remote address are
+ * dispatched one at a time in the order they were received, since the
+ * sessions are not meant to handle their messages concurrently. Outgoing
+ * datagrams are sent through pooled direct buffers so no temporary buffers
+ * are allocated by the channel. The channel does not wait for the room in
+ * the socket send buffer - datagrams that do not fit are dropped and
+ * {@link #send(UdpMessage)} fails.
+ * <p>
+ * Can be used instead of {@link UdpMessenger} wherever {@link Messenger} is
+ * expected, e.g. in {@link ipmi.connection.ConnectionManager}.
+ */
+public class NioUdpMessenger extends Thread implements Messenger {
+
+	private int port;
+
+	private DatagramChannel channel;
+
+	private Selector selector;
+
+	private List<UdpListener> listeners;
+
+	private Executor executor;
+
+	/**
+	 * Datagrams waiting for dispatch via executor, per remote address.
+	 */
+	private ConcurrentMap<InetAddress, AddressQueue> queues;
+
+	private ByteBufferPool bufferPool;
+
+	private volatile boolean closing = false;
+
+	private volatile SendPacer pacer;
+
+	private static final String DEFAULT_ADDRESS = "0.0.0.0";
+
+	private static final int DEFAULTBUFFERSIZE = 512;
+
+	/**
+	 * Maximum payload of the UDP datagram, so no incoming datagram is
+	 * truncated.
+	 */
+	private static final int MAX_DATAGRAM_SIZE = 65507;
+
+	private static final int MAX_POOLED_BUFFERS = 64;
+
+	private AtomicLong sentPackets;
+
+	private AtomicLong droppedPackets;
+
+	private AtomicLong receivedPackets;
+
+	private static Logger logger = Logger.getLogger(NioUdpMessenger.class);
+
+	/**
+	 * Initiates NioUdpMessenger, binds it to the specified port and starts
+	 * listening. Wildcard IP address will be used. Listeners are notified on
+	 * the selector thread.
+	 *
+	 * @param port
+	 *            - port to bind channel to.
+	 * @throws IOException
+	 *             if the channel could not be opened, or the channel could
+	 *             not bind to the specified local port.
+	 * @throws UnknownHostException
+	 */
+	public NioUdpMessenger(int port) throws IOException, UnknownHostException {
+		this(port, InetAddress.getByName(DEFAULT_ADDRESS), null);
+	}
+
+	/**
+	 * Initiates NioUdpMessenger, binds it to the specified port and IP address
+	 * and starts listening. Listeners are notified on the selector thread.
+	 *
+	 * @param port
+	 *            - port to bind channel to.
+	 * @param address
+	 *            - IP address to bind channel to.
+	 * @throws IOException
+	 *             if the channel could not be opened, or the channel could
+	 *             not bind to the specified local port.
+	 */
+	public NioUdpMessenger(int port, InetAddress address) throws IOException {
+		this(port, address, null);
+	}
+
+	/**
+	 * Initiates NioUdpMessenger, binds it to the specified port and IP address
+	 * and starts listening.
+	 *
+	 * @param port
+	 *            - port to bind channel to.
+	 * @param address
+	 *            - IP address to bind channel to.
+	 * @param executor
+	 *            - {@link Executor} used to notify listeners about incoming
+	 *            messages. Messages from different remote addresses are
+	 *            dispatched concurrently, from the same address - one at a
+	 *            time. If null, listeners are notified on the selector
+	 *            thread.
+	 * @throws IOException
+	 *             if the channel could not be opened, or the channel could
+	 *             not bind to the specified local port.
+	 */
+	public NioUdpMessenger(int port, InetAddress address, Executor executor)
+			throws IOException {
+		this.executor = executor;
+		queues = new ConcurrentHashMap<InetAddress, AddressQueue>();
+		listeners = new CopyOnWriteArrayList<UdpListener>();
+		bufferPool = new ByteBufferPool(DEFAULTBUFFERSIZE, MAX_POOLED_BUFFERS);
+		sentPackets = new AtomicLong(0);
+		droppedPackets = new AtomicLong(0);
+		receivedPackets = new AtomicLong(0);
+		selector = Selector.open();
+		channel = DatagramChannel.open();
+		try {
+			channel.socket().bind(new InetSocketAddress(address, port));
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ);
+		} catch (IOException e) {
+			channel.close();
+			selector.close();
+			throw e;
+		}
+		this.port = channel.socket().getLocalPort();
+		setDaemon(true);
+		setName("NioUdpMessenger-" + this.port);
+		this.start();
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	@Override
+	public void run() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+
+		while (!closing) {
+			try {
+				selector.select();
+				Iterator<SelectionKey> iterator = selector.selectedKeys()
+						.iterator();
+				while (iterator.hasNext()) {
+					SelectionKey key = iterator.next();
+					iterator.remove();
+					if (key.isValid() && key.isReadable()) {
+						receiveAll(buffer);
+					}
+				}
+			} catch (ClosedChannelException e) {
+				break;
+			} catch (Exception e) {
+				if (!closing) {
+					logger.error(e.getMessage(), e);
+				}
+			}
+		}
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Reads all datagrams pending on the channel.
+	 */
+	private void receiveAll(ByteBuffer buffer) throws IOException {
+		while (true) {
+			buffer.clear();
+			InetSocketAddress source = (InetSocketAddress) channel
+					.receive(buffer);
+			if (source == null) {
+				return;
+			}
+			buffer.flip();
+
+			UdpMessage message = new UdpMessage();
+			message.setAddress(source.getAddress());
+			message.setPort(source.getPort());
+			byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			message.setMessage(data);
+
+			receivedPackets.incrementAndGet();
+
+			dispatch(message);
+		}
+	}
+
+	private void dispatch(UdpMessage message) {
+		if (executor == null) {
+			notifyListeners(message);
+			return;
+		}
+		InetAddress address = message.getAddress();
+		while (true) {
+			AddressQueue queue = queues.get(address);
+			if (queue == null) {
+				queue = new AddressQueue(address);
+				AddressQueue existing = queues.putIfAbsent(address, queue);
+				if (existing != null) {
+					queue = existing;
+				}
+			}
+			if (queue.offer(message)) {
+				return;
+			}
+			// the queue has just been drained and closed
+			queues.remove(address, queue);
+		}
+	}
+
+	/**
+	 * Messages from a single remote address dispatched one at a time by the
+	 * executor. The queue is removed once drained, so the addresses that no
+	 * longer send anything do not occupy memory.
+	 */
+	private class AddressQueue implements Runnable {
+
+		private final InetAddress address;
+
+		private final LinkedList<UdpMessage> messages;
+
+		private boolean scheduled;
+
+		private boolean closed;
+
+		AddressQueue(InetAddress address) {
+			this.address = address;
+			messages = new LinkedList<UdpMessage>();
+		}
+
+		/**
+		 * Adds the message to the queue and schedules the dispatch if it is
+		 * not already pending.
+		 *
+		 * @return false if the queue is closed and the message must be added
+		 *         to the new one
+		 */
+		boolean offer(UdpMessage message) {
+			synchronized (this) {
+				if (closed) {
+					return false;
+				}
+				messages.add(message);
+				if (scheduled) {
+					return true;
+				}
+				scheduled = true;
+			}
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				logger.warn("Executor rejected the dispatch, notifying listeners on the selector thread");
+				run();
+			}
+			return true;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				UdpMessage message;
+				synchronized (this) {
+					message = messages.poll();
+					if (message == null) {
+						scheduled = false;
+						closed = true;
+						queues.remove(address, this);
+						return;
+					}
+				}
+				notifyListeners(message);
+			}
+		}
+	}
+
+	private void notifyListeners(UdpMessage message) {
+		for (UdpListener listener : listeners) {
+			try {
+				listener.notifyMessage(message);
+			} catch (Exception e) {
+				logger.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Closes the channel and releases port.
+	 */
+	public void closeConnection() {
+		closing = true;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+		}
+		selector.wakeup();
+	}
+
+	/**
+	 * Registers listener in the NioUdpMessenger so it will be notified via
+	 * {@link UdpListener#notifyMessage(UdpMessage)} when new message arrives.
+	 *
+	 * @param listener
+	 *            - {@link UdpListener} to register.
+	 */
+	public void register(UdpListener listener) {
+		if (listener != null) {
+			listeners.add(listener);
+		}
+	}
+
+	/**
+	 * Unregisters listener from NioUdpMessenger so it no longer will be
+	 * notified.
+	 *
+	 * @param listener
+	 *            - {@link UdpListener} to unregister
+	 */
+	public void unregister(UdpListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Sets the {@link SendPacer} limiting the rate of datagrams sent to the
+	 * particular destinations.
+	 *
+	 * @param pacer
+	 *            - {@link SendPacer} to use or null to disable pacing.
+	 */
+	public void setPacer(SendPacer pacer) {
+		this.pacer = pacer;
+	}
+
+	public SendPacer getPacer() {
+		return pacer;
+	}
+
+	/**
+	 * Sends {@link UdpMessage}. Can be called concurrently from many threads.
+	 * If {@link SendPacer} is set, the calling thread waits until the pacing
+	 * of the message destination allows sending.
+	 *
+	 * @param message
+	 *            - {@link UdpMessage} to send.
+	 * @throws IOException
+	 *             when sending of the message fails, also when the socket
+	 *             send buffer is full and the datagram was dropped
+	 */
+	public void send(UdpMessage message) throws IOException {
+		SendPacer currentPacer = pacer;
+		if (currentPacer != null) {
+			currentPacer.await(message.getAddress());
+		}
+		InetSocketAddress target = new InetSocketAddress(message.getAddress(),
+				message.getPort());
+		ByteBuffer source = message.getBuffer();
+		if (source != null) {
+			int position = source.position();
+			try {
+				send(source, target);
+			} finally {
+				source.position(position);
+			}
+			return;
+		}
+		byte[] data = message.getMessage();
+
+		if (data.length > bufferPool.getBufferSize()) {
+			send(ByteBuffer.wrap(data), target);
+		} else {
+			ByteBuffer buffer = bufferPool.acquire();
+			try {
+				buffer.put(data);
+				buffer.flip();
+				send(buffer, target);
+			} finally {
+				bufferPool.release(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Sends the datagram held between the position and the limit of the
+	 * buffer. The channel is non-blocking, so nothing is sent if the socket
+	 * send buffer is full.
+	 *
+	 * @throws IOException
+	 *             when the datagram was not sent
+	 */
+	private void send(ByteBuffer datagram, InetSocketAddress target)
+			throws IOException {
+		if (channel.send(datagram, target) == 0 && datagram.hasRemaining()) {
+			droppedPackets.incrementAndGet();
+			throw new IOException("Socket send buffer full, datagram to "
+					+ target + " dropped");
+		}
+		sentPackets.incrementAndGet();
+	}
+
+	/**
+	 * @return Number of datagrams sent by this instance.
+	 */
+	public long getSentPackets() {
+		return sentPackets.get();
+	}
+
+	/**
+	 * @return Number of datagrams dropped because the socket send buffer was
+	 *         full.
+	 */
+	public long getDroppedPackets() {
+		return droppedPackets.get();
+	}
+
+	/**
+	 * @return Number of datagrams received by this instance.
+	 */
+	public long getReceivedPackets() {
+		return receivedPackets.get();
+	}
+
+	/**
+	 * Checks if underlying channel is still open.
+	 */
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * SendPacer.java
+ * Created on 2011-09-14
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.transport;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Enforces minimal interval between datagrams sent to the same destination.
+ * Pacing of one destination never delays datagrams sent to the others.
+ */
+public class SendPacer {
+
+	private ConcurrentMap<InetAddress, Pace> paces;
+
+	private volatile long defaultInterval;
+
+	/**
+	 * Initiates the pacer with no pacing configured.
+	 */
+	public SendPacer() {
+		this(0);
+	}
+
+	/**
+	 * Initiates the pacer.
+	 *
+	 * @param defaultInterval
+	 *            - minimal interval in nanoseconds between datagrams sent to
+	 *            any destination without explicitly set interval. 0 disables
+	 *            pacing of such destinations.
+	 */
+	public SendPacer(long defaultInterval) {
+		if (defaultInterval < 0) {
+			throw new IllegalArgumentException("Interval cannot be negative");
+		}
+		paces = new ConcurrentHashMap<InetAddress, Pace>();
+		this.defaultInterval = defaultInterval;
+	}
+
+	/**
+	 * Sets minimal interval between datagrams sent to the destination.
+	 *
+	 * @param address
+	 *            - destination address
+	 * @param interval
+	 *            - interval in nanoseconds, 0 disables pacing of the
+	 *            destination
+	 */
+	public void setInterval(InetAddress address, long interval) {
+		if (interval < 0) {
+			throw new IllegalArgumentException("Interval cannot be negative");
+		}
+		Pace pace = getPace(address);
+		pace.interval = interval;
+		pace.explicit = true;
+	}
+
+	/**
+	 * Removes interval set for the destination so the default one applies.
+	 *
+	 * @param address
+	 *            - destination address
+	 */
+	public void removeInterval(InetAddress address) {
+		paces.remove(address);
+	}
+
+	/**
+	 * Sets the interval used for destinations without explicitly set
+	 * interval.
+	 *
+	 * @param defaultInterval
+	 *            - interval in nanoseconds, 0 disables pacing
+	 */
+	public void setDefaultInterval(long defaultInterval) {
+		if (defaultInterval < 0) {
+			throw new IllegalArgumentException("Interval cannot be negative");
+		}
+		this.defaultInterval = defaultInterval;
+	}
+
+	public long getDefaultInterval() {
+		return defaultInterval;
+	}
+
+	/**
+	 * Reserves the send slot for the destination and parks the calling
+	 * thread until it comes.
+	 *
+	 * @param address
+	 *            - destination address
+	 */
+	public void await(InetAddress address) {
+		long delay = reserve(address);
+		while (delay > 0) {
+			long start = System.nanoTime();
+			LockSupport.parkNanos(delay);
+			delay -= System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Reserves the send slot for the destination.
+	 *
+	 * @param address
+	 *            - destination address
+	 * @return Time in nanoseconds the caller should wait before sending.
+	 */
+	public long reserve(InetAddress address) {
+		Pace pace = paces.get(address);
+		long interval;
+		if (pace != null && pace.explicit) {
+			interval = pace.interval;
+		} else {
+			interval = defaultInterval;
+		}
+		if (interval == 0) {
+			return 0;
+		}
+		if (pace == null) {
+			pace = getPace(address);
+		}
+
+		long now = System.nanoTime();
+		while (true) {
+			long next = pace.next.get();
+			long slot = next - now > 0 ? next : now;
+			if (pace.next.compareAndSet(next, slot + interval)) {
+				return slot - now;
+			}
+		}
+	}
+
+	private Pace getPace(InetAddress address) {
+		Pace pace = paces.get(address);
+		if (pace == null) {
+			pace = new Pace();
+			Pace previous = paces.putIfAbsent(address, pace);
+			if (previous != null) {
+				pace = previous;
+			}
+		}
+		return pace;
+	}
+
+	/**
+	 * Pacing state of the single destination.
+	 */
+	private static class Pace {
+		private AtomicLong next = new AtomicLong(System.nanoTime());
+		private volatile long interval;
+		private volatile boolean explicit;
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * ShardedMessenger.java
+ * Created on 2011-09-15
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package ipmi.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+
+/**
+ * {@link Messenger} spreading the traffic over several sockets bound to
+ * consecutive ports, each with its own receive thread. Every remote host is
+ * pinned to one shard by its address hash, so all messages exchanged with the
+ * host go through the same socket and are received by the same thread.
+ */
+public class ShardedMessenger implements Messenger {
+
+	private Messenger[] shards;
+
+	private static final String DEFAULT_ADDRESS = "0.0.0.0";
+
+	/**
+	 * Initiates ShardedMessenger with {@link UdpMessenger} shards bound to
+	 * the consecutive ports starting at basePort. Wildcard IP address will be
+	 * used.
+	 *
+	 * @param basePort
+	 *            - port the first shard will be bound to
+	 * @param shardCount
+	 *            - number of shards
+	 * @throws SocketException
+	 *             if any of the sockets could not be opened, or could not
+	 *             bind to its port.
+	 * @throws UnknownHostException
+	 */
+	public ShardedMessenger(int basePort, int shardCount)
+			throws SocketException, UnknownHostException {
+		this(basePort, shardCount, InetAddress.getByName(DEFAULT_ADDRESS));
+	}
+
+	/**
+	 * Initiates ShardedMessenger with {@link UdpMessenger} shards bound to
+	 * the consecutive ports starting at basePort.
+	 *
+	 * @param basePort
+	 *            - port the first shard will be bound to
+	 * @param shardCount
+	 *            - number of shards
+	 * @param address
+	 *            - IP address to bind sockets to
+	 * @throws SocketException
+	 *             if any of the sockets could not be opened, or could not
+	 *             bind to its port.
+	 */
+	public ShardedMessenger(int basePort, int shardCount, InetAddress address)
+			throws SocketException {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException(
+					"At least one shard is required");
+		}
+		shards = new Messenger[shardCount];
+		try {
+			for (int i = 0; i < shardCount; ++i) {
+				shards[i] = new UdpMessenger(basePort + i, address);
+			}
+		} catch (SocketException e) {
+			closeConnection();
+			throw e;
+		}
+	}
+
+	/**
+	 * Initiates ShardedMessenger using already created {@link Messenger}s as
+	 * shards.
+	 *
+	 * @param shards
+	 *            - {@link Messenger}s bound to the separate sockets
+	 */
+	public ShardedMessenger(Messenger[] shards) {
+		if (shards == null || shards.length < 1) {
+			throw new IllegalArgumentException(
+					"At least one shard is required");
+		}
+		this.shards = shards.clone();
+	}
+
+	/**
+	 * Returns the shard the remote host is pinned to.
+	 *
+	 * @param address
+	 *            - address of the remote host
+	 */
+	public Messenger getShard(InetAddress address) {
+		return shards[getShardIndex(address)];
+	}
+
+	/**
+	 * Returns index of the shard the remote host is pinned to.
+	 *
+	 * @param address
+	 *            - address of the remote host
+	 */
+	public int getShardIndex(InetAddress address) {
+		int hash = address.hashCode() * 0x9E3779B9;
+		hash ^= hash >>> 16;
+		return (hash & 0x7fffffff) % shards.length;
+	}
+
+	/**
+	 * @return Number of shards.
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	@Override
+	public void send(UdpMessage message) throws IOException {
+		getShard(message.getAddress()).send(message);
+	}
+
+	/**
+	 * Registers listener in all shards. The listener will be notified from
+	 * the receive threads of all shards, so it must be thread safe.
+	 *
+	 * @param listener
+	 *            - {@link UdpListener} to register.
+	 */
+	@Override
+	public void register(UdpListener listener) {
+		for (Messenger shard : shards) {
+			shard.register(listener);
+		}
+	}
+
+	@Override
+	public void unregister(UdpListener listener) {
+		for (Messenger shard : shards) {
+			shard.unregister(listener);
+		}
+	}
+
+	/**
+	 * Closes all shards.
+	 */
+	@Override
+	public void closeConnection() {
+		for (Messenger shard : shards) {
+			if (shard != null) {
+				shard.closeConnection();
+			}
+		}
+	}
+}
@@ -12,6 +12,7 @@
 package ipmi.transport;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 /**
  * Container for UDP message.
@@ -31,6 +32,11 @@ public class UdpMessage {
 
 	private byte[] message;
 
+	/**
+	 * Message data when sending message encoded into a {@link ByteBuffer}.
+	 */
+	private ByteBuffer buffer;
+
 	/**
 	 * Target port when sending message. Sender port when receiving
 	 * message.
@@ -63,11 +69,39 @@ public class UdpMessage {
 		this.address = address;
 	}
 
+	/**
+	 * Returns the message data. If the message was set via
+	 * {@link #setBuffer(ByteBuffer)}, the data is copied from the buffer.
+	 */
 	public byte[] getMessage() {
+		if (message == null && buffer != null) {
+			message = new byte[buffer.remaining()];
+			buffer.duplicate().get(message);
+		}
 		return message;
 	}
 
 	public void setMessage(byte[] message) {
 		this.message = message;
+		buffer = null;
+	}
+
+	/**
+	 * Returns the buffer set via {@link #setBuffer(ByteBuffer)}, null if the
+	 * message data was set as an array.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Sets the message data to the remaining bytes of the buffer. The buffer
+	 * is not copied, so it must not be modified until the message is sent.
+	 * {@link Messenger}s send such message without copying it into an
+	 * array.
+	 */
+	public void setBuffer(ByteBuffer buffer) {
+		this.buffer = buffer;
+		message = null;
 	}
 }
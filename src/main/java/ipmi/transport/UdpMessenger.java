@@ -17,8 +17,10 @@ import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -33,7 +35,9 @@ public class UdpMessenger extends Thread implements Messenger {
 
 	private List<UdpListener> listeners;
 
-	private boolean closing = false;
+	private volatile boolean closing = false;
+
+	private volatile SendPacer pacer;
 
 	private static final String DEFAULT_ADDRESS = "0.0.0.0";
 
@@ -44,6 +48,12 @@ public class UdpMessenger extends Thread implements Messenger {
 	private int bufferSize;
 
 	private static final int DEFAULTBUFFERSIZE = 512;
+
+	/**
+	 * Maximal time in ms {@link #closeConnection()} waits for the receiving
+	 * thread to finish.
+	 */
+	private static final long CLOSE_TIMEOUT = 1000;
 	
 	private static Logger logger = Logger.getLogger(UdpMessenger.class);
 
@@ -79,7 +89,7 @@ public class UdpMessenger extends Thread implements Messenger {
 	 *             bind to the specified local port.
 	 */
 	public UdpMessenger(int port, InetAddress address) throws SocketException {
-		sentPackets = 0;
+		sentPackets.set(0);
 		this.port = port;
 		listeners = new ArrayList<UdpListener>();
 		bufferSize = DEFAULTBUFFERSIZE;
@@ -146,11 +156,20 @@ public class UdpMessenger extends Thread implements Messenger {
 	}
 
 	/**
-	 * Closes the socket and releases port.
+	 * Closes the socket and releases port. Waits for the receiving thread to
+	 * finish - the port is not released while the thread is still blocked in
+	 * the receive.
 	 */
 	public void closeConnection() {
 		closing = true;
 		socket.close();
+		if (Thread.currentThread() != this) {
+			try {
+				join(CLOSE_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 	}
 
 	/**
@@ -178,34 +197,58 @@ public class UdpMessenger extends Thread implements Messenger {
 		}
 	}
 
-	private static int sentPackets = 0;
+	private static AtomicInteger sentPackets = new AtomicInteger(0);
 
 	/**
 	 * Returns number of packets sent since last creation of the instance of
 	 * {@link UdpMessenger}. For debug/testing purposes only.
 	 */
 	public static int getSentPackets() {
-		return sentPackets;
+		return sentPackets.get();
 	}
 
 	/**
-	 * Sends {@link UdpMessage}.
+	 * Sets the {@link SendPacer} limiting the rate of datagrams sent to the
+	 * particular destinations.
+	 * 
+	 * @param pacer
+	 *            - {@link SendPacer} to use or null to disable pacing.
+	 */
+	public void setPacer(SendPacer pacer) {
+		this.pacer = pacer;
+	}
+
+	public SendPacer getPacer() {
+		return pacer;
+	}
+
+	/**
+	 * Sends {@link UdpMessage}. Can be called concurrently from many threads.
+	 * If {@link SendPacer} is set, the calling thread waits until the pacing
+	 * of the message destination allows sending.
 	 * 
 	 * @param message
 	 *            - {@link UdpMessage} to send.
 	 * @throws IOException
 	 *             when sending of the message fails
 	 */
-	public synchronized void send(UdpMessage message) throws IOException {
-		DatagramPacket packet = new DatagramPacket(message.getMessage(),
-				message.getMessage().length, message.getAddress(),
-				message.getPort());
-		socket.send(packet);
-		try {
-			Thread.sleep(1);
-		} catch (InterruptedException e) {
-			// TODO: log
+	public void send(UdpMessage message) throws IOException {
+		SendPacer currentPacer = pacer;
+		if (currentPacer != null) {
+			currentPacer.await(message.getAddress());
 		}
-		++sentPackets;
+		DatagramPacket packet;
+		ByteBuffer buffer = message.getBuffer();
+		if (buffer != null && buffer.hasArray()) {
+			packet = new DatagramPacket(buffer.array(), buffer.arrayOffset()
+					+ buffer.position(), buffer.remaining(),
+					message.getAddress(), message.getPort());
+		} else {
+			packet = new DatagramPacket(message.getMessage(),
+					message.getMessage().length, message.getAddress(),
+					message.getPort());
+		}
+		socket.send(packet);
+		sentPackets.incrementAndGet();
 	}
 }
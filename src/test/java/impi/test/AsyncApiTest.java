@@ -22,6 +22,7 @@ import ipmi.coding.commands.PrivilegeLevel;
 import ipmi.coding.commands.chassis.GetChassisStatus;
 import ipmi.coding.protocol.AuthenticationType;
 import ipmi.coding.security.CipherSuite;
+import ipmi.connection.ResponseFuture;
 
 import java.io.FileInputStream;
 import java.net.InetAddress;
@@ -145,6 +146,26 @@ public class AsyncApiTest implements IpmiListener {
 		}
 	}
 
+	/**
+	 * Tests
+	 * {@link IpmiAsyncConnector#submit(ConnectionHandle, ipmi.coding.commands.IpmiCommandCoder)}
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSubmit() throws Exception {
+		logger.info("Testing submitting message");
+
+		testOpenSession();
+
+		ResponseFuture future = connector.submit(handle, new GetChassisStatus(
+				IpmiVersion.V20, handle.getCipherSuite(),
+				AuthenticationType.RMCPPlus));
+
+		assertNotNull(future.get());
+		assertNull(response);
+	}
+
 	@Override
 	public void notify(IpmiResponse response) {
 		this.response = response;
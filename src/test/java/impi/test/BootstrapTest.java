@@ -0,0 +1,157 @@
+/*
+ * BootstrapTest.java
+ * Created on 2011-09-23
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.api.async.IpmiAsyncConnector;
+import ipmi.api.async.bootstrap.BootstrapListener;
+import ipmi.api.async.bootstrap.BootstrapOptions;
+import ipmi.api.async.bootstrap.BootstrapResult;
+import ipmi.api.async.bootstrap.BootstrapResult.Status;
+import ipmi.api.async.bootstrap.BootstrapResult.Step;
+import ipmi.api.async.bootstrap.BootstrapTarget;
+import ipmi.connection.ConnectionManager;
+
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests the bulk session establishing of the {@link IpmiAsyncConnector}. No
+ * BMC is needed - targets are loopback addresses that never answer.
+ */
+public class BootstrapTest extends TestCase {
+
+	private static final int PORT = 6671;
+
+	private static final int HOSTS = 40;
+
+	private static final int MAX_IN_FLIGHT = 8;
+
+	private static final int HOST_TIMEOUT = 300;
+
+	private static final int RAMP_UP_RATE = 200;
+
+	private static List<BootstrapTarget> createTargets(int count)
+			throws Exception {
+		List<BootstrapTarget> targets = new ArrayList<BootstrapTarget>();
+		for (int i = 0; i < count; ++i) {
+			targets.add(new BootstrapTarget(InetAddress
+					.getByAddress(new byte[] { 127, 0, 1, (byte) (i + 1) }),
+					"user", "password"));
+		}
+		return targets;
+	}
+
+	private static ConnectionManager getConnectionManager(
+			IpmiAsyncConnector connector) throws Exception {
+		Field field = IpmiAsyncConnector.class
+				.getDeclaredField("connectionManager");
+		field.setAccessible(true);
+		return (ConnectionManager) field.get(connector);
+	}
+
+	/**
+	 * Checks that every host is reported, hosts that do not answer are
+	 * abandoned at their deadline and their connections closed, and the
+	 * handshakes are limited to the in-flight limit.
+	 */
+	@Test
+	public void testDeadlines() throws Exception {
+		IpmiAsyncConnector connector = new IpmiAsyncConnector(PORT);
+		try {
+			List<BootstrapTarget> targets = createTargets(HOSTS);
+			BootstrapOptions options = new BootstrapOptions();
+			options.setMaxInFlight(MAX_IN_FLIGHT);
+			options.setHostTimeout(HOST_TIMEOUT);
+			options.setRampUpRate(RAMP_UP_RATE);
+
+			final AtomicInteger notifications = new AtomicInteger();
+			final AtomicInteger lastCompleted = new AtomicInteger();
+			long start = System.currentTimeMillis();
+			List<BootstrapResult> results = connector.bootstrapSessions(
+					targets, options, new BootstrapListener() {
+						@Override
+						public void notify(BootstrapResult result,
+								int completed, int total) {
+							notifications.incrementAndGet();
+							synchronized (lastCompleted) {
+								lastCompleted.set(Math.max(
+										lastCompleted.get(), completed));
+							}
+						}
+					});
+			long duration = System.currentTimeMillis() - start;
+
+			assertEquals(HOSTS, results.size());
+			assertEquals(HOSTS, notifications.get());
+			assertEquals(HOSTS, lastCompleted.get());
+			for (int i = 0; i < HOSTS; ++i) {
+				BootstrapResult result = results.get(i);
+				assertSame(targets.get(i), result.getTarget());
+				assertEquals(Status.TimedOut, result.getStatus());
+				assertEquals(Step.GetCipherSuites, result.getStep());
+				assertNotNull(result.getHandle());
+				assertFalse(getConnectionManager(connector).getConnection(
+						result.getHandle().getHandle()).isActive());
+				assertTrue(result.getDuration() < HOST_TIMEOUT * 2);
+			}
+			// all hosts take the whole timeout, so they have to run in
+			// batches of the in-flight limit
+			assertTrue(duration >= HOSTS / MAX_IN_FLIGHT * HOST_TIMEOUT);
+			assertTrue(duration < HOSTS / MAX_IN_FLIGHT * HOST_TIMEOUT * 3);
+		} finally {
+			connector.tearDown();
+		}
+	}
+
+	/**
+	 * Checks that the handshakes are run on the given executor.
+	 */
+	@Test
+	public void testExecutor() throws Exception {
+		IpmiAsyncConnector connector = new IpmiAsyncConnector(PORT);
+		final ExecutorService pool = Executors.newCachedThreadPool();
+		try {
+			final AtomicInteger executed = new AtomicInteger();
+			BootstrapOptions options = new BootstrapOptions();
+			options.setMaxInFlight(MAX_IN_FLIGHT);
+			options.setHostTimeout(HOST_TIMEOUT / 3);
+			options.setExecutor(new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					executed.incrementAndGet();
+					pool.execute(command);
+				}
+			});
+
+			List<BootstrapResult> results = connector.bootstrapSessions(
+					createTargets(MAX_IN_FLIGHT * 2), options, null);
+
+			assertEquals(MAX_IN_FLIGHT * 2, executed.get());
+			for (BootstrapResult result : results) {
+				assertEquals(Status.TimedOut, result.getStatus());
+			}
+		} finally {
+			pool.shutdown();
+			connector.tearDown();
+		}
+	}
+}
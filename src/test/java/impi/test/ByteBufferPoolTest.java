@@ -0,0 +1,97 @@
+/*
+ * ByteBufferPoolTest.java
+ * Created on 2011-10-08
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.transport.ByteBufferPool;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests reusing of the buffers by the {@link ByteBufferPool}.
+ */
+public class ByteBufferPoolTest extends TestCase {
+
+	private static final int BUFFER_SIZE = 64;
+
+	private static final int MAX_POOLED = 2;
+
+	/**
+	 * Checks that the released buffers are reused cleared, up to the pool
+	 * limit, and the foreign buffers are dropped.
+	 */
+	@Test
+	public void testReuse() {
+		ByteBufferPool pool = new ByteBufferPool(BUFFER_SIZE, MAX_POOLED,
+				false);
+		ByteBuffer first = pool.acquire();
+		ByteBuffer second = pool.acquire();
+		ByteBuffer third = pool.acquire();
+		assertFalse(first.isDirect());
+		assertEquals(BUFFER_SIZE, first.capacity());
+
+		first.put((byte) 1);
+		pool.release(first);
+		pool.release(second);
+		pool.release(third); // above the limit
+		pool.release(ByteBuffer.allocate(BUFFER_SIZE * 2));
+		pool.release(ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+		assertSame(second, pool.acquire());
+		ByteBuffer reused = pool.acquire();
+		assertSame(first, reused);
+		assertEquals(0, reused.position());
+		assertEquals(BUFFER_SIZE, reused.limit());
+
+		ByteBuffer allocated = pool.acquire();
+		assertNotSame(first, allocated);
+		assertNotSame(second, allocated);
+		assertNotSame(third, allocated);
+	}
+
+	/**
+	 * Checks that once warm, acquiring and releasing of the pooled buffer
+	 * creates no garbage.
+	 */
+	@Test
+	public void testNoGarbage() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+			return; // allocation cannot be measured on this JVM
+		}
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadBean;
+		long threadId = Thread.currentThread().getId();
+
+		ByteBufferPool pool = new ByteBufferPool(BUFFER_SIZE, MAX_POOLED,
+				false);
+		cycle(pool, 20000);
+		long before = allocations.getThreadAllocatedBytes(threadId);
+		cycle(pool, 1000);
+		long allocated = allocations.getThreadAllocatedBytes(threadId)
+				- before;
+
+		assertEquals(0, allocated);
+	}
+
+	private static void cycle(ByteBufferPool pool, int count) {
+		for (int i = 0; i < count; ++i) {
+			ByteBuffer buffer = pool.acquire();
+			buffer.put((byte) i);
+			pool.release(buffer);
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * CircuitBreakerTest.java
+ * Created on 2011-10-03
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.coding.commands.IpmiVersion;
+import ipmi.coding.commands.chassis.GetChassisStatus;
+import ipmi.coding.protocol.AuthenticationType;
+import ipmi.coding.rmcp.RmcpDecoder;
+import ipmi.coding.rmcp.RmcpPingMessage;
+import ipmi.coding.security.CipherSuite;
+import ipmi.connection.Connection;
+import ipmi.connection.ResponseFuture;
+import ipmi.connection.circuit.CircuitBreaker;
+import ipmi.connection.circuit.CircuitListener;
+import ipmi.connection.circuit.CircuitOpenException;
+import ipmi.connection.circuit.CircuitState;
+import ipmi.sm.StateMachine;
+import ipmi.sm.states.SessionValid;
+import ipmi.transport.Messenger;
+import ipmi.transport.UdpListener;
+import ipmi.transport.UdpMessage;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link CircuitBreaker}. No BMC is needed - the session is
+ * simulated on a messenger that discards IPMI messages and answers RMCP pings
+ * on demand.
+ */
+public class CircuitBreakerTest extends TestCase {
+
+	private static final int TIMEOUT = 100;
+
+	private static final int FAILURE_THRESHOLD = 3;
+
+	private static final int PROBE_INTERVAL = 50;
+
+	private PongMessenger messenger;
+
+	private Connection connection;
+
+	private GetChassisStatus request;
+
+	private List<CircuitState> changes;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		messenger = new PongMessenger();
+		connection = new Connection(messenger, 0);
+		connection.connect(InetAddress.getLocalHost(), 60000);
+		connection.setTimeout(TIMEOUT);
+		connection.getCircuitBreaker().configure(FAILURE_THRESHOLD,
+				PROBE_INTERVAL);
+
+		Field field = Connection.class.getDeclaredField("stateMachine");
+		field.setAccessible(true);
+		((StateMachine) field.get(connection)).setCurrent(new SessionValid(
+				CipherSuite.getEmpty(), 1));
+
+		request = new GetChassisStatus(IpmiVersion.V20,
+				CipherSuite.getEmpty(), AuthenticationType.RMCPPlus);
+
+		changes = new CopyOnWriteArrayList<CircuitState>();
+		connection.getCircuitBreaker().registerListener(new CircuitListener() {
+			@Override
+			public void stateChanged(int handle, CircuitState previous,
+					CircuitState current) {
+				changes.add(current);
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		connection.disconnect();
+	}
+
+	private void waitForState(CircuitState state) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT * 30;
+		while (connection.getCircuitBreaker().getState() != state
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(state, connection.getCircuitBreaker().getState());
+	}
+
+	/**
+	 * Checks that the circuit opens after the consecutive timeouts, the
+	 * requests fail at once while it is open and it closes after the pong and
+	 * the response.
+	 */
+	@Test
+	public void testOpenProbeClose() throws Exception {
+		for (int i = 0; i < FAILURE_THRESHOLD; ++i) {
+			assertNotNull(connection.submitIpmiCommand(request));
+		}
+		waitForState(CircuitState.Open);
+		assertEquals(1, connection.getCircuitBreaker().getOpenCount());
+
+		try {
+			connection.submitIpmiCommand(request);
+			fail("Request should have been rejected");
+		} catch (CircuitOpenException e) {
+			// expected
+		}
+		assertEquals(1, connection.getCircuitBreaker().getRejectedCount());
+
+		Thread.sleep(PROBE_INTERVAL * 3);
+		assertTrue(connection.getCircuitBreaker().getProbesSent() > 0);
+		assertEquals(CircuitState.Open, connection.getCircuitBreaker()
+				.getState());
+
+		messenger.answerPings = true;
+		waitForState(CircuitState.HalfOpen);
+		assertNotNull(connection.submitIpmiCommand(request));
+
+		connection.getCircuitBreaker().onResponse();
+		assertEquals(CircuitState.Closed, connection.getCircuitBreaker()
+				.getState());
+		assertEquals(3, changes.size());
+		assertEquals(CircuitState.Open, changes.get(0));
+		assertEquals(CircuitState.HalfOpen, changes.get(1));
+		assertEquals(CircuitState.Closed, changes.get(2));
+	}
+
+	/**
+	 * Checks that the pending requests fail when the circuit opens.
+	 */
+	@Test
+	public void testPendingFailedOnOpen() throws Exception {
+		int window = connection.getWindowSize();
+		for (int i = 0; i < window; ++i) {
+			connection.enqueueIpmiCommand(request);
+		}
+		ResponseFuture pending = connection.enqueueIpmiCommand(request);
+		assertEquals(-1, pending.getTag());
+
+		waitForState(CircuitState.Open);
+		assertTrue(pending.isDone());
+		assertTrue(pending.getException() instanceof CircuitOpenException);
+	}
+
+	/**
+	 * Checks that the disabled breaker never opens.
+	 */
+	@Test
+	public void testDisabled() throws Exception {
+		connection.getCircuitBreaker().configure(0, PROBE_INTERVAL);
+		assertFalse(connection.getCircuitBreaker().onTimeouts(100));
+		assertEquals(CircuitState.Closed, connection.getCircuitBreaker()
+				.getState());
+	}
+
+	/**
+	 * Checks decoding of the pong message.
+	 */
+	@Test
+	public void testDecodePong() {
+		assertEquals(17, RmcpPingMessage.decodePongTag(RmcpDecoder
+				.decode(PongMessenger.createPong(17))));
+		assertEquals(-1, RmcpPingMessage.decodePongTag(new RmcpPingMessage(
+				17)));
+	}
+
+	/**
+	 * {@link Messenger} that discards all messages except RMCP pings, which
+	 * are answered when {@link #answerPings} is set.
+	 */
+	private static class PongMessenger implements Messenger {
+
+		private volatile boolean answerPings;
+
+		private List<UdpListener> listeners = new CopyOnWriteArrayList<UdpListener>();
+
+		private static byte[] createPong(int tag) {
+			byte[] pong = new byte[] { 0x06, 0x00, (byte) 0xff, 0x06, 0x00,
+					0x00, 0x11, (byte) 0xbe, 0x40, 0x00, 0x00, 0x10, 0x00,
+					0x00, 0x11, (byte) 0xbe, 0x00, 0x00, 0x00, 0x00,
+					(byte) 0x81, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00 };
+			pong[9] = (byte) tag;
+			return pong;
+		}
+
+		@Override
+		public void send(UdpMessage message) throws IOException {
+			byte[] data = message.getMessage();
+			if (!answerPings || data[3] != 0x06) {
+				return;
+			}
+			UdpMessage pong = new UdpMessage();
+			pong.setAddress(message.getAddress());
+			pong.setPort(message.getPort());
+			pong.setMessage(createPong(data[9]));
+			for (UdpListener listener : listeners) {
+				listener.notifyMessage(pong);
+			}
+		}
+
+		@Override
+		public void register(UdpListener listener) {
+			listeners.add(listener);
+		}
+
+		@Override
+		public void unregister(UdpListener listener) {
+			listeners.remove(listener);
+		}
+
+		@Override
+		public void closeConnection() {
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * CoalescingTest.java
+ * Created on 2011-10-05
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.api.async.ConnectionHandle;
+import ipmi.api.async.IpmiAsyncConnector;
+import ipmi.api.retry.BackoffRetryPolicy;
+import ipmi.coding.commands.IpmiVersion;
+import ipmi.coding.commands.chassis.GetChassisStatus;
+import ipmi.coding.commands.sdr.GetSensorReading;
+import ipmi.coding.protocol.AuthenticationType;
+import ipmi.coding.security.CipherSuite;
+import ipmi.connection.Connection;
+import ipmi.connection.ConnectionException;
+import ipmi.connection.ConnectionManager;
+import ipmi.connection.ResponseFuture;
+import ipmi.sm.StateMachine;
+import ipmi.sm.states.SessionValid;
+
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.util.concurrent.ExecutionException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests coalescing of the identical requests by the {@link IpmiAsyncConnector}.
+ * No BMC is needed - the session is simulated and all requests time out.
+ */
+public class CoalescingTest extends TestCase {
+
+	private static final int PORT = 6673;
+
+	private IpmiAsyncConnector connector;
+
+	private ConnectionHandle handle;
+
+	private Connection connection;
+
+	private BackoffRetryPolicy policy;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		connector = new IpmiAsyncConnector(PORT);
+		handle = connector.createConnection(InetAddress.getLocalHost());
+		Field field = IpmiAsyncConnector.class
+				.getDeclaredField("connectionManager");
+		field.setAccessible(true);
+		connection = ((ConnectionManager) field.get(connector))
+				.getConnection(handle.getHandle());
+		field = Connection.class.getDeclaredField("stateMachine");
+		field.setAccessible(true);
+		((StateMachine) field.get(connection)).setCurrent(new SessionValid(
+				CipherSuite.getEmpty(), 1));
+		connection.setTimeout(100);
+		policy = new BackoffRetryPolicy(0, 0);
+		connector.setCoalescing(true);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		connector.tearDown();
+	}
+
+	private static GetChassisStatus chassisStatus() {
+		return new GetChassisStatus(IpmiVersion.V20, CipherSuite.getEmpty(),
+				AuthenticationType.RMCPPlus);
+	}
+
+	private static void assertTimedOut(ResponseFuture future)
+			throws InterruptedException {
+		try {
+			future.get();
+			fail("Request should have timed out");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ConnectionException);
+		}
+	}
+
+	/**
+	 * Checks that the identical reads are sent once and all callers get the
+	 * result, and that the next read after the result is sent again.
+	 */
+	@Test
+	public void testIdenticalReadsSentOnce() throws Exception {
+		ResponseFuture first = connector.submit(handle, chassisStatus(),
+				policy);
+		ResponseFuture second = connector.submit(handle, chassisStatus(),
+				policy);
+		assertNotSame(first, second);
+		assertEquals(1, connection.getRequestsSent());
+		assertEquals(1, connector.getCoalescedCount());
+
+		assertTimedOut(first);
+		assertTimedOut(second);
+		assertEquals(first.getTag(), second.getTag());
+
+		assertTimedOut(connector.submit(handle, chassisStatus(), policy));
+		assertEquals(2, connection.getRequestsSent());
+	}
+
+	/**
+	 * Checks that cancelling one caller's future does not affect the others.
+	 */
+	@Test
+	public void testCancelFollower() throws Exception {
+		ResponseFuture first = connector.submit(handle, chassisStatus(),
+				policy);
+		ResponseFuture second = connector.submit(handle, chassisStatus(),
+				policy);
+		assertTrue(first.cancel(false));
+		assertFalse(second.isDone());
+		assertTimedOut(second);
+	}
+
+	/**
+	 * Checks that different reads and the requests submitted with
+	 * coalescing off are all sent.
+	 */
+	@Test
+	public void testNotCoalesced() throws Exception {
+		connector.submit(handle, new GetSensorReading(IpmiVersion.V20,
+				CipherSuite.getEmpty(), AuthenticationType.RMCPPlus, 1), policy);
+		connector.submit(handle, new GetSensorReading(IpmiVersion.V20,
+				CipherSuite.getEmpty(), AuthenticationType.RMCPPlus, 2), policy);
+		connector.setCoalescing(false);
+		connector.submit(handle, chassisStatus(), policy);
+		connector.submit(handle, chassisStatus(), policy);
+		assertEquals(4, connection.getRequestsSent());
+		assertEquals(0, connector.getCoalescedCount());
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * CongestionWindowTest.java
+ * Created on 2011-10-08
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.coding.commands.IpmiVersion;
+import ipmi.coding.commands.chassis.GetChassisStatus;
+import ipmi.coding.protocol.AuthenticationType;
+import ipmi.coding.security.CipherSuite;
+import ipmi.connection.queue.CongestionWindow;
+import ipmi.connection.queue.MessageQueue;
+import ipmi.connection.queue.QueuedRequest;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests adapting of the {@link CongestionWindow} to the responses of the
+ * managed system.
+ */
+public class CongestionWindowTest extends TestCase {
+
+	private static final int MIN_SIZE = 1;
+
+	private static final int MAX_SIZE = 64;
+
+	/**
+	 * Checks that the window grows by 1 after the whole window of messages
+	 * was answered and stops at the maximal size.
+	 */
+	@Test
+	public void testGrowth() {
+		CongestionWindow window = new CongestionWindow(8, MIN_SIZE, MAX_SIZE);
+		for (int i = 0; i < 8; ++i) {
+			assertEquals(8, window.getSize());
+			window.onSuccess();
+		}
+		assertEquals(9, window.getSize());
+
+		for (int i = 0; i < 10000; ++i) {
+			window.onSuccess();
+		}
+		assertEquals(MAX_SIZE, window.getSize());
+		assertEquals(10008, window.getAnsweredCount());
+		assertEquals(0, window.getLostCount());
+		assertEquals(0.0, window.getLossRate());
+	}
+
+	/**
+	 * Checks that the window is halved on loss, only once for the messages
+	 * sent before the last decrease, and stops at the minimal size.
+	 */
+	@Test
+	public void testShrink() throws Exception {
+		CongestionWindow window = new CongestionWindow(MAX_SIZE, MIN_SIZE,
+				MAX_SIZE);
+		long sent = System.nanoTime();
+		window.onLoss(sent);
+		assertEquals(MAX_SIZE / 2, window.getSize());
+
+		// lost in the same burst
+		window.onLoss(sent);
+		window.onLoss(sent);
+		assertEquals(MAX_SIZE / 2, window.getSize());
+
+		for (int i = 0; i < 10; ++i) {
+			window.onLoss(System.nanoTime());
+		}
+		assertEquals(MIN_SIZE, window.getSize());
+		assertEquals(13, window.getLostCount());
+	}
+
+	/**
+	 * Checks that the loss rate follows the fraction of the lost messages.
+	 */
+	@Test
+	public void testLossRate() {
+		CongestionWindow window = new CongestionWindow(8, MIN_SIZE, MAX_SIZE);
+		for (int i = 0; i < 1000; ++i) {
+			window.onLoss(0);
+		}
+		assertTrue(window.getLossRate() > 0.99);
+
+		for (int i = 0; i < 1000; ++i) {
+			if (i % 4 == 0) {
+				window.onLoss(0);
+			} else {
+				window.onSuccess();
+			}
+		}
+		assertTrue(Math.abs(window.getLossRate() - 0.25) < 0.1);
+
+		for (int i = 0; i < 1000; ++i) {
+			window.onSuccess();
+		}
+		assertTrue(window.getLossRate() < 0.01);
+	}
+
+	/**
+	 * Checks that the bounds are validated and the size is clamped to the new
+	 * ones.
+	 */
+	@Test
+	public void testBounds() {
+		try {
+			new CongestionWindow(0, 0, MAX_SIZE);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		CongestionWindow window = new CongestionWindow(8, MIN_SIZE, MAX_SIZE);
+		window.setBounds(MIN_SIZE, 4);
+		assertEquals(4, window.getSize());
+		window.setBounds(16, MAX_SIZE);
+		assertEquals(16, window.getSize());
+		try {
+			window.setBounds(0, MAX_SIZE);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Checks that the {@link MessageQueue} grows the window on the clean
+	 * responses and halves it when the managed system reports it is busy.
+	 */
+	@Test
+	public void testQueueAdaptsWindow() throws Exception {
+		MessageQueue queue = new MessageQueue(null, 60000);
+		try {
+			GetChassisStatus request = new GetChassisStatus(IpmiVersion.V20,
+					CipherSuite.getEmpty(), AuthenticationType.RMCPPlus);
+			QueuedRequest taken = new QueuedRequest();
+			CongestionWindow window = queue.getCongestionWindow();
+			int size = window.getSize();
+
+			for (int i = 0; i < size; ++i) {
+				int tag = queue.add(request) % 64;
+				assertTrue(queue.take(tag, false, taken));
+			}
+			assertEquals(size + 1, window.getSize());
+			assertEquals(size + 1, queue.getFreeSlots());
+
+			int tag = queue.add(request) % 64;
+			assertTrue(queue.take(tag, true, taken));
+			assertEquals((size + 1) / 2, window.getSize());
+			assertEquals(1, window.getLostCount());
+		} finally {
+			queue.tearDown();
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * ConnectionFootprintTest.java
+ * Created on 2011-09-16
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.common.HashedWheelTimer;
+import ipmi.connection.ConnectionManager;
+import ipmi.transport.Messenger;
+
+import java.net.InetAddress;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Checks resources used by large number of connections. No BMC is needed -
+ * connections are created on a {@link Messenger} that discards all messages.
+ */
+public class ConnectionFootprintTest extends TestCase {
+
+	private static Logger logger = Logger
+			.getLogger(ConnectionFootprintTest.class);
+
+	private static final int CONNECTIONS = 10000;
+
+	/**
+	 * Creates {@link #CONNECTIONS} connections and checks that the number of
+	 * threads does not depend on the number of connections.
+	 */
+	@Test
+	public void testThreadCount() throws Exception {
+		HashedWheelTimer.getShared();
+		System.gc();
+
+		int threadsBefore = Thread.activeCount();
+		long memoryBefore = Runtime.getRuntime().totalMemory()
+				- Runtime.getRuntime().freeMemory();
+
+		ConnectionManager manager = new ConnectionManager(
+				new DiscardingMessenger());
+		try {
+			for (int i = 0; i < CONNECTIONS; ++i) {
+				manager.createConnection(InetAddress.getByAddress(new byte[] {
+						10, (byte) (i >> 16), (byte) (i >> 8), (byte) i }));
+			}
+
+			System.gc();
+			int threadsAfter = Thread.activeCount();
+			long memoryAfter = Runtime.getRuntime().totalMemory()
+					- Runtime.getRuntime().freeMemory();
+
+			logger.info(CONNECTIONS + " connections use "
+					+ (threadsAfter - threadsBefore) + " additional threads and "
+					+ (memoryAfter - memoryBefore) / 1024 + " kB of heap");
+
+			assertEquals(threadsBefore, threadsAfter);
+		} finally {
+			manager.close();
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * DecoderTest.java
+ * Created on 2011-10-07
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.coding.Decoder;
+import ipmi.coding.commands.IpmiVersion;
+import ipmi.coding.commands.sdr.GetSdr;
+import ipmi.coding.commands.sdr.GetSdrResponseData;
+import ipmi.coding.payload.PlainMessage;
+import ipmi.coding.payload.lan.IpmiLanResponse;
+import ipmi.coding.protocol.AuthenticationType;
+import ipmi.coding.protocol.IpmiMessage;
+import ipmi.coding.protocol.Ipmiv20Message;
+import ipmi.coding.protocol.PayloadType;
+import ipmi.coding.protocol.decoder.Protocolv20Decoder;
+import ipmi.coding.protocol.encoder.Protocolv20Encoder;
+import ipmi.coding.rmcp.RmcpClassOfMessage;
+import ipmi.coding.rmcp.RmcpDecoder;
+import ipmi.coding.rmcp.RmcpEncoder;
+import ipmi.coding.rmcp.RmcpVersion;
+import ipmi.coding.security.CipherSuite;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests decoding of the received messages on views over the receive buffer.
+ */
+public class DecoderTest extends TestCase {
+
+	private static final int SESSION_ID = 0x01020304;
+
+	private static final int NEXT_RECORD_ID = 0x1234;
+
+	private static final byte[] RECORD_DATA = new byte[] { 1, 2, 3, 4, 5, 6,
+			7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 };
+
+	private static CipherSuite createCipherSuite(int id, int confidentiality,
+			int integrity) throws Exception {
+		CipherSuite cipherSuite = new CipherSuite((byte) id, (byte) 1,
+				(byte) confidentiality, (byte) integrity);
+		byte[] sik = new byte[20];
+		for (int i = 0; i < sik.length; ++i) {
+			sik[i] = (byte) i;
+		}
+		cipherSuite.initializeAlgorithms(sik);
+		return cipherSuite;
+	}
+
+	private static CipherSuite[] createCipherSuites() throws Exception {
+		return new CipherSuite[] { CipherSuite.getEmpty(),
+				createCipherSuite(1, 0, 0), createCipherSuite(2, 0, 1),
+				createCipherSuite(3, 1, 1) };
+	}
+
+	private static GetSdr createCoder(CipherSuite cipherSuite) {
+		return new GetSdr(IpmiVersion.V20, cipherSuite,
+				AuthenticationType.RMCPPlus, 0, 0);
+	}
+
+	private static byte checksum(byte[] data, int offset, int end) {
+		int sum = 0;
+		for (int i = offset; i < end; ++i) {
+			sum += data[i];
+		}
+		return (byte) -sum;
+	}
+
+	/**
+	 * Creates IPMI LAN response to the Get SDR command.
+	 */
+	private static byte[] createLanResponse(GetSdr coder) {
+		byte[] lan = new byte[8 + 2 + RECORD_DATA.length];
+		lan[0] = (byte) 0x81;
+		lan[1] = (byte) ((coder.getNetworkFunction().getCode() + 1) << 2);
+		lan[2] = checksum(lan, 0, 2);
+		lan[3] = 0x20;
+		lan[4] = 5 << 2;
+		lan[5] = coder.getCommandCode();
+		lan[6] = 0; // completion code
+		lan[7] = (byte) NEXT_RECORD_ID;
+		lan[8] = (byte) (NEXT_RECORD_ID >> 8);
+		System.arraycopy(RECORD_DATA, 0, lan, 9, RECORD_DATA.length);
+		lan[lan.length - 1] = checksum(lan, 3, lan.length - 1);
+		return lan;
+	}
+
+	/**
+	 * Creates the response packet the way the remote server would send it.
+	 */
+	private static byte[] createResponse(CipherSuite cipherSuite)
+			throws Exception {
+		Ipmiv20Message message = new Ipmiv20Message(
+				cipherSuite.getConfidentialityAlgorithm());
+		message.setAuthenticationType(AuthenticationType.RMCPPlus);
+		message.setPayloadType(PayloadType.Ipmi);
+		message.setPayloadEncrypted(cipherSuite.getConfidentialityAlgorithm()
+				.getCode() != 0);
+		message.setPayloadAuthenticated(cipherSuite.getIntegrityAlgorithm()
+				.getCode() != 0);
+		message.setSessionID(SESSION_ID);
+		message.setSessionSequenceNumber(1);
+		message.setPayload(new PlainMessage(createLanResponse(createCoder(
+				cipherSuite))));
+
+		ByteBuffer buffer = ByteBuffer.allocate(512);
+		RmcpEncoder.encodeHeader(RmcpVersion.RMCP1_0, (byte) 0xff,
+				RmcpClassOfMessage.Ipmi, buffer);
+		new Protocolv20Encoder().encode(message,
+				cipherSuite.getIntegrityAlgorithm(), buffer);
+		buffer.flip();
+		byte[] response = new byte[buffer.remaining()];
+		buffer.get(response);
+		return response;
+	}
+
+	private static void checkResponseData(GetSdrResponseData responseData) {
+		assertEquals(NEXT_RECORD_ID, responseData.getNextRecordId());
+		assertTrue(Arrays.equals(RECORD_DATA,
+				responseData.getSensorRecordData()));
+	}
+
+	/**
+	 * Checks that the responses are decoded correctly with all cipher suites.
+	 */
+	@Test
+	public void testDecode() throws Exception {
+		for (CipherSuite cipherSuite : createCipherSuites()) {
+			GetSdr coder = createCoder(cipherSuite);
+			checkResponseData((GetSdrResponseData) Decoder.decode(
+					createResponse(cipherSuite), new Protocolv20Decoder(
+							cipherSuite), coder));
+		}
+	}
+
+	/**
+	 * Checks that the packet held in the middle of the array is decoded
+	 * without copying it unless it is encrypted.
+	 */
+	@Test
+	public void testDecodeView() throws Exception {
+		for (CipherSuite cipherSuite : createCipherSuites()) {
+			byte[] response = createResponse(cipherSuite);
+			byte[] raw = new byte[response.length + 10];
+			System.arraycopy(response, 0, raw, 3, response.length);
+
+			IpmiMessage message = new Protocolv20Decoder(cipherSuite)
+					.decode(RmcpDecoder.decode(raw, 3, response.length));
+			assertEquals(SESSION_ID, message.getSessionID());
+			assertTrue(message.getPayload() instanceof IpmiLanResponse);
+
+			ByteBuffer data = message.getPayload().getIpmiCommandDataView();
+			assertEquals(2 + RECORD_DATA.length, data.remaining());
+			if (cipherSuite.getConfidentialityAlgorithm().getCode() == 0) {
+				assertSame(raw, data.array());
+			} else {
+				assertNotSame(raw, data.array());
+			}
+
+			checkResponseData((GetSdrResponseData) createCoder(cipherSuite)
+					.getResponseData(message));
+			assertTrue(Arrays.equals(Arrays.copyOfRange(data.array(),
+					data.arrayOffset(), data.arrayOffset() + data.remaining()),
+					message.getPayload().getIpmiCommandData()));
+		}
+	}
+
+	/**
+	 * Checks that the AuthCode is validated on the received array.
+	 */
+	@Test
+	public void testValidateAuthCode() throws Exception {
+		CipherSuite cipherSuite = createCipherSuite(2, 0, 1);
+		byte[] response = createResponse(cipherSuite);
+		int authCodeOffset = response.length - 12;
+		assertTrue(cipherSuite.getIntegrityAlgorithm().validateAuthCode(
+				response, 4, authCodeOffset, response.length));
+
+		response[authCodeOffset - 3] ^= 1;
+		assertFalse(cipherSuite.getIntegrityAlgorithm().validateAuthCode(
+				response, 4, authCodeOffset, response.length));
+
+		assertTrue(CipherSuite.getEmpty().getIntegrityAlgorithm()
+				.validateAuthCode(response, 4, response.length,
+						response.length));
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * DiscardingMessenger.java
+ * Created on 2011-09-22
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.transport.Messenger;
+import ipmi.transport.UdpListener;
+import ipmi.transport.UdpMessage;
+
+import java.io.IOException;
+
+/**
+ * {@link Messenger} that discards all sent messages and never receives any.
+ */
+public class DiscardingMessenger implements Messenger {
+
+	@Override
+	public void send(UdpMessage message) throws IOException {
+	}
+
+	@Override
+	public void register(UdpListener listener) {
+	}
+
+	@Override
+	public void unregister(UdpListener listener) {
+	}
+
+	@Override
+	public void closeConnection() {
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * EncoderBenchmarkTest.java
+ * Created on 2011-10-07
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.coding.Encoder;
+import ipmi.coding.commands.IpmiCommandCoder;
+import ipmi.coding.commands.IpmiVersion;
+import ipmi.coding.commands.sdr.GetSensorReading;
+import ipmi.coding.protocol.AuthenticationType;
+import ipmi.coding.protocol.Ipmiv20Message;
+import ipmi.coding.protocol.encoder.Protocolv20Encoder;
+import ipmi.coding.rmcp.RmcpClassOfMessage;
+import ipmi.coding.rmcp.RmcpEncoder;
+import ipmi.coding.rmcp.RmcpIpmiMessage;
+import ipmi.coding.rmcp.RmcpVersion;
+import ipmi.coding.security.CipherSuite;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Measures the time of encoding the request in cipher suites 0-3 - encoded
+ * twice to calculate the AuthCode, built and encoded in a single pass into a
+ * reused buffer, and copied from the request template into an array and into
+ * a reused buffer. No BMC is needed.
+ */
+public class EncoderBenchmarkTest extends TestCase {
+
+	private static Logger logger = Logger.getLogger(EncoderBenchmarkTest.class);
+
+	private static final int SESSION_ID = 0x01020304;
+
+	private static final int WARMUP = 20000;
+
+	private static final int ITERATIONS = 100000;
+
+	/**
+	 * Algorithms (authentication, confidentiality, integrity) of the cipher
+	 * suites 0-3.
+	 */
+	private static final byte[][] CIPHER_SUITES = new byte[][] { { 0, 0, 0 },
+			{ 1, 0, 0 }, { 1, 0, 1 }, { 1, 1, 1 } };
+
+	private enum Method {
+		Twice, Prepared, SinglePass, Template
+	}
+
+	/**
+	 * Measures encoding in all cipher suites.
+	 */
+	@Test
+	public void testEncoding() throws Exception {
+		byte[] sik = new byte[20];
+		for (int i = 0; i < sik.length; ++i) {
+			sik[i] = (byte) i;
+		}
+		Protocolv20Encoder encoder = new Protocolv20Encoder();
+		ByteBuffer buffer = ByteBuffer.allocate(512);
+		for (int id = 0; id < CIPHER_SUITES.length; ++id) {
+			CipherSuite cipherSuite = new CipherSuite((byte) id,
+					CIPHER_SUITES[id][0], CIPHER_SUITES[id][1],
+					CIPHER_SUITES[id][2]);
+			cipherSuite.initializeAlgorithms(sik);
+			IpmiCommandCoder coder = new GetSensorReading(IpmiVersion.V20,
+					cipherSuite, AuthenticationType.RMCPPlus, 0x35);
+			StringBuilder result = new StringBuilder("Cipher suite " + id
+					+ ":");
+			for (Method method : Method.values()) {
+				encode(method, coder, encoder, buffer, WARMUP);
+				long start = System.nanoTime();
+				encode(method, coder, encoder, buffer, ITERATIONS);
+				long time = System.nanoTime() - start;
+				result.append(" " + method + " " + time / ITERATIONS
+						+ " ns/request");
+			}
+			logger.info(result);
+		}
+	}
+
+	private static void encode(Method method, IpmiCommandCoder coder,
+			Protocolv20Encoder encoder, ByteBuffer buffer, int count)
+			throws Exception {
+		for (int i = 1; i <= count; ++i) {
+			switch (method) {
+			case Twice:
+				RmcpEncoder.encode(new RmcpIpmiMessage(encoder.encode(coder
+						.encodeCommand(i, SESSION_ID))));
+				break;
+			case Prepared:
+				buffer.clear();
+				RmcpEncoder.encodeHeader(RmcpVersion.RMCP1_0, (byte) 0xff,
+						RmcpClassOfMessage.Ipmi, buffer);
+				encoder.encode((Ipmiv20Message) coder.prepareMessage(i,
+						SESSION_ID), coder.getCipherSuite()
+						.getIntegrityAlgorithm(), buffer);
+				break;
+			case SinglePass:
+				Encoder.encode(encoder, coder, i, SESSION_ID);
+				break;
+			default:
+				buffer.clear();
+				Encoder.encode(buffer, encoder, coder, i, SESSION_ID);
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * EncoderTest.java
+ * Created on 2011-10-06
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.coding.Encoder;
+import ipmi.coding.commands.IpmiCommandCoder;
+import ipmi.coding.commands.IpmiVersion;
+import ipmi.coding.commands.chassis.GetChassisStatus;
+import ipmi.coding.commands.sdr.GetSensorReading;
+import ipmi.coding.protocol.AuthenticationType;
+import ipmi.coding.protocol.Ipmiv20Message;
+import ipmi.coding.protocol.encoder.Protocolv20Encoder;
+import ipmi.coding.rmcp.RmcpClassOfMessage;
+import ipmi.coding.rmcp.RmcpEncoder;
+import ipmi.coding.rmcp.RmcpIpmiMessage;
+import ipmi.coding.rmcp.RmcpVersion;
+import ipmi.coding.security.CipherSuite;
+import ipmi.coding.security.ConfidentialityAlgorithm;
+import ipmi.coding.security.IntegrityAlgorithm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests encoding of the messages into {@link ByteBuffer}s in a single pass.
+ */
+public class EncoderTest extends TestCase {
+
+	private static final int SESSION_ID = 0x01020304;
+
+	private static final int WARMUP = 20000;
+
+	private static final int ITERATIONS = 1000;
+
+	private static CipherSuite createCipherSuite(int id, int confidentiality,
+			int integrity) throws Exception {
+		CipherSuite cipherSuite = new CipherSuite((byte) id, (byte) 1,
+				(byte) confidentiality, (byte) integrity);
+		byte[] sik = new byte[20];
+		for (int i = 0; i < sik.length; ++i) {
+			sik[i] = (byte) i;
+		}
+		cipherSuite.initializeAlgorithms(sik);
+		return cipherSuite;
+	}
+
+	private static IpmiCommandCoder[] createCommands(CipherSuite cipherSuite) {
+		return new IpmiCommandCoder[] {
+				new GetChassisStatus(IpmiVersion.V20, cipherSuite,
+						AuthenticationType.RMCPPlus),
+				new GetSensorReading(IpmiVersion.V20, cipherSuite,
+						AuthenticationType.RMCPPlus, 0x35) };
+	}
+
+	private static byte[] encode(IpmiCommandCoder coder, int sequenceNumber)
+			throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(512);
+		Encoder.encode(buffer, new Protocolv20Encoder(), coder,
+				sequenceNumber, SESSION_ID);
+		buffer.flip();
+		byte[] encoded = new byte[buffer.remaining()];
+		buffer.get(encoded);
+		return encoded;
+	}
+
+	/**
+	 * Encodes the message the way it was encoded before single pass encoding
+	 * - the message is encoded once to calculate the AuthCode and then again
+	 * with it. Does not use {@link IpmiCommandCoder#encodeCommand(int, int)}
+	 * so the baseline does not depend on the code under test.
+	 */
+	private static byte[] encodeTwice(IpmiCommandCoder coder,
+			int sequenceNumber) throws Exception {
+		Ipmiv20Message message = (Ipmiv20Message) coder.prepareMessage(
+				sequenceNumber, SESSION_ID);
+		Protocolv20Encoder encoder = new Protocolv20Encoder();
+		message.setAuthCode(coder.getCipherSuite().getIntegrityAlgorithm()
+				.generateAuthCode(message.getIntegrityAlgorithmBase(encoder)));
+		return RmcpEncoder.encode(new RmcpIpmiMessage(encoder.encode(message)));
+	}
+
+	/**
+	 * Checks that the messages without encryption are encoded exactly like
+	 * via double encoding, both into buffers and arrays.
+	 */
+	@Test
+	public void testSameAsArrayEncoding() throws Exception {
+		CipherSuite[] cipherSuites = new CipherSuite[] {
+				CipherSuite.getEmpty(), createCipherSuite(1, 0, 0),
+				createCipherSuite(2, 0, 1) };
+		for (CipherSuite cipherSuite : cipherSuites) {
+			for (IpmiCommandCoder coder : createCommands(cipherSuite)) {
+				for (int sequenceNumber = 1; sequenceNumber < 5; ++sequenceNumber) {
+					byte[] expected = encodeTwice(coder, sequenceNumber);
+					assertTrue(Arrays.equals(expected, encode(coder,
+							sequenceNumber)));
+					assertTrue(Arrays.equals(expected, Encoder.encode(
+							new Protocolv20Encoder(), coder, sequenceNumber,
+							SESSION_ID)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that the encrypted payload decrypts to the plain one and that
+	 * the AuthCode is calculated over the encrypted message.
+	 */
+	@Test
+	public void testEncrypted() throws Exception {
+		CipherSuite cipherSuite = createCipherSuite(3, 1, 1);
+		for (IpmiCommandCoder coder : createCommands(cipherSuite)) {
+			checkEncrypted(cipherSuite, coder, encode(coder, 7));
+			checkEncrypted(cipherSuite, coder, Encoder.encode(
+					new Protocolv20Encoder(), coder, 7, SESSION_ID));
+		}
+	}
+
+	/**
+	 * Checks that the encrypted messages match the ones encoded twice. The
+	 * Initialization Vector is random, so the payloads are compared after
+	 * decryption and the AuthCodes are validated instead of compared.
+	 */
+	@Test
+	public void testEncryptedSameAsArrayEncoding() throws Exception {
+		CipherSuite cipherSuite = createCipherSuite(3, 1, 1);
+		for (IpmiCommandCoder coder : createCommands(cipherSuite)) {
+			for (int sequenceNumber = 1; sequenceNumber < 5; ++sequenceNumber) {
+				byte[] expected = encodeTwice(coder, sequenceNumber);
+				assertSameEncrypted(cipherSuite, expected, encode(coder,
+						sequenceNumber));
+				assertSameEncrypted(cipherSuite, expected, Encoder.encode(
+						new Protocolv20Encoder(), coder, sequenceNumber,
+						SESSION_ID));
+			}
+		}
+	}
+
+	private static void assertSameEncrypted(CipherSuite cipherSuite,
+			byte[] expected, byte[] encoded) throws Exception {
+		assertEquals(expected.length, encoded.length);
+
+		// RMCP header, session header with the payload length
+		int payloadOffset = 4 + 12;
+		assertTrue(Arrays.equals(Arrays.copyOf(expected, payloadOffset),
+				Arrays.copyOf(encoded, payloadOffset)));
+		int payloadEnd = payloadOffset
+				+ ((encoded[payloadOffset - 2] & 0xff) | (encoded[payloadOffset - 1] & 0xff) << 8);
+
+		ConfidentialityAlgorithm confidentialityAlgorithm = cipherSuite
+				.getConfidentialityAlgorithm();
+		assertTrue(Arrays.equals(confidentialityAlgorithm.decrypt(Arrays
+				.copyOfRange(expected, payloadOffset, payloadEnd)),
+				confidentialityAlgorithm.decrypt(Arrays.copyOfRange(encoded,
+						payloadOffset, payloadEnd))));
+
+		// integrity pad, pad length and next header
+		int authCodeOffset = encoded.length - 12;
+		assertTrue(Arrays.equals(Arrays.copyOfRange(expected, payloadEnd,
+				authCodeOffset), Arrays.copyOfRange(encoded, payloadEnd,
+				authCodeOffset)));
+		assertTrue(cipherSuite.getIntegrityAlgorithm().validateAuthCode(
+				encoded, 4, authCodeOffset, encoded.length));
+	}
+
+	private static void checkEncrypted(CipherSuite cipherSuite,
+			IpmiCommandCoder coder, byte[] encoded) throws Exception {
+		// RMCP header, session header up to the payload length
+		int payloadOffset = 4 + 12;
+		int payloadLength = (encoded[payloadOffset - 2] & 0xff)
+				| (encoded[payloadOffset - 1] & 0xff) << 8;
+		assertEquals(0, payloadLength % 16);
+
+		byte[] payload = Arrays.copyOfRange(encoded, payloadOffset,
+				payloadOffset + payloadLength);
+		assertTrue(Arrays.equals(coder.prepareMessage(7, SESSION_ID)
+				.getPayload().getPayloadData(), cipherSuite
+				.getConfidentialityAlgorithm().decrypt(payload)));
+
+		assertEquals(0, (encoded.length - 4) % 4);
+		byte[] base = Arrays.copyOfRange(encoded, 4, encoded.length - 12);
+		byte[] authCode = Arrays.copyOfRange(encoded, encoded.length - 12,
+				encoded.length);
+		assertTrue(Arrays.equals(cipherSuite.getIntegrityAlgorithm()
+				.generateAuthCode(base), authCode));
+	}
+
+	/**
+	 * Checks that once warm, encoding of the message into the reused buffer
+	 * creates no garbage.
+	 */
+	@Test
+	public void testNoGarbage() throws Exception {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+			return; // allocation cannot be measured on this JVM
+		}
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadBean;
+		long threadId = Thread.currentThread().getId();
+
+		CipherSuite cipherSuite = CipherSuite.getEmpty();
+		GetSensorReading coder = new GetSensorReading(IpmiVersion.V20,
+				cipherSuite, AuthenticationType.RMCPPlus, 0x35);
+		Ipmiv20Message message = (Ipmiv20Message) coder.prepareMessage(1,
+				SESSION_ID);
+		Protocolv20Encoder encoder = new Protocolv20Encoder();
+		ByteBuffer buffer = ByteBuffer.allocate(512);
+
+		IntegrityAlgorithm integrityAlgorithm = cipherSuite
+				.getIntegrityAlgorithm();
+
+		encode(message, encoder, integrityAlgorithm, buffer, WARMUP);
+		long before = allocations.getThreadAllocatedBytes(threadId);
+		encode(message, encoder, integrityAlgorithm, buffer, ITERATIONS);
+		long allocated = allocations.getThreadAllocatedBytes(threadId)
+				- before;
+
+		assertEquals(0, allocated);
+	}
+
+	/**
+	 * Checks that once warm, encoding of the authenticated and encrypted
+	 * message into the reused buffer allocates less than double encoding.
+	 * It is not garbage free - {@link javax.crypto.Mac} and
+	 * {@link javax.crypto.Cipher} allocate the digest and the Initialization
+	 * Vector internally.
+	 */
+	@Test
+	public void testEncryptedLessGarbage() throws Exception {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+			return; // allocation cannot be measured on this JVM
+		}
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadBean;
+		long threadId = Thread.currentThread().getId();
+
+		CipherSuite cipherSuite = createCipherSuite(3, 1, 1);
+		GetSensorReading coder = new GetSensorReading(IpmiVersion.V20,
+				cipherSuite, AuthenticationType.RMCPPlus, 0x35);
+		Ipmiv20Message message = (Ipmiv20Message) coder.prepareMessage(1,
+				SESSION_ID);
+		Protocolv20Encoder encoder = new Protocolv20Encoder();
+		ByteBuffer buffer = ByteBuffer.allocate(512);
+
+		IntegrityAlgorithm integrityAlgorithm = cipherSuite
+				.getIntegrityAlgorithm();
+
+		encode(message, encoder, integrityAlgorithm, buffer, WARMUP);
+		encodeTwice(message, encoder, integrityAlgorithm, WARMUP);
+
+		long before = allocations.getThreadAllocatedBytes(threadId);
+		encode(message, encoder, integrityAlgorithm, buffer, ITERATIONS);
+		long singlePass = allocations.getThreadAllocatedBytes(threadId)
+				- before;
+
+		before = allocations.getThreadAllocatedBytes(threadId);
+		encodeTwice(message, encoder, integrityAlgorithm, ITERATIONS);
+		long twice = allocations.getThreadAllocatedBytes(threadId) - before;
+
+		assertTrue(singlePass < twice);
+	}
+
+	private static void encodeTwice(Ipmiv20Message message,
+			Protocolv20Encoder encoder, IntegrityAlgorithm integrityAlgorithm,
+			int count) throws Exception {
+		for (int i = 0; i < count; ++i) {
+			message.setSessionSequenceNumber(i);
+			message.setAuthCode(integrityAlgorithm.generateAuthCode(message
+					.getIntegrityAlgorithmBase(encoder)));
+			RmcpEncoder.encode(new RmcpIpmiMessage(encoder.encode(message)));
+		}
+	}
+
+	private static void encode(Ipmiv20Message message,
+			Protocolv20Encoder encoder, IntegrityAlgorithm integrityAlgorithm,
+			ByteBuffer buffer, int count)
+			throws Exception {
+		for (int i = 0; i < count; ++i) {
+			buffer.clear();
+			message.setSessionSequenceNumber(i);
+			RmcpEncoder.encodeHeader(RmcpVersion.RMCP1_0, (byte) 0xff,
+					RmcpClassOfMessage.Ipmi, buffer);
+			encoder.encode(message, integrityAlgorithm, buffer);
+		}
+	}
+}
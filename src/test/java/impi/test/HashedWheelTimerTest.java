@@ -0,0 +1,101 @@
+/*
+ * HashedWheelTimerTest.java
+ * Created on 2011-10-08
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.common.HashedWheelTimer;
+import ipmi.common.HashedWheelTimer.ScheduledTask;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests running of the tasks scheduled in the {@link HashedWheelTimer}.
+ */
+public class HashedWheelTimerTest extends TestCase {
+
+	/**
+	 * Checks that the blocked task does not delay other tasks.
+	 */
+	@Test
+	public void testBlockingTask() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer(10, 64);
+		try {
+			final CountDownLatch release = new CountDownLatch(1);
+			final CountDownLatch done = new CountDownLatch(1);
+			timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}, 1);
+			timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					done.countDown();
+				}
+			}, 50);
+			assertTrue(done.await(1, TimeUnit.SECONDS));
+			release.countDown();
+		} finally {
+			timer.stop();
+		}
+	}
+
+	/**
+	 * Checks that the periodic task does not run concurrently with itself
+	 * and is not run after it was cancelled.
+	 */
+	@Test
+	public void testPeriodicTask() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer(10, 64);
+		try {
+			final AtomicInteger active = new AtomicInteger();
+			final AtomicInteger overlaps = new AtomicInteger();
+			final AtomicInteger runs = new AtomicInteger();
+			ScheduledTask task = timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (active.incrementAndGet() > 1) {
+						overlaps.incrementAndGet();
+					}
+					runs.incrementAndGet();
+					try {
+						Thread.sleep(35);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					active.decrementAndGet();
+				}
+			}, 10, 10);
+			Thread.sleep(500);
+			task.cancel();
+			Thread.sleep(100);
+			int count = runs.get();
+			assertTrue(count > 1);
+			assertEquals(0, overlaps.get());
+
+			Thread.sleep(100);
+			assertEquals(count, runs.get());
+		} finally {
+			timer.stop();
+		}
+	}
+}
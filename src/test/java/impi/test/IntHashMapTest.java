@@ -0,0 +1,192 @@
+/*
+ * IntHashMapTest.java
+ * Created on 2011-10-08
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.common.IntHashMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link IntHashMap}.
+ */
+public class IntHashMapTest extends TestCase {
+
+	/**
+	 * Capacity of the map created with the default constructor.
+	 */
+	private static final int CAPACITY = 16;
+
+	private static int bucket(int key, int capacity) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (capacity - 1);
+	}
+
+	/**
+	 * Finds keys landing in the same bucket of the map with the default
+	 * capacity.
+	 */
+	private static int[] collidingKeys(int bucket, int count) {
+		int[] keys = new int[count];
+		int found = 0;
+		for (int key = 1; found < count; ++key) {
+			if (bucket(key, CAPACITY) == bucket) {
+				keys[found++] = key;
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Checks basic put/get/remove operations.
+	 */
+	@Test
+	public void testPutGetRemove() {
+		IntHashMap<String> map = new IntHashMap<String>();
+		assertNull(map.get(1));
+		assertNull(map.put(1, "a"));
+		assertNull(map.put(0, "zero"));
+		assertNull(map.put(-1, "minus"));
+		assertEquals("a", map.put(1, "b"));
+		assertEquals(3, map.size());
+		assertEquals("b", map.get(1));
+		assertEquals("zero", map.get(0));
+		assertEquals("minus", map.get(-1));
+		assertTrue(map.containsKey(0));
+
+		assertEquals("b", map.remove(1));
+		assertNull(map.remove(1));
+		assertFalse(map.containsKey(1));
+		assertEquals(2, map.size());
+
+		map.clear();
+		assertEquals(0, map.size());
+		assertNull(map.get(0));
+
+		try {
+			map.put(2, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Checks that keys sharing the bucket are all reachable and that
+	 * removing the key from the middle of the probe chain keeps the
+	 * following keys reachable.
+	 */
+	@Test
+	public void testRemoveInProbeChain() {
+		int[] keys = collidingKeys(3, 5);
+		IntHashMap<Integer> map = new IntHashMap<Integer>();
+		for (int key : keys) {
+			map.put(key, key);
+		}
+		for (int key : keys) {
+			assertEquals(Integer.valueOf(key), map.get(key));
+		}
+
+		assertEquals(Integer.valueOf(keys[2]), map.remove(keys[2]));
+		assertNull(map.get(keys[2]));
+		for (int i = 0; i < keys.length; ++i) {
+			if (i != 2) {
+				assertEquals(Integer.valueOf(keys[i]), map.get(keys[i]));
+			}
+		}
+
+		assertEquals(Integer.valueOf(keys[0]), map.remove(keys[0]));
+		assertEquals(Integer.valueOf(keys[1]), map.get(keys[1]));
+		assertEquals(Integer.valueOf(keys[3]), map.get(keys[3]));
+		assertEquals(Integer.valueOf(keys[4]), map.get(keys[4]));
+		assertEquals(3, map.size());
+
+		map.put(keys[2], -1);
+		assertEquals(Integer.valueOf(-1), map.get(keys[2]));
+		assertEquals(4, map.size());
+	}
+
+	/**
+	 * Checks that the probe chain wrapping around the end of the table
+	 * survives removal of its head.
+	 */
+	@Test
+	public void testRemoveInWrappedProbeChain() {
+		int[] last = collidingKeys(CAPACITY - 1, 3);
+		int[] first = collidingKeys(0, 1);
+		IntHashMap<Integer> map = new IntHashMap<Integer>();
+		for (int key : last) {
+			map.put(key, key);
+		}
+		map.put(first[0], first[0]);
+
+		map.remove(last[0]);
+		assertEquals(Integer.valueOf(last[1]), map.get(last[1]));
+		assertEquals(Integer.valueOf(last[2]), map.get(last[2]));
+		assertEquals(Integer.valueOf(first[0]), map.get(first[0]));
+
+		map.remove(first[0]);
+		assertEquals(Integer.valueOf(last[1]), map.get(last[1]));
+		assertEquals(Integer.valueOf(last[2]), map.get(last[2]));
+		assertEquals(2, map.size());
+	}
+
+	/**
+	 * Checks that the map grows past its initial capacity keeping all
+	 * entries.
+	 */
+	@Test
+	public void testResize() {
+		IntHashMap<Integer> map = new IntHashMap<Integer>();
+		for (int i = 0; i < 1000; ++i) {
+			map.put(i * 17, i);
+		}
+		assertEquals(1000, map.size());
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals(Integer.valueOf(i), map.get(i * 17));
+		}
+		for (int i = 0; i < 1000; i += 2) {
+			assertEquals(Integer.valueOf(i), map.remove(i * 17));
+		}
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), map.get(i * 17));
+		}
+		assertEquals(500, map.size());
+	}
+
+	/**
+	 * Checks random operations against {@link HashMap}.
+	 */
+	@Test
+	public void testRandomOperations() {
+		Random random = new Random(7);
+		IntHashMap<Integer> map = new IntHashMap<Integer>(4);
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		for (int i = 0; i < 100000; ++i) {
+			int key = random.nextInt(256);
+			if (random.nextBoolean()) {
+				assertEquals(expected.put(key, i), map.put(key, i));
+			} else {
+				assertEquals(expected.remove(key), map.remove(key));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		for (int key = 0; key < 256; ++key) {
+			assertEquals(expected.get(key), map.get(key));
+		}
+	}
+}
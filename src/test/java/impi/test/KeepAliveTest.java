@@ -0,0 +1,104 @@
+/*
+ * KeepAliveTest.java
+ * Created on 2011-09-27
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.coding.commands.IpmiCommandCoder;
+import ipmi.coding.commands.IpmiVersion;
+import ipmi.coding.commands.PrivilegeLevel;
+import ipmi.coding.commands.chassis.GetChassisStatus;
+import ipmi.coding.commands.session.GetChannelAuthenticationCapabilities;
+import ipmi.coding.protocol.AuthenticationType;
+import ipmi.coding.security.CipherSuite;
+import ipmi.common.TypeConverter;
+import ipmi.connection.Connection;
+import ipmi.connection.queue.CongestionWindow;
+import ipmi.connection.queue.MessageQueue;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests handling of the keep-alive messages by the {@link MessageQueue}. No
+ * BMC is needed.
+ */
+public class KeepAliveTest extends TestCase {
+
+	private static final int TIMEOUT = 5000;
+
+	private MessageQueue queue;
+
+	private IpmiCommandCoder keepAlive;
+
+	private IpmiCommandCoder request;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		queue = new MessageQueue(new Connection(new DiscardingMessenger(), 0),
+				TIMEOUT);
+		keepAlive = new GetChannelAuthenticationCapabilities(IpmiVersion.V20,
+				IpmiVersion.V20, CipherSuite.getEmpty(),
+				PrivilegeLevel.Callback, TypeConverter.intToByte(0xe));
+		request = new GetChassisStatus(IpmiVersion.V20,
+				CipherSuite.getEmpty(), AuthenticationType.RMCPPlus);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		queue.tearDown();
+	}
+
+	/**
+	 * Checks that the keep-alive is not queued when other messages are
+	 * waiting for the responses.
+	 */
+	@Test
+	public void testSkippedWhenBusy() {
+		assertTrue(queue.add(request) > 0);
+		assertEquals(-1, queue.addKeepAlive(keepAlive));
+	}
+
+	/**
+	 * Checks that the keep-alive does not take the slot of the congestion
+	 * window.
+	 */
+	@Test
+	public void testOutsideWindow() {
+		assertTrue(queue.addKeepAlive(keepAlive) > 0);
+		int window = queue.getCongestionWindow().getSize();
+		for (int i = 0; i < window; ++i) {
+			assertTrue(queue.add(request) > 0);
+		}
+		assertEquals(-1, queue.add(request));
+	}
+
+	/**
+	 * Checks that the response to the keep-alive does not change the
+	 * congestion window.
+	 */
+	@Test
+	public void testResponseNotCounted() {
+		CongestionWindow window = queue.getCongestionWindow();
+		int tag = queue.addKeepAlive(keepAlive) % 64;
+		queue.remove(tag);
+		assertEquals(0, window.getAnsweredCount());
+
+		tag = queue.add(request) % 64;
+		queue.remove(tag);
+		assertEquals(1, window.getAnsweredCount());
+
+		// slot of the answered keep-alive is a regular one again
+		assertTrue(queue.addKeepAlive(keepAlive) > 0);
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * MessageDispatcherTest.java
+ * Created on 2011-10-08
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.coding.security.CipherSuite;
+import ipmi.sm.MessageDispatcher;
+import ipmi.sm.StateMachine;
+import ipmi.sm.states.SessionValid;
+import ipmi.sm.states.Uninitialized;
+import ipmi.transport.UdpMessage;
+
+import java.net.InetAddress;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests routing of the received datagrams by the {@link MessageDispatcher}.
+ */
+public class MessageDispatcherTest extends TestCase {
+
+	private static final int SESSION_ID = 0x01020304;
+
+	/**
+	 * {@link StateMachine} counting the delivered messages.
+	 */
+	private static class CountingStateMachine extends StateMachine {
+
+		private int received;
+
+		public CountingStateMachine(MessageDispatcher dispatcher) {
+			super(null, dispatcher);
+		}
+
+		@Override
+		public void notifyMessage(UdpMessage message) {
+			++received;
+		}
+
+		public int getReceived() {
+			return received;
+		}
+	}
+
+	/**
+	 * Creates RMCP packet with IPMI v2.0 session header.
+	 */
+	private static UdpMessage createMessage(InetAddress address, int sessionId) {
+		byte[] packet = new byte[4 + 12];
+		packet[0] = 0x06;
+		packet[2] = (byte) 0xff;
+		packet[3] = 0x07;
+		packet[4] = 0x06;
+		for (int i = 0; i < 4; ++i) {
+			packet[6 + i] = (byte) (sessionId >>> 8 * i);
+		}
+		UdpMessage message = new UdpMessage();
+		message.setAddress(address);
+		message.setMessage(packet);
+		return message;
+	}
+
+	/**
+	 * Checks that the session is bound when the machine enters
+	 * {@link SessionValid} state and unbound when it leaves it or stops.
+	 */
+	@Test
+	public void testBindOnStateChange() throws Exception {
+		InetAddress address = InetAddress.getByName("127.0.0.1");
+		MessageDispatcher dispatcher = new MessageDispatcher();
+		CountingStateMachine machine = new CountingStateMachine(dispatcher);
+		machine.start(address);
+		assertEquals(0, dispatcher.getSessionCount());
+
+		machine.setCurrent(new SessionValid(CipherSuite.getEmpty(),
+				SESSION_ID));
+		assertEquals(1, dispatcher.getSessionCount());
+		dispatcher.notifyMessage(createMessage(address, SESSION_ID));
+		assertEquals(1, machine.getReceived());
+
+		machine.setCurrent(new Uninitialized());
+		assertEquals(0, dispatcher.getSessionCount());
+		dispatcher.notifyMessage(createMessage(address, SESSION_ID));
+		assertEquals(1, machine.getReceived());
+		assertEquals(1, dispatcher.getDroppedPackets());
+
+		machine.setCurrent(new SessionValid(CipherSuite.getEmpty(),
+				SESSION_ID));
+		assertEquals(1, dispatcher.getSessionCount());
+		machine.stop();
+		assertEquals(0, dispatcher.getSessionCount());
+		dispatcher.notifyMessage(createMessage(address, SESSION_ID));
+		dispatcher.notifyMessage(createMessage(address, 0));
+		assertEquals(1, machine.getReceived());
+		assertEquals(3, dispatcher.getDroppedPackets());
+	}
+
+	/**
+	 * Checks that the sessionless messages are delivered to all machines
+	 * connected to the sender and session messages only to the session
+	 * owner, dropping the rest.
+	 */
+	@Test
+	public void testRouting() throws Exception {
+		InetAddress address = InetAddress.getByName("127.0.0.1");
+		InetAddress other = InetAddress.getByName("127.0.0.2");
+		MessageDispatcher dispatcher = new MessageDispatcher();
+		CountingStateMachine first = new CountingStateMachine(dispatcher);
+		CountingStateMachine second = new CountingStateMachine(dispatcher);
+		first.start(address);
+		second.start(address);
+		first.setCurrent(new SessionValid(CipherSuite.getEmpty(), SESSION_ID));
+
+		dispatcher.notifyMessage(createMessage(address, 0));
+		assertEquals(1, first.getReceived());
+		assertEquals(1, second.getReceived());
+
+		dispatcher.notifyMessage(createMessage(address, SESSION_ID));
+		assertEquals(2, first.getReceived());
+		assertEquals(1, second.getReceived());
+
+		// session of other machine and messages from unknown sender
+		dispatcher.notifyMessage(createMessage(address, SESSION_ID + 1));
+		dispatcher.notifyMessage(createMessage(other, SESSION_ID));
+		dispatcher.notifyMessage(createMessage(other, 0));
+		assertEquals(2, first.getReceived());
+		assertEquals(1, second.getReceived());
+		assertEquals(3, dispatcher.getDroppedPackets());
+
+		second.stop();
+		dispatcher.notifyMessage(createMessage(address, 0));
+		assertEquals(3, first.getReceived());
+		assertEquals(1, second.getReceived());
+		assertEquals(3, dispatcher.getDroppedPackets());
+	}
+}
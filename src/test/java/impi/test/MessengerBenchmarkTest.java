@@ -0,0 +1,333 @@
+/*
+ * MessengerBenchmarkTest.java
+ * Created on 2011-09-12
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.transport.Messenger;
+import ipmi.transport.NioUdpMessenger;
+import ipmi.transport.SendPacer;
+import ipmi.transport.ShardedMessenger;
+import ipmi.transport.UdpListener;
+import ipmi.transport.UdpMessage;
+import ipmi.transport.UdpMessenger;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Measures packets/sec handled by the {@link Messenger} implementations over
+ * the loopback interface. No BMC is needed.
+ */
+public class MessengerBenchmarkTest extends TestCase {
+
+	private static Logger logger = Logger
+			.getLogger(MessengerBenchmarkTest.class);
+
+	private static final int PORT = 6670;
+
+	private static final int PACKETS = 100000;
+
+	private static final int WINDOW = 64;
+
+	private static final int PACKET_SIZE = 64;
+
+	private static final long LISTENER_COST = 20000;
+
+	/**
+	 * Measures receive rate of the {@link UdpMessenger}.
+	 */
+	@Test
+	public void testUdpMessengerReceive() throws Exception {
+		UdpMessenger messenger = new UdpMessenger(PORT);
+		try {
+			double rate = measureReceive(messenger, PORT, 0);
+			logger.info("UdpMessenger received " + (long) rate
+					+ " packets/sec");
+		} finally {
+			messenger.closeConnection();
+		}
+	}
+
+	/**
+	 * Measures receive rate of the {@link NioUdpMessenger}.
+	 */
+	@Test
+	public void testNioUdpMessengerReceive() throws Exception {
+		NioUdpMessenger messenger = new NioUdpMessenger(PORT + 1);
+		try {
+			double rate = measureReceive(messenger, PORT + 1, 0);
+			logger.info("NioUdpMessenger received " + (long) rate
+					+ " packets/sec");
+		} finally {
+			messenger.closeConnection();
+		}
+	}
+
+	/**
+	 * Measures receive rate of the {@link UdpMessenger} when handling of the
+	 * message takes {@link #LISTENER_COST} nanoseconds.
+	 */
+	@Test
+	public void testUdpMessengerSlowListener() throws Exception {
+		UdpMessenger messenger = new UdpMessenger(PORT + 2);
+		try {
+			double rate = measureReceive(messenger, PORT + 2, LISTENER_COST);
+			logger.info("UdpMessenger with slow listener received "
+					+ (long) rate + " packets/sec");
+		} finally {
+			messenger.closeConnection();
+		}
+	}
+
+	/**
+	 * Measures receive rate of the {@link NioUdpMessenger} dispatching to the
+	 * thread pool when handling of the message takes {@link #LISTENER_COST}
+	 * nanoseconds.
+	 */
+	@Test
+	public void testNioUdpMessengerSlowListener() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime
+				.getRuntime().availableProcessors());
+		NioUdpMessenger messenger = new NioUdpMessenger(PORT + 3,
+				InetAddress.getByName("0.0.0.0"), executor);
+		try {
+			double rate = measureReceive(messenger, PORT + 3, LISTENER_COST);
+			logger.info("NioUdpMessenger with slow listener received "
+					+ (long) rate + " packets/sec");
+		} finally {
+			messenger.closeConnection();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Measures send rate of the {@link UdpMessenger} with growing number of
+	 * sending threads.
+	 */
+	@Test
+	public void testUdpMessengerSendScaling() throws Exception {
+		UdpMessenger messenger = new UdpMessenger(PORT + 4);
+		DatagramSocket sink = new DatagramSocket(PORT + 5);
+		try {
+			for (int threads = 1; threads <= 8; threads *= 2) {
+				double rate = measureSend(messenger, PORT + 5, threads);
+				logger.info("UdpMessenger sent " + (long) rate
+						+ " packets/sec using " + threads + " threads");
+			}
+		} finally {
+			messenger.closeConnection();
+			sink.close();
+		}
+	}
+
+	/**
+	 * Measures send rate of the {@link NioUdpMessenger} with growing number
+	 * of sending threads.
+	 */
+	@Test
+	public void testNioUdpMessengerSendScaling() throws Exception {
+		NioUdpMessenger messenger = new NioUdpMessenger(PORT + 6);
+		DatagramSocket sink = new DatagramSocket(PORT + 7);
+		try {
+			for (int threads = 1; threads <= 8; threads *= 2) {
+				double rate = measureSend(messenger, PORT + 7, threads);
+				logger.info("NioUdpMessenger sent " + (long) rate
+						+ " packets/sec using " + threads + " threads");
+			}
+		} finally {
+			messenger.closeConnection();
+			sink.close();
+		}
+	}
+
+	/**
+	 * Checks that pacing of one destination does not slow down the others.
+	 */
+	@Test
+	public void testPacing() throws Exception {
+		UdpMessenger messenger = new UdpMessenger(PORT + 8);
+		DatagramSocket sink = new DatagramSocket(PORT + 9);
+		SendPacer pacer = new SendPacer();
+		InetAddress paced = InetAddress.getByName("127.0.0.1");
+		InetAddress free = InetAddress.getByName("127.0.0.2");
+		pacer.setInterval(paced, 1000000);
+		messenger.setPacer(pacer);
+		try {
+			UdpMessage message = new UdpMessage();
+			message.setPort(PORT + 9);
+			message.setMessage(new byte[PACKET_SIZE]);
+
+			message.setAddress(paced);
+			long start = System.nanoTime();
+			for (int i = 0; i < 100; ++i) {
+				messenger.send(message);
+			}
+			long pacedTime = System.nanoTime() - start;
+
+			message.setAddress(free);
+			start = System.nanoTime();
+			for (int i = 0; i < 100; ++i) {
+				messenger.send(message);
+			}
+			long freeTime = System.nanoTime() - start;
+
+			logger.info("100 paced packets sent in " + pacedTime / 1000000
+					+ " ms, 100 unpaced in " + freeTime / 1000000 + " ms");
+			assertTrue(pacedTime >= 99 * 1000000L);
+			assertTrue(freeTime < pacedTime);
+		} finally {
+			messenger.closeConnection();
+			sink.close();
+		}
+	}
+
+	/**
+	 * Measures receive rate of the {@link ShardedMessenger} with datagrams
+	 * spread evenly over its shards.
+	 */
+	@Test
+	public void testShardedMessengerReceive() throws Exception {
+		int shards = Runtime.getRuntime().availableProcessors();
+		ShardedMessenger messenger = new ShardedMessenger(PORT + 10, shards);
+		try {
+			final AtomicInteger received = new AtomicInteger(0);
+			messenger.register(new UdpListener() {
+				@Override
+				public void notifyMessage(UdpMessage message) {
+					received.incrementAndGet();
+				}
+			});
+
+			DatagramSocket socket = new DatagramSocket();
+			InetAddress loopback = InetAddress.getByName("127.0.0.1");
+			DatagramPacket[] packets = new DatagramPacket[shards];
+			for (int i = 0; i < shards; ++i) {
+				packets[i] = new DatagramPacket(new byte[PACKET_SIZE],
+						PACKET_SIZE, loopback, PORT + 10 + i);
+			}
+
+			long start = System.nanoTime();
+			for (int sent = 0; sent < PACKETS; ++sent) {
+				while (sent - received.get() >= WINDOW) {
+					Thread.yield();
+				}
+				socket.send(packets[sent % shards]);
+			}
+			long deadline = System.currentTimeMillis() + 5000;
+			while (received.get() < PACKETS
+					&& System.currentTimeMillis() < deadline) {
+				Thread.yield();
+			}
+			long elapsed = System.nanoTime() - start;
+			socket.close();
+
+			assertEquals(PACKETS, received.get());
+			logger.info("ShardedMessenger with " + shards
+					+ " shards received "
+					+ (long) (PACKETS * 1000000000.0 / elapsed)
+					+ " packets/sec");
+			assertEquals(messenger.getShardIndex(loopback),
+					messenger.getShardIndex(InetAddress
+							.getByName("127.0.0.1")));
+		} finally {
+			messenger.closeConnection();
+		}
+	}
+
+	/**
+	 * Sends {@link #PACKETS} datagrams through the messenger from the given
+	 * number of threads and returns the number of packets sent per second.
+	 */
+	private double measureSend(final Messenger messenger, int port,
+			int threads) throws Exception {
+		final UdpMessage message = new UdpMessage();
+		message.setAddress(InetAddress.getByName("127.0.0.1"));
+		message.setPort(port);
+		message.setMessage(new byte[PACKET_SIZE]);
+
+		final int perThread = PACKETS / threads;
+		Thread[] senders = new Thread[threads];
+		long start = System.nanoTime();
+		for (int i = 0; i < threads; ++i) {
+			senders[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < perThread; ++j) {
+							messenger.send(message);
+						}
+					} catch (Exception e) {
+						logger.error(e.getMessage(), e);
+					}
+				}
+			};
+			senders[i].start();
+		}
+		for (Thread sender : senders) {
+			sender.join();
+		}
+		long elapsed = System.nanoTime() - start;
+		return perThread * threads * 1000000000.0 / elapsed;
+	}
+
+	/**
+	 * Sends datagrams to the messenger keeping at most {@link #WINDOW} of them
+	 * undelivered (so the socket buffer does not overflow) and returns the
+	 * number of packets delivered to the listener per second.
+	 */
+	private double measureReceive(Messenger messenger, int port,
+			final long listenerCost) throws Exception {
+		final AtomicInteger received = new AtomicInteger(0);
+		messenger.register(new UdpListener() {
+			@Override
+			public void notifyMessage(UdpMessage message) {
+				long end = System.nanoTime() + listenerCost;
+				while (System.nanoTime() < end) {
+					// simulates decoding of the message
+				}
+				received.incrementAndGet();
+			}
+		});
+
+		DatagramSocket socket = new DatagramSocket();
+		DatagramPacket packet = new DatagramPacket(new byte[PACKET_SIZE],
+				PACKET_SIZE, InetAddress.getByName("127.0.0.1"), port);
+
+		long start = System.nanoTime();
+		for (int sent = 0; sent < PACKETS; ++sent) {
+			while (sent - received.get() >= WINDOW) {
+				Thread.yield();
+			}
+			socket.send(packet);
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (received.get() < PACKETS
+				&& System.currentTimeMillis() < deadline) {
+			Thread.yield();
+		}
+		long elapsed = System.nanoTime() - start;
+		socket.close();
+
+		logger.info("Delivered " + received.get() + " of " + PACKETS
+				+ " packets");
+		assertEquals(PACKETS, received.get());
+		return received.get() * 1000000000.0 / elapsed;
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * NioUdpMessengerTest.java
+ * Created on 2011-10-08
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.transport.NioUdpMessenger;
+import ipmi.transport.UdpListener;
+import ipmi.transport.UdpMessage;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests receiving of the datagrams by the {@link NioUdpMessenger}.
+ */
+public class NioUdpMessengerTest extends TestCase {
+
+	private static final int PORT = 6690;
+
+	private static final int PACKETS = 2000;
+
+	/**
+	 * Checks that datagrams from the same address dispatched via the thread
+	 * pool are handled one at a time and in order.
+	 */
+	@Test
+	public void testDispatchSerializedPerAddress() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		NioUdpMessenger messenger = new NioUdpMessenger(PORT,
+				InetAddress.getByName("0.0.0.0"), executor);
+		DatagramSocket socket = new DatagramSocket();
+		try {
+			final CountDownLatch received = new CountDownLatch(PACKETS);
+			final AtomicInteger active = new AtomicInteger();
+			final AtomicInteger overlaps = new AtomicInteger();
+			final List<Integer> order = Collections
+					.synchronizedList(new ArrayList<Integer>());
+			messenger.register(new UdpListener() {
+				@Override
+				public void notifyMessage(UdpMessage message) {
+					if (active.incrementAndGet() > 1) {
+						overlaps.incrementAndGet();
+					}
+					byte[] data = message.getMessage();
+					order.add((data[0] & 0xff) << 8 | data[1] & 0xff);
+					Thread.yield();
+					active.decrementAndGet();
+					received.countDown();
+				}
+			});
+
+			InetAddress loopback = InetAddress.getByName("127.0.0.1");
+			for (int i = 0; i < PACKETS; ++i) {
+				byte[] data = new byte[] { (byte) (i >> 8), (byte) i };
+				socket.send(new DatagramPacket(data, data.length, loopback,
+						PORT));
+				if (i % 100 == 0) {
+					Thread.sleep(1); // do not overflow the socket buffer
+				}
+			}
+
+			received.await(10, TimeUnit.SECONDS);
+			assertEquals(0, overlaps.get());
+			for (int i = 1; i < order.size(); ++i) {
+				assertTrue(order.get(i - 1) < order.get(i));
+			}
+		} finally {
+			socket.close();
+			messenger.closeConnection();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Checks that datagrams larger than the send buffers are not truncated.
+	 */
+	@Test
+	public void testLargeDatagram() throws Exception {
+		NioUdpMessenger messenger = new NioUdpMessenger(PORT + 1);
+		DatagramSocket socket = new DatagramSocket();
+		try {
+			final CountDownLatch received = new CountDownLatch(1);
+			final AtomicInteger length = new AtomicInteger();
+			messenger.register(new UdpListener() {
+				@Override
+				public void notifyMessage(UdpMessage message) {
+					length.set(message.getMessage().length);
+					received.countDown();
+				}
+			});
+			byte[] data = new byte[4000];
+			socket.send(new DatagramPacket(data, data.length, InetAddress
+					.getByName("127.0.0.1"), PORT + 1));
+			assertTrue(received.await(5, TimeUnit.SECONDS));
+			assertEquals(data.length, length.get());
+		} finally {
+			socket.close();
+			messenger.closeConnection();
+		}
+	}
+
+	/**
+	 * Checks that only the datagrams actually sent are counted as sent and
+	 * the ones that did not fit into the socket send buffer are reported.
+	 */
+	@Test
+	public void testSendCountsOnlySent() throws Exception {
+		NioUdpMessenger messenger = new NioUdpMessenger(PORT + 2);
+		try {
+			UdpMessage message = new UdpMessage();
+			message.setAddress(InetAddress.getByName("127.0.0.1"));
+			message.setPort(PORT + 3);
+			message.setMessage(new byte[60000]);
+			int failed = 0;
+			for (int i = 0; i < PACKETS; ++i) {
+				try {
+					messenger.send(message);
+				} catch (IOException e) {
+					++failed;
+				}
+			}
+			assertEquals(failed, messenger.getDroppedPackets());
+			assertEquals(PACKETS - failed, messenger.getSentPackets());
+		} finally {
+			messenger.closeConnection();
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * PendingQueueTest.java
+ * Created on 2011-09-29
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.coding.commands.IpmiVersion;
+import ipmi.coding.commands.chassis.GetChassisStatus;
+import ipmi.coding.protocol.AuthenticationType;
+import ipmi.coding.security.CipherSuite;
+import ipmi.connection.Connection;
+import ipmi.connection.ConnectionException;
+import ipmi.connection.ResponseFuture;
+import ipmi.connection.queue.MessageQueue;
+import ipmi.connection.queue.QueuedRequest;
+import ipmi.sm.StateMachine;
+import ipmi.sm.states.SessionValid;
+
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.util.concurrent.ExecutionException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests the queue of the requests waiting for a free slot in the
+ * {@link Connection}. No BMC is needed - the session is simulated on a
+ * messenger that discards all messages, so the requests are freed by
+ * timeouts.
+ */
+public class PendingQueueTest extends TestCase {
+
+	private static final int TIMEOUT = 100;
+
+	private static final int MAX_PENDING = 4;
+
+	private Connection connection;
+
+	private GetChassisStatus request;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		connection = new Connection(new DiscardingMessenger(), 0);
+		connection.connect(InetAddress.getLocalHost(), 60000);
+		connection.setTimeout(TIMEOUT);
+		connection.setMaxPending(MAX_PENDING);
+
+		Field field = Connection.class.getDeclaredField("stateMachine");
+		field.setAccessible(true);
+		((StateMachine) field.get(connection)).setCurrent(new SessionValid(
+				CipherSuite.getEmpty(), 1));
+
+		request = new GetChassisStatus(IpmiVersion.V20,
+				CipherSuite.getEmpty(), AuthenticationType.RMCPPlus);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		connection.disconnect();
+	}
+
+	/**
+	 * Checks that the requests above the window wait in the FIFO, the FIFO is
+	 * bounded and the pending requests are sent when the slots are freed.
+	 */
+	@Test
+	public void testPendingSentWhenSlotsFree() throws Exception {
+		int window = connection.getWindowSize();
+		assertEquals(window + MAX_PENDING, connection.getAvailableCapacity());
+
+		ResponseFuture[] sent = new ResponseFuture[window];
+		for (int i = 0; i < window; ++i) {
+			sent[i] = connection.enqueueIpmiCommand(request);
+			assertTrue(sent[i].getTag() >= 0);
+		}
+		ResponseFuture[] pending = new ResponseFuture[MAX_PENDING];
+		for (int i = 0; i < MAX_PENDING; ++i) {
+			pending[i] = connection.enqueueIpmiCommand(request);
+			assertEquals(-1, pending[i].getTag());
+		}
+		assertEquals(MAX_PENDING, connection.getPendingCount());
+		assertEquals(0, connection.getAvailableCapacity());
+		assertNull(connection.enqueueIpmiCommand(request));
+		// non-queuing submit does not overtake the pending requests
+		assertNull(connection.submitIpmiCommand(request));
+
+		long version = connection.getCapacityVersion();
+		connection.waitForCapacity(version, TIMEOUT * 20);
+		assertTrue(connection.getCapacityVersion() != version);
+
+		for (ResponseFuture future : sent) {
+			try {
+				future.get();
+				fail("Request should have timed out");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof ConnectionException);
+			}
+		}
+		assertEquals(0, connection.getPendingCount());
+		for (ResponseFuture future : pending) {
+			assertTrue(future.getTag() >= 0);
+		}
+	}
+
+	/**
+	 * Checks that the pending requests fail when the connection is closed.
+	 */
+	@Test
+	public void testPendingFailedOnDisconnect() throws Exception {
+		connection.setTimeout(60000);
+		int window = connection.getWindowSize();
+		for (int i = 0; i < window; ++i) {
+			connection.enqueueIpmiCommand(request);
+		}
+		ResponseFuture pending = connection.enqueueIpmiCommand(request);
+		assertFalse(pending.isDone());
+
+		connection.disconnect();
+		assertTrue(pending.isDone());
+		assertTrue(pending.getException() instanceof ConnectionException);
+	}
+
+	/**
+	 * Checks that the requests waiting for the response fail when the
+	 * connection is closed instead of blocking their callers forever.
+	 */
+	@Test
+	public void testInFlightFailedOnDisconnect() throws Exception {
+		connection.setTimeout(60000);
+		ResponseFuture inFlight = connection.enqueueIpmiCommand(request);
+		assertTrue(inFlight.getTag() >= 0);
+		assertFalse(inFlight.isDone());
+
+		connection.disconnect();
+		try {
+			inFlight.get();
+			fail("Request should have failed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ConnectionException);
+		}
+		assertEquals(connection.getWindowSize() + MAX_PENDING, connection
+				.getAvailableCapacity());
+	}
+
+	/**
+	 * Checks that the request answered by the response is removed from the
+	 * queue together with its future, so the duplicate response with the
+	 * same tag does not match anything.
+	 */
+	@Test
+	public void testTakeAnsweredRequest() throws Exception {
+		connection.setTimeout(60000);
+		ResponseFuture first = connection.enqueueIpmiCommand(request);
+		ResponseFuture second = connection.enqueueIpmiCommand(request);
+
+		Field field = Connection.class.getDeclaredField("messageQueue");
+		field.setAccessible(true);
+		MessageQueue queue = (MessageQueue) field.get(connection);
+
+		QueuedRequest taken = new QueuedRequest();
+		assertTrue(queue.take(first.getTag(), false, taken));
+		assertSame(request, taken.getRequest());
+		assertSame(first, taken.getFuture());
+		assertFalse(queue.take(first.getTag(), false, taken));
+		assertNull(queue.getFuture(first.getTag()));
+		assertSame(second, queue.getFuture(second.getTag()));
+	}
+}
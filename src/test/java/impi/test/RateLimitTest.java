@@ -0,0 +1,141 @@
+/*
+ * RateLimitTest.java
+ * Created on 2011-09-30
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.coding.commands.IpmiVersion;
+import ipmi.coding.commands.chassis.GetChassisStatus;
+import ipmi.coding.protocol.AuthenticationType;
+import ipmi.coding.security.CipherSuite;
+import ipmi.connection.Connection;
+import ipmi.connection.ResponseFuture;
+import ipmi.connection.queue.TokenBucket;
+import ipmi.sm.StateMachine;
+import ipmi.sm.states.SessionValid;
+
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests limiting the rate of the requests with the {@link TokenBucket}. No BMC
+ * is needed - the session is simulated on a messenger that discards all
+ * messages.
+ */
+public class RateLimitTest extends TestCase {
+
+	private static final int RATE = 20;
+
+	private static final int BURST = 2;
+
+	private Connection connection;
+
+	private GetChassisStatus request;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		connection = new Connection(new DiscardingMessenger(), 0);
+		connection.connect(InetAddress.getLocalHost(), 60000);
+		connection.setTimeout(60000);
+
+		Field field = Connection.class.getDeclaredField("stateMachine");
+		field.setAccessible(true);
+		((StateMachine) field.get(connection)).setCurrent(new SessionValid(
+				CipherSuite.getEmpty(), 1));
+
+		request = new GetChassisStatus(IpmiVersion.V20,
+				CipherSuite.getEmpty(), AuthenticationType.RMCPPlus);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		connection.disconnect();
+	}
+
+	/**
+	 * Checks that the bucket grants the burst at once and then tokens at the
+	 * configured rate.
+	 */
+	@Test
+	public void testBucket() throws Exception {
+		TokenBucket bucket = new TokenBucket(RATE, BURST);
+		assertEquals(0, bucket.tryAcquire());
+		assertEquals(0, bucket.tryAcquire());
+		long delay = bucket.tryAcquire();
+		assertTrue(delay > 0 && delay <= 1000000000L / RATE);
+		assertEquals(1, bucket.getDeniedCount());
+
+		bucket.release();
+		assertEquals(0, bucket.tryAcquire());
+		assertEquals(2, bucket.getGrantedCount());
+
+		bucket.setRate(0, 1);
+		for (int i = 0; i < 100; ++i) {
+			assertEquals(0, bucket.tryAcquire());
+		}
+	}
+
+	/**
+	 * Checks that the requests above the limit wait in the queue of pending
+	 * requests and are sent when the tokens come.
+	 */
+	@Test
+	public void testPendingSentAtRate() throws Exception {
+		connection.getRateLimiter().setRate(RATE, BURST);
+		ResponseFuture[] futures = new ResponseFuture[BURST + 3];
+		for (int i = 0; i < futures.length; ++i) {
+			futures[i] = connection.enqueueIpmiCommand(request);
+		}
+		for (int i = 0; i < futures.length; ++i) {
+			assertEquals(i < BURST, futures[i].getTag() >= 0);
+		}
+		assertEquals(3, connection.getPendingCount());
+		assertEquals(BURST, connection.getRequestsSent());
+		assertEquals(1, connection.getRequestsThrottled());
+
+		// non-queuing submit does not overtake the pending requests
+		assertNull(connection.submitIpmiCommand(request));
+
+		long deadline = System.currentTimeMillis() + 3000 / RATE * 20;
+		while (connection.getPendingCount() > 0
+				&& System.currentTimeMillis() < deadline) {
+			long version = connection.getCapacityVersion();
+			connection.waitForCapacity(version, 100);
+		}
+		assertEquals(0, connection.getPendingCount());
+		for (ResponseFuture future : futures) {
+			assertTrue(future.getTag() >= 0);
+		}
+		assertEquals(futures.length, connection.getRequestsSent());
+	}
+
+	/**
+	 * Checks that the shared limit applies on top of the limit of the
+	 * connection.
+	 */
+	@Test
+	public void testSharedLimit() throws Exception {
+		TokenBucket shared = new TokenBucket(RATE, 1);
+		connection.setSharedRateLimiter(shared);
+		assertTrue(connection.sendIpmiCommand(request) >= 0);
+		assertEquals(-1, connection.sendIpmiCommand(request));
+		// token of the connection was given back
+		assertEquals(1, connection.getRateLimiter().getGrantedCount());
+
+		shared.setRate(0, 1);
+		assertTrue(connection.sendIpmiCommand(request) >= 0);
+	}
+}
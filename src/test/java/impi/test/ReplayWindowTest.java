@@ -0,0 +1,93 @@
+/*
+ * ReplayWindowTest.java
+ * Created on 2011-09-28
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.sm.ReplayWindow;
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link ReplayWindow}.
+ */
+public class ReplayWindowTest extends TestCase {
+
+	private ReplayWindow window;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		window = new ReplayWindow();
+	}
+
+	private boolean receive(int sequenceNumber) {
+		return window.check(sequenceNumber) && window.commit(sequenceNumber);
+	}
+
+	/**
+	 * Checks that messages received in order are accepted once.
+	 */
+	@Test
+	public void testDuplicates() {
+		for (int i = 1; i <= 100; ++i) {
+			assertTrue(receive(i));
+			assertFalse(receive(i));
+		}
+		assertEquals(100, window.getAcceptedCount());
+		assertEquals(100, window.getDuplicateCount());
+		assertEquals(0, window.getOutOfWindowCount());
+	}
+
+	/**
+	 * Checks that messages received out of order within the window are
+	 * accepted once.
+	 */
+	@Test
+	public void testReordering() {
+		assertTrue(receive(10));
+		assertTrue(receive(5));
+		assertTrue(receive(1));
+		assertFalse(receive(5));
+		assertTrue(receive(25));
+		// 16 below the highest one is still within the window
+		assertTrue(receive(9));
+		assertFalse(receive(10));
+		assertEquals(2, window.getDuplicateCount());
+	}
+
+	/**
+	 * Checks that messages outside the window are rejected.
+	 */
+	@Test
+	public void testOutOfWindow() {
+		assertFalse(receive(16));
+		assertTrue(receive(15));
+		assertTrue(receive(30));
+		assertFalse(receive(46));
+		assertFalse(receive(13));
+		assertTrue(receive(14));
+		assertEquals(3, window.getOutOfWindowCount());
+	}
+
+	/**
+	 * Checks that the message that was checked but not committed (e.g.
+	 * because the decoding failed) can be received again.
+	 */
+	@Test
+	public void testCheckWithoutCommit() {
+		assertTrue(window.check(1));
+		assertTrue(window.check(1));
+		assertTrue(receive(1));
+		assertFalse(window.commit(1));
+		assertEquals(1, window.getAcceptedCount());
+	}
+}
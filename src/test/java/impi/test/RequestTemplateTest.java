@@ -0,0 +1,205 @@
+/*
+ * RequestTemplateTest.java
+ * Created on 2011-10-07
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.coding.Encoder;
+import ipmi.coding.commands.IpmiCommandCoder;
+import ipmi.coding.commands.IpmiVersion;
+import ipmi.coding.commands.RequestTemplate;
+import ipmi.coding.commands.chassis.GetChassisStatus;
+import ipmi.coding.commands.sdr.GetSdr;
+import ipmi.coding.commands.sdr.GetSensorReading;
+import ipmi.coding.commands.sel.GetSelInfo;
+import ipmi.coding.protocol.AuthenticationType;
+import ipmi.coding.protocol.encoder.Protocolv20Encoder;
+import ipmi.coding.rmcp.RmcpEncoder;
+import ipmi.coding.rmcp.RmcpIpmiMessage;
+import ipmi.coding.security.CipherSuite;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests encoding of the repeated requests via {@link RequestTemplate}s.
+ */
+public class RequestTemplateTest extends TestCase {
+
+	private static final int SESSION_ID = 0x01020304;
+
+	private static final int WARMUP = 20000;
+
+	private static final int ITERATIONS = 1000;
+
+	private static final int[] SEQUENCE_NUMBERS = new int[] { 1, 2, 63, 64,
+			65, 255, 256, 0x12345678, Integer.MAX_VALUE };
+
+	private static CipherSuite createCipherSuite(int id, int confidentiality,
+			int integrity) throws Exception {
+		CipherSuite cipherSuite = new CipherSuite((byte) id, (byte) 1,
+				(byte) confidentiality, (byte) integrity);
+		byte[] sik = new byte[20];
+		for (int i = 0; i < sik.length; ++i) {
+			sik[i] = (byte) i;
+		}
+		cipherSuite.initializeAlgorithms(sik);
+		return cipherSuite;
+	}
+
+	private static IpmiCommandCoder[] createCommands(CipherSuite cipherSuite) {
+		return new IpmiCommandCoder[] {
+				new GetChassisStatus(IpmiVersion.V20, cipherSuite,
+						AuthenticationType.RMCPPlus),
+				new GetSensorReading(IpmiVersion.V20, cipherSuite,
+						AuthenticationType.RMCPPlus, 0x35),
+				new GetSelInfo(IpmiVersion.V20, cipherSuite,
+						AuthenticationType.RMCPPlus) };
+	}
+
+	/**
+	 * Encodes the message without the template.
+	 */
+	private static byte[] encodeTwice(IpmiCommandCoder coder,
+			int sequenceNumber) throws Exception {
+		return RmcpEncoder.encode(new RmcpIpmiMessage(new Protocolv20Encoder()
+				.encode(coder.encodeCommand(sequenceNumber, SESSION_ID))));
+	}
+
+	private static byte[] encode(RequestTemplate template, int sequenceNumber)
+			throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(512);
+		template.encode(buffer, sequenceNumber, SESSION_ID);
+		assertEquals(template.getLength(), buffer.position());
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	/**
+	 * Checks that the requests without encryption are encoded from the
+	 * template exactly like without it for all sequence numbers.
+	 */
+	@Test
+	public void testSameAsEncoded() throws Exception {
+		CipherSuite[] cipherSuites = new CipherSuite[] {
+				CipherSuite.getEmpty(), createCipherSuite(1, 0, 0),
+				createCipherSuite(2, 0, 1) };
+		for (CipherSuite cipherSuite : cipherSuites) {
+			for (IpmiCommandCoder coder : createCommands(cipherSuite)) {
+				RequestTemplate template = coder.getRequestTemplate();
+				assertNotNull(template);
+				assertSame(template, coder.getRequestTemplate());
+				for (int sequenceNumber : SEQUENCE_NUMBERS) {
+					byte[] expected = encodeTwice(coder, sequenceNumber);
+					assertTrue(Arrays.equals(expected, encode(template,
+							sequenceNumber)));
+					assertTrue(Arrays.equals(expected, Encoder.encode(
+							new Protocolv20Encoder(), coder, sequenceNumber,
+							SESSION_ID)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that the encrypted payload decrypts to the payload built for
+	 * the sequence number and that the AuthCode is correct.
+	 */
+	@Test
+	public void testEncrypted() throws Exception {
+		CipherSuite cipherSuite = createCipherSuite(3, 1, 1);
+		for (IpmiCommandCoder coder : createCommands(cipherSuite)) {
+			RequestTemplate template = coder.getRequestTemplate();
+			for (int sequenceNumber : SEQUENCE_NUMBERS) {
+				byte[] encoded = encode(template, sequenceNumber);
+				assertEquals(encodeTwice(coder, sequenceNumber).length,
+						encoded.length);
+
+				// RMCP header, session header up to the payload length
+				int payloadOffset = 4 + 12;
+				int payloadLength = (encoded[payloadOffset - 2] & 0xff)
+						| (encoded[payloadOffset - 1] & 0xff) << 8;
+				byte[] payload = Arrays.copyOfRange(encoded, payloadOffset,
+						payloadOffset + payloadLength);
+				assertTrue(Arrays.equals(coder.prepareMessage(sequenceNumber,
+						SESSION_ID).getPayload().getPayloadData(), cipherSuite
+						.getConfidentialityAlgorithm().decrypt(payload)));
+
+				assertTrue(cipherSuite.getIntegrityAlgorithm()
+						.validateAuthCode(encoded, 4, encoded.length - 12,
+								encoded.length));
+			}
+		}
+	}
+
+	/**
+	 * Checks that the template is rebuilt when the session parameters change
+	 * and that commands that might change are not sent via templates.
+	 */
+	@Test
+	public void testTemplateLifecycle() throws Exception {
+		GetSensorReading coder = new GetSensorReading(IpmiVersion.V20,
+				CipherSuite.getEmpty(), AuthenticationType.RMCPPlus, 0x35);
+		RequestTemplate template = coder.getRequestTemplate();
+		assertEquals(encodeTwice(coder, 1).length, template.getLength());
+
+		coder.setCipherSuite(createCipherSuite(2, 0, 1));
+		RequestTemplate authenticated = coder.getRequestTemplate();
+		assertNotSame(template, authenticated);
+		assertEquals(encodeTwice(coder, 1).length, authenticated.getLength());
+
+		assertNull(new GetSdr(IpmiVersion.V20, CipherSuite.getEmpty(),
+				AuthenticationType.RMCPPlus, 0, 0).getRequestTemplate());
+		assertNull(new GetChassisStatus(IpmiVersion.V15,
+				CipherSuite.getEmpty(), AuthenticationType.None)
+				.getRequestTemplate());
+	}
+
+	/**
+	 * Checks that once warm, encoding the request from the template into the
+	 * reused buffer creates no garbage.
+	 */
+	@Test
+	public void testNoGarbage() throws Exception {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+			return; // allocation cannot be measured on this JVM
+		}
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadBean;
+		long threadId = Thread.currentThread().getId();
+
+		GetSensorReading coder = new GetSensorReading(IpmiVersion.V20,
+				CipherSuite.getEmpty(), AuthenticationType.RMCPPlus, 0x35);
+		ByteBuffer buffer = ByteBuffer.allocate(512);
+		Protocolv20Encoder encoder = new Protocolv20Encoder();
+
+		encode(coder, encoder, buffer, WARMUP);
+		long before = allocations.getThreadAllocatedBytes(threadId);
+		encode(coder, encoder, buffer, ITERATIONS);
+		long allocated = allocations.getThreadAllocatedBytes(threadId)
+				- before;
+
+		assertEquals(0, allocated);
+	}
+
+	private static void encode(IpmiCommandCoder coder,
+			Protocolv20Encoder encoder, ByteBuffer buffer, int count)
+			throws Exception {
+		for (int i = 1; i <= count; ++i) {
+			buffer.clear();
+			Encoder.encode(buffer, encoder, coder, i, SESSION_ID);
+		}
+	}
+}
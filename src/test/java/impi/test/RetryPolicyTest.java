@@ -0,0 +1,183 @@
+/*
+ * RetryPolicyTest.java
+ * Created on 2011-10-04
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.api.async.ConnectionHandle;
+import ipmi.api.async.IpmiAsyncConnector;
+import ipmi.api.retry.BackoffRetryPolicy;
+import ipmi.coding.commands.IpmiVersion;
+import ipmi.coding.commands.chassis.GetChassisStatus;
+import ipmi.coding.payload.CompletionCode;
+import ipmi.coding.payload.lan.IPMIException;
+import ipmi.coding.protocol.AuthenticationType;
+import ipmi.coding.security.CipherSuite;
+import ipmi.connection.Connection;
+import ipmi.connection.ConnectionException;
+import ipmi.connection.ConnectionManager;
+import ipmi.connection.IllegalConnectionStateException;
+import ipmi.connection.ResponseFuture;
+import ipmi.connection.circuit.CircuitOpenException;
+import ipmi.sm.StateMachine;
+import ipmi.sm.states.SessionValid;
+
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.util.concurrent.ExecutionException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link BackoffRetryPolicy} and retrying of the requests by the
+ * {@link IpmiAsyncConnector}. No BMC is needed - the session is simulated and
+ * all requests time out.
+ */
+public class RetryPolicyTest extends TestCase {
+
+	private static final int PORT = 6672;
+
+	private static final int INITIAL_DELAY = 40;
+
+	/**
+	 * Checks that the delays grow exponentially within the jitter bounds and
+	 * are capped.
+	 */
+	@Test
+	public void testBackoff() {
+		BackoffRetryPolicy policy = new BackoffRetryPolicy(10, INITIAL_DELAY,
+				INITIAL_DELAY * 4, 0);
+		Exception timeout = new ConnectionException("Message timed out");
+		for (int attempt = 1; attempt <= 10; ++attempt) {
+			long bound = INITIAL_DELAY << Math.min(attempt - 1, 2);
+			long delay = policy.getRetryDelay(attempt, timeout, 0);
+			assertTrue(delay >= bound / 2 && delay <= bound);
+		}
+		assertEquals(-1, policy.getRetryDelay(11, timeout, 0));
+		assertEquals(10, policy.getRetryCount());
+		assertEquals(1, policy.getExhaustedCount());
+	}
+
+	/**
+	 * Checks that only the failures worth retrying are retried.
+	 */
+	@Test
+	public void testClassification() {
+		BackoffRetryPolicy policy = new BackoffRetryPolicy(3, INITIAL_DELAY);
+		assertTrue(policy.getRetryDelay(1, new IPMIException(
+				CompletionCode.NodeBusy), 0) >= 0);
+		assertEquals(-1, policy.getRetryDelay(1, new IPMIException(
+				CompletionCode.InvalidCommand), 0));
+		assertEquals(-1, policy.getRetryDelay(1, new CircuitOpenException(
+				"Open"), 0));
+		assertEquals(-1, policy.getRetryDelay(1,
+				new IllegalConnectionStateException("Uninitialized"), 0));
+
+		policy.setRetryable(CompletionCode.InvalidCommand, true);
+		policy.setRetryable(CompletionCode.NodeBusy, false);
+		assertTrue(policy.getRetryDelay(1, new IPMIException(
+				CompletionCode.InvalidCommand), 0) >= 0);
+		assertEquals(-1, policy.getRetryDelay(1, new IPMIException(
+				CompletionCode.NodeBusy), 0));
+		assertEquals(4, policy.getNonRetryableCount());
+	}
+
+	/**
+	 * Checks that the request is not retried after the deadline.
+	 */
+	@Test
+	public void testDeadline() {
+		BackoffRetryPolicy policy = new BackoffRetryPolicy(10, INITIAL_DELAY,
+				INITIAL_DELAY, 500);
+		Exception timeout = new ConnectionException("Message timed out");
+		assertTrue(policy.getRetryDelay(1, timeout, 400) >= 0);
+		assertEquals(-1, policy.getRetryDelay(2, timeout, 500));
+		assertEquals(1, policy.getDeadlineExceededCount());
+	}
+
+	/**
+	 * Checks that the connector retries the timed out request on the timer
+	 * and fails the future when the policy gives up.
+	 */
+	@Test
+	public void testSubmitRetried() throws Exception {
+		IpmiAsyncConnector connector = new IpmiAsyncConnector(PORT);
+		try {
+			ConnectionHandle handle = connector.createConnection(InetAddress
+					.getLocalHost());
+			Field field = IpmiAsyncConnector.class
+					.getDeclaredField("connectionManager");
+			field.setAccessible(true);
+			Connection connection = ((ConnectionManager) field
+					.get(connector)).getConnection(handle.getHandle());
+			field = Connection.class.getDeclaredField("stateMachine");
+			field.setAccessible(true);
+			((StateMachine) field.get(connection))
+					.setCurrent(new SessionValid(CipherSuite.getEmpty(), 1));
+			connection.setTimeout(50);
+
+			BackoffRetryPolicy policy = new BackoffRetryPolicy(2,
+					INITIAL_DELAY);
+			ResponseFuture future = connector.submit(handle,
+					new GetChassisStatus(IpmiVersion.V20, CipherSuite
+							.getEmpty(), AuthenticationType.RMCPPlus), policy);
+			assertFalse(future.isDone());
+			try {
+				future.get();
+				fail("Request should have timed out");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof ConnectionException);
+			}
+			assertEquals(2, policy.getRetryCount());
+			assertEquals(1, policy.getExhaustedCount());
+			assertEquals(3, connection.getRequestsSent());
+		} finally {
+			connector.tearDown();
+		}
+	}
+
+	/**
+	 * Checks that the blocking handshake step waits for the delay given by
+	 * the policy before it is attempted again.
+	 */
+	@Test
+	public void testBlockingStepDelayed() throws Exception {
+		IpmiAsyncConnector connector = new IpmiAsyncConnector(PORT);
+		try {
+			ConnectionHandle handle = connector.createConnection(InetAddress
+					.getLocalHost());
+			Field field = IpmiAsyncConnector.class
+					.getDeclaredField("connectionManager");
+			field.setAccessible(true);
+			((ConnectionManager) field.get(connector)).getConnection(
+					handle.getHandle()).setTimeout(20);
+
+			BackoffRetryPolicy policy = new BackoffRetryPolicy(2,
+					INITIAL_DELAY * 5, INITIAL_DELAY * 5, 0);
+			connector.setRetryPolicy(policy);
+			long start = System.nanoTime();
+			try {
+				connector.getAvailableCipherSuites(handle);
+				fail("Handshake step should have timed out");
+			} catch (ConnectionException e) {
+				// expected
+			}
+			long elapsed = (System.nanoTime() - start) / 1000000L;
+
+			// two retries, each delayed by at least half of the bound
+			assertEquals(2, policy.getRetryCount());
+			assertTrue(elapsed >= INITIAL_DELAY * 5);
+		} finally {
+			connector.tearDown();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * SessionHeaderTest.java
+ * Created on 2011-10-07
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.coding.protocol.decoder.SessionHeader;
+import ipmi.coding.rmcp.RmcpDecoder;
+import ipmi.coding.rmcp.RmcpMessage;
+import ipmi.coding.security.CipherSuite;
+import ipmi.sm.states.SessionValid;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests peeking at the session header of the received messages and dropping
+ * the messages that do not belong to the session.
+ */
+public class SessionHeaderTest extends TestCase {
+
+	private static final int SESSION_ID = 0x01020304;
+
+	private static final int WARMUP = 20000;
+
+	private static final int ITERATIONS = 1000;
+
+	/**
+	 * Creates RMCP packet with IPMI v2.0 session header and a dummy payload.
+	 */
+	private static byte[] createPacket(int authenticationType,
+			int payloadType, int sessionId, int sequenceNumber) {
+		boolean oem = (payloadType & 0x3f) == 2;
+		byte[] packet = new byte[4 + 12 + (oem ? 6 : 0) + 8];
+		packet[0] = 0x06;
+		packet[2] = (byte) 0xff;
+		packet[3] = 0x07;
+		packet[4] = (byte) authenticationType;
+		packet[5] = (byte) payloadType;
+		int offset = oem ? 12 : 6;
+		for (int i = 0; i < 4; ++i) {
+			packet[offset + i] = (byte) (sessionId >>> 8 * i);
+			packet[offset + 4 + i] = (byte) (sequenceNumber >>> 8 * i);
+		}
+		packet[offset + 8] = 8;
+		return packet;
+	}
+
+	private static RmcpMessage createMessage(int authenticationType,
+			int payloadType, int sessionId, int sequenceNumber) {
+		return RmcpDecoder.decode(createPacket(authenticationType,
+				payloadType, sessionId, sequenceNumber));
+	}
+
+	/**
+	 * Checks that the header fields are parsed, including the OEM payloads
+	 * and unknown payload types.
+	 */
+	@Test
+	public void testPeek() {
+		SessionHeader header = new SessionHeader();
+
+		assertTrue(header.peek(createMessage(0x06, 0xc0, SESSION_ID, 7)));
+		assertEquals(6, header.getAuthenticationType());
+		assertEquals(0, header.getPayloadType());
+		assertTrue(header.isPayloadEncrypted());
+		assertTrue(header.isPayloadAuthenticated());
+		assertEquals(SESSION_ID, header.getSessionId());
+		assertEquals(7, header.getSessionSequenceNumber());
+
+		assertTrue(header.peek(createMessage(0x06, 0x02, SESSION_ID, 8)));
+		assertEquals(2, header.getPayloadType());
+		assertFalse(header.isPayloadEncrypted());
+		assertFalse(header.isPayloadAuthenticated());
+		assertEquals(SESSION_ID, header.getSessionId());
+		assertEquals(8, header.getSessionSequenceNumber());
+
+		assertTrue(header.peek(createMessage(0x06, 0x3f, -1, -1)));
+		assertEquals(0x3f, header.getPayloadType());
+		assertEquals(-1, header.getSessionId());
+		assertEquals(-1, header.getSessionSequenceNumber());
+
+		assertFalse(header.peek(createMessage(0x00, 0x00, SESSION_ID, 1)));
+		assertEquals(0, header.getAuthenticationType());
+		assertEquals(0, header.getSessionId());
+
+		byte[] packet = createPacket(0x06, 0x00, SESSION_ID, 1);
+		assertFalse(header.peek(RmcpDecoder.decode(packet, 0, 4 + 8)));
+		assertFalse(header.peek(RmcpDecoder.decode(packet, 0, 4)));
+	}
+
+	/**
+	 * Checks that once warm, the messages that do not belong to the session
+	 * are dropped without creating any objects or throwing exceptions.
+	 */
+	@Test
+	public void testDropWithoutGarbage() {
+		SessionValid state = new SessionValid(CipherSuite.getEmpty(),
+				SESSION_ID);
+		RmcpMessage[] messages = new RmcpMessage[] {
+				createMessage(0x06, 0x00, SESSION_ID + 1, 1), // other session
+				createMessage(0x06, 0x00, 0, 1), // sessionless
+				createMessage(0x06, 0x01, SESSION_ID, 1), // SOL
+				createMessage(0x06, 0x3f, SESSION_ID, 1), // unknown payload
+				createMessage(0x03, 0x00, SESSION_ID, 1), // unknown auth type
+				createMessage(0x00, 0x00, SESSION_ID, 1), // IPMI v1.5
+		};
+
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		drop(state, messages, WARMUP);
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+			return; // allocation cannot be measured on this JVM
+		}
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadBean;
+		long threadId = Thread.currentThread().getId();
+
+		long before = allocations.getThreadAllocatedBytes(threadId);
+		drop(state, messages, ITERATIONS);
+		long allocated = allocations.getThreadAllocatedBytes(threadId)
+				- before;
+
+		assertEquals(0, allocated);
+	}
+
+	private static void drop(SessionValid state, RmcpMessage[] messages,
+			int count) {
+		for (int i = 0; i < count; ++i) {
+			for (RmcpMessage message : messages) {
+				// none of the messages reaches the state machine
+				state.doAction(null, message);
+			}
+		}
+	}
+}
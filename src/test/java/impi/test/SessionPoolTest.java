@@ -0,0 +1,125 @@
+/*
+ * SessionPoolTest.java
+ * Created on 2011-09-26
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.coding.commands.IpmiVersion;
+import ipmi.coding.commands.PrivilegeLevel;
+import ipmi.coding.commands.chassis.GetChassisStatus;
+import ipmi.coding.protocol.AuthenticationType;
+import ipmi.connection.ConnectionManager;
+import ipmi.connection.pool.PooledSession;
+import ipmi.connection.pool.SessionPool;
+
+import java.io.FileInputStream;
+import java.net.InetAddress;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link SessionPool}.
+ */
+public class SessionPoolTest extends TestCase {
+
+	private static final int PORT = 6666;
+
+	private static final byte CIPHER_SUITE = 3;
+
+	private static final int MAX_IDLE_TIME = 500;
+
+	private ConnectionManager manager;
+	private SessionPool pool;
+	private Properties properties;
+	private InetAddress address;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		properties = new Properties();
+		properties.load(new FileInputStream(
+				"src/test/resources/test.properties"));
+		address = InetAddress.getByName(properties.getProperty("testIp"));
+		manager = new ConnectionManager(PORT);
+		pool = new SessionPool(manager, MAX_IDLE_TIME, 2);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		pool.close();
+		manager.close();
+	}
+
+	private PooledSession lease() throws Exception {
+		return pool.lease(address, properties.getProperty("username"),
+				properties.getProperty("password"), null, PrivilegeLevel.User,
+				CIPHER_SUITE);
+	}
+
+	/**
+	 * Checks that the released session is reused without the handshake.
+	 */
+	@Test
+	public void testReuse() throws Exception {
+		PooledSession session = lease();
+		assertTrue(session.isValid());
+		session.getConnection().sendIpmiCommand(
+				new GetChassisStatus(IpmiVersion.V20,
+						session.getCipherSuite(), AuthenticationType.RMCPPlus));
+		pool.release(session);
+		assertEquals(1, pool.getIdleCount());
+
+		PooledSession reused = lease();
+		assertSame(session, reused);
+		assertEquals(1, pool.getCreatedCount());
+		assertEquals(1, pool.getReusedCount());
+		pool.release(reused);
+	}
+
+	/**
+	 * Checks that the idle session is closed after the idle time and a new
+	 * one is established on the next lease.
+	 */
+	@Test
+	public void testEviction() throws Exception {
+		PooledSession session = lease();
+		pool.release(session);
+		Thread.sleep(MAX_IDLE_TIME * 3);
+
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(1, pool.getEvictedCount());
+		assertFalse(session.isValid());
+
+		PooledSession replacement = lease();
+		assertNotSame(session, replacement);
+		assertEquals(2, pool.getCreatedCount());
+		pool.release(replacement);
+	}
+
+	/**
+	 * Checks that the session that is no longer valid is not given out again.
+	 */
+	@Test
+	public void testReplaceInvalid() throws Exception {
+		PooledSession session = lease();
+		pool.release(session);
+		session.getConnection().closeSession();
+
+		PooledSession replacement = lease();
+		assertNotSame(session, replacement);
+		assertTrue(replacement.isValid());
+		assertEquals(0, pool.getReusedCount());
+		pool.release(replacement);
+	}
+}
@@ -19,7 +19,7 @@ import ipmi.coding.security.CipherSuite;
 import ipmi.common.Randomizer;
 import ipmi.connection.Connection;
 import ipmi.connection.ConnectionException;
-import ipmi.connection.ConnectionManager;
+import ipmi.connection.TagPool;
 import ipmi.transport.UdpMessenger;
 
 import java.io.FileInputStream;
@@ -39,6 +39,12 @@ public class SessionRunner extends Thread {
 	private UdpMessenger messenger;
 	private Connection connection;
 	private CipherSuite cs;
+
+	/**
+	 * Sessionless tags shared by the runners, which all connect to the same
+	 * remote host.
+	 */
+	private static TagPool tags = new TagPool();
 	
 	private static Logger logger = Logger.getLogger(SessionRunner.class);
 
@@ -72,16 +78,20 @@ public class SessionRunner extends Thread {
 			}
 			logger.info("[SR " + getId() + "] intitializing");
 			try {
-				int tag = ConnectionManager.generateSessionlessTag();
-				Thread.sleep(Math.abs(Randomizer.getInt()) % 200);
-				cs = connection.getAvailableCipherSuites(tag).get(2);
-				Thread.sleep(Math.abs(Randomizer.getInt()) % 200);
-				connection.getChannelAuthenticationCapabilities(tag, cs,
-						PrivilegeLevel.User);
-				Thread.sleep(Math.abs(Randomizer.getInt()) % 200);
-				connection.startSession(tag, cs, PrivilegeLevel.User,
-						properties.getProperty("username"),
-						properties.getProperty("password"), null);
+				int tag = tags.acquire();
+				try {
+					Thread.sleep(Math.abs(Randomizer.getInt()) % 200);
+					cs = connection.getAvailableCipherSuites(tag).get(2);
+					Thread.sleep(Math.abs(Randomizer.getInt()) % 200);
+					connection.getChannelAuthenticationCapabilities(tag, cs,
+							PrivilegeLevel.User);
+					Thread.sleep(Math.abs(Randomizer.getInt()) % 200);
+					connection.startSession(tag, cs, PrivilegeLevel.User,
+							properties.getProperty("username"),
+							properties.getProperty("password"), null);
+				} finally {
+					tags.release(tag);
+				}
 				Thread.sleep(Math.abs(Randomizer.getInt()) % 200);
 				for (int j = 0; j < 200; ++j) {
 					connection.sendIpmiCommand(new ReserveSel(IpmiVersion.V20,
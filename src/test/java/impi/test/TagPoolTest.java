@@ -0,0 +1,193 @@
+/*
+ * TagPoolTest.java
+ * Created on 2011-09-22
+ *
+ * Copyright (c) Verax Systems 2011.
+ * All rights reserved.
+ *
+ * This software is furnished under a license. Use, duplication,
+ * disclosure and all other uses are restricted to the rights
+ * specified in the written license agreement.
+ */
+package impi.test;
+
+import ipmi.connection.ConnectionManager;
+import ipmi.connection.TagPool;
+
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link TagPool} and the sessionless tag generation in the
+ * {@link ConnectionManager}. No BMC is needed.
+ */
+public class TagPoolTest extends TestCase {
+
+	private static final int THREADS = 8;
+
+	private static final int ITERATIONS = 100000;
+
+	/**
+	 * Checks that all tags can be reserved and that the pool reports when it
+	 * is exhausted.
+	 */
+	@Test
+	public void testExhaustion() {
+		TagPool pool = new TagPool();
+		boolean[] used = new boolean[TagPool.SIZE];
+		for (int i = 0; i < TagPool.SIZE; ++i) {
+			int tag = pool.tryAcquire();
+			assertTrue(tag >= 0 && tag < TagPool.SIZE);
+			assertFalse(used[tag]);
+			used[tag] = true;
+		}
+		assertEquals(-1, pool.tryAcquire());
+		assertEquals(TagPool.SIZE, pool.getReservedCount());
+
+		pool.release(17);
+		assertEquals(17, pool.tryAcquire());
+	}
+
+	/**
+	 * Checks that no tag is held by two threads at the same time.
+	 */
+	@Test
+	public void testConcurrentAcquire() throws Exception {
+		final TagPool pool = new TagPool();
+		final AtomicIntegerArray holders = new AtomicIntegerArray(TagPool.SIZE);
+		final AtomicInteger conflicts = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(THREADS);
+
+		for (int i = 0; i < THREADS; ++i) {
+			new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < ITERATIONS; ++j) {
+						int tag = pool.acquire();
+						if (holders.incrementAndGet(tag) != 1) {
+							conflicts.incrementAndGet();
+						}
+						holders.decrementAndGet(tag);
+						pool.release(tag);
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		done.await();
+
+		assertEquals(0, conflicts.get());
+		assertEquals(0, pool.getReservedCount());
+	}
+
+	/**
+	 * Checks that the thread waiting for a tag gets the released one and that
+	 * releasing a free tag does not make the pool hand out more tags.
+	 */
+	@Test
+	public void testAcquireWokenByRelease() throws Exception {
+		final TagPool pool = new TagPool();
+		for (int i = 0; i < TagPool.SIZE; ++i) {
+			pool.acquire();
+		}
+		final AtomicInteger acquired = new AtomicInteger(-1);
+		final CountDownLatch done = new CountDownLatch(1);
+		new Thread() {
+			@Override
+			public void run() {
+				acquired.set(pool.acquire());
+				done.countDown();
+			}
+		}.start();
+		assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+
+		pool.release(5);
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+		assertEquals(5, acquired.get());
+
+		pool.release(7);
+		pool.release(7);
+		assertEquals(7, pool.tryAcquire());
+		assertEquals(-1, pool.tryAcquire());
+	}
+
+	/**
+	 * Checks that the tags for different remote hosts do not limit each
+	 * other.
+	 */
+	@Test
+	public void testTagsPerAddress() throws Exception {
+		ConnectionManager manager = new ConnectionManager(
+				new DiscardingMessenger());
+		try {
+			InetAddress first = InetAddress.getByAddress(new byte[] { 10, 0,
+					0, 1 });
+			InetAddress second = InetAddress.getByAddress(new byte[] { 10, 0,
+					0, 2 });
+			for (int i = 0; i < TagPool.SIZE; ++i) {
+				manager.generateSessionlessTag(first);
+			}
+			int tag = manager.generateSessionlessTag(second);
+			manager.freeTag(second, tag);
+			for (int i = 0; i < TagPool.SIZE; ++i) {
+				manager.freeTag(first, i);
+			}
+		} finally {
+			manager.close();
+		}
+	}
+
+	/**
+	 * Checks that the tags of the remote host are dropped with its last
+	 * connection.
+	 */
+	@Test
+	public void testTagPoolRemovedWithLastConnection() throws Exception {
+		ConnectionManager manager = new ConnectionManager(
+				new DiscardingMessenger());
+		try {
+			Field field = ConnectionManager.class.getDeclaredField("tagPools");
+			field.setAccessible(true);
+			Map<?, ?> tagPools = (Map<?, ?>) field.get(manager);
+
+			InetAddress address = InetAddress.getByAddress(new byte[] { 10, 0,
+					0, 3 });
+			int first = manager.createConnection(address);
+			int second = manager.createConnection(address);
+			manager.freeTag(address, manager.generateSessionlessTag(address));
+			assertEquals(1, tagPools.size());
+
+			manager.closeConnection(first);
+			manager.closeConnection(first);
+			assertEquals(1, tagPools.size());
+
+			manager.closeConnection(second);
+			assertEquals(0, tagPools.size());
+		} finally {
+			manager.close();
+		}
+	}
+
+	/**
+	 * Checks that the generated session IDs are unique.
+	 */
+	@Test
+	public void testSessionId() {
+		int previous = ConnectionManager.generateSessionId();
+		for (int i = 0; i < 1000; ++i) {
+			int id = ConnectionManager.generateSessionId();
+			assertTrue(id != 0);
+			assertTrue(id != previous);
+			previous = id;
+		}
+	}
+}